@@ -56,6 +56,14 @@ public class ArchiveSettings {
      */
     public static String ARCREPOSITORY_UPLOAD_RETRIES = "settings.archive.arcrepository.uploadRetries";
 
+    /**
+     * <b>settings.archive.arcrepository.fileLocationCacheSize</b>: <br>
+     * The maximum number of filenames for which the ArcRepository remembers which bitarchive machine holds the file.
+     * Get requests for a remembered file are sent directly to that machine instead of to all bitarchive machines in
+     * the replica. The least recently used entries are forgotten first. A value of 0 disables the directory.
+     */
+    public static String ARCREPOSITORY_FILE_LOCATION_CACHE_SIZE = "settings.archive.arcrepository.fileLocationCacheSize";
+
     /**
      * <b>settings.archive.bitarchive.minSpaceLeft</b>: <br>
      * The minimum amount of bytes left *in any dir* that we will allow a bitarchive machine to accept uploads with.
@@ -282,6 +290,21 @@ public class ArchiveSettings {
      */
     public static String CHECKSUM_MIN_SPACE_LEFT = "settings.archive.checksum.minSpaceLeft";
 
+    /**
+     * <b>settings.archive.bitarchive.fileIndexReconcileInterval</b>: <br>
+     * The interval in milliseconds between checks of the bitarchive directories for files added or removed outside
+     * the bitarchive application. Lookups of stored files use an in-memory index, which is corrected by these checks.
+     * 0 disables the background checks, so the directories are only checked when a lookup fails.
+     */
+    public static String BITARCHIVE_FILE_INDEX_RECONCILE_INTERVAL = "settings.archive.bitarchive.fileIndexReconcileInterval";
+
+    /**
+     * <b>settings.archive.bitarchive.persistFileIndex</b>: <br>
+     * If true, the list of files in each bitarchive directory is saved in the directory, and reused at startup if the
+     * directory has not been changed since. This avoids listing all files in all directories at startup.
+     */
+    public static String BITARCHIVE_PERSIST_FILE_INDEX = "settings.archive.bitarchive.persistFileIndex";
+
     /**
      * <b>settings.archive.checksum.class</b> This decides how to store the checksums, in file, og BDB database. By
      * default, it is stored in a file
@@ -293,4 +316,26 @@ public class ArchiveSettings {
      * to set a timelimit to the batchjob for the GetChecksumMessage.
      */
     public static String SINGLE_CHECKSUM_TIMEOUT = "settings.archive.bitarchive.singleChecksumTimeout";
+
+    /**
+     * <b>settings.archive.bitarchive.directChecksumTimeout</b>: <br>
+     * The time in milliseconds the bitarchive monitor waits for a bitarchive to answer a single-file checksum request
+     * from its checksum cache. If no bitarchive answers in time, a batchjob is used instead. A value of 0 disables the
+     * direct requests, so a batchjob is always used.
+     */
+    public static String BITARCHIVE_DIRECT_CHECKSUM_TIMEOUT = "settings.archive.bitarchive.directChecksumTimeout";
+
+    /**
+     * <b>settings.archive.bitarchive.readerPoolSize</b>: <br>
+     * The maximum number of archive readers the bitarchive keeps open for get requests. Readers are reused for later
+     * requests for records in the same file, so hot files are not reopened for every record. A value of 0 disables the
+     * pool, so every get request opens and closes its own reader.
+     */
+    public static String BITARCHIVE_READER_POOL_SIZE = "settings.archive.bitarchive.readerPoolSize";
+
+    /**
+     * <b>settings.archive.bitarchive.readerPoolIdleTimeout</b>: <br>
+     * The time in milliseconds an archive reader may stay unused in the pool before it is closed.
+     */
+    public static String BITARCHIVE_READER_POOL_IDLE_TIMEOUT = "settings.archive.bitarchive.readerPoolIdleTimeout";
 }
@@ -40,6 +40,7 @@ import dk.netarkivet.archive.arcrepositoryadmin.Admin;
 import dk.netarkivet.archive.arcrepositoryadmin.AdminFactory;
 import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BitarchiveClient;
+import dk.netarkivet.archive.bitarchive.distribute.FileLocationMessage;
 import dk.netarkivet.archive.bitarchive.distribute.RemoveAndGetFileMessage;
 import dk.netarkivet.archive.bitarchive.distribute.UploadMessage;
 import dk.netarkivet.archive.checksum.distribute.ChecksumClient;
@@ -54,6 +55,7 @@ import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaType;
+import dk.netarkivet.common.distribute.arcrepository.StoredFileMessage;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
@@ -315,6 +317,21 @@ public class ArcRepository implements CleanupIF {
         log.info("Store OK: '{}'", arcFileName);
         log.debug("Sending store OK reply to message '{}'", msg);
         JMSConnectionFactory.getInstance().reply(msg);
+        announceStoredFile(arcFileName);
+    }
+
+    /**
+     * Announce on the STORED_FILES topic that a file has been stored in all replicas. The store itself has succeeded
+     * whether or not this is possible, so failures are only logged.
+     *
+     * @param arcFileName The file which has been stored.
+     */
+    private void announceStoredFile(String arcFileName) {
+        try {
+            JMSConnectionFactory.getInstance().send(new StoredFileMessage(arcFileName));
+        } catch (IOFailure e) {
+            log.warn("Could not announce that '{}' has been stored", arcFileName, e);
+        }
     }
 
     /**
@@ -450,7 +467,7 @@ public class ArcRepository implements CleanupIF {
         String repChannelName = resolveReplicaChannel(msg.getTo().getName());
 
         if (msg.isOk()) {
-            processDataUploaded(msg.getArcfileName(), repChannelName);
+            processDataUploaded(msg.getArcfileName(), repChannelName, msg.getChecksum());
         } else {
             processUploadFailed(msg.getArcfileName(), repChannelName);
         }
@@ -460,19 +477,28 @@ public class ArcRepository implements CleanupIF {
      * Process the report by a bitarchive that a file was correctly uploaded.
      * <ol>
      * <il>1. Update the upload, and store states appropriately.</il><br/>
-     * <il>2. Verify that data are correctly stored in the archive by running a batch job on the archived file to
-     * perform a MD5 checksum comparison.</il> <br/>
+     * <il>2. Verify that data are correctly stored in the archive by comparing the MD5 checksum reported with the
+     * upload, or if the replica did not report one, by requesting the checksum of the archived file.</il> <br/>
      * <il>3. Check if store operation is completed and update admin data if so.</il><br/>
      * </ol>
      *
      * @param arcfileName The arcfile that was uploaded.
      * @param replicaChannelName The name of the identification channel for the replica that uploaded it (THE_BAMON for
      * bitarchive and THE_CR for checksum).
+     * @param reportedChecksum The checksum calculated by the replica while storing the file, or null.
      */
-    private synchronized void processDataUploaded(String arcfileName, String replicaChannelName) {
+    private synchronized void processDataUploaded(String arcfileName, String replicaChannelName,
+            String reportedChecksum) {
         log.debug("Data uploaded '{}' ,{}", arcfileName, replicaChannelName);
         ad.setState(arcfileName, replicaChannelName, ReplicaStoreState.DATA_UPLOADED);
 
+        if (reportedChecksum != null) {
+            // The replica has checksummed the data while storing it, so no
+            // need to read the file again.
+            processCheckSum(arcfileName, replicaChannelName, ad.getCheckSum(arcfileName), reportedChecksum, true);
+            return;
+        }
+
         // retrieve the replica
         Replica rep = Channels.retrieveReplicaFromIdentifierChannel(replicaChannelName);
         // Verify that the file has been correctly uploaded.
@@ -912,6 +938,27 @@ public class ArcRepository implements CleanupIF {
         rc.sendRemoveAndGetFileMessage(msg);
     }
 
+    /**
+     * Registers which bitarchive application holds a file with the client for its replica, so later get requests for
+     * the file are sent directly to that application. If the file is no longer stored there, the location is forgotten
+     * instead.
+     *
+     * @param msg the message telling where the file is stored, or is no longer stored.
+     * @throws ArgumentNotValid If the message is null, or if the replica of the message is not a bitarchive replica.
+     */
+    public void updateFileLocation(FileLocationMessage msg) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(msg, "FileLocationMessage msg");
+        ReplicaClient rc = getReplicaClientFromReplicaId(msg.getReplicaId());
+        if (!(rc instanceof BitarchiveClient)) {
+            throw new ArgumentNotValid("The replica '" + msg.getReplicaId() + "' is not a known bitarchive replica");
+        }
+        if (msg.isStored()) {
+            ((BitarchiveClient) rc).addFileLocation(msg.getFilename(), msg.getLocation());
+        } else {
+            ((BitarchiveClient) rc).removeFileLocation(msg.getFilename(), msg.getLocation());
+        }
+    }
+
     /**
      * Close all replicas connections, open loggers, and the ArcRepository handler.
      */
@@ -32,6 +32,7 @@ import dk.netarkivet.archive.arcrepository.ArcRepository;
 import dk.netarkivet.archive.arcrepository.bitpreservation.AdminDataMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
+import dk.netarkivet.archive.bitarchive.distribute.FileLocationMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetFileMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetMessage;
 import dk.netarkivet.archive.bitarchive.distribute.RemoveAndGetFileMessage;
@@ -206,6 +207,23 @@ public class ArcRepositoryServer extends ArchiveMessageHandler {
         }
     }
 
+    /**
+     * Registers where a file is stored, so later get requests for it can be sent directly to the bitarchive application
+     * holding it, or forgets the location if the file is no longer stored there. No reply is sent.
+     *
+     * @param msg the message telling where the file is stored.
+     * @throws ArgumentNotValid If the message is null.
+     */
+    public void visit(FileLocationMessage msg) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(msg, "FileLocationMessage msg");
+
+        try {
+            ar.updateFileLocation(msg);
+        } catch (Throwable t) {
+            log.warn("Failed to handle file location message '{}'", msg, t);
+        }
+    }
+
     /**
      * Forwards a getfile message to requested bitarchive replica.
      * <p>
@@ -34,9 +34,12 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
 
@@ -726,7 +729,7 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         FileUtils.sortFile(checksumOutputFile, sortedResult);
         final long datasize = FileUtils.countLines(sortedResult);
 
-        Set<Long> missingReplicaRFIs = null;
+        ReplicaFileInfoGuidSet missingReplicaRFIs = null;
         Connection con = ArchiveDBConnection.get();
         LineIterator lineIterator = null;
         try {
@@ -740,30 +743,21 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
 
             log.info("Starting processing of {} checksum entries for replica {}", datasize, replica.getId());
 
-            // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should the datastructure
-            // (missingReplicaRFIs) be disk-bound in some way, or optimized
-            // in some way, e.g. using it.unimi.dsi.fastutil.longs.LongArrayList
-            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(replica.getId(), con);
+            // retrieve the list of files already known by this cache as a
+            // compact set of primitive guids.
+            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidSetForReplica(replica.getId(), con);
 
             // Initialize the String iterator
             lineIterator = new LineIterator(new FileReader(sortedResult));
 
+            // The entries of the current batch, filename -> checksum.
+            Map<String, String> batch = new LinkedHashMap<String, String>();
             String lastFilename = "";
             String lastChecksum = "";
 
             int i = 0;
             while (lineIterator.hasNext()) {
                 String line = lineIterator.next();
-                // log that it is in progress every so often.
-                if ((i % LOGGING_ENTRY_INTERVAL) == 0) {
-                    log.info("Processed checksum list entry number {} for replica {}", i, replica);
-                    // Close connection, and open another one
-                    // to avoid memory-leak (NAS-2003)
-                    ArchiveDBConnection.release(con);
-                    con = ArchiveDBConnection.get();
-                    log.debug("Databaseconnection has now been renewed");
-                }
                 ++i;
 
                 // parse the input.
@@ -793,10 +787,19 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
                 lastFilename = filename;
                 lastChecksum = checksum;
 
-                // Process the current (filename + checksum) combo for this replica
-                // Remove the returned replicafileinfo guid from the missing entries.
-                missingReplicaRFIs.remove(ReplicaCacheHelpers.processChecksumline(filename, checksum, replica, con));
+                batch.put(filename, checksum);
+                if (batch.size() >= ReplicaCacheHelpers.BATCH_SIZE) {
+                    processChecksumBatch(batch, replica, missingReplicaRFIs, con);
+                    batch.clear();
+                    log.info("Processed checksum list entry number {} for replica {}", i, replica);
+                    // Close connection, and open another one
+                    // to avoid memory-leak (NAS-2003)
+                    ArchiveDBConnection.release(con);
+                    con = ArchiveDBConnection.get();
+                    log.debug("Databaseconnection has now been renewed");
+                }
             }
+            processChecksumBatch(batch, replica, missingReplicaRFIs, con);
         } catch (IOException e) {
             throw new IOFailure("Unable to read checksum entries from file", e);
         } finally {
@@ -808,12 +811,10 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         try {
             // go through the not found replicafileinfo for this replica to change
             // their filelist_status to missing.
-            if (missingReplicaRFIs.size() > 0) {
-                log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
+            int missingCount = missingReplicaRFIs.countMissing();
+            if (missingCount > 0) {
+                log.warn("Found {} missing files for replica '{}'.", missingCount, replica);
+                ReplicaCacheHelpers.updateReplicaFileInfosMissingFromFilelist(missingReplicaRFIs, con);
             }
 
             // update the checksum updated date for this replica.
@@ -826,6 +827,40 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         }
     }
 
+    /**
+     * Process a batch of (filename, checksum) entries from a checksum job for a given replica. The replicafileinfo
+     * entries of the files are looked up in a single query and updated in a single JDBC batch. Files, which are not
+     * yet known for the replica, are inserted one at a time.
+     *
+     * @param batch The entries to process, filename -> checksum.
+     * @param replica The replica the checksums are from.
+     * @param missingReplicaRFIs The replicafileinfo guids not yet found. The guids of the processed entries are marked
+     * as found.
+     * @param con An open connection to the archive database.
+     */
+    private void processChecksumBatch(Map<String, String> batch, Replica replica,
+            ReplicaFileInfoGuidSet missingReplicaRFIs, Connection con) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        Map<String, Long> knownRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForFiles(batch.keySet(),
+                replica.getId(), con);
+        Map<Long, String> updates = new HashMap<Long, String>();
+        for (Map.Entry<String, String> entry : batch.entrySet()) {
+            Long rfiId = knownRFIs.get(entry.getKey());
+            if (rfiId == null) {
+                // Process the current (filename + checksum) combo for this replica
+                // Remove the returned replicafileinfo guid from the missing entries.
+                missingReplicaRFIs.markFound(ReplicaCacheHelpers.processChecksumline(entry.getKey(),
+                        entry.getValue(), replica, con));
+            } else {
+                updates.put(rfiId, entry.getValue());
+                missingReplicaRFIs.markFound(rfiId);
+            }
+        }
+        ReplicaCacheHelpers.updateReplicaFileInfoChecksums(updates, con);
+    }
+
     /**
      * Method for adding the results from a list of filenames on a replica. This list of filenames should return the
      * list of all the files within the database.
@@ -857,7 +892,7 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         final long datasize = FileUtils.countLines(sortedResult);
 
         Connection con = ArchiveDBConnection.get();
-        Set<Long> missingReplicaRFIs = null;
+        ReplicaFileInfoGuidSet missingReplicaRFIs = null;
         LineIterator lineIterator = null;
         try {
             // Make sure, that the replica exists in the database.
@@ -870,10 +905,9 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
 
             log.info("Starting processing of {} filelist entries for replica {}", datasize, replica.getId());
 
-            // retrieve the list of files already known by this cache.
-            // TODO This does not scale! Should this datastructure
-            // (missingReplicaRFIs) be disk-bound in some way.
-            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidsForReplica(replica.getId(), con);
+            // retrieve the list of files already known by this cache as a
+            // compact set of primitive guids.
+            missingReplicaRFIs = ReplicaCacheHelpers.retrieveReplicaFileInfoGuidSetForReplica(replica.getId(), con);
 
             // Initialize String iterator
             lineIterator = new LineIterator(new FileReader(sortedResult));
@@ -902,7 +936,7 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
                 lastFileName = file;
                 // Add information for one file, and remove the ReplicaRFI from the
                 // set of missing ones.
-                missingReplicaRFIs.remove(ReplicaCacheHelpers.addFileInformation(file, replica, con));
+                missingReplicaRFIs.markFound(ReplicaCacheHelpers.addFileInformation(file, replica, con));
             }
         } catch (IOException e) {
             throw new IOFailure("Unable to read the filenames from file", e);
@@ -915,12 +949,10 @@ public final class ReplicaCacheDatabase implements BitPreservationDAO {
         try {
             // go through the not found replicafileinfo for this replica to change
             // their filelist_status to missing.
-            if (missingReplicaRFIs.size() > 0) {
-                log.warn("Found {} missing files for replica '{}'.", missingReplicaRFIs.size(), replica);
-                for (long rfi : missingReplicaRFIs) {
-                    // set the replicafileinfo in the database to missing.
-                    ReplicaCacheHelpers.updateReplicaFileInfoMissingFromFilelist(rfi, con);
-                }
+            int missingCount = missingReplicaRFIs.countMissing();
+            if (missingCount > 0) {
+                log.warn("Found {} missing files for replica '{}'.", missingCount, replica);
+                ReplicaCacheHelpers.updateReplicaFileInfosMissingFromFilelist(missingReplicaRFIs, con);
             }
             // Update the date for filelist update for this replica.
             ReplicaCacheHelpers.updateFilelistDateForReplica(replica, con);
@@ -28,8 +28,11 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -56,6 +59,12 @@ public final class ReplicaCacheHelpers {
     /** The log. */
     protected static Logger log = LoggerFactory.getLogger(ReplicaCacheHelpers.class);
 
+    /** The maximum number of rows looked up or updated in a single statement or JDBC batch. */
+    protected static final int BATCH_SIZE = 1000;
+
+    /** The fetch size used when streaming the replicafileinfo_guids of a replica. */
+    private static final int FETCH_SIZE = 8192;
+
     /** Private constructor to avoid instantiation. */
     private ReplicaCacheHelpers() {
     }
@@ -301,17 +310,67 @@ public final class ReplicaCacheHelpers {
     }
 
     /**
-     * Method for retrieving the list of all the replicafileinfo_guids for a specific replica.
+     * Method for retrieving all the replicafileinfo_guids for a specific replica as a compact set of primitive longs.
+     * The guids are streamed from the database, so only the resulting array is held in memory.
      *
      * @param replicaId The id for the replica to contain the files.
      * @param con An open connection to the archiveDatabase.
-     * @return The list of all the replicafileinfo_guid.
+     * @return The set of all the replicafileinfo_guids for the replica, none of them marked as found.
      */
-    protected static Set<Long> retrieveReplicaFileInfoGuidsForReplica(String replicaId, Connection con) {
-        // sql for retrieving the replicafileinfo_guids for the replica.
-        final String sql = "SELECT replicafileinfo_guid FROM replicafileinfo "
-                + "WHERE replica_id = ? ORDER BY replicafileinfo_guid";
-        return DBUtils.selectLongSet(con, sql, replicaId);
+    protected static ReplicaFileInfoGuidSet retrieveReplicaFileInfoGuidSetForReplica(String replicaId,
+            Connection con) {
+        final String sql = "SELECT replicafileinfo_guid FROM replicafileinfo WHERE replica_id = ?";
+        PreparedStatement statement = null;
+        try {
+            statement = DBUtils.prepareStatement(con, FETCH_SIZE, sql, replicaId);
+            ResultSet result = statement.executeQuery();
+            long[] guids = new long[FETCH_SIZE];
+            int size = 0;
+            while (result.next()) {
+                if (size == guids.length) {
+                    guids = Arrays.copyOf(guids, guids.length * 2);
+                }
+                guids[size++] = result.getLong(1);
+            }
+            return new ReplicaFileInfoGuidSet(Arrays.copyOf(guids, size));
+        } catch (SQLException e) {
+            throw new IOFailure("Could not retrieve the replicafileinfo_guids for replica '" + replicaId + "'", e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
+    }
+
+    /**
+     * Method for retrieving the replicafileinfo_guids of a number of files on a replica in a single query. Files, which
+     * are not known in the file table or do not have a replicafileinfo entry for the replica, are not in the result.
+     *
+     * @param filenames The names of the files. Should not contain more than {@link #BATCH_SIZE} entries.
+     * @param replicaId The id of the replica.
+     * @param con An open connection to the archive database
+     * @return A map from filename to replicafileinfo_guid.
+     */
+    protected static Map<String, Long> retrieveReplicaFileInfoGuidsForFiles(Collection<String> filenames,
+            String replicaId, Connection con) {
+        if (filenames.isEmpty()) {
+            return new HashMap<String, Long>();
+        }
+        StringBuilder sql = new StringBuilder("SELECT file.filename, replicafileinfo.replicafileinfo_guid "
+                + "FROM file, replicafileinfo WHERE file.file_id = replicafileinfo.file_id "
+                + "AND replicafileinfo.replica_id = ? AND file.filename IN (");
+        Object[] args = new Object[filenames.size() + 1];
+        args[0] = replicaId;
+        int i = 1;
+        for (String filename : filenames) {
+            sql.append(i == 1 ? "?" : ",?");
+            args[i++] = filename;
+        }
+        sql.append(")");
+        try {
+            return DBUtils.selectStringLongMap(con, sql.toString(), args);
+        } catch (SQLException e) {
+            throw new IOFailure("Could not retrieve the replicafileinfo_guids of " + filenames.size()
+                    + " files for replica '" + replicaId + "'", e);
+        }
     }
 
     /**
@@ -449,35 +508,84 @@ public final class ReplicaCacheHelpers {
     }
 
     /**
-     * Method for updating the filelist of a replicafileinfo instance. Updates the following fields for the entry in the
-     * replicafileinfo: <br/>
+     * Method for updating the checksum of several replicafileinfo entries using JDBC batching. Updates the same fields
+     * as {@link #updateReplicaFileInfoChecksum(long, String, Connection)}, and commits once for all the entries.
+     *
+     * @param checksums A map from replicafileinfo_guid to the new checksum of the entry.
+     * @param con An open connection to the archive database
+     */
+    protected static void updateReplicaFileInfoChecksums(Map<Long, String> checksums, Connection con) {
+        if (checksums.isEmpty()) {
+            return;
+        }
+        PreparedStatement statement = null;
+        try {
+            final String sql = "UPDATE replicafileinfo SET checksum = ?, upload_status = ?, filelist_status = ?,"
+                    + " checksum_status = ?, checksum_checkdatetime = ?, filelist_checkdatetime = ? "
+                    + "WHERE replicafileinfo_guid = ?";
+            Timestamp now = new Timestamp(Calendar.getInstance().getTimeInMillis());
+
+            statement = con.prepareStatement(sql);
+            for (Map.Entry<Long, String> entry : checksums.entrySet()) {
+                statement.setString(1, entry.getValue());
+                statement.setInt(2, ReplicaStoreState.UPLOAD_COMPLETED.ordinal());
+                statement.setInt(3, FileListStatus.OK.ordinal());
+                statement.setInt(4, ChecksumStatus.UNKNOWN.ordinal());
+                statement.setTimestamp(5, now);
+                statement.setTimestamp(6, now);
+                statement.setLong(7, entry.getKey());
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            con.commit();
+        } catch (Exception e) {
+            String msg = "Problems updating the checksums of " + checksums.size() + " replicafileinfo entries.";
+            log.warn(msg);
+            throw new IOFailure(msg, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
+    }
+
+    /**
+     * Method for setting a number of replicafileinfo entries to missing using JDBC batching. Updates the following
+     * fields for each entry in the replicafileinfo: <br/>
      * filelist_status = missing. <br/>
+     * upload_status = upload failed. <br/>
      * filelist_checkdatetime = current time.
      * <p>
-     * The replicafileinfo is in the filelist.
+     * The updates are committed for every {@link #BATCH_SIZE} entries.
      *
-     * @param replicafileinfoId The id of the replicafileinfo.
+     * @param replicafileinfoIds The ids of the replicafileinfo entries.
      * @param con An open connection to the archive database
+     * @return The number of entries updated.
      */
-    protected static void updateReplicaFileInfoMissingFromFilelist(long replicafileinfoId, Connection con) {
+    protected static int updateReplicaFileInfosMissingFromFilelist(Iterable<Long> replicafileinfoIds, Connection con) {
         PreparedStatement statement = null;
+        int count = 0;
         try {
-            // The SQL statement
             final String sql = "UPDATE replicafileinfo "
                     + "SET filelist_status = ?, filelist_checkdatetime = ?, upload_status = ? "
                     + "WHERE replicafileinfo_guid = ?";
-
-            Date now = new Date(Calendar.getInstance().getTimeInMillis());
-
-            // complete the SQL statement.
-            statement = DBUtils.prepareStatement(con, sql, FileListStatus.MISSING.ordinal(), now,
-                    ReplicaStoreState.UPLOAD_FAILED.ordinal(), replicafileinfoId);
-
-            // execute the SQL statement
-            statement.executeUpdate();
+            Timestamp now = new Timestamp(Calendar.getInstance().getTimeInMillis());
+
+            statement = con.prepareStatement(sql);
+            for (long rfi : replicafileinfoIds) {
+                statement.setInt(1, FileListStatus.MISSING.ordinal());
+                statement.setTimestamp(2, now);
+                statement.setInt(3, ReplicaStoreState.UPLOAD_FAILED.ordinal());
+                statement.setLong(4, rfi);
+                statement.addBatch();
+                if ((++count % BATCH_SIZE) == 0) {
+                    statement.executeBatch();
+                    con.commit();
+                }
+            }
+            statement.executeBatch();
             con.commit();
+            return count;
         } catch (Exception e) {
-            String msg = "Problems updating the replicafileinfo.";
+            String msg = "Problems updating the replicafileinfo entries missing from the filelist.";
             log.warn(msg);
             throw new IOFailure(msg, e);
         } finally {
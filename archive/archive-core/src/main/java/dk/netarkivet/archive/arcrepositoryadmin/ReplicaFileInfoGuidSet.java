@@ -0,0 +1,125 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * A compact set of replicafileinfo guids used for keeping track of which entries of a replica have not been seen in a
+ * checksum list or a file list.
+ * <p>
+ * The guids are kept in a sorted array of primitive longs, and the entries which have been seen are marked in a
+ * {@link BitSet}. This uses about 8 bytes per entry, compared to the 50-80 bytes per entry of a {@code Set<Long>},
+ * and no objects are allocated when entries are marked as found.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class ReplicaFileInfoGuidSet implements Iterable<Long> {
+
+    /** The sorted guids. */
+    private final long[] guids;
+    /** The indices in guids of the entries which have been marked as found. */
+    private final BitSet found;
+
+    /**
+     * Constructor.
+     *
+     * @param guids The guids in the set. The array is sorted in place and must not be changed afterwards.
+     * @throws ArgumentNotValid If guids is null.
+     */
+    public ReplicaFileInfoGuidSet(long[] guids) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(guids, "long[] guids");
+        Arrays.sort(guids);
+        this.guids = guids;
+        this.found = new BitSet(guids.length);
+    }
+
+    /**
+     * Marks a guid as found, i.e. no longer missing. Unknown guids are ignored.
+     *
+     * @param guid The guid of the replicafileinfo entry.
+     * @return Whether the guid was in the set and not already found.
+     */
+    public boolean markFound(long guid) {
+        int index = Arrays.binarySearch(guids, guid);
+        if (index < 0 || found.get(index)) {
+            return false;
+        }
+        found.set(index);
+        return true;
+    }
+
+    /**
+     * @param guid The guid of the replicafileinfo entry.
+     * @return Whether the guid is in the set and has not been marked as found.
+     */
+    public boolean isMissing(long guid) {
+        int index = Arrays.binarySearch(guids, guid);
+        return index >= 0 && !found.get(index);
+    }
+
+    /**
+     * @return The number of guids, which have not been marked as found.
+     */
+    public int countMissing() {
+        return guids.length - found.cardinality();
+    }
+
+    /**
+     * Iterates over the guids which have not been marked as found, in ascending order.
+     *
+     * @return An iterator over the missing guids.
+     */
+    @Override
+    public Iterator<Long> iterator() {
+        return new Iterator<Long>() {
+            private int next = found.nextClearBit(0);
+
+            @Override
+            public boolean hasNext() {
+                return next < guids.length;
+            }
+
+            @Override
+            public Long next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                long guid = guids[next];
+                next = found.nextClearBit(next + 1);
+                return guid;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+}
@@ -0,0 +1,414 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.management.SingleMBeanObject;
+
+/**
+ * A bounded pool of open archive readers, keyed by archive file.
+ * <p>
+ * A reader is borrowed for a single get request and released afterwards, so it is only used by one thread at a time.
+ * Released readers are kept open, and reused by later requests for records in the same file. At most maxOpenReaders
+ * readers are kept open: when the limit is reached, the least recently used idle reader is closed. If all readers are
+ * in use, a new reader is still opened, but it is closed again when released. Readers which have been idle for longer
+ * than the idle timeout are closed by a background timer. When a file is evicted, readers for it which are in use are
+ * closed when they are released, so a reader never outlives the file it was opened on.
+ * <p>
+ * Hits, misses and evictions are exposed as an MBean.
+ */
+public class ArchiveReaderPool implements ArchiveReaderPoolStatistics {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(ArchiveReaderPool.class);
+
+    /** The maximum number of readers kept open. */
+    private final int maxOpenReaders;
+
+    /** The time in milliseconds a reader may stay idle before it is closed. */
+    private final long idleTimeout;
+
+    /** The idle readers, by file. The most recently released reader for a file is last. Guarded by this. */
+    private final Map<File, Deque<PooledReader>> idleReaders = new HashMap<File, Deque<PooledReader>>();
+
+    /** All idle readers, with the least recently released first. Guarded by this. */
+    private final LinkedList<PooledReader> idleOrder = new LinkedList<PooledReader>();
+
+    /** The readers in use, with the value of evictionCount when they were borrowed. Guarded by this. */
+    private final Map<ArchiveReader, Long> borrowed = new IdentityHashMap<ArchiveReader, Long>();
+
+    /** The value of evictionCount when each file was last evicted. Guarded by this. */
+    private final Map<File, Long> evictedFiles = new HashMap<File, Long>();
+
+    /** The number of calls to evict(). Guarded by this. */
+    private long evictionCount;
+
+    /** The number of readers open, both in use and idle. Guarded by this. */
+    private int openReaders;
+
+    /** Whether the pool has been closed. Guarded by this. */
+    private boolean closed;
+
+    /** The number of borrowed readers, which were taken from the pool. */
+    private final AtomicLong hits = new AtomicLong();
+
+    /** The number of borrowed readers, which had to be opened. */
+    private final AtomicLong misses = new AtomicLong();
+
+    /** The number of idle readers closed because of the idle timeout or the maximum number of readers. */
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** The timer closing idle readers; null if idle readers are not timed out. */
+    private Timer evictionTimer;
+
+    /** The MBean exposing the statistics of this pool; null if not registered. */
+    private SingleMBeanObject<ArchiveReaderPoolStatistics> statisticsMBean;
+
+    /**
+     * Create a pool of archive readers, and expose its statistics as an MBean.
+     *
+     * @param maxOpenReaders The maximum number of readers kept open. 0 disables pooling.
+     * @param idleTimeout The time in milliseconds a reader may stay idle before it is closed. 0 disables the timeout.
+     * @throws ArgumentNotValid If either argument is negative.
+     */
+    public ArchiveReaderPool(int maxOpenReaders, long idleTimeout) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNegative(maxOpenReaders, "int maxOpenReaders");
+        ArgumentNotValid.checkNotNegative(idleTimeout, "long idleTimeout");
+        this.maxOpenReaders = maxOpenReaders;
+        this.idleTimeout = idleTimeout;
+        if (maxOpenReaders > 0 && idleTimeout > 0) {
+            evictionTimer = new Timer("ArchiveReaderPool eviction", true);
+            evictionTimer.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    evictIdle(System.currentTimeMillis() - ArchiveReaderPool.this.idleTimeout);
+                }
+            }, idleTimeout, idleTimeout);
+        }
+        registerStatistics();
+    }
+
+    /**
+     * Borrow a reader for the given archive file. A pooled reader for the file is reused if one is idle, otherwise a
+     * new reader is opened. The reader must be given back with release() when the caller is done with it.
+     *
+     * @param file The archive file to read.
+     * @return A reader for the file, used by no one else until it is released.
+     * @throws ArgumentNotValid If the file is null.
+     * @throws IOException If a new reader could not be opened.
+     */
+    public ArchiveReader borrow(File file) throws ArgumentNotValid, IOException {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArchiveReader toClose = null;
+        long borrowedAt;
+        synchronized (this) {
+            borrowedAt = evictionCount;
+            Deque<PooledReader> readers = idleReaders.get(file);
+            if (readers != null) {
+                PooledReader pooled = readers.pollLast();
+                if (readers.isEmpty()) {
+                    idleReaders.remove(file);
+                }
+                idleOrder.remove(pooled);
+                borrowed.put(pooled.reader, borrowedAt);
+                hits.incrementAndGet();
+                return pooled.reader;
+            }
+            misses.incrementAndGet();
+            if (openReaders >= maxOpenReaders && !idleOrder.isEmpty()) {
+                toClose = removeIdle(idleOrder.getFirst()).reader;
+                evictions.incrementAndGet();
+            }
+            openReaders++;
+        }
+        closeReader(toClose);
+        ArchiveReader reader;
+        try {
+            reader = ArchiveReaderFactory.get(file);
+        } catch (IOException e) {
+            forget();
+            throw e;
+        } catch (RuntimeException e) {
+            forget();
+            throw e;
+        }
+        synchronized (this) {
+            borrowed.put(reader, borrowedAt);
+        }
+        return reader;
+    }
+
+    /**
+     * Give back a borrowed reader. The reader is kept open for later requests, unless it is not reusable, the pool is
+     * full or closed, or the file has been moved away or evicted since the reader was borrowed.
+     *
+     * @param file The archive file the reader was borrowed for.
+     * @param reader The borrowed reader.
+     * @param reusable False if the reader may be in an inconsistent state, e.g. after a failed read.
+     * @throws ArgumentNotValid If the file or the reader is null.
+     */
+    public void release(File file, ArchiveReader reader, boolean reusable) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNull(reader, "ArchiveReader reader");
+        boolean keep = reusable && file.isFile();
+        synchronized (this) {
+            Long borrowedAt = borrowed.remove(reader);
+            Long evictedAt = evictedFiles.get(file);
+            if (borrowedAt != null && evictedAt != null && evictedAt > borrowedAt) {
+                keep = false;
+            }
+            if (borrowed.isEmpty()) {
+                evictedFiles.clear();
+            }
+            if (keep && !closed && openReaders <= maxOpenReaders) {
+                PooledReader pooled = new PooledReader(file, reader);
+                Deque<PooledReader> readers = idleReaders.get(file);
+                if (readers == null) {
+                    readers = new ArrayDeque<PooledReader>();
+                    idleReaders.put(file, readers);
+                }
+                readers.addLast(pooled);
+                idleOrder.addLast(pooled);
+                return;
+            }
+            openReaders--;
+        }
+        closeReader(reader);
+    }
+
+    /**
+     * Close the idle readers for the given file. This must be called when the file is moved or removed. Readers for
+     * the file which are in use are closed when they are released. A reader borrowed after this call, but before the
+     * file is actually moved, is not closed; call this again after the move to close it.
+     *
+     * @param file The archive file.
+     * @throws ArgumentNotValid If the file is null.
+     */
+    public void evict(File file) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        List<ArchiveReader> toClose = new ArrayList<ArchiveReader>();
+        synchronized (this) {
+            evictionCount++;
+            if (!borrowed.isEmpty()) {
+                evictedFiles.put(file, evictionCount);
+            }
+            Deque<PooledReader> readers = idleReaders.get(file);
+            if (readers != null) {
+                for (PooledReader pooled : new ArrayList<PooledReader>(readers)) {
+                    toClose.add(removeIdle(pooled).reader);
+                }
+            }
+        }
+        for (ArchiveReader reader : toClose) {
+            closeReader(reader);
+        }
+    }
+
+    /**
+     * Close all idle readers and stop pooling. Readers in use are closed when they are released.
+     */
+    public void close() {
+        List<ArchiveReader> toClose = new ArrayList<ArchiveReader>();
+        synchronized (this) {
+            closed = true;
+            while (!idleOrder.isEmpty()) {
+                toClose.add(removeIdle(idleOrder.getFirst()).reader);
+            }
+        }
+        for (ArchiveReader reader : toClose) {
+            closeReader(reader);
+        }
+        if (evictionTimer != null) {
+            evictionTimer.cancel();
+            evictionTimer = null;
+        }
+        if (statisticsMBean != null) {
+            try {
+                statisticsMBean.unregister();
+            } catch (IOFailure e) {
+                log.debug("Unable to unregister the archive reader pool statistics", e);
+            }
+            statisticsMBean = null;
+        }
+    }
+
+    /**
+     * Close the idle readers released before the given time.
+     *
+     * @param releasedBefore The time in milliseconds; readers released before this are closed.
+     */
+    void evictIdle(long releasedBefore) {
+        List<ArchiveReader> toClose = new ArrayList<ArchiveReader>();
+        synchronized (this) {
+            while (!idleOrder.isEmpty() && idleOrder.getFirst().released < releasedBefore) {
+                toClose.add(removeIdle(idleOrder.getFirst()).reader);
+                evictions.incrementAndGet();
+            }
+        }
+        if (!toClose.isEmpty()) {
+            log.debug("Closing {} idle archive readers", toClose.size());
+        }
+        for (ArchiveReader reader : toClose) {
+            closeReader(reader);
+        }
+    }
+
+    /**
+     * Remove an idle reader from the pool, and count it as no longer open. The caller must hold the lock on this pool
+     * and close the reader afterwards.
+     *
+     * @param pooled The idle reader.
+     * @return The removed reader.
+     */
+    private PooledReader removeIdle(PooledReader pooled) {
+        idleOrder.remove(pooled);
+        Deque<PooledReader> readers = idleReaders.get(pooled.file);
+        if (readers != null) {
+            readers.remove(pooled);
+            if (readers.isEmpty()) {
+                idleReaders.remove(pooled.file);
+            }
+        }
+        openReaders--;
+        return pooled;
+    }
+
+    /**
+     * Count a reader, which could not be opened, as no longer open.
+     */
+    private synchronized void forget() {
+        openReaders--;
+    }
+
+    /**
+     * Close a reader, logging any failure.
+     *
+     * @param reader The reader to close; nothing happens if it is null.
+     */
+    private void closeReader(ArchiveReader reader) {
+        if (reader == null) {
+            return;
+        }
+        try {
+            reader.close();
+        } catch (IOException e) {
+            log.warn("Could not close ArchiveReader!", e);
+        }
+    }
+
+    /**
+     * Expose the statistics of this pool as an MBean. Failure to do so is logged, but otherwise ignored.
+     */
+    private void registerStatistics() {
+        try {
+            SingleMBeanObject<ArchiveReaderPoolStatistics> mBean = new SingleMBeanObject<ArchiveReaderPoolStatistics>(
+                    "dk.netarkivet.archive.bitarchive", this, ArchiveReaderPoolStatistics.class,
+                    ManagementFactory.getPlatformMBeanServer());
+            mBean.getNameProperties().put("name", "ArchiveReaderPool");
+            mBean.register();
+            statisticsMBean = mBean;
+        } catch (Exception e) {
+            log.warn("Unable to register the archive reader pool statistics as an MBean", e);
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    @Override
+    public synchronized int getOpenReaders() {
+        return openReaders;
+    }
+
+    @Override
+    public synchronized int getIdleReaders() {
+        return idleOrder.size();
+    }
+
+    @Override
+    public int getMaxOpenReaders() {
+        return maxOpenReaders;
+    }
+
+    @Override
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * An idle reader in the pool.
+     */
+    private static class PooledReader {
+        /** The archive file read by the reader. */
+        final File file;
+        /** The reader. */
+        final ArchiveReader reader;
+        /** The time in milliseconds the reader was released to the pool. */
+        final long released = System.currentTimeMillis();
+
+        /**
+         * @param file The archive file read by the reader.
+         * @param reader The reader.
+         */
+        PooledReader(File file, ArchiveReader reader) {
+            this.file = file;
+            this.reader = reader;
+        }
+    }
+
+}
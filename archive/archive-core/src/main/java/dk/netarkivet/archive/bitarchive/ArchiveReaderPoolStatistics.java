@@ -0,0 +1,66 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+/**
+ * Statistics on the archive readers pooled by an ArchiveReaderPool, exposed over JMX.
+ */
+public interface ArchiveReaderPoolStatistics {
+
+    /**
+     * @return The number of requests for a reader, which were served by a pooled reader.
+     */
+    long getHits();
+
+    /**
+     * @return The number of requests for a reader, which had to open a new reader.
+     */
+    long getMisses();
+
+    /**
+     * @return The number of pooled readers closed because they had been idle too long, or to stay within the maximum
+     * number of open readers.
+     */
+    long getEvictions();
+
+    /**
+     * @return The number of readers currently open, both in use and idle.
+     */
+    int getOpenReaders();
+
+    /**
+     * @return The number of open readers, which are not in use.
+     */
+    int getIdleReaders();
+
+    /**
+     * @return The maximum number of readers kept open.
+     */
+    int getMaxOpenReaders();
+
+    /**
+     * Reset the counters of hits, misses and evictions.
+     */
+    void resetStatistics();
+
+}
@@ -26,14 +26,21 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import org.archive.io.ArchiveReader;
-import org.archive.io.ArchiveReaderFactory;
 import org.archive.io.ArchiveRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.distribute.AbstractRemoteFile;
 import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.RemoteFileFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
@@ -42,19 +49,41 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.BatchLocalFiles;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
 /**
  * The central class in the bit archive. Implements the API: upload(), get(), correct(), batch(). A bit archive is
- * expected to not know about any other bit archives, and is not considered responsible for making MD5 checksums.
+ * expected to not know about any other bit archives, and is not considered responsible for making MD5 checksums. It
+ * does however cache the MD5 checksums of its files, so single-file checksum requests can be answered directly.
  */
 public class Bitarchive {
 
     /** Administrative data for the current bitarchive. */
     private BitarchiveAdmin admin;
 
+    /** The checksums of the files in this bitarchive. */
+    private BitarchiveChecksumCache checksumCache;
+
+    /** Calculates the checksums missing from the cache, one file at a time, off the message listener threads. */
+    private final ExecutorService checksumCalculator = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "BitarchiveChecksumCalculator");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /** The names of the files waiting to have their checksum calculated and cached. */
+    private final Set<String> pendingChecksums = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** The open archive readers used for get requests. */
+    private ArchiveReaderPool readerPool;
+
     /** Logging output place. */
     protected static final Logger log = LoggerFactory.getLogger(Bitarchive.class);
 
@@ -70,12 +99,19 @@ public class Bitarchive {
     private Bitarchive() throws PermissionDenied {
         log.debug("Starting bit archive");
         admin = BitarchiveAdmin.getInstance();
+        File firstBasedir = new File(Settings.getAll(ArchiveSettings.BITARCHIVE_SERVER_FILEDIR)[0]);
+        checksumCache = new BitarchiveChecksumCache(new File(firstBasedir, BitarchiveChecksumCache.CACHE_FILE_NAME));
+        readerPool = new ArchiveReaderPool(Settings.getInt(ArchiveSettings.BITARCHIVE_READER_POOL_SIZE),
+                Settings.getLong(ArchiveSettings.BITARCHIVE_READER_POOL_IDLE_TIMEOUT));
     }
 
     /**
      * Release all resources allocated by the bitarchive Ensures that all admin data and log data are flushed.
      */
     public void close() {
+        checksumCalculator.shutdownNow();
+        readerPool.close();
+        checksumCache.close();
         admin.close();
         instance = null;
     }
@@ -101,18 +137,20 @@ public class Bitarchive {
             log.debug("Get request for file not on this machine: {}", arcfile);
             return null;
         }
+        File in = barc.getFilePath();
         ArchiveReader arcReader = null;
         ArchiveRecord arc = null;
+        boolean reusable = false;
         try {
             if ((barc.getSize() <= index) || (index < 0)) {
                 log.warn("GET: index out of bounds: {}:{} > {}", arcfile, index, barc.getSize());
                 throw new ArgumentNotValid("GET: index out of bounds: " + arcfile + ":" + index + " > "
                         + barc.getSize());
             }
-            File in = barc.getFilePath();
-            arcReader = ArchiveReaderFactory.get(in);
+            arcReader = readerPool.borrow(in);
             arc = arcReader.get(index);
             BitarchiveRecord result = new BitarchiveRecord(arc, arcfile);
+            reusable = true;
 
             // release resources locked
             log.info("GET: Got {} bytes of data from {}:{}", result.getLength(), arcfile, index);
@@ -135,25 +173,40 @@ public class Bitarchive {
                 if (arc != null) {
                     arc.close();
                 }
-                if (arcReader != null) {
-                    arcReader.close();
-                }
             } catch (IOException e) {
-                log.warn("Could not close ARCReader or ARCRecord!", e);
+                log.warn("Could not close ARCRecord!", e);
+                reusable = false;
+            }
+            if (arcReader != null) {
+                readerPool.release(in, arcReader, reusable);
             }
         }
     }
 
+    /**
+     * Close the archive readers kept open for a file. This must be called both before and after the file is moved out
+     * of the bitarchive, so no reader opened by a concurrent get request stays open on the moved file.
+     *
+     * @param file The archive file.
+     * @throws ArgumentNotValid If the file is null.
+     */
+    public void closeReaders(File file) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        readerPool.evict(file);
+    }
+
     /**
      * Upload an ARC file to this archive.
      *
      * @param arcfile A file to add to the archive.
      * @param fileName the arcfiles filename. The file will be identified in the archive by this filename
+     * @return The MD5 checksum of the stored file, calculated while it was written.
      * @throws PermissionDenied if arcfile already exists in the archive
-     * @throws IOFailure if an IO failure occurs (e.g. running out of disk space)
+     * @throws IOFailure if an IO failure occurs (e.g. running out of disk space), or the stored data does not match the
+     * checksum of the remote file.
      * @throws ArgumentNotValid if arcfile is null or the filename is null or empty.
      */
-    public void upload(RemoteFile arcfile, String fileName) throws PermissionDenied, ArgumentNotValid, IOFailure {
+    public String upload(RemoteFile arcfile, String fileName) throws PermissionDenied, ArgumentNotValid, IOFailure {
         log.info("Upload: {}", arcfile);
         // Verify input parameters
         ArgumentNotValid.checkNotNull(arcfile, "arcfile");
@@ -167,8 +220,60 @@ public class Bitarchive {
         }
 
         // Everything seems ok, initiate copy of file into archive
-        copyRemoteFileToArchive(arcfile, fileName);
-        log.info("Upload: completed uploading {}", fileName);
+        String checksum = copyRemoteFileToArchive(arcfile, fileName);
+        log.info("Upload: completed uploading {} with checksum {}", fileName, checksum);
+        return checksum;
+    }
+
+    /**
+     * Get the cached MD5 checksum of a file in this bitarchive. The checksum is never calculated here, as this may take
+     * a long time for a large file; it is cached when the file is uploaded. For a file which was stored before the
+     * cache existed, or which has changed, the checksum is calculated and cached in the background, so later requests
+     * for the file can be answered from the cache.
+     *
+     * @param arcFileID name of the file.
+     * @return The checksum of the file, or null if the file is not in this bitarchive.
+     * @throws ArgumentNotValid If arcFileID was null or empty.
+     * @throws UnknownID If the file is in this bitarchive, but no up-to-date checksum is cached for it.
+     */
+    public String getCachedChecksum(String arcFileID) throws ArgumentNotValid, UnknownID {
+        ArgumentNotValid.checkNotNullOrEmpty(arcFileID, "arcFileID");
+        BitarchiveARCFile barc = admin.lookup(arcFileID);
+        if (barc == null) {
+            log.debug("File '{}' not found on this machine", arcFileID);
+            checksumCache.remove(arcFileID);
+            return null;
+        }
+        String checksum = checksumCache.getCachedChecksum(barc.getFilePath());
+        if (checksum == null) {
+            calculateChecksumLater(barc.getFilePath());
+            throw new UnknownID("No up-to-date checksum is cached for the file '" + arcFileID + "'");
+        }
+        return checksum;
+    }
+
+    /**
+     * Calculate and cache the checksum of a file in the background, unless this is already pending.
+     *
+     * @param file The file in this bitarchive.
+     */
+    private void calculateChecksumLater(final File file) {
+        if (!pendingChecksums.add(file.getName())) {
+            return;
+        }
+        log.debug("Calculating the checksum of '{}' in the background", file.getName());
+        checksumCalculator.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    checksumCache.getChecksum(file);
+                } catch (Exception e) {
+                    log.warn("Unable to calculate the checksum of '{}'", file.getName(), e);
+                } finally {
+                    pendingChecksums.remove(file.getName());
+                }
+            }
+        });
     }
 
     /**
@@ -228,16 +333,19 @@ public class Bitarchive {
     }
 
     /**
-     * Copies a remote file into the bitarchive storage and returns the storage position of the file.
+     * Copies a remote file into the bitarchive storage and returns the MD5 checksum of the stored file. The checksum is
+     * calculated while the file is written, verified against the checksum of the remote file, if it has one, and put
+     * in the checksum cache.
      *
      * @param arcfile The source file.
      * @param fileName the source files filename.
-     * @return the storage position of the file.
-     * @throws IOFailure if an error occurs while copying into the archive.
+     * @return the MD5 checksum of the stored file.
+     * @throws IOFailure if an error occurs while copying into the archive, or the checksums do not match.
      */
-    private File copyRemoteFileToArchive(RemoteFile arcfile, String fileName) throws IOFailure {
+    private String copyRemoteFileToArchive(RemoteFile arcfile, String fileName) throws IOFailure {
         File tempDestination = admin.getTemporaryPath(fileName, arcfile.getSize());
         File destination = null;
+        String checksum;
         try {
             // The file is first copied to a temporary destination on the same
             // mount. The reason for this is to eliminate that there are files
@@ -246,7 +354,16 @@ public class Bitarchive {
             // the file is uploaded. It also means that we do not need to clean
             // up in the file directory, in case of failure - only the temporary
             // destination needs clean up.
-            arcfile.copyTo(tempDestination);
+            if (arcfile instanceof AbstractRemoteFile) {
+                checksum = ((AbstractRemoteFile) arcfile).copyToWithChecksum(tempDestination);
+            } else {
+                arcfile.copyTo(tempDestination);
+                checksum = ChecksumCalculator.calculateMd5(tempDestination);
+            }
+            if (arcfile.getChecksum() != null && !arcfile.getChecksum().equals(checksum)) {
+                throw new IOFailure("Checksum mismatch for '" + fileName + "'. Expected '" + arcfile.getChecksum()
+                        + "' but the stored data has '" + checksum + "'");
+            }
             // Note that the move operation is a constant time operation within
             // the same mount
             destination = admin.moveToStorage(tempDestination);
@@ -257,7 +374,8 @@ public class Bitarchive {
             }
             throw new IOFailure("Can't copy file into archive: " + fileName, e);
         }
-        return destination;
+        checksumCache.add(destination, checksum);
+        return checksum;
     }
 
     /**
@@ -23,14 +23,26 @@
 
 package dk.netarkivet.archive.bitarchive;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import org.slf4j.Logger;
@@ -48,6 +60,11 @@ import dk.netarkivet.common.utils.Settings;
 
 /**
  * This class handles file lookup and encapsulates the actual placement of files.
+ * <p>
+ * Lookups use an in-memory index from filename to archive directory, so they don't list the archive directories; they
+ * only check that the file still exists where the index points. The index is
+ * kept up to date when files are stored or removed through this class, and a timer checks the archive directories for
+ * files added or removed by others (see {@link ArchiveSettings#BITARCHIVE_FILE_INDEX_RECONCILE_INTERVAL}).
  */
 public final class BitarchiveAdmin {
 
@@ -56,10 +73,11 @@ public final class BitarchiveAdmin {
 
     /**
      * Map containing the archive directories and their files. The file must be the CanonicalFile (use
-     * getCanonicalFile() before access).
+     * getCanonicalFile() before access). The files of each directory are kept in a set, so single files can be found
+     * and removed in constant time.
      */
-    private Map<File, List<String>> archivedFiles = Collections
-            .synchronizedMap(new LinkedHashMap<File, List<String>>());
+    private Map<File, Set<String>> archivedFiles = Collections
+            .synchronizedMap(new LinkedHashMap<File, Set<String>>());
 
     /**
      * Map containing the time for the latest update of the filelist for each archive directory. The file must be the
@@ -67,6 +85,18 @@ public final class BitarchiveAdmin {
      */
     private Map<File, Long> archiveTime = Collections.synchronizedMap(new HashMap<File, Long>());
 
+    /** Map from the name of each archived file to the (canonical) archive directory containing it. */
+    private final ConcurrentMap<String, File> fileIndex = new ConcurrentHashMap<String, File>();
+
+    /** The name of the file in each archive directory where its filelist is saved, if persistFileIndex is set. */
+    static final String FILE_LIST_NAME = "filelist.index";
+
+    /** Whether the filelists are saved in the archive directories and reused at startup. */
+    private final boolean persistFileIndex;
+
+    /** Timer checking the archive directories for changes, or null if disabled. */
+    private Timer reconciler;
+
     /** Singleton instance. */
     private static BitarchiveAdmin instance;
 
@@ -102,6 +132,7 @@ public final class BitarchiveAdmin {
 
         log.info("Requiring at least {} bytes free.", minSpaceRequired);
         log.info("Listening if at least {} bytes free.", minSpaceLeft);
+        persistFileIndex = Settings.getBoolean(ArchiveSettings.BITARCHIVE_PERSIST_FILE_INDEX);
 
         try {
             for (String filedirname : filedirnames) {
@@ -121,9 +152,11 @@ public final class BitarchiveAdmin {
                 ApplicationUtils.dirMustExist(atticdir);
 
                 // initialise the variables archivedFiles and archiveTime
-                archivedFiles.put(basedir, new ArrayList<String>());
+                archivedFiles.put(basedir, new LinkedHashSet<String>());
                 archiveTime.put(basedir, 0L);
-                updateFileList(basedir);
+                if (!(persistFileIndex && loadFileList(basedir))) {
+                    updateFileList(basedir);
+                }
 
                 final Long bytesUsedInDir = calculateBytesUsed(basedir);
                 log.info(
@@ -135,11 +168,27 @@ public final class BitarchiveAdmin {
         } catch (IOException e) {
             throw new IOFailure("Could not retrieve Canonical files.", e);
         }
+
+        long reconcileInterval = Settings.getLong(ArchiveSettings.BITARCHIVE_FILE_INDEX_RECONCILE_INTERVAL);
+        if (reconcileInterval > 0) {
+            reconciler = new Timer("BitarchiveAdmin-reconciler", true);
+            reconciler.schedule(new TimerTask() {
+                @Override
+                public void run() {
+                    try {
+                        verifyFilelistUpToDate();
+                    } catch (Exception e) {
+                        log.warn("Failed to check the archive directories for changes", e);
+                    }
+                }
+            }, reconcileInterval, reconcileInterval);
+        }
     }
 
     /**
      * Checks whether the filelist is up to date. If the modified timestamp for the a directory is larger than the last
-     * recorded timestamp, then the stored filelist is updated with the latest changes.
+     * recorded timestamp, then the stored filelist is updated with the latest changes. If a directory has disappeared,
+     * its files are removed from the index.
      */
     public synchronized void verifyFilelistUpToDate() {
         for (File basedir : archivedFiles.keySet()) {
@@ -148,6 +197,11 @@ public final class BitarchiveAdmin {
             if (archiveTime.get(basedir) < lastModified) {
                 // Update the list and the time.
                 updateFileList(basedir);
+            } else if (lastModified == 0L && !filedir.isDirectory() && !archivedFiles.get(basedir).isEmpty()) {
+                log.warn("The directory '{}' is no longer available. Its files are removed from the index.", filedir);
+                Set<String> oldFilenames = archivedFiles.put(basedir, new LinkedHashSet<String>());
+                archiveTime.put(basedir, 0L);
+                updateIndex(basedir, oldFilenames, Collections.<String>emptySet());
             }
         }
     }
@@ -160,7 +214,7 @@ public final class BitarchiveAdmin {
      * @throws UnknownID If the basedir cannot be found both the archivedFiles map or the archiveTime map.
      * @throws IOFailure If it is not possible to retrieve the canonical file for the basedir.
      */
-    public void updateFileList(File basedir) throws ArgumentNotValid, UnknownID, IOFailure {
+    public synchronized void updateFileList(File basedir) throws ArgumentNotValid, UnknownID, IOFailure {
         ArgumentNotValid.checkNotNull(basedir, "File basedir");
         // ensure that it is the CanonicalFile for the directory.
         try {
@@ -182,8 +236,10 @@ public final class BitarchiveAdmin {
             throw new UnknownID("The directory '" + filedir + "' is not an " + " archive directory.");
         }
 
+        // Read the time before listing, so changes made while listing are found next time.
+        long lastModified = filedir.lastModified();
         String[] dirContent = filedir.list();
-        List<String> filenames = new ArrayList<String>(dirContent.length);
+        Set<String> filenames = new LinkedHashSet<String>(dirContent.length * 2);
         for (String file : dirContent) {
             // ensure that only files are handled
             if ((new File(filedir, file)).isFile()) {
@@ -192,8 +248,123 @@ public final class BitarchiveAdmin {
                 log.warn("The file '{}' in directory {} is not a proper file.", file, filedir.getPath());
             }
         }
-        archivedFiles.put(basedir, filenames);
-        archiveTime.put(basedir, filedir.lastModified());
+        Set<String> oldFilenames = archivedFiles.put(basedir, filenames);
+        archiveTime.put(basedir, lastModified);
+        updateIndex(basedir, oldFilenames, filenames);
+        if (persistFileIndex) {
+            saveFileList(basedir);
+        }
+    }
+
+    /**
+     * Update the index after the filelist of an archive directory has changed.
+     *
+     * @param basedir The canonical archive directory.
+     * @param oldFilenames The files previously in the directory, or null if none.
+     * @param filenames The files now in the directory.
+     */
+    private void updateIndex(File basedir, Set<String> oldFilenames, Set<String> filenames) {
+        if (oldFilenames != null && !oldFilenames.isEmpty()) {
+            for (String filename : oldFilenames) {
+                if (!filenames.contains(filename)) {
+                    removeFromIndex(filename, basedir);
+                }
+            }
+        }
+        for (String filename : filenames) {
+            if (!fileIndex.containsKey(filename)) {
+                fileIndex.put(filename, basedir);
+            }
+        }
+    }
+
+    /**
+     * Remove a file in the given archive directory from the index. If another archive directory has a file with the
+     * same name, the index will point to that instead.
+     *
+     * @param filename The name of the file.
+     * @param basedir The canonical archive directory the file was removed from.
+     */
+    private void removeFromIndex(String filename, File basedir) {
+        if (fileIndex.remove(filename, basedir)) {
+            for (Map.Entry<File, Set<String>> entry : archivedFiles.entrySet()) {
+                if (!entry.getKey().equals(basedir) && entry.getValue().contains(filename)) {
+                    fileIndex.put(filename, entry.getKey());
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the saved filelist of an archive directory, if the directory hasn't changed since it was saved.
+     *
+     * @param basedir The canonical archive directory.
+     * @return true if the filelist was read, false if it must be built by listing the directory.
+     */
+    private boolean loadFileList(File basedir) {
+        File listFile = new File(basedir, FILE_LIST_NAME);
+        if (!listFile.isFile()) {
+            return false;
+        }
+        File filedir = new File(basedir, Constants.FILE_DIRECTORY_NAME);
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(listFile), "UTF-8"));
+            try {
+                String line = in.readLine();
+                long lastModified = filedir.lastModified();
+                if (line == null || Long.parseLong(line) != lastModified) {
+                    log.info("The filelist '{}' is outdated, listing '{}' instead", listFile, filedir);
+                    return false;
+                }
+                Set<String> filenames = new LinkedHashSet<String>();
+                while ((line = in.readLine()) != null) {
+                    filenames.add(line);
+                }
+                Set<String> oldFilenames = archivedFiles.put(basedir, filenames);
+                archiveTime.put(basedir, lastModified);
+                updateIndex(basedir, oldFilenames, filenames);
+                log.debug("Read the filelist for '{}' from '{}'", basedir, listFile);
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn("Could not read the filelist '{}', listing '{}' instead", listFile, filedir, e);
+        } catch (NumberFormatException e) {
+            log.warn("The filelist '{}' is corrupt, listing '{}' instead", listFile, filedir, e);
+        }
+        return false;
+    }
+
+    /**
+     * Save the filelist of an archive directory together with the time of the directory it matches. Failures are only
+     * logged, since the filelist can always be built by listing the directory.
+     *
+     * @param basedir The canonical archive directory.
+     */
+    private void saveFileList(File basedir) {
+        File listFile = new File(basedir, FILE_LIST_NAME);
+        File tmpFile = new File(basedir, FILE_LIST_NAME + ".tmp");
+        try {
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8"));
+            try {
+                out.write(Long.toString(archiveTime.get(basedir)));
+                out.newLine();
+                for (String filename : archivedFiles.get(basedir)) {
+                    out.write(filename);
+                    out.newLine();
+                }
+            } finally {
+                out.close();
+            }
+            if (listFile.exists() && !listFile.delete() || !tmpFile.renameTo(listFile)) {
+                throw new IOException("Could not rename '" + tmpFile + "' to '" + listFile + "'");
+            }
+        } catch (IOException e) {
+            log.warn("Could not save the filelist for '{}' in '{}'", basedir, listFile, e);
+            tmpFile.delete();
+        }
     }
 
     /**
@@ -299,15 +470,44 @@ public final class BitarchiveAdmin {
         } catch (IOException e) {
             throw new IOFailure("Could not find canonical file for " + basedir.getAbsolutePath(), e);
         }
-        final List<String> fileList = archivedFiles.get(canonicalFile);
-        if (fileList == null) {
-            throw new UnknownID("The directory " + basedir.getAbsolutePath() + " was not found in the map of known directories and files.");
+        synchronized (this) {
+            final Set<String> fileList = archivedFiles.get(canonicalFile);
+            if (fileList == null) {
+                throw new UnknownID("The directory " + basedir.getAbsolutePath() + " was not found in the map of known directories and files.");
+            }
+            fileList.add(arcFileName);
+            archiveTime.put(canonicalFile, storagePath.lastModified());
+            fileIndex.put(arcFileName, canonicalFile);
         }
-        fileList.add(arcFileName);
-        archiveTime.put(canonicalFile, storagePath.lastModified());
         return storageFile;
     }
 
+    /**
+     * Update the filelist and the index after a file has been moved out of file storage, e.g. to the attic.
+     *
+     * @param storedFile The location the file had in file storage.
+     * @throws ArgumentNotValid If storedFile is null.
+     * @throws IOFailure If it is not possible to retrieve the canonical file for the archive directory.
+     */
+    public synchronized void removedFromStorage(File storedFile) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(storedFile, "File storedFile");
+        File storagePath = storedFile.getAbsoluteFile().getParentFile();
+        final File basedir;
+        try {
+            basedir = storagePath.getParentFile().getCanonicalFile();
+        } catch (IOException e) {
+            throw new IOFailure("Could not retrieve the canonical file for '" + storagePath.getParentFile() + "'.", e);
+        }
+        Set<String> fileList = archivedFiles.get(basedir);
+        if (fileList == null) {
+            log.warn("The file '{}' was not in a known archive directory", storedFile);
+            return;
+        }
+        fileList.remove(storedFile.getName());
+        archiveTime.put(basedir, storagePath.lastModified());
+        removeFromIndex(storedFile.getName(), basedir);
+    }
+
     /**
      * Checks whether a directory is one of the known bitarchive directories.
      *
@@ -362,7 +562,7 @@ public final class BitarchiveAdmin {
         for (File archivePath : archivedFiles.keySet()) {
             File archiveDir = new File(archivePath, Constants.FILE_DIRECTORY_NAME);
             if (checkArchiveDir(archiveDir)) {
-                List<String> filesHere = archivedFiles.get(archivePath);
+                Set<String> filesHere = archivedFiles.get(archivePath);
                 for (String filename : filesHere) {
                     files.add(new File(archiveDir, filename));
                 }
@@ -398,26 +598,48 @@ public final class BitarchiveAdmin {
     }
 
     /**
-     * Return the path that a given arc file can be found in.
+     * Return the path that a given arc file can be found in. The archive directory of the file is found in the index,
+     * and it is checked that the file still exists there. If it does not, the archive directories are checked for
+     * changes before giving up.
      *
      * @param arcFileName Name of an arc file (with no path)
      * @return A BitarchiveARCFile for the given file, or null if the file does not exist.
      */
     public BitarchiveARCFile lookup(String arcFileName) {
         ArgumentNotValid.checkNotNullOrEmpty(arcFileName, "arcFileName");
-        verifyFilelistUpToDate();
-        for (File archivePath : archivedFiles.keySet()) {
-            File archiveDir = new File(archivePath, Constants.FILE_DIRECTORY_NAME);
-            if (checkArchiveDir(archiveDir)) {
-                File archiveFile = new File(archiveDir, arcFileName);
-                if (archiveFile.exists()) {
-                    return new BitarchiveARCFile(arcFileName, archiveFile);
-                }
-            }
+        BitarchiveARCFile result = lookupInIndex(arcFileName);
+        if (result == null) {
+            verifyFilelistUpToDate();
+            result = lookupInIndex(arcFileName);
+        }
+        if (result == null) {
+            // the arcfile named "arcFileName" does not exist in this bitarchive.
+            log.trace("The arcfile named '{}' does not exist in this bitarchve", arcFileName);
+        }
+        return result;
+    }
+
+    /**
+     * Find a file through the index, checking that it still exists in the archive directory the index points to.
+     *
+     * @param arcFileName Name of an arc file (with no path)
+     * @return A BitarchiveARCFile for the given file, or null if it is not in the index or no longer exists.
+     */
+    private BitarchiveARCFile lookupInIndex(String arcFileName) {
+        File archivePath = fileIndex.get(arcFileName);
+        if (archivePath == null) {
+            return null;
         }
-        // the arcfile named "arcFileName" does not exist in this bitarchive.
-        log.trace("The arcfile named '{}' does not exist in this bitarchve", arcFileName);
-        return null;
+        File archiveDir = new File(archivePath, Constants.FILE_DIRECTORY_NAME);
+        if (!checkArchiveDir(archiveDir)) {
+            return null;
+        }
+        File archiveFile = new File(archiveDir, arcFileName);
+        if (!archiveFile.exists()) {
+            log.debug("The arcfile '{}' in the index no longer exists", archiveFile);
+            return null;
+        }
+        return new BitarchiveARCFile(arcFileName, archiveFile);
     }
 
     /**
@@ -486,11 +708,21 @@ public final class BitarchiveAdmin {
     }
 
     /**
-     * Close down the bitarchive admin. Currently has no data to store.
+     * Close down the bitarchive admin. Saves the filelists, if persistFileIndex is set.
      */
-    public void close() {
+    public synchronized void close() {
+        if (reconciler != null) {
+            reconciler.cancel();
+            reconciler = null;
+        }
+        if (persistFileIndex) {
+            for (File basedir : archivedFiles.keySet()) {
+                saveFileList(basedir);
+            }
+        }
         archivedFiles.clear();
         archiveTime.clear();
+        fileIndex.clear();
         instance = null;
     }
 
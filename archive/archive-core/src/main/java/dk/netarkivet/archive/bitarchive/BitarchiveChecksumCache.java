@@ -0,0 +1,292 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A persistent store of the MD5 checksums of the files in a bitarchive, keyed by filename.
+ * <p>
+ * Each entry records the size and last modification time of the file when the checksum was calculated. An entry is
+ * only used while the file still has that size and modification time; otherwise the checksum is recalculated. New
+ * entries are appended to the store file, which is compacted when the cache is closed.
+ * <p>
+ * The lines of the store file have the form filename##size##lastModified##checksum.
+ */
+public class BitarchiveChecksumCache {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(BitarchiveChecksumCache.class);
+
+    /** The name of the store file. */
+    static final String CACHE_FILE_NAME = "checksum.cache";
+
+    /** The separator between the fields of a line. */
+    private static final String SEPARATOR = "##";
+
+    /** The charset of the store file. */
+    private static final Charset CHARSET = Charset.forName("UTF-8");
+
+    /** The file the checksums are stored in. */
+    private final File storeFile;
+
+    /** The cached checksums, by filename. */
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    /** The writer appending to the store file; null when closed. Guarded by this. */
+    private Writer appender;
+
+    /**
+     * Open the cache, loading the checksums from the store file, if it exists.
+     *
+     * @param storeFile The file the checksums are stored in.
+     * @throws ArgumentNotValid If storeFile is null.
+     * @throws IOFailure If the store file cannot be opened for writing.
+     */
+    public BitarchiveChecksumCache(File storeFile) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(storeFile, "File storeFile");
+        this.storeFile = storeFile;
+        if (storeFile.isFile()) {
+            load();
+        }
+        try {
+            appender = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(storeFile, true), CHARSET));
+        } catch (IOException e) {
+            throw new IOFailure("Unable to open the checksum cache '" + storeFile + "'", e);
+        }
+        log.info("Using checksum cache '{}' with {} entries", storeFile, entries.size());
+    }
+
+    /**
+     * Load the entries from the store file. Later lines override earlier lines for the same file. Malformed lines are
+     * skipped.
+     */
+    private void load() {
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(storeFile), CHARSET));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split(SEPARATOR);
+                if (parts.length != 4) {
+                    log.debug("Skipping malformed line in checksum cache '{}': {}", storeFile, line);
+                    continue;
+                }
+                try {
+                    entries.put(parts[0], new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[3]));
+                } catch (NumberFormatException e) {
+                    log.debug("Skipping malformed line in checksum cache '{}': {}", storeFile, line);
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read the checksum cache '{}'. Checksums will be recalculated.", storeFile, e);
+            entries.clear();
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    log.debug("Error closing '{}'", storeFile, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the MD5 checksum of a file in the archive. The cached checksum is used if the file has not changed since it
+     * was calculated; otherwise the checksum is calculated and cached.
+     *
+     * @param file The file.
+     * @return The MD5 checksum of the file.
+     * @throws ArgumentNotValid If file is null.
+     * @throws IOFailure If the checksum cannot be calculated.
+     */
+    public String getChecksum(File file) throws ArgumentNotValid, IOFailure {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Entry entry = entries.get(file.getName());
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            log.trace("Using cached checksum for '{}'", file.getName());
+            return entry.checksum;
+        }
+        String checksum = ChecksumCalculator.calculateMd5(file);
+        put(file, size, lastModified, checksum);
+        return checksum;
+    }
+
+    /**
+     * Get the cached MD5 checksum of a file in the archive, without calculating it. The cached checksum is only used
+     * if the file has not changed since it was calculated.
+     *
+     * @param file The file.
+     * @return The cached MD5 checksum of the file, or null if no up-to-date checksum is cached.
+     * @throws ArgumentNotValid If file is null.
+     */
+    public String getCachedChecksum(File file) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        Entry entry = entries.get(file.getName());
+        if (entry != null && entry.size == file.length() && entry.lastModified == file.lastModified()) {
+            return entry.checksum;
+        }
+        return null;
+    }
+
+    /**
+     * Cache the MD5 checksum of a file which has just been stored in the archive, where the checksum was calculated
+     * while the file was written.
+     *
+     * @param file The file.
+     * @param checksum The MD5 checksum of the file.
+     * @throws ArgumentNotValid If file is null, or checksum is null or empty.
+     */
+    public void add(File file, String checksum) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
+        put(file, file.length(), file.lastModified(), checksum);
+    }
+
+    /**
+     * Remove the cached checksum of a file, e.g. because it has been removed from the archive. The store file is not
+     * changed until it is compacted; the stale entry would not match a new file anyway.
+     *
+     * @param filename The name of the file.
+     */
+    public void remove(String filename) {
+        entries.remove(filename);
+    }
+
+    /**
+     * @return The number of cached checksums.
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Cache a checksum, and append it to the store file.
+     *
+     * @param file The file.
+     * @param size The size of the file when the checksum was calculated.
+     * @param lastModified The modification time of the file when the checksum was calculated.
+     * @param checksum The checksum.
+     */
+    private void put(File file, long size, long lastModified, String checksum) {
+        entries.put(file.getName(), new Entry(size, lastModified, checksum));
+        synchronized (this) {
+            if (appender == null) {
+                return;
+            }
+            try {
+                appender.write(file.getName() + SEPARATOR + size + SEPARATOR + lastModified + SEPARATOR + checksum
+                        + "\n");
+                appender.flush();
+            } catch (IOException e) {
+                log.warn("Unable to write to the checksum cache '{}'", storeFile, e);
+            }
+        }
+    }
+
+    /**
+     * Close the cache, rewriting the store file with only the current entries.
+     */
+    public synchronized void close() {
+        if (appender == null) {
+            return;
+        }
+        try {
+            appender.close();
+        } catch (IOException e) {
+            log.debug("Error closing the checksum cache '{}'", storeFile, e);
+        }
+        appender = null;
+
+        File tmpFile = new File(storeFile.getParentFile(), storeFile.getName() + ".tmp");
+        Writer writer = null;
+        try {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), CHARSET));
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                writer.write(e.getKey() + SEPARATOR + entry.size + SEPARATOR + entry.lastModified + SEPARATOR
+                        + entry.checksum + "\n");
+            }
+            writer.close();
+            writer = null;
+            FileUtils.moveFile(tmpFile, storeFile);
+        } catch (Exception e) {
+            log.warn("Unable to compact the checksum cache '{}'", storeFile, e);
+            FileUtils.remove(tmpFile);
+        } finally {
+            if (writer != null) {
+                try {
+                    writer.close();
+                } catch (IOException e) {
+                    log.debug("Error closing '{}'", tmpFile, e);
+                }
+            }
+        }
+    }
+
+    /** A cached checksum, with the size and modification time of the file it was calculated from. */
+    private static final class Entry {
+        /** The size of the file. */
+        private final long size;
+        /** The modification time of the file. */
+        private final long lastModified;
+        /** The MD5 checksum of the file. */
+        private final String checksum;
+
+        /**
+         * Constructor.
+         *
+         * @param size The size of the file.
+         * @param lastModified The modification time of the file.
+         * @param checksum The MD5 checksum of the file.
+         */
+        private Entry(long size, long lastModified, String checksum) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+    }
+
+}
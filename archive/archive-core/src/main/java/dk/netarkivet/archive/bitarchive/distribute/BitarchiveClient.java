@@ -22,9 +22,14 @@
  */
 package dk.netarkivet.archive.bitarchive.distribute;
 
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.archive.checksum.distribute.CorrectMessage;
 import dk.netarkivet.archive.checksum.distribute.GetAllChecksumsMessage;
 import dk.netarkivet.archive.checksum.distribute.GetAllFilenamesMessage;
@@ -38,6 +43,7 @@ import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.ReplicaType;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 
 /**
@@ -63,6 +69,13 @@ public final class BitarchiveClient implements ReplicaClient {
     private ChannelID clientId = Channels.getTheRepos();
     /** The name of the replica whose client this is. */
     private String replicaId;
+    /** The maximum number of entries in the file location directory. */
+    private final int fileLocationCacheSize;
+    /**
+     * Directory from filename to the THIS_BA queue of the bitarchive application known to hold the file. Entries are
+     * kept in access order, so the least recently used entry is forgotten when the directory is full.
+     */
+    private final Map<String, ChannelID> fileLocations;
 
     /**
      * Establish the connection to the server.
@@ -78,6 +91,13 @@ public final class BitarchiveClient implements ReplicaClient {
         this.theBamon = theBamonIn;
         replicaId = Channels.retrieveReplicaFromIdentifierChannel(theBamon.getName()).getId();
         jmsCon = JMSConnectionFactory.getInstance();
+        fileLocationCacheSize = Settings.getInt(ArchiveSettings.ARCREPOSITORY_FILE_LOCATION_CACHE_SIZE);
+        fileLocations = Collections.synchronizedMap(new LinkedHashMap<String, ChannelID>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ChannelID> eldest) {
+                return size() > fileLocationCacheSize;
+            }
+        });
     }
 
     /**
@@ -121,10 +141,11 @@ public final class BitarchiveClient implements ReplicaClient {
     public void sendGetMessage(GetMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
 
-        log.debug("Resending get message '{}' to bitarchives", msg);
+        ChannelID to = getLocation(msg.getArcFile());
+        log.debug("Resending get message '{}' to {}", msg, to);
 
         try {
-            jmsCon.resend(msg, Channels.getAllBa());
+            jmsCon.resend(msg, to);
         } catch (Throwable t) {
             log.warn("Failure while resending {}", msg, t);
             try {
@@ -143,20 +164,71 @@ public final class BitarchiveClient implements ReplicaClient {
      */
     public void sendGetFileMessage(GetFileMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
-        log.debug("Resending get file message '{}' to bitarchives", msg);
-        jmsCon.resend(msg, this.allBa);
+        ChannelID to = getLocation(msg.getArcfileName());
+        log.debug("Resending get file message '{}' to {}", msg, to);
+        jmsCon.resend(msg, to);
     }
 
     /**
-     * Forward the message to ALL_BA.
+     * Forward the message to ALL_BA. The file is forgotten in the file location directory, as it is about to be
+     * removed from the bitarchive application holding it.
      *
      * @param msg the message to forward.
      */
     public void sendRemoveAndGetFileMessage(RemoveAndGetFileMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
+        fileLocations.remove(msg.getFileName());
         jmsCon.resend(msg, this.allBa);
     }
 
+    /**
+     * Remember which bitarchive application holds a file, so later get requests for the file can be sent directly to
+     * that application. Nothing is remembered if the file location directory is disabled.
+     *
+     * @param filename The name of the file.
+     * @param location The THIS_BA queue of the bitarchive application holding the file.
+     * @throws ArgumentNotValid If the filename is null or empty, or if the location is null.
+     */
+    public void addFileLocation(String filename, ChannelID location) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkNotNull(location, "ChannelID location");
+        if (fileLocationCacheSize > 0) {
+            fileLocations.put(filename, location);
+        }
+    }
+
+    /**
+     * Forget that a bitarchive application holds a file, so later get requests for the file are broadcast to all
+     * bitarchive applications again. If the file is by now known to be at another location, that location is kept.
+     *
+     * @param filename The name of the file.
+     * @param location The THIS_BA queue of the bitarchive application which no longer holds the file.
+     * @throws ArgumentNotValid If the filename is null or empty, or if the location is null.
+     */
+    public void removeFileLocation(String filename, ChannelID location) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkNotNull(location, "ChannelID location");
+        synchronized (fileLocations) {
+            if (location.equals(fileLocations.get(filename))) {
+                fileLocations.remove(filename);
+            }
+        }
+    }
+
+    /**
+     * Find the channel to send a get request for a file to.
+     *
+     * @param filename The name of the file.
+     * @return The THIS_BA queue of the bitarchive application known to hold the file, or ALL_BA if it is unknown.
+     */
+    private ChannelID getLocation(String filename) {
+        ChannelID location = fileLocations.get(filename);
+        if (location == null) {
+            return allBa;
+        }
+        return location;
+    }
+
     /**
      * Sends a message to terminate a running batchjob.
      *
@@ -30,6 +30,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.Timer;
+import java.util.TimerTask;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -87,6 +89,18 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
     /** Object that handles logical operations. */
     private BitarchiveMonitor bamon;
 
+    /**
+     * The GetChecksumMessages forwarded to the bitarchives, which have not yet been answered. The key is the ID of the
+     * forwarded message. Guarded by itself.
+     */
+    private final Map<String, GetChecksumMessage> forwardedChecksumMessages = new HashMap<String, GetChecksumMessage>();
+
+    /** The time in milliseconds to wait for a bitarchive to reply to a forwarded GetChecksumMessage. */
+    private final long directChecksumTimeout = Settings.getLong(ArchiveSettings.BITARCHIVE_DIRECT_CHECKSUM_TIMEOUT);
+
+    /** Timer handling forwarded GetChecksumMessages, which are not answered in time. */
+    private final Timer checksumTimer = new Timer("BitarchiveMonitorServer-checksums", true);
+
     /** Map for managing the messages, which are made into batchjobs. The String is the ID of the message. */
     private Map<String, NetarkivetMessage> batchConversions = new HashMap<String, NetarkivetMessage>();
 
@@ -373,18 +387,103 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
     }
 
     /**
-     * Method for handling the GetChecksumMessage. This is made into the batchjob ChecksumsJob which will be limitted to
-     * the specific filename. The batchjob will be executed on the bitarchives and the reply to the batchjob will be
-     * used as reply to the GetChecksumMessage.
+     * Method for handling the GetChecksumMessage. The message is forwarded to the bitarchives, where only the
+     * bitarchive holding the file replies, using its checksum cache. Replies from the bitarchives are received here as
+     * well, and used as reply to the original GetChecksumMessage.
+     * <p>
+     * If no bitarchive replies within the timeout, or direct requests are disabled, the message is made into the
+     * batchjob ChecksumsJob which will be limitted to the specific filename. The batchjob will be executed on the
+     * bitarchives and the reply to the batchjob will be used as reply to the GetChecksumMessage.
      *
-     * @param msg The GetAllChecksumsMessage, which will be made into a batchjob and sent to the bitarchives.
+     * @param msg The GetChecksumMessage, or the reply from a bitarchive to a forwarded GetChecksumMessage.
      * @throws ArgumentNotValid If the GetChecksumMessage is null.
      */
     public void visit(GetChecksumMessage msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "GetChecksumMessage msg");
 
+        if (msg.getIsReply()) {
+            replyToForwardedChecksumMessage(msg);
+            return;
+        }
         log.info("Receiving GetChecksumsMessage '{}'", msg);
 
+        if (directChecksumTimeout <= 0) {
+            executeChecksumBatch(msg);
+            return;
+        }
+
+        // Ask the bitarchives directly. Only the one holding the file replies.
+        final GetChecksumMessage forwardMsg = new GetChecksumMessage(Channels.getAllBa(), Channels.getTheBamon(),
+                msg.getArcfileName(), msg.getReplicaId());
+        // The ID is assigned when sending, so a reply cannot be matched until the message has been registered.
+        synchronized (forwardedChecksumMessages) {
+            try {
+                con.send(forwardMsg);
+            } catch (Throwable t) {
+                log.warn("Unable to forward '{}' to the bitarchives. Using a batchjob instead.", msg, t);
+                executeChecksumBatch(msg);
+                return;
+            }
+            forwardedChecksumMessages.put(forwardMsg.getID(), msg);
+        }
+        log.debug("Forwarded GetChecksumMessage '{}' to the bitarchives as '{}'", msg.getID(), forwardMsg.getID());
+
+        // If no bitarchive has replied within the timeout, the file is either
+        // not in the archive or its bitarchive is not answering. Fall back to
+        // the batchjob, which handles both cases.
+        checksumTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                GetChecksumMessage original;
+                synchronized (forwardedChecksumMessages) {
+                    original = forwardedChecksumMessages.remove(forwardMsg.getID());
+                }
+                if (original != null) {
+                    log.info("No bitarchive replied to '{}' within {} ms. Using a batchjob instead.",
+                            forwardMsg.getID(), directChecksumTimeout);
+                    executeChecksumBatch(original);
+                }
+            }
+        }, directChecksumTimeout);
+    }
+
+    /**
+     * Handle a reply from a bitarchive to a forwarded GetChecksumMessage, by replying to the original message with the
+     * result. If the bitarchive could not answer, the batchjob is used instead. Replies to messages, which have already
+     * been answered or have timed out, are ignored.
+     *
+     * @param reply The reply from the bitarchive.
+     */
+    private void replyToForwardedChecksumMessage(GetChecksumMessage reply) {
+        GetChecksumMessage msg;
+        synchronized (forwardedChecksumMessages) {
+            msg = forwardedChecksumMessages.remove(reply.getID());
+        }
+        if (msg == null) {
+            log.debug("Ignoring reply to GetChecksumMessage '{}', which has already been handled", reply.getID());
+            return;
+        }
+        if (!reply.isOk()) {
+            // The bitarchive holds the file, but could not answer from its
+            // checksum cache. Let the batchjob calculate the checksum.
+            log.info("The bitarchive could not answer '{}': {}. Using a batchjob instead.", reply.getID(),
+                    reply.getErrMsg());
+            executeChecksumBatch(msg);
+            return;
+        }
+        msg.setChecksum(reply.getChecksum());
+        log.info("Replying GetChecksumMessage: '{}'.", msg.toString());
+        msg.setIsReply();
+        con.reply(msg);
+    }
+
+    /**
+     * Make a GetChecksumMessage into a ChecksumJob limited to the specific filename, and execute it on the
+     * bitarchives.
+     *
+     * @param msg The GetChecksumMessage.
+     */
+    private void executeChecksumBatch(GetChecksumMessage msg) {
         // Create batchjob for the GetAllChecksumsMessage.
         ChecksumJob cj = new ChecksumJob();
         cj.processOnlyFileNamed(msg.getArcfileName());
@@ -691,6 +790,10 @@ public class BitarchiveMonitorServer extends ArchiveMessageHandler implements Ob
         if (instance != null) {
             con.removeListener(Channels.getTheBamon(), this);
             batchConversions.clear();
+            checksumTimer.cancel();
+            synchronized (forwardedChecksumMessages) {
+                forwardedChecksumMessages.clear();
+            }
             instance = null;
             if (bamon != null) {
                 bamon.cleanup();
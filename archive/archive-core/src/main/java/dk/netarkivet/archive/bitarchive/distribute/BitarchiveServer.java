@@ -35,12 +35,14 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.archive.bitarchive.Bitarchive;
 import dk.netarkivet.archive.bitarchive.BitarchiveAdmin;
+import dk.netarkivet.archive.checksum.distribute.GetChecksumMessage;
 import dk.netarkivet.archive.distribute.ArchiveMessageHandler;
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.distribute.ChannelID;
 import dk.netarkivet.common.distribute.Channels;
 import dk.netarkivet.common.distribute.JMSConnection;
 import dk.netarkivet.common.distribute.JMSConnectionFactory;
+import dk.netarkivet.common.distribute.NetarkivetMessage;
 import dk.netarkivet.common.distribute.NullRemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
@@ -87,6 +89,10 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
     private ChannelID allBa;
     /** Topic to listen on for store. */
     private ChannelID anyBa;
+    /** Queue to listen on for get requests addressed to this bitarchive application only. */
+    private ChannelID thisBa;
+    /** The listener for get requests on thisBa. */
+    private DirectMessageHandler directHandler;
     /** Channel to send BatchEnded messages to when replying. */
     private ChannelID baMon;
 
@@ -139,10 +145,13 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
 
         allBa = Channels.getAllBa();
         anyBa = Channels.getAnyBa();
+        thisBa = Channels.getThisBa();
         baMon = Channels.getTheBamon();
         ba = Bitarchive.getInstance();
         con = JMSConnectionFactory.getInstance();
         con.setListener(allBa, this);
+        directHandler = new DirectMessageHandler();
+        con.setListener(thisBa, directHandler);
         baa = BitarchiveAdmin.getInstance();
         if (baa.hasEnoughSpace()) {
             con.setListener(anyBa, this);
@@ -161,7 +170,7 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
         timer.scheduleAtFixedRate(heartBeatSender, 0, frequency);
         log.info("Heartbeat frequency: '{}'", frequency);
         // Next logentry depends on whether we are listening to ANY_BA or not
-        String logmsg = "Created bitarchive server listening on: " + allBa.getName();
+        String logmsg = "Created bitarchive server listening on: " + allBa.getName() + ", " + thisBa.getName();
         if (listening) {
             logmsg += " and " + anyBa.getName();
         }
@@ -181,6 +190,7 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
         if (con != null) {
             con.removeListener(allBa, this);
             con.removeListener(anyBa, this);
+            con.removeListener(thisBa, directHandler);
             con = null;
         }
         log.info("BitarchiveServer {} closed down", getBitarchiveAppId());
@@ -215,6 +225,17 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
     @Override
     public void visit(GetMessage msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "GetMessage msg");
+        get(msg, true);
+    }
+
+    /**
+     * Process a get request and send the result back to the client. If the arcfile is not found on this bitarchive
+     * machine, nothing happens.
+     *
+     * @param msg a container for get request
+     * @param announce Whether the ArcRepository should be told that the file is stored here, if it is found.
+     */
+    private void get(GetMessage msg, boolean announce) {
         BitarchiveRecord bar;
         log.trace("Processing getMessage({}:{}).", msg.getArcFile(), msg.getIndex());
         try {
@@ -229,9 +250,49 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
             msg.setRecord(bar);
             log.debug("Sending reply: {}", msg.toString());
             con.reply(msg);
+            if (announce) {
+                announceFileLocation(msg.getArcFile());
+            }
         } else {
             log.trace("Record({}:{}). not found on this BitarchiveServer", msg.getArcFile(), msg.getIndex());
+            if (!announce) {
+                redirectMiss(msg, msg.getArcFile());
+            }
+        }
+    }
+
+    /**
+     * Process a request for the checksum of a single file and send the result back to the client. If the file is not
+     * found on this bitarchive machine, nothing happens.
+     * <p>
+     * The checksum is only taken from the checksum cache, since calculating it would block the listener for as long as
+     * it takes to read the file. If it is not cached, a not-OK reply is sent, and the client must find the checksum
+     * otherwise, e.g. with a batchjob.
+     *
+     * @param msg a container for the checksum request
+     * @throws ArgumentNotValid If the message is null.
+     */
+    @Override
+    public void visit(GetChecksumMessage msg) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(msg, "GetChecksumMessage msg");
+        log.trace("Processing GetChecksumMessage({}).", msg.getArcfileName());
+        try {
+            String checksum = ba.getCachedChecksum(msg.getArcfileName());
+            if (checksum == null) {
+                log.trace("File '{}' not found on this BitarchiveServer", msg.getArcfileName());
+                return;
+            }
+            msg.setChecksum(checksum);
+        } catch (UnknownID e) {
+            log.debug("No cached checksum for '{}'", msg.getArcfileName(), e);
+            msg.setNotOk(e);
+        } catch (Throwable t) {
+            log.warn("Error while processing GetChecksumMessage '{}'", msg, t);
+            msg.setNotOk(t);
         }
+        msg.setIsReply();
+        log.debug("Sending reply: {}", msg.toString());
+        con.reply(msg);
     }
 
     /**
@@ -251,8 +312,9 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
                 synchronized (this) {
                     // Important when two identical files are uploaded
                     // simultanously.
-                    ba.upload(msg.getRemoteFile(), msg.getArcfileName());
+                    msg.setChecksum(ba.upload(msg.getRemoteFile(), msg.getArcfileName()));
                 }
+                announceFileLocation(msg.getArcfileName());
             } catch (Throwable t) {
                 log.warn("Error while processing upload message '{}'", msg, t);
                 msg.setNotOk(t);
@@ -328,12 +390,17 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
 
             log.debug("Checksums matched - preparing to move and return file");
             File moveTo = baa.getAtticPath(foundFile);
-            if (!foundFile.renameTo(moveTo)) {
+            ba.closeReaders(foundFile);
+            boolean moved = foundFile.renameTo(moveTo);
+            // Get requests may have opened a reader on the file while it was being moved
+            ba.closeReaders(foundFile);
+            if (!moved) {
                 final String message = "Failed to move the file:" + foundFile + "to attic";
                 log.warn(message);
                 msg.setNotOk(message);
                 return;
             }
+            baa.removedFromStorage(foundFile);
             msg.setFile(moveTo);
 
             log.warn("Removed file '{}' with checksum '{}'", msg.getFileName(), msg.getCheckSum());
@@ -443,7 +510,16 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
     @Override
     public void visit(GetFileMessage msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "GetFileMessage msg");
+        getFile(msg, true);
+    }
 
+    /**
+     * Process a getFile request and send the result back to the client.
+     *
+     * @param msg a container for a getfile request
+     * @param announce Whether the ArcRepository should be told that the file is stored here, if it is found.
+     */
+    private void getFile(GetFileMessage msg, boolean announce) {
         try {
             File foundFile = ba.getFile(msg.getArcfileName());
             // Only send an reply if the file was found
@@ -454,12 +530,73 @@ public class BitarchiveServer extends ArchiveMessageHandler implements CleanupIF
                 msg.setFile(foundFile);
                 log.info("Sending reply: {}", msg.toString());
                 con.reply(msg);
+                if (announce) {
+                    announceFileLocation(msg.getArcfileName());
+                }
+            } else if (!announce) {
+                redirectMiss(msg, msg.getArcfileName());
             }
         } catch (Throwable t) {
             log.warn("Error while processing get file message '{}'", msg, t);
         }
     }
 
+    /**
+     * Tell the ArcRepository that a file is stored on this bitarchive application, so later get requests for the file
+     * can be sent directly to thisBa. Failures are only logged, as the get requests then just keep being sent to allBa.
+     *
+     * @param filename The name of the file stored here.
+     */
+    private void announceFileLocation(String filename) {
+        try {
+            con.send(new FileLocationMessage(Channels.getTheRepos(), filename,
+                    Settings.get(CommonSettings.USE_REPLICA_ID), thisBa));
+        } catch (Throwable t) {
+            log.warn("Could not announce the location of file '{}'", filename, t);
+        }
+    }
+
+    /**
+     * Handle a get request sent directly to this bitarchive application for a file it does not hold, e.g. because the
+     * file has been removed or moved since its location was announced. The ArcRepository is told to forget the
+     * location, and the request is sent on to allBa, so the client still gets its reply from the bitarchive application
+     * holding the file.
+     *
+     * @param msg The get request.
+     * @param filename The name of the requested file.
+     */
+    private void redirectMiss(NetarkivetMessage msg, String filename) {
+        log.debug("File '{}' requested directly from this bitarchive application, but not found here. Sending the "
+                + "request to all bitarchive applications", filename);
+        try {
+            con.send(new FileLocationMessage(Channels.getTheRepos(), filename,
+                    Settings.get(CommonSettings.USE_REPLICA_ID), thisBa, false));
+        } catch (Throwable t) {
+            log.warn("Could not make the ArcRepository forget the location of file '{}'", filename, t);
+        }
+        con.resend(msg, Channels.getAllBa());
+    }
+
+    /**
+     * Handler for the get requests sent directly to this bitarchive application on thisBa. The requests are processed
+     * as those received on allBa, except that the location of the file is not announced again, as the sender already
+     * knew it. Requests for files not found here are sent on to allBa.
+     */
+    private class DirectMessageHandler extends ArchiveMessageHandler {
+
+        @Override
+        public void visit(GetMessage msg) throws ArgumentNotValid {
+            ArgumentNotValid.checkNotNull(msg, "GetMessage msg");
+            get(msg, false);
+        }
+
+        @Override
+        public void visit(GetFileMessage msg) throws ArgumentNotValid {
+            ArgumentNotValid.checkNotNull(msg, "GetFileMessage msg");
+            getFile(msg, false);
+        }
+    }
+
     /**
      * Returns a String that identifies this bit archive application (within the bit archive, i.e. either with id ONE or
      * TWO)
@@ -0,0 +1,133 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive.distribute;
+
+import dk.netarkivet.archive.distribute.ArchiveMessage;
+import dk.netarkivet.archive.distribute.ArchiveMessageVisitor;
+import dk.netarkivet.common.distribute.ChannelID;
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Message from a bitarchive application telling the ArcRepository that a given file is stored on it. The ArcRepository
+ * uses this to send later get requests for the file directly to the queue of the bitarchive application, instead of
+ * broadcasting them to all bitarchive applications in the replica. The message can also tell that the file is no
+ * longer stored on the bitarchive application, so the ArcRepository forgets the location again. No reply is sent.
+ */
+@SuppressWarnings({"serial"})
+public class FileLocationMessage extends ArchiveMessage {
+
+    /** The name of the file that is stored on the bitarchive application. */
+    private String filename;
+    /** The id of the replica the bitarchive application belongs to. */
+    private String replicaId;
+    /** The queue on which only the bitarchive application holding the file listens. */
+    private ChannelID location;
+    /** Whether the file is stored at the location, or is no longer stored there. */
+    private boolean stored;
+
+    /**
+     * Creates a file location message.
+     *
+     * @param inReceiver ChannelID for the recipient of this message.
+     * @param filename The name of the file stored on the bitarchive application.
+     * @param replicaId The id of the replica the bitarchive application belongs to.
+     * @param location The queue of the bitarchive application holding the file.
+     * @throws ArgumentNotValid If any argument is null, or if the filename or replicaId is empty.
+     */
+    public FileLocationMessage(ChannelID inReceiver, String filename, String replicaId, ChannelID location)
+            throws ArgumentNotValid {
+        this(inReceiver, filename, replicaId, location, true);
+    }
+
+    /**
+     * Creates a file location message, which tells either that a file is stored on a bitarchive application, or that
+     * it is no longer stored there.
+     *
+     * @param inReceiver ChannelID for the recipient of this message.
+     * @param filename The name of the file.
+     * @param replicaId The id of the replica the bitarchive application belongs to.
+     * @param location The queue of the bitarchive application.
+     * @param stored Whether the file is stored on the bitarchive application.
+     * @throws ArgumentNotValid If any argument is null, or if the filename or replicaId is empty.
+     */
+    public FileLocationMessage(ChannelID inReceiver, String filename, String replicaId, ChannelID location,
+            boolean stored) throws ArgumentNotValid {
+        super(inReceiver, Channels.getError());
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
+        ArgumentNotValid.checkNotNull(location, "ChannelID location");
+        this.filename = filename;
+        this.replicaId = replicaId;
+        this.location = location;
+        this.stored = stored;
+    }
+
+    /**
+     * @return The name of the file stored on the bitarchive application.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * @return The id of the replica the bitarchive application belongs to.
+     */
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    /**
+     * @return The queue of the bitarchive application holding the file.
+     */
+    public ChannelID getLocation() {
+        return location;
+    }
+
+    /**
+     * @return Whether the file is stored at the location, or is no longer stored there.
+     */
+    public boolean isStored() {
+        return stored;
+    }
+
+    /**
+     * Retrieval of a string representation of this instance.
+     *
+     * @return The string representation of this instance.
+     */
+    public String toString() {
+        return super.toString() + " File '" + filename + "' is " + (stored ? "" : "no longer ") + "stored at "
+                + location + " in replica " + replicaId;
+    }
+
+    /**
+     * Should be implemented as a part of the visitor pattern. fx.: public void accept(ArchiveMessageVisitor v) {
+     * v.visit(this); }
+     *
+     * @param v A message visitor
+     */
+    public void accept(ArchiveMessageVisitor v) {
+        v.visit(this);
+    }
+}
@@ -39,6 +39,9 @@ public class UploadMessage extends ArchiveMessage {
     /** The actual data. */
     private RemoteFile theRemoteFile;
 
+    /** The checksum of the file as stored by the replica, calculated while it was written. Set in the reply. */
+    private String checksum;
+
     /**
      * Construct UploadMessage.
      *
@@ -71,6 +74,27 @@ public class UploadMessage extends ArchiveMessage {
         return theRemoteFile;
     }
 
+    /**
+     * Retrieves the checksum of the file as stored by the replica. This method is intended for the reply.
+     *
+     * @return The checksum calculated by the replica while storing the file, or null if the replica did not report
+     * one.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * Set the checksum of the file as stored by the replica.
+     *
+     * @param cs The checksum.
+     * @throws ArgumentNotValid If the checksum is either null or an empty string.
+     */
+    public void setChecksum(String cs) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNullOrEmpty(cs, "String cs");
+        checksum = cs;
+    }
+
     /**
      * Should be implemented as a part of the visitor pattern. fx.: public void accept(ArchiveMessageVisitor v) {
      * v.visit(this); }
@@ -87,7 +111,7 @@ public class UploadMessage extends ArchiveMessage {
      * @return String representation of this object
      */
     public String toString() {
-        return super.toString() + " Arcfile: " + arcfileName;
+        return super.toString() + " Arcfile: " + arcfileName + ", Checksum: " + checksum;
     }
 
 }
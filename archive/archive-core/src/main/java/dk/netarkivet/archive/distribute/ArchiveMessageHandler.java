@@ -33,6 +33,7 @@ import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchEndedMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
+import dk.netarkivet.archive.bitarchive.distribute.FileLocationMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetFileMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetMessage;
 import dk.netarkivet.archive.bitarchive.distribute.HeartBeatMessage;
@@ -149,6 +150,17 @@ public abstract class ArchiveMessageHandler implements ArchiveMessageVisitor, Me
         deny(msg);
     }
 
+    /**
+     * This method should be overridden and implemented by a sub class if message handling is wanted.
+     *
+     * @param msg a FileLocationMessage
+     * @throws PermissionDenied when invoked
+     */
+    public void visit(FileLocationMessage msg) throws PermissionDenied {
+        ArgumentNotValid.checkNotNull(msg, "msg");
+        deny(msg);
+    }
+
     /**
      * This method should be overridden and implemented by a sub class if message handling is wanted.
      *
@@ -27,6 +27,7 @@ import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchEndedMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
+import dk.netarkivet.archive.bitarchive.distribute.FileLocationMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetFileMessage;
 import dk.netarkivet.archive.bitarchive.distribute.GetMessage;
 import dk.netarkivet.archive.bitarchive.distribute.HeartBeatMessage;
@@ -144,4 +145,11 @@ public interface ArchiveMessageVisitor {
      * @param msg A received message.
      */
     void visit(GetAllFilenamesMessage msg);
+
+    /**
+     * This method should be overridden to handle the receipt of a message.
+     *
+     * @param msg A received message.
+     */
+    void visit(FileLocationMessage msg);
 }
@@ -0,0 +1,73 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+public class ReplicaFileInfoGuidSetTester {
+
+    @Test
+    public void testMarkFound() {
+        ReplicaFileInfoGuidSet set = new ReplicaFileInfoGuidSet(new long[] {42L, 7L, 1000000000000L, 3L});
+        assertEquals(4, set.countMissing());
+
+        assertTrue(set.markFound(7L));
+        assertFalse("Marking twice should not change anything", set.markFound(7L));
+        assertFalse("Unknown guids should be ignored", set.markFound(8L));
+        assertTrue(set.markFound(1000000000000L));
+
+        assertEquals(2, set.countMissing());
+        assertTrue(set.isMissing(3L));
+        assertFalse(set.isMissing(7L));
+        assertFalse(set.isMissing(8L));
+
+        List<Long> missing = new ArrayList<Long>();
+        for (long guid : set) {
+            missing.add(guid);
+        }
+        assertEquals(Arrays.asList(3L, 42L), missing);
+    }
+
+    @Test
+    public void testEmpty() {
+        ReplicaFileInfoGuidSet set = new ReplicaFileInfoGuidSet(new long[0]);
+        assertEquals(0, set.countMissing());
+        assertFalse(set.iterator().hasNext());
+        assertFalse(set.markFound(1L));
+    }
+
+    @Test(expected = ArgumentNotValid.class)
+    public void testNullGuids() {
+        new ReplicaFileInfoGuidSet(null);
+    }
+}
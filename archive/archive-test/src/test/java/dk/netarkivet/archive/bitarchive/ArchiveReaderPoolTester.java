@@ -0,0 +1,283 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.archive.io.ArchiveReader;
+import org.archive.io.ArchiveReaderFactory;
+import org.archive.io.ArchiveRecord;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the ArchiveReaderPool.
+ */
+public class ArchiveReaderPoolTester {
+
+    private static final File ARC_FILE = new File(TestInfo.DATA_DIR, "getFile/originals/filedir/Upload1.ARC");
+
+    private File workDir;
+    private File file1;
+    private File file2;
+    private ArchiveReaderPool pool;
+
+    @Before
+    public void setUp() {
+        workDir = new File(TestInfo.DATA_DIR, "readerpool");
+        FileUtils.removeRecursively(workDir);
+        FileUtils.createDir(workDir);
+        file1 = new File(workDir, "file1.arc");
+        file2 = new File(workDir, "file2.arc");
+        FileUtils.copyFile(ARC_FILE, file1);
+        FileUtils.copyFile(ARC_FILE, file2);
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+        FileUtils.removeRecursively(workDir);
+    }
+
+    /** Test that a released reader is reused for the same file, and can still read records. */
+    @Test
+    public void testReaderIsReused() throws Exception {
+        pool = new ArchiveReaderPool(2, 0);
+        ArchiveReader reader = pool.borrow(file1);
+        readRecord(reader);
+        pool.release(file1, reader, true);
+
+        ArchiveReader other = pool.borrow(file2);
+        assertNotSame("Another file should get another reader", reader, other);
+        pool.release(file2, other, true);
+
+        ArchiveReader again = pool.borrow(file1);
+        assertSame("The released reader should be reused", reader, again);
+        readRecord(again);
+        pool.release(file1, again, true);
+
+        assertEquals("Should count the reused reader as a hit", 1, pool.getHits());
+        assertEquals("Should count the opened readers as misses", 2, pool.getMisses());
+        assertEquals("Both readers should be kept open", 2, pool.getIdleReaders());
+    }
+
+    /** Test that the least recently used reader is closed when the pool is full. */
+    @Test
+    public void testMaxOpenReaders() throws Exception {
+        pool = new ArchiveReaderPool(1, 0);
+        ArchiveReader reader = pool.borrow(file1);
+        pool.release(file1, reader, true);
+        pool.release(file2, pool.borrow(file2), true);
+        assertEquals("The first reader should be evicted", 1, pool.getEvictions());
+        assertEquals("Only one reader should be open", 1, pool.getOpenReaders());
+
+        ArchiveReader inUse = pool.borrow(file2);
+        ArchiveReader extra = pool.borrow(file1);
+        assertEquals("A reader should be opened although all are in use", 2, pool.getOpenReaders());
+        pool.release(file1, extra, true);
+        pool.release(file2, inUse, true);
+        assertEquals("The reader above the maximum should be closed when released", 1, pool.getOpenReaders());
+        assertNotSame("The evicted reader should not be reused", reader, pool.borrow(file1));
+    }
+
+    /** Test that readers are not kept when the pool is disabled, or when they are not reusable. */
+    @Test
+    public void testReadersNotKept() throws Exception {
+        pool = new ArchiveReaderPool(0, 0);
+        pool.release(file1, pool.borrow(file1), true);
+        assertEquals("A disabled pool should keep no readers", 0, pool.getOpenReaders());
+        pool.close();
+
+        pool = new ArchiveReaderPool(2, 0);
+        pool.release(file1, pool.borrow(file1), false);
+        assertEquals("A reader which is not reusable should be closed", 0, pool.getOpenReaders());
+    }
+
+    /** Test that idle readers are closed when the file is evicted or they have been idle too long. */
+    @Test
+    public void testEviction() throws Exception {
+        pool = new ArchiveReaderPool(2, 0);
+        pool.release(file1, pool.borrow(file1), true);
+        pool.release(file2, pool.borrow(file2), true);
+        pool.evict(file1);
+        assertEquals("The reader for the evicted file should be closed", 1, pool.getIdleReaders());
+
+        pool.evictIdle(System.currentTimeMillis() + 1);
+        assertEquals("The idle reader should be closed", 0, pool.getOpenReaders());
+        assertEquals("Should count the idle reader as evicted", 1, pool.getEvictions());
+    }
+
+    /** Test that a reader in use when its file is evicted is closed when released, even if the file still exists. */
+    @Test
+    public void testEvictionOfReaderInUse() throws Exception {
+        pool = new ArchiveReaderPool(2, 0);
+        ArchiveReader reader = pool.borrow(file1);
+        pool.evict(file1);
+        ArchiveReader borrowedAfterEviction = pool.borrow(file1);
+        pool.release(file1, reader, true);
+        assertEquals("The reader borrowed before the eviction should be closed", 0, pool.getIdleReaders());
+        pool.release(file1, borrowedAfterEviction, true);
+        assertEquals("The reader borrowed after the eviction should be kept", 1, pool.getIdleReaders());
+        assertEquals("Only the kept reader should be open", 1, pool.getOpenReaders());
+    }
+
+    /** Test that a reused reader can read records after the first one, in an uncompressed and a compressed file. */
+    @Test
+    public void testReusedReaderReadsLaterRecords() throws Exception {
+        File compressed = new File(workDir, "file3.arc.gz");
+        compress(file1, compressed);
+        checkReusedReaderReadsLaterRecords(file1);
+        checkReusedReaderReadsLaterRecords(compressed);
+    }
+
+    /**
+     * Read the last record of a file through a reused reader, and then the second record, and check that they are the
+     * same as when read through a new reader.
+     *
+     * @param file An archive file with at least three records.
+     */
+    private void checkReusedReaderReadsLaterRecords(File file) throws Exception {
+        List<Long> offsets = recordOffsets(file);
+        assertTrue("Should have at least three records in " + file, offsets.size() >= 3);
+        long last = offsets.get(offsets.size() - 1);
+        long second = offsets.get(1);
+        if (pool != null) {
+            pool.close();
+        }
+        pool = new ArchiveReaderPool(1, 0);
+        ArchiveReader reader = pool.borrow(file);
+        readRecord(reader);
+        pool.release(file, reader, true);
+
+        reader = pool.borrow(file);
+        assertEquals("The reader should be reused", 1, pool.getHits());
+        assertArrayEquals("Should read the last record of " + file, readNewRecord(file, last),
+                readRecord(reader, last));
+        pool.release(file, reader, true);
+
+        reader = pool.borrow(file);
+        assertArrayEquals("Should read the second record of " + file, readNewRecord(file, second),
+                readRecord(reader, second));
+        pool.release(file, reader, true);
+    }
+
+    /**
+     * Write a compressed copy of an uncompressed ARC file, with each record in a gzip member of its own.
+     *
+     * @param from The uncompressed ARC file.
+     * @param to The compressed file to write.
+     */
+    private void compress(File from, File to) throws Exception {
+        byte[] data = FileUtils.readBinaryFile(from);
+        List<Long> offsets = recordOffsets(from);
+        offsets.add((long) data.length);
+        OutputStream out = new FileOutputStream(to);
+        try {
+            for (int i = 0; i < offsets.size() - 1; i++) {
+                ByteArrayOutputStream member = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(member);
+                gzip.write(Arrays.copyOfRange(data, offsets.get(i).intValue(), offsets.get(i + 1).intValue()));
+                gzip.close();
+                member.writeTo(out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @param file An archive file.
+     * @return The offsets of the records in the file, read through a new reader.
+     */
+    private List<Long> recordOffsets(File file) throws IOException {
+        List<Long> offsets = new ArrayList<Long>();
+        ArchiveReader reader = ArchiveReaderFactory.get(file);
+        try {
+            for (ArchiveRecord record : reader) {
+                offsets.add(record.getHeader().getOffset());
+            }
+        } finally {
+            reader.close();
+        }
+        return offsets;
+    }
+
+    /**
+     * @param file An archive file.
+     * @param offset The offset of a record in the file.
+     * @return The record, read through a new reader.
+     */
+    private byte[] readNewRecord(File file, long offset) throws IOException {
+        ArchiveReader reader = ArchiveReaderFactory.get(file);
+        try {
+            return readRecord(reader, offset);
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * @param reader A reader.
+     * @param offset The offset of a record.
+     * @return The URL and content of the record.
+     */
+    private byte[] readRecord(ArchiveReader reader, long offset) throws IOException {
+        ArchiveRecord record = reader.get(offset);
+        try {
+            ByteArrayOutputStream content = new ByteArrayOutputStream();
+            content.write(record.getHeader().getUrl().getBytes("UTF-8"));
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = record.read(buffer)) != -1) {
+                content.write(buffer, 0, read);
+            }
+            return content.toByteArray();
+        } finally {
+            record.close();
+        }
+    }
+
+    private void readRecord(ArchiveReader reader) throws Exception {
+        ArchiveRecord record = reader.get(0);
+        record.close();
+    }
+}
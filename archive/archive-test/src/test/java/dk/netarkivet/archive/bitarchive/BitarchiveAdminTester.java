@@ -287,6 +287,74 @@ public class BitarchiveAdminTester {
         assertNull("Should return null on non-existing file", file);
     }
 
+    /**
+     * Test that files added and removed outside the bitarchive are found when the directories are checked.
+     */
+    @Test
+    public void testLookupFindsExternalChanges() throws Exception {
+        File filedir = new File(BA_DIR_1, FILEDIR);
+        new File(filedir, "file6").createNewFile();
+        // Make sure the change is seen, even with coarse file timestamps
+        filedir.setLastModified(filedir.lastModified() + 2000);
+        BitarchiveARCFile file = ad.lookup("file6");
+        assertNotNull("Should find file added outside the bitarchive", file);
+        assertEquals("Should be right file", new File(filedir, "file6").getCanonicalPath(), file.getFilePath()
+                .getCanonicalPath());
+
+        assertTrue("Should delete file", new File(filedir, "file1").delete());
+        assertNull("Should not find file removed outside the bitarchive before the directories are checked",
+                ad.lookup("file1"));
+        filedir.setLastModified(filedir.lastModified() + 4000);
+        ad.verifyFilelistUpToDate();
+        assertNull("Should not find file removed outside the bitarchive", ad.lookup("file1"));
+
+        FileUtils.removeRecursively(BA_DIR_2);
+        ad.verifyFilelistUpToDate();
+        assertNull("Should not find files in a dead dir", ad.lookup("file3"));
+        assertNotNull("Should still find files in other dirs", ad.lookup("file2"));
+    }
+
+    /**
+     * Test that removedFromStorage removes the file from the lookup index and the file list.
+     */
+    @Test
+    public void testRemovedFromStorage() throws Exception {
+        File stored = ad.lookup("file1").getFilePath();
+        File attic = ad.getAtticPath(stored);
+        assertTrue("Should move file to attic", stored.renameTo(attic));
+        ad.removedFromStorage(stored);
+        assertNull("Should not find removed file", ad.lookup("file1"));
+        assertEquals("Should not list removed file", 3, ad.getFiles().length);
+    }
+
+    /**
+     * Test that the filelists are saved and reused when persistFileIndex is set, unless the directory has changed.
+     */
+    @Test
+    public void testPersistedFileList() throws Exception {
+        Settings.set(ArchiveSettings.BITARCHIVE_PERSIST_FILE_INDEX, "true");
+        ad.close();
+        ad = BitarchiveAdmin.getInstance();
+        ad.close();
+        File listFile = new File(BA_DIR_1.getCanonicalFile(), BitarchiveAdmin.FILE_LIST_NAME);
+        assertTrue("Should have saved the filelist", listFile.isFile());
+
+        // A name only in the saved list shows that the list is used.
+        FileUtils.appendToFile(listFile, "ghost");
+        ad = BitarchiveAdmin.getInstance();
+        assertEquals("Should use the saved filelist", 1, ad.getFilesMatching(Pattern.compile("ghost")).length);
+        assertNull("Should not look up a listed file which does not exist", ad.lookup("ghost"));
+        assertNotNull("Should still find other files", ad.lookup("file3"));
+        ad.close();
+
+        File filedir = new File(BA_DIR_1, FILEDIR);
+        filedir.setLastModified(filedir.lastModified() + 2000);
+        ad = BitarchiveAdmin.getInstance();
+        assertEquals("Should list the directory when it has changed", 0,
+                ad.getFilesMatching(Pattern.compile("ghost")).length);
+        assertNotNull("Should find files after listing", ad.lookup("file1"));
+    }
+
     @Test
     public void testGetInstance() throws Exception {
         ad.close();
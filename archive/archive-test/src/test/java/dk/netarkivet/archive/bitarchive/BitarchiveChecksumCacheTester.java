@@ -0,0 +1,121 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.bitarchive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the BitarchiveChecksumCache.
+ */
+public class BitarchiveChecksumCacheTester {
+
+    private File workDir;
+    private File storeFile;
+    private File archiveFile;
+
+    @Before
+    public void setUp() {
+        workDir = new File("tests/dk/netarkivet/archive/bitarchive/data/checksumcache");
+        FileUtils.removeRecursively(workDir);
+        FileUtils.createDir(workDir);
+        storeFile = new File(workDir, BitarchiveChecksumCache.CACHE_FILE_NAME);
+        archiveFile = new File(workDir, "1-1-20070101000000-00000-test.arc");
+        FileUtils.writeBinaryFile(archiveFile, "some arc content".getBytes());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(workDir);
+    }
+
+    /** Test that checksums survive closing and reopening the cache. */
+    @Test
+    public void testChecksumIsPersisted() {
+        BitarchiveChecksumCache cache = new BitarchiveChecksumCache(storeFile);
+        String checksum = cache.getChecksum(archiveFile);
+        assertEquals("Should calculate the MD5 checksum", ChecksumCalculator.calculateMd5(archiveFile), checksum);
+        cache.close();
+        assertTrue("The store file should exist after close", storeFile.isFile());
+
+        cache = new BitarchiveChecksumCache(storeFile);
+        assertEquals("Should load the entry from the store file", 1, cache.size());
+        assertEquals("Should return the stored checksum", checksum, cache.getChecksum(archiveFile));
+        cache.close();
+    }
+
+    /** Test that a stale entry is not used when the file has changed. */
+    @Test
+    public void testChangedFileIsRecalculated() {
+        BitarchiveChecksumCache cache = new BitarchiveChecksumCache(storeFile);
+        String oldChecksum = cache.getChecksum(archiveFile);
+        FileUtils.writeBinaryFile(archiveFile, "some other and longer arc content".getBytes());
+        String newChecksum = cache.getChecksum(archiveFile);
+        assertTrue("Should not use the stale checksum", !oldChecksum.equals(newChecksum));
+        assertEquals("Should calculate the new checksum", ChecksumCalculator.calculateMd5(archiveFile), newChecksum);
+        cache.close();
+
+        cache = new BitarchiveChecksumCache(storeFile);
+        assertEquals("The latest entry should win when loading", newChecksum, cache.getChecksum(archiveFile));
+        cache.close();
+    }
+
+    /** Test that only up-to-date checksums are returned from the cache, without calculating them. */
+    @Test
+    public void testGetCachedChecksum() {
+        BitarchiveChecksumCache cache = new BitarchiveChecksumCache(storeFile);
+        assertNull("Nothing should be cached yet", cache.getCachedChecksum(archiveFile));
+        assertEquals("Should still not be cached", 0, cache.size());
+        String checksum = cache.getChecksum(archiveFile);
+        assertEquals("Should return the cached checksum", checksum, cache.getCachedChecksum(archiveFile));
+        FileUtils.writeBinaryFile(archiveFile, "some other and longer arc content".getBytes());
+        assertNull("Should not return a stale checksum", cache.getCachedChecksum(archiveFile));
+        cache.close();
+    }
+
+    /** Test that removed entries are dropped from the store file on close, and malformed lines are ignored. */
+    @Test
+    public void testRemoveAndMalformedLines() {
+        FileUtils.writeBinaryFile(storeFile, "not a valid line\nx##y##z##w\n".getBytes());
+        BitarchiveChecksumCache cache = new BitarchiveChecksumCache(storeFile);
+        assertEquals("Malformed lines should be skipped", 0, cache.size());
+        cache.getChecksum(archiveFile);
+        cache.remove(archiveFile.getName());
+        assertEquals("The entry should be removed", 0, cache.size());
+        cache.close();
+
+        cache = new BitarchiveChecksumCache(storeFile);
+        assertEquals("The removed entry should not be stored", 0, cache.size());
+        cache.close();
+    }
+}
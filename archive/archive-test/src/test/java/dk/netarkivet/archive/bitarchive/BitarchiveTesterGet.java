@@ -38,6 +38,8 @@ import org.junit.Test;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.UnknownID;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.StreamUtils;
 
@@ -116,6 +118,31 @@ public class BitarchiveTesterGet extends BitarchiveTestCase {
         fail("Misaligned offset should have given an IOFailure.");
     }
 
+    /**
+     * Test that the checksum of a file stored before the checksum cache existed is calculated in the background, and
+     * used for later requests.
+     */
+    @Test
+    public void testGetCachedChecksumIsCalculatedLazily() throws InterruptedException {
+        try {
+            archive.getCachedChecksum(ARC_FILE_NAME);
+            fail("No checksum should be cached for a file stored before the cache existed");
+        } catch (UnknownID e) {
+            // Expected
+        }
+        String checksum = null;
+        for (int i = 0; i < 100 && checksum == null; i++) {
+            try {
+                checksum = archive.getCachedChecksum(ARC_FILE_NAME);
+            } catch (UnknownID e) {
+                Thread.sleep(50);
+            }
+        }
+        File file = BitarchiveAdmin.getInstance().lookup(ARC_FILE_NAME).getFilePath();
+        assertEquals("The checksum should have been calculated and cached in the background",
+                ChecksumCalculator.calculateMd5(file), checksum);
+    }
+
     /* **** Part three: Test that correct code works **** */
 
     /**
@@ -62,6 +62,7 @@ import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StreamUtils;
 import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.testutils.FileAsserts;
+import dk.netarkivet.testutils.GenericMessageListener;
 import dk.netarkivet.testutils.MessageAsserts;
 import dk.netarkivet.testutils.TestFileUtils;
 import dk.netarkivet.testutils.preconfigured.ReloadSettings;
@@ -192,6 +193,47 @@ public class BitarchiveClientTester {
         }
     }
 
+    /**
+     * Verify that get requests for a file with a known location are sent directly to that location, and that they are
+     * sent to ALL_BA again once the location is forgotten, either because the file is removed or because it is no
+     * longer stored at the location.
+     */
+    @Test
+    public void testFileLocation() {
+        ChannelID location = Channels.getThisReposClient();
+        GenericMessageListener listener = new GenericMessageListener();
+        con.setListener(location, listener);
+        String replicaId = Settings.get(CommonSettings.USE_REPLICA_ID);
+
+        bac.addFileLocation(ARC_FILE_NAME, location);
+        bac.sendGetMessage(new GetMessage(ALL_BA, Channels.getTheRepos(), ARC_FILE_NAME, 0));
+        bac.sendGetFileMessage(new GetFileMessage(ALL_BA, Channels.getTheRepos(), ARC_FILE_NAME, replicaId));
+        bac.sendGetMessage(new GetMessage(ALL_BA, Channels.getTheRepos(), "unknown.arc", 0));
+        con.waitForConcurrentTasksToFinish();
+        assertEquals("Only the requests for the known file should be sent to its location", 2,
+                listener.messagesReceived.size());
+
+        bac.sendRemoveAndGetFileMessage(new RemoveAndGetFileMessage(ALL_BA, Channels.getError(), ARC_FILE_NAME,
+                replicaId, "checksum", "credentials"));
+        bac.sendGetMessage(new GetMessage(ALL_BA, Channels.getTheRepos(), ARC_FILE_NAME, 0));
+        con.waitForConcurrentTasksToFinish();
+        assertEquals("The location should be forgotten when the file is removed", 2,
+                listener.messagesReceived.size());
+
+        bac.addFileLocation(ARC_FILE_NAME, location);
+        bac.removeFileLocation(ARC_FILE_NAME, Channels.getError());
+        bac.sendGetMessage(new GetMessage(ALL_BA, Channels.getTheRepos(), ARC_FILE_NAME, 0));
+        con.waitForConcurrentTasksToFinish();
+        assertEquals("The location should be kept when another location is forgotten", 3,
+                listener.messagesReceived.size());
+
+        bac.removeFileLocation(ARC_FILE_NAME, location);
+        bac.sendGetMessage(new GetMessage(ALL_BA, Channels.getTheRepos(), ARC_FILE_NAME, 0));
+        con.waitForConcurrentTasksToFinish();
+        assertEquals("The location should be forgotten when the file is no longer stored there", 3,
+                listener.messagesReceived.size());
+    }
+
     /**
      * Initiate upload and verify that corresponding upload message received by onUpload message handler.
      */
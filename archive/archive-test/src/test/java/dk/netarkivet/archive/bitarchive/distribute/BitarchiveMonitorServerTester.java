@@ -25,6 +25,7 @@ package dk.netarkivet.archive.bitarchive.distribute;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -789,6 +790,8 @@ public class BitarchiveMonitorServerTester {
      */
     @Test
     public void testGetChecksumMessage() throws InterruptedException, IOException {
+        // Disable the direct requests to the bitarchives, so the batchjob is used.
+        Settings.set(ArchiveSettings.BITARCHIVE_DIRECT_CHECKSUM_TIMEOUT, "0");
         bam_server = BitarchiveMonitorServer.getInstance();
         Thread.sleep(200);
 
@@ -834,6 +837,78 @@ public class BitarchiveMonitorServerTester {
         assertEquals("Did not give expected checksum", returnMsg.getChecksum(), "0192837465");
     }
 
+    /**
+     * Testing that a GetChecksumMessage is forwarded to the bitarchives, and that the reply from the bitarchive is
+     * used as reply to the original message.
+     */
+    @Test
+    public void testGetChecksumMessageDirect() throws InterruptedException {
+        bam_server = BitarchiveMonitorServer.getInstance();
+
+        TestMessageListener listener = new TestMessageListener();
+        con.setListener(THE_ARCREPOS, listener);
+        TestMessageListener baListener = new TestMessageListener();
+        con.setListener(Channels.getAllBa(), baListener);
+
+        String repId = Settings.get(CommonSettings.USE_REPLICA_ID);
+        GetChecksumMessage gcm = new GetChecksumMessage(Channels.getTheBamon(), Channels.getTheRepos(),
+                "requestedFile.arc", repId);
+        JMSConnectionMockupMQ.updateMsgID(gcm, "gcm2");
+
+        bam_server.visit(gcm);
+        con.waitForConcurrentTasksToFinish();
+
+        assertEquals("The request should be forwarded to the bitarchives", 1, baListener.getNumReceived());
+        GetChecksumMessage forwarded = (GetChecksumMessage) baListener.getLastInstance(GetChecksumMessage.class);
+        assertEquals("The forwarded message should be for the same file", "requestedFile.arc",
+                forwarded.getArcfileName());
+        assertNull("No batchjob should be sent", baListener.getLastInstance(BatchMessage.class));
+
+        forwarded.setChecksum("0192837465");
+        forwarded.setIsReply();
+        bam_server.visit(forwarded);
+        // A duplicate reply should be ignored.
+        bam_server.visit(forwarded);
+        con.waitForConcurrentTasksToFinish();
+
+        assertEquals("The listener should have one message", 1, listener.getNumReceived());
+        GetChecksumMessage returnMsg = (GetChecksumMessage) listener.getReceived();
+        assertEquals("Should reply to the original message", "gcm2", returnMsg.getID());
+        assertTrue("The reply should be ok", returnMsg.isOk());
+        assertEquals("Did not give expected checksum", "0192837465", returnMsg.getChecksum());
+    }
+
+    /**
+     * Testing that a batchjob is used, when the bitarchive holding the file cannot answer a forwarded
+     * GetChecksumMessage from its checksum cache.
+     */
+    @Test
+    public void testGetChecksumMessageNotCached() throws InterruptedException {
+        bam_server = BitarchiveMonitorServer.getInstance();
+
+        TestMessageListener listener = new TestMessageListener();
+        con.setListener(THE_ARCREPOS, listener);
+        TestMessageListener baListener = new TestMessageListener();
+        con.setListener(Channels.getAllBa(), baListener);
+
+        String repId = Settings.get(CommonSettings.USE_REPLICA_ID);
+        GetChecksumMessage gcm = new GetChecksumMessage(Channels.getTheBamon(), Channels.getTheRepos(),
+                "requestedFile.arc", repId);
+        JMSConnectionMockupMQ.updateMsgID(gcm, "gcm3");
+
+        bam_server.visit(gcm);
+        con.waitForConcurrentTasksToFinish();
+        GetChecksumMessage forwarded = (GetChecksumMessage) baListener.getLastInstance(GetChecksumMessage.class);
+
+        forwarded.setNotOk("No up-to-date checksum is cached");
+        forwarded.setIsReply();
+        bam_server.visit(forwarded);
+        con.waitForConcurrentTasksToFinish();
+
+        assertEquals("No reply should be sent yet", 0, listener.getNumReceived());
+        assertNotNull("A batchjob should be sent instead", baListener.getLastInstance(BatchMessage.class));
+    }
+
     /**
      * Tests the opportunity to correct a entry in the archive through CorrectMessage.
      */
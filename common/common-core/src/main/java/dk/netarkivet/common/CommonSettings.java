@@ -79,6 +79,23 @@ public class CommonSettings {
      */
     public static String JMS_BROKER_RETRIES = "settings.common.jms.retries";
 
+    /**
+     * <b>settings.common.jms.senderSessions</b>: <br>
+     * The maximum number of JMS sessions used for sending messages concurrently. Each sending thread borrows a session
+     * with its own message producers from a pool of this size.
+     */
+    public static String JMS_SENDER_SESSIONS = "settings.common.jms.senderSessions";
+
+    /**
+     * <b>settings.common.jms.messageCodecs</b>: <br>
+     * A comma-separated list of classes implementing {@link dk.netarkivet.common.distribute.NetarkivetMessageCodec}.
+     * Messages handled by one of these codecs are sent as compact binary JMS BytesMessages instead of Java-serialized
+     * ObjectMessages. All other messages are still sent serialized. Receivers decode binary messages with the codec
+     * named in the message, so only the sending applications need this setting. Empty by default, since applications
+     * from releases without codec support cannot read binary messages.
+     */
+    public static String JMS_MESSAGE_CODECS = "settings.common.jms.messageCodecs";
+
     /**
      * <b>settings.common.http.port</b>: <br>
      * The *unique* (per host) port number that may or may not be used to serve http.
@@ -112,6 +129,14 @@ public class CommonSettings {
      */
     public static String BATCH_DEFAULT_TIMEOUT = "settings.common.batch.defaultBatchTimeout";
 
+    /**
+     * <b>settings.common.batch.parallelThreads</b>: <br/>
+     * The number of threads used to run a batchjob on the local files, if the batchjob allows parallel processing (see
+     * FileBatchJob.isParallelizable()). With 1 all batchjobs process one file at a time. With 0 the number of
+     * available processors is used.
+     */
+    public static String BATCH_PARALLEL_THREADS = "settings.common.batch.parallelThreads";
+
     /**
      * <b>settings.common.monitorregistryClient.class</b>: <br>
      * Which class to use for monitor registry. Must implement the interface
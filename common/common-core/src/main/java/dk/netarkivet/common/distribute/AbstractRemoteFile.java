@@ -27,6 +27,8 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.Calendar;
 
 import org.slf4j.Logger;
@@ -34,6 +36,7 @@ import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.StreamUtils;
 import dk.netarkivet.common.utils.TimeUtils;
@@ -95,6 +98,32 @@ public abstract class AbstractRemoteFile implements RemoteFile {
      * @throws IOFailure on I/O trouble writing remote file to destination.
      */
     public void copyTo(File destFile) {
+        copyTo(destFile, null);
+    }
+
+    /**
+     * Copy this remote file to the given file, calculating the MD5 checksum of the data while it is written. This saves
+     * reading the file again afterwards to checksum it.
+     *
+     * @param destFile The file to write the remote file to.
+     * @return The MD5 checksum of the data written to destFile.
+     * @throws ArgumentNotValid on null destFile, or parent to destfile is not a writeable directory, or destfile exists
+     * and cannot be overwritten.
+     * @throws IOFailure on I/O trouble writing remote file to destination.
+     */
+    public String copyToWithChecksum(File destFile) {
+        MessageDigest md5 = ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5);
+        copyTo(destFile, md5);
+        return ChecksumCalculator.toHex(md5.digest());
+    }
+
+    /**
+     * Copy this remote file to the given file, using appendTo with retries.
+     *
+     * @param destFile The file to write the remote file to.
+     * @param digest If not null, the data written to destFile is digested by this. It is reset before each attempt.
+     */
+    private void copyTo(File destFile, MessageDigest digest) {
         ArgumentNotValid.checkNotNull(destFile, "File destFile");
         destFile = destFile.getAbsoluteFile();
         if ((!destFile.isFile() || !destFile.canWrite())
@@ -112,7 +141,12 @@ public abstract class AbstractRemoteFile implements RemoteFile {
                 try {
                     try {
                         fos = new FileOutputStream(destFile);
-                        appendTo(fos);
+                        if (digest == null) {
+                            appendTo(fos);
+                        } else {
+                            digest.reset();
+                            appendTo(new DigestOutputStream(fos, digest));
+                        }
                         success = true;
                     } finally {
                         if (fos != null) {
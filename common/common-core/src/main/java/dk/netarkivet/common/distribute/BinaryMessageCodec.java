@@ -0,0 +1,165 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Base class for codecs encoding a single message class field by field. The encoding starts with a schema version,
+ * followed by the fields of the message class written by {@link #writeBody(NetarkivetMessage, DataOutputStream)} and
+ * the fields common to all messages. Subclasses must increase the schema version whenever they change the fields
+ * written, so a receiver with a different version fails loudly instead of misreading the message.
+ *
+ * @param <T> The message class handled by the codec.
+ */
+public abstract class BinaryMessageCodec<T extends NetarkivetMessage> implements NetarkivetMessageCodec {
+
+    /** The charset used for strings. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The length written for a null string. */
+    private static final int NULL_LENGTH = -1;
+
+    /** The exact class of the messages handled. */
+    private final Class<T> messageClass;
+
+    /** The version of the encoding written by this codec. */
+    private final int schemaVersion;
+
+    /**
+     * Create a codec for a message class.
+     *
+     * @param messageClass The exact class of the messages handled. Subclasses of it are left to other codecs.
+     * @param schemaVersion The version of the encoding written by the codec.
+     * @throws ArgumentNotValid if messageClass is null.
+     */
+    protected BinaryMessageCodec(Class<T> messageClass, int schemaVersion) {
+        ArgumentNotValid.checkNotNull(messageClass, "Class<T> messageClass");
+        this.messageClass = messageClass;
+        this.schemaVersion = schemaVersion;
+    }
+
+    @Override
+    public boolean canEncode(NetarkivetMessage msg) {
+        return msg != null && msg.getClass().equals(messageClass);
+    }
+
+    @Override
+    public byte[] encode(NetarkivetMessage msg) throws IOFailure {
+        ArgumentNotValid.checkTrue(canEncode(msg), "Message " + msg + " is not a " + messageClass.getName());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(schemaVersion);
+            writeBody(messageClass.cast(msg), out);
+            msg.writeHeader(out);
+            out.flush();
+        } catch (IOException e) {
+            throw new IOFailure("Unable to encode message " + msg, e);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public NetarkivetMessage decode(byte[] data) throws IOFailure {
+        ArgumentNotValid.checkNotNull(data, "byte[] data");
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        try {
+            int version = in.readInt();
+            if (version != schemaVersion) {
+                throw new IOFailure("Cannot decode " + messageClass.getName() + " of schema version " + version
+                        + ", expected version " + schemaVersion);
+            }
+            T msg = readBody(in);
+            msg.readHeader(in);
+            return msg;
+        } catch (IOException e) {
+            throw new IOFailure("Unable to decode " + messageClass.getName(), e);
+        }
+    }
+
+    /**
+     * Write the fields specific to the message class.
+     *
+     * @param msg The message to encode.
+     * @param out The stream to write to.
+     * @throws IOException If writing to the stream fails.
+     */
+    protected abstract void writeBody(T msg, DataOutputStream out) throws IOException;
+
+    /**
+     * Create a message from the fields written by {@link #writeBody(NetarkivetMessage, DataOutputStream)}. The fields
+     * common to all messages are restored afterwards, so the constructor used may set any channels.
+     *
+     * @param in The stream to read from.
+     * @return The decoded message.
+     * @throws IOException If reading from the stream fails.
+     */
+    protected abstract T readBody(DataInputStream in) throws IOException;
+
+    /**
+     * Write a string of any length, which may be null.
+     *
+     * @param out The stream to write to.
+     * @param s The string to write.
+     * @throws IOException If writing to the stream fails.
+     */
+    protected static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @param in The stream to read from.
+     * @return The string read, possibly null.
+     * @throws IOException If reading from the stream fails.
+     */
+    protected static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        if (length < 0) {
+            throw new IOException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+}
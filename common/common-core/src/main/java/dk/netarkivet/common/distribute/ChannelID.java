@@ -91,6 +91,15 @@ public class ChannelID implements Serializable {
         this.name = constructName(appPref, replicaId, useNodeId, useAppInstId, isTopic);
     }
 
+    /**
+     * Recreates a channel from its name, as when deserializing. Used when decoding binary messages.
+     *
+     * @param name The full name of the channel.
+     */
+    ChannelID(String name) {
+        this.name = name;
+    }
+
     /**
      * Constructs a channel name according to the specifications of channels in the NetarchiveSuite Developer Manual.
      *
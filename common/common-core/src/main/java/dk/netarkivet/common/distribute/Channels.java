@@ -49,6 +49,7 @@ public class Channels {
      */
     private static final String ALLBA_CHANNEL_PREFIX = "ALL_BA";
     private static final String ANYBA_CHANNEL_PREFIX = "ANY_BA";
+    private static final String THISBA_CHANNEL_PREFIX = "THIS_BA";
     private static final String THEBAMON_CHANNEL_PREFIX = "THE_BAMON";
     private static final String THEREPOS_CHANNEL_PREFIX = "THE_REPOS";
     private static final String THISREPOSCLIENT_CHANNEL_PREFIX = "THIS_REPOS_CLIENT";
@@ -56,6 +57,7 @@ public class Channels {
     private static final String INDEXSERVER_CHANNEL_PREFIX = "INDEX_SERVER";
     private static final String THISINDEXCLIENT_CHANNEL_PREFIX = "THIS_INDEX_CLIENT";
     private static final String MONITOR_CHANNEL_PREFIX = "MONITOR";
+    private static final String STOREDFILES_CHANNEL_PREFIX = "STORED_FILES";
 
     private static final String THECR_CHANNEL_PREFIX = "THE_CR";
 
@@ -141,6 +143,12 @@ public class Channels {
         ANY_BA = ANY_BA_ARRAY[useReplicaIndex];
         THE_BAMON = THE_BAMON_ARRAY[useReplicaIndex];
         THE_CR = THE_CR_ARRAY[useReplicaIndex];
+        if (useReplica.getType() == ReplicaType.BITARCHIVE) {
+            THIS_BA = new ChannelID(THISBA_CHANNEL_PREFIX, useReplica.getId(), ChannelID.INCLUDE_IP,
+                    ChannelID.INCLUDE_APPLINST_ID, ChannelID.QUEUE);
+        } else {
+            THIS_BA = null;
+        }
     }
 
     /**
@@ -323,6 +331,30 @@ public class Channels {
      */
     private final ChannelID ANY_BA;
 
+    /**
+     * Returns the queue on which only this bitarchive machine listens. Clients which know that a file is stored on this
+     * machine can send get requests for it here instead of to all machines on ALL_BA.
+     *
+     * @return A queue channel that reaches this bitarchive machine only.
+     * @throws IllegalState If the current replica is not a bitarchive replica.
+     */
+    public static ChannelID getThisBa() throws IllegalState {
+        ChannelID res = getInstance().THIS_BA;
+
+        if (res == null) {
+            throw new IllegalState("A checksum replica does not have the channels for communicating with a bitarchive "
+                    + "replica.");
+        }
+
+        return res;
+    }
+
+    /**
+     * Implementation notice: This cannot be initialized directly in the field, as it depends on the type of the use
+     * replica, which is found in the constructor.
+     */
+    private final ChannelID THIS_BA;
+
     /**
      * Returns the queue on which to put errors which are not handled elsewhere.
      *
@@ -459,6 +491,18 @@ public class Channels {
     private final ChannelID THE_MONITOR_SERVER = new ChannelID(MONITOR_CHANNEL_PREFIX, ChannelID.COMMON,
             ChannelID.NO_IP, ChannelID.NO_APPLINST_ID, ChannelID.TOPIC);
 
+    /**
+     * Return the topic on which the ArcRepository announces files which have been stored in all replicas.
+     *
+     * @return the <code>ChannelID</code> object for the topic.
+     */
+    public static ChannelID getStoredFiles() {
+        return getInstance().STORED_FILES;
+    }
+
+    private final ChannelID STORED_FILES = new ChannelID(STOREDFILES_CHANNEL_PREFIX, ChannelID.COMMON,
+            ChannelID.NO_IP, ChannelID.NO_APPLINST_ID, ChannelID.TOPIC);
+
     /**
      * Reset the instance to re-read the settings. Only for use in tests.
      */
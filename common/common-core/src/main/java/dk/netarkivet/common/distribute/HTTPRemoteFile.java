@@ -28,6 +28,7 @@ import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.security.DigestInputStream;
@@ -38,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SystemUtils;
 
@@ -79,6 +81,26 @@ public class HTTPRemoteFile extends AbstractRemoteFile {
      */
     public static String HTTPREMOTEFILE_PORT_NUMBER = "settings.common.remoteFile.port";
 
+    /**
+     * <b>settings.common.remoteFile.resumeAttempts</b>: <br>
+     * The number of times an interrupted HTTP transfer is resumed from the last byte received, before giving up.
+     */
+    public static String HTTPREMOTEFILE_RESUME_ATTEMPTS = "settings.common.remoteFile.resumeAttempts";
+
+    /**
+     * <b>settings.common.remoteFile.segments</b>: <br>
+     * The number of byte ranges fetched concurrently when copying a remote file from another host. 1 means a single
+     * stream is used.
+     */
+    public static String HTTPREMOTEFILE_SEGMENTS = "settings.common.remoteFile.segments";
+
+    /**
+     * <b>settings.common.remoteFile.minSegmentSize</b>: <br>
+     * The minimum size in bytes of each byte range, when copying in segments. Smaller files are copied using fewer
+     * segments, or a single stream.
+     */
+    public static String HTTPREMOTEFILE_MIN_SEGMENT_SIZE = "settings.common.remoteFile.minSegmentSize";
+
     /**
      * Initialises a remote file implemented by point-to-point HTTP communication.
      *
@@ -154,12 +176,78 @@ public class HTTPRemoteFile extends AbstractRemoteFile {
             }
             // if rename fails we fall back to normal usage.
         }
-        super.copyTo(destFile);
+        if (copySegmented(destFile) == null) {
+            super.copyTo(destFile);
+        }
+    }
+
+    /**
+     * Copy this remote file to the given file, calculating the MD5 checksum of the data. If the file is copied in
+     * segments, the checksum is calculated from the destination file once all segments have arrived.
+     *
+     * @param destFile The file to write the remote file to.
+     * @return The MD5 checksum of the data written to destFile.
+     * @throws ArgumentNotValid on null destFile, or parent to destfile is not a writeable directory, or destfile exists
+     * and cannot be overwritten.
+     * @throws IOFailure on I/O trouble writing remote file to destination.
+     */
+    @Override
+    public String copyToWithChecksum(File destFile) {
+        ArgumentNotValid.checkNotNull(destFile, "File destFile");
+        String checksum = copySegmented(destFile.getAbsoluteFile());
+        if (checksum == null) {
+            checksum = super.copyToWithChecksum(destFile);
+        }
+        return checksum;
+    }
+
+    /**
+     * Copy this remote file from another host to the given file as a number of byte ranges fetched concurrently, if
+     * enabled by settings.common.remoteFile.segments and the file is large enough. The checksum of the copied file is
+     * verified, if checksums are requested. If the file is not set to be able to be transferred multiple times, it is
+     * cleaned up after the transfer.
+     *
+     * @param destFile The file to write the remote file to.
+     * @return The MD5 checksum of the copied file, or null if the file should be copied as a single stream.
+     * @throws IOFailure on I/O trouble writing remote file to destination, or if checksums are requested, but do not
+     * match.
+     */
+    private String copySegmented(File destFile) {
+        int segments = Settings.getInt(HTTPREMOTEFILE_SEGMENTS);
+        long minSegmentSize = Settings.getLong(HTTPREMOTEFILE_MIN_SEGMENT_SIZE);
+        if (minSegmentSize > 0) {
+            segments = (int) Math.min(segments, filesize / minSegmentSize);
+        }
+        if (segments <= 1 || isLocal()) {
+            return null;
+        }
+        SegmentedHTTPDownload download = new SegmentedHTTPDownload(url, getRegistry(), filesize, segments,
+                Settings.getInt(HTTPREMOTEFILE_RESUME_ATTEMPTS));
+        String etag = download.probe();
+        if (etag == null) {
+            log.debug("Segmented copy of '{}' not supported by '{}'. Using a single stream.", file, url);
+            return null;
+        }
+        String newChecksum;
+        try {
+            newChecksum = download.download(destFile, etag);
+            if (useChecksums && !newChecksum.equals(checksum)) {
+                throw new IOFailure("Checksum mismatch! Expected '" + checksum + "' but was '" + newChecksum + "'");
+            }
+        } catch (IOFailure e) {
+            FileUtils.remove(destFile);
+            throw e;
+        }
+        if (!multipleDownloads) {
+            cleanup();
+        }
+        return newChecksum;
     }
 
     /**
      * Get an input stream representing the remote file. If the file resides on the current machine, the input stream is
-     * to the local file. Otherwise, the remote file is transferred over http. The close method of the input stream will
+     * to the local file. Otherwise, the remote file is transferred over http, and if the transfer is interrupted it is
+     * resumed from the last byte received. The close method of the input stream will
      * cleanup this handle, and if checksums are requested, will check the checksums on close. If the file is not set to
      * be able to be transferred multiple times, it is cleaned up after the transfer.
      *
@@ -176,10 +264,7 @@ public class HTTPRemoteFile extends AbstractRemoteFile {
             if (isLocal()) {
                 is = new FileInputStream(file);
             } else {
-                URLConnection urlConnection = getRegistry().openConnection(url);
-                // ensure not getting some cached version
-                urlConnection.setUseCaches(false);
-                is = urlConnection.getInputStream();
+                is = new ResumingInputStream();
             }
             if (useChecksums) {
                 is = new DigestInputStream(is, ChecksumCalculator.getMessageDigest(ChecksumCalculator.MD5));
@@ -204,6 +289,137 @@ public class HTTPRemoteFile extends AbstractRemoteFile {
         }
     }
 
+    /**
+     * An input stream reading the remote file over http. If reading fails, the transfer is resumed by requesting the
+     * rest of the file with a Range request, conditional on the file being unchanged. This is attempted up to
+     * settings.common.remoteFile.resumeAttempts times.
+     */
+    private class ResumingInputStream extends InputStream {
+        /** The stream from the current connection. */
+        private InputStream in;
+        /** The number of bytes read so far. */
+        private long position;
+        /** The entity tag of the file, as reported by the first response. */
+        private String etag;
+        /** The number of times the transfer may still be resumed. */
+        private int attemptsLeft;
+
+        /**
+         * Open the connection to the remote file.
+         *
+         * @throws IOException If the connection cannot be opened.
+         */
+        ResumingInputStream() throws IOException {
+            attemptsLeft = Settings.getInt(HTTPREMOTEFILE_RESUME_ATTEMPTS);
+            in = open();
+        }
+
+        /**
+         * Open a connection to the remote file, starting at the current position.
+         *
+         * @return The stream of the connection.
+         * @throws IOException If the connection cannot be opened, or the transfer cannot be resumed.
+         */
+        private InputStream open() throws IOException {
+            URLConnection urlConnection = getRegistry().openConnection(url);
+            // ensure not getting some cached version
+            urlConnection.setUseCaches(false);
+            if (position > 0) {
+                urlConnection.setRequestProperty(HTTPRemoteFileRegistry.RANGE_HEADER, "bytes=" + position + "-");
+                if (etag != null) {
+                    urlConnection.setRequestProperty(HTTPRemoteFileRegistry.IF_RANGE_HEADER, etag);
+                }
+            }
+            InputStream result = urlConnection.getInputStream();
+            if (position == 0) {
+                etag = urlConnection.getHeaderField(HTTPRemoteFileRegistry.ETAG_HEADER);
+            } else if (!(urlConnection instanceof HttpURLConnection)
+                    || ((HttpURLConnection) urlConnection).getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                result.close();
+                throw new IOException("Unable to resume transfer of '" + file + "' from '" + url + "' at byte "
+                        + position);
+            }
+            return result;
+        }
+
+        /**
+         * Resume the transfer after reading failed, if there are attempts left.
+         *
+         * @param cause The reason reading failed.
+         * @throws IOException cause, if the transfer cannot be resumed.
+         */
+        private void resume(IOException cause) throws IOException {
+            while (attemptsLeft > 0) {
+                attemptsLeft--;
+                log.warn("Transfer of '{}' from '{}' interrupted at byte {} of {}. Resuming.", file, url, position,
+                        filesize, cause);
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    log.debug("Error closing interrupted connection to '{}'", url, e);
+                }
+                try {
+                    in = open();
+                    return;
+                } catch (IOException e) {
+                    cause = e;
+                }
+            }
+            throw cause;
+        }
+
+        @Override
+        public int read() throws IOException {
+            while (true) {
+                try {
+                    int b = in.read();
+                    if (b != -1) {
+                        position++;
+                        return b;
+                    }
+                    if (position >= filesize) {
+                        return b;
+                    }
+                    resume(new IOException("Premature end of transfer at byte " + position));
+                } catch (IOException e) {
+                    resume(e);
+                }
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                try {
+                    int read = in.read(b, off, len);
+                    if (read != -1) {
+                        position += read;
+                        return read;
+                    }
+                    if (position >= filesize) {
+                        return read;
+                    }
+                    resume(new IOException("Premature end of transfer at byte " + position));
+                } catch (IOException e) {
+                    resume(e);
+                }
+            }
+        }
+
+        @Override
+        public int available() throws IOException {
+            return in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
     /**
      * Invalidate all file handles, by asking the remote registry to remove the url for this remote file from the list
      * of shared files. Invalidating a file handle may delete the original files, if deletable. This method does not
@@ -23,14 +23,20 @@
 package dk.netarkivet.common.distribute;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -44,6 +50,7 @@ import org.mortbay.jetty.handler.AbstractHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.Constants;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.CleanupHook;
@@ -86,6 +93,19 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
      */
     private static final String UNREGISTER_URL_POSTFIX = "/unregister";
 
+    /** HTTP header telling that byte ranges are supported. */
+    static final String ACCEPT_RANGES_HEADER = "Accept-Ranges";
+    /** HTTP header with the entity tag of the served file. */
+    static final String ETAG_HEADER = "ETag";
+    /** HTTP header requesting a byte range. */
+    static final String RANGE_HEADER = "Range";
+    /** HTTP header making a Range request conditional on the entity tag. */
+    static final String IF_RANGE_HEADER = "If-Range";
+    /** HTTP header describing the byte range served. */
+    static final String CONTENT_RANGE_HEADER = "Content-Range";
+    /** Pattern for a Range header with a single byte range. */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
     /** The embedded webserver. */
     protected Server server;
     /** The shutdown hook. */
@@ -275,8 +295,7 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
                 URL url = new URL(urlString);
                 FileInfo fileInfo = registeredFiles.get(url);
                 if (fileInfo != null) {
-                    httpServletResponse.setStatus(200);
-                    FileUtils.writeFileToStream(fileInfo.file, httpServletResponse.getOutputStream());
+                    serveFile(fileInfo.file, httpServletRequest, httpServletResponse);
                     request.setHandled(true);
                     log.debug("Served file '{}' with URL '{}'", fileInfo.file.getPath(), url);
                 } else {
@@ -285,6 +304,123 @@ public class HTTPRemoteFileRegistry implements CleanupIF {
                 }
             }
         }
+
+        /**
+         * Serve a registered file. A single byte range requested with a Range header is honoured, unless an If-Range
+         * header shows that the client has data from another version of the file. This allows clients to resume
+         * interrupted transfers. The file is transferred through its FileChannel, avoiding copying through heap
+         * buffers. For a HEAD request, only the headers are sent.
+         *
+         * @param file The file to serve.
+         * @param httpServletRequest The request.
+         * @param httpServletResponse The response to write to.
+         * @throws IOException On trouble in communication.
+         */
+        private void serveFile(File file, HttpServletRequest httpServletRequest,
+                HttpServletResponse httpServletResponse) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                long length = channel.size();
+                String etag = getETag(file);
+                httpServletResponse.setHeader(ACCEPT_RANGES_HEADER, "bytes");
+                httpServletResponse.setHeader(ETAG_HEADER, etag);
+
+                long start = 0;
+                long end = length - 1;
+                String range = httpServletRequest.getHeader(RANGE_HEADER);
+                String ifRange = httpServletRequest.getHeader(IF_RANGE_HEADER);
+                long[] requested = null;
+                if (range != null && (ifRange == null || ifRange.equals(etag))) {
+                    requested = parseRange(range, length);
+                }
+                if (requested == null) {
+                    httpServletResponse.setStatus(200);
+                } else if (requested.length == 0) {
+                    httpServletResponse.setHeader(CONTENT_RANGE_HEADER, "bytes */" + length);
+                    httpServletResponse.sendError(416);
+                    return;
+                } else {
+                    start = requested[0];
+                    end = requested[1];
+                    httpServletResponse.setStatus(206);
+                    httpServletResponse.setHeader(CONTENT_RANGE_HEADER, "bytes " + start + "-" + end + "/" + length);
+                    log.debug("Serving bytes {}-{} of '{}'", start, end, file.getPath());
+                }
+                long count = end - start + 1;
+                httpServletResponse.setHeader("Content-Length", Long.toString(count));
+                if ("HEAD".equals(httpServletRequest.getMethod())) {
+                    return;
+                }
+
+                OutputStream out = httpServletResponse.getOutputStream();
+                WritableByteChannel target = java.nio.channels.Channels.newChannel(out);
+                long position = start;
+                while (position <= end) {
+                    long transferred = channel.transferTo(position,
+                            Math.min(Constants.IO_CHUNK_SIZE, end + 1 - position), target);
+                    if (transferred <= 0) {
+                        throw new IOException("Unable to read bytes " + position + "-" + end + " of '"
+                                + file.getPath() + "', which is now " + file.length() + " bytes long");
+                    }
+                    position += transferred;
+                }
+                out.flush();
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Get an entity tag identifying the current version of a file, for use with If-Range.
+     *
+     * @param file The file.
+     * @return A quoted entity tag, based on the length and modification time of the file.
+     */
+    static String getETag(File file) {
+        return "\"" + Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified()) + "\"";
+    }
+
+    /**
+     * Parse the value of a Range header for a resource of a given length. Only a single byte range is supported; for
+     * anything else, the whole resource should be served.
+     *
+     * @param range The value of the Range header, e.g. "bytes=100-199", "bytes=100-" or "bytes=-100".
+     * @param length The length of the resource.
+     * @return The first and last byte position of the range, an empty array if the range cannot be satisfied, or null
+     * if the header should be ignored.
+     */
+    static long[] parseRange(String range, long length) {
+        Matcher m = RANGE_PATTERN.matcher(range.trim());
+        if (!m.matches() || (m.group(1).isEmpty() && m.group(2).isEmpty())) {
+            return null;
+        }
+        long start;
+        long end;
+        try {
+            if (m.group(1).isEmpty()) {
+                // Suffix range: the last N bytes
+                long suffix = Long.parseLong(m.group(2));
+                if (suffix == 0) {
+                    return new long[0];
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(m.group(1));
+                end = m.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(m.group(2)), length - 1);
+                if (end < start && start < length) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (start >= length) {
+            return new long[0];
+        }
+        return new long[] {start, end};
     }
 
 }
@@ -22,12 +22,20 @@
  */
 package dk.netarkivet.common.distribute;
 
+import java.lang.management.ManagementFactory;
 import java.util.Calendar;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.ConnectionFactory;
 import javax.jms.Destination;
@@ -50,18 +58,22 @@ import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.management.SingleMBeanObject;
 import dk.netarkivet.common.utils.CleanupHook;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.TimeUtils;
 
 /**
- * Handles the communication with a JMS broker. Note on Thread-safety: the methods and fields of JMSConnection are not
- * accessed by multiple threads (though JMSConnection itself creates threads). Thus no synchronization is needed on
- * methods and fields of JMSConnection. A shutdown hook is also added, which closes the connection. Class JMSConnection
- * is now also a exceptionhandler for the JMS Connections
+ * Handles the communication with a JMS broker. Note on Thread-safety: messages may be sent by several threads at once.
+ * JMS sessions are not thread-safe, so each sending thread borrows a session with its own message producers from a
+ * pool, which is discarded as a whole when reconnecting. A thread prefers the session it used last, but takes another
+ * idle session if that one is in use or has been discarded, so the order of messages sent by one thread to the same
+ * destination is only preserved on a best-effort basis. Listeners are handled by a single session. A shutdown hook is
+ * also added, which closes the connection. Class JMSConnection is now also a exceptionhandler for the JMS Connections.
+ * Statistics on sending are exposed over JMX as {@link JMSConnectionStatistics}.
  */
-public abstract class JMSConnection implements ExceptionListener, CleanupIF {
+public abstract class JMSConnection implements ExceptionListener, CleanupIF, JMSConnectionStatistics {
 
     /** The log. */
     private static final Logger log = LoggerFactory.getLogger(JMSConnection.class);
@@ -69,6 +81,9 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     /** Separator used in the consumer key. Separates the ChannelName from the MessageListener.toString(). */
     protected static final String CONSUMER_KEY_SEPARATOR = "##";
 
+    /** The property of a BytesMessage naming the codec the message is encoded with. */
+    static final String CODEC_PROPERTY = "netarkivetCodec";
+
     /** The number to times to (re)try whenever a JMSException is thrown. */
     static final int JMS_MAXTRIES = Settings.getInt(CommonSettings.JMS_BROKER_RETRIES);
 
@@ -76,13 +91,45 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     protected Connection connection;
 
     /**
-     * The Session handling messages sent to / received from the NetarchiveSuite queues and topics.
+     * The Session handling messages received from the NetarchiveSuite queues and topics.
      */
     protected Session session;
 
-    /** Map for caching message producers. */
-    protected final Map<String, MessageProducer> producers = Collections
-            .synchronizedMap(new HashMap<String, MessageProducer>());
+    /** The maximum number of sessions used for sending messages. */
+    private final int maxSenderSessions = Settings.getInt(CommonSettings.JMS_SENDER_SESSIONS);
+
+    /**
+     * The sessions for sending messages, which are not in use. The most recently used session is first, so a thread
+     * sending several messages in a row keeps using the same session.
+     */
+    private final BlockingDeque<SenderSession> idleSenderSessions = new LinkedBlockingDeque<SenderSession>();
+
+    /**
+     * The session last used by each thread for sending messages. A thread gets this session again if it is idle, as
+     * JMS only guarantees the order of messages sent through the same session.
+     */
+    private final ThreadLocal<SenderSession> lastSenderSession = new ThreadLocal<SenderSession>();
+
+    /** The number of sessions for sending messages, in use or not. */
+    private final AtomicInteger senderSessionCount = new AtomicInteger();
+
+    /** The number of threads waiting for a session to send a message. */
+    private final AtomicInteger waitingSenders = new AtomicInteger();
+
+    /** The number of messages sent. */
+    private final AtomicLong messagesSent = new AtomicLong();
+
+    /** The number of failed attempts to send a message. */
+    private final AtomicLong failedSendAttempts = new AtomicLong();
+
+    /** The total time in nanoseconds spent sending messages. */
+    private final AtomicLong sendNanos = new AtomicLong();
+
+    /** The longest time in nanoseconds spent sending a message. */
+    private final AtomicLong maxSendNanos = new AtomicLong();
+
+    /** The MBean exposing the statistics; null if not registered. */
+    private SingleMBeanObject<JMSConnectionStatistics> statisticsMBean;
 
     /** Map for caching message consumers (topic-subscribers and queue-receivers). */
     protected final Map<String, MessageConsumer> consumers = Collections
@@ -170,11 +217,31 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
             }
             closeHook = new CleanupHook(this);
             Runtime.getRuntime().addShutdownHook(closeHook);
+            registerStatistics();
         } finally {
             connectionLock.writeLock().unlock();
         }
     }
 
+    /**
+     * Expose the statistics on sending messages as an MBean. Failure to do so is logged, but otherwise ignored.
+     */
+    private void registerStatistics() {
+        if (statisticsMBean != null) {
+            return;
+        }
+        try {
+            SingleMBeanObject<JMSConnectionStatistics> mBean = new SingleMBeanObject<JMSConnectionStatistics>(
+                    "dk.netarkivet.common.distribute", this, JMSConnectionStatistics.class,
+                    ManagementFactory.getPlatformMBeanServer());
+            mBean.getNameProperties().put("name", "JMSConnection");
+            mBean.register();
+            statisticsMBean = mBean;
+        } catch (Exception e) {
+            log.warn("Unable to register the JMS connection statistics as an MBean", e);
+        }
+    }
+
     /**
      * Submit an object to the destination queue. This method shouldn't be overridden. Override the method sendMessage
      * to change functionality.
@@ -283,6 +350,14 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
                 // Okay, it just means we are already shutting down.
             }
             closeHook = null;
+            if (statisticsMBean != null) {
+                try {
+                    statisticsMBean.unregister();
+                } catch (IOFailure e) {
+                    log.debug("Unable to unregister the JMS connection statistics", e);
+                }
+                statisticsMBean = null;
+            }
             // Close session
             closeConnection();
             // Clear list of listeners
@@ -311,19 +386,27 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         connection = null;
         session = null;
         consumers.clear();
-        producers.clear();
+        // The sender sessions were closed with the connection. No sender
+        // sessions are in use, as the connection lock is held for write.
+        idleSenderSessions.clear();
+        senderSessionCount.set(0);
     }
 
     /**
-     * Unwraps a NetarkivetMessage from an ObjectMessage.
+     * Unwraps a NetarkivetMessage from an ObjectMessage, or decodes it from a BytesMessage with the codec named in the
+     * message.
      *
-     * @param msg a javax.jms.ObjectMessage
+     * @param msg a javax.jms.ObjectMessage or javax.jms.BytesMessage
      * @return a NetarkivetMessage
      * @throws ArgumentNotValid when msg in valid or format of JMS Object message is invalid
      */
     public static NetarkivetMessage unpack(Message msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "msg");
 
+        if (msg instanceof BytesMessage) {
+            return decode((BytesMessage) msg);
+        }
+
         ObjectMessage objMsg;
         try {
             objMsg = (ObjectMessage) msg;
@@ -357,6 +440,34 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         return netMsg;
     }
 
+    /**
+     * Decodes a NetarkivetMessage from a BytesMessage.
+     *
+     * @param msg a javax.jms.BytesMessage with the property {@link #CODEC_PROPERTY}
+     * @return a NetarkivetMessage
+     * @throws ArgumentNotValid when the message cannot be decoded
+     */
+    private static NetarkivetMessage decode(BytesMessage msg) throws ArgumentNotValid {
+        String codecName = "Unknown codec"; // for error reporting purposes
+        NetarkivetMessage netMsg;
+        try {
+            codecName = msg.getStringProperty(CODEC_PROPERTY);
+            NetarkivetMessageCodec codec = NetarkivetMessageCodecs.getDecoder(codecName);
+            // Rewind, in case the message has been read before
+            msg.reset();
+            byte[] data = new byte[(int) msg.getBodyLength()];
+            msg.readBytes(data);
+            netMsg = codec.decode(data);
+            netMsg.updateId(msg.getJMSMessageID());
+        } catch (Exception e) {
+            String message = "Message invalid. Unable to decode message with codec " + codecName;
+            log.warn(message, e);
+            throw new ArgumentNotValid(message, e);
+        }
+        log.trace("Decoded message '{}'", netMsg);
+        return netMsg;
+    }
+
     /**
      * Submit an ObjectMessage to the destination channel.
      *
@@ -376,6 +487,7 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
                 operationSuccessful = true;
             } catch (JMSException e) {
                 log.debug("Send failed (try {})", tries, e);
+                failedSendAttempts.incrementAndGet();
                 lastException = e;
                 if (tries < JMS_MAXTRIES) {
                     onException(e);
@@ -384,6 +496,7 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
                 }
             } catch (Exception e) {
                 log.debug("Send failed (try {})", tries, e);
+                failedSendAttempts.incrementAndGet();
                 lastException = e;
                 if (tries < JMS_MAXTRIES) {
                     reconnect();
@@ -437,21 +550,68 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     }
 
     /**
-     * Helper method for getting the right producer for a queue or topic.
+     * Borrow a session for sending messages from the pool. The session last used by this thread is preferred, and
+     * otherwise the most recently used idle session. A new session is created if none are idle and the pool is not
+     * full; otherwise this waits for another thread to return one. Must be called with the connection lock held for
+     * read, and the session must be given back with {@link #returnSenderSession(SenderSession, boolean)}.
      *
-     * @param queueName The name of the channel
-     * @return The producer for that channel. A new one is created, if none exists.
-     * @throws JMSException If a new producer cannot be created.
+     * @return A session for sending messages, used by this thread only.
+     * @throws JMSException If a new session cannot be created.
+     * @throws IOFailure If there is no connection, or the thread is interrupted while waiting.
      */
-    private MessageProducer getProducer(String queueName) throws JMSException {
-        // Check if producer is in cache
-        // If it is not, it is created and stored in cache:
-        MessageProducer producer = producers.get(queueName);
-        if (producer == null) {
-            producer = getSession().createProducer(getDestination(queueName));
-            producers.put(queueName, producer);
+    private SenderSession borrowSenderSession() throws JMSException {
+        SenderSession senderSession = lastSenderSession.get();
+        if (senderSession == null || !idleSenderSessions.removeFirstOccurrence(senderSession)) {
+            senderSession = idleSenderSessions.pollFirst();
+        }
+        while (senderSession == null) {
+            if (senderSessionCount.incrementAndGet() <= maxSenderSessions) {
+                try {
+                    getSession(); // Ensures we have a connection
+                    senderSession = new SenderSession(connection.createSession(false, Session.AUTO_ACKNOWLEDGE));
+                    break;
+                } catch (JMSException e) {
+                    senderSessionCount.decrementAndGet();
+                    throw e;
+                } catch (RuntimeException e) {
+                    senderSessionCount.decrementAndGet();
+                    throw e;
+                }
+            }
+            senderSessionCount.decrementAndGet();
+            waitingSenders.incrementAndGet();
+            try {
+                // Poll with timeout, as a discarded session frees room for a new one.
+                senderSession = idleSenderSessions.pollFirst(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOFailure("Interrupted while waiting for a JMS session", e);
+            } finally {
+                waitingSenders.decrementAndGet();
+            }
+        }
+        lastSenderSession.set(senderSession);
+        return senderSession;
+    }
+
+    /**
+     * Give a borrowed session back to the pool.
+     *
+     * @param senderSession The session.
+     * @param failed If true, the session failed sending and is closed rather than reused.
+     */
+    private void returnSenderSession(SenderSession senderSession, boolean failed) {
+        if (failed) {
+            lastSenderSession.remove();
+            senderSessionCount.decrementAndGet();
+            try {
+                senderSession.session.close();
+            } catch (JMSException e) {
+                log.debug("Error closing failed JMS session", e);
+            }
+        } else {
+            idleSenderSessions.offerFirst(senderSession);
         }
-        return producer;
     }
 
     /**
@@ -532,27 +692,189 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
      * @throws JMSException if message failed to be sent.
      */
     private void doSend(NetarkivetMessage msg, ChannelID to) throws JMSException {
+        long startTime = System.nanoTime();
         connectionLock.readLock().lock();
         try {
-            ObjectMessage message = getSession().createObjectMessage(msg);
-            synchronized (msg) {
-                getProducer(to.getName()).send(message);
-                // Note: Id is only updated if the message does not already have
-                // an id. This ensures that resent messages keep the same ID
-                // TODO Is it always OK for resent messages to keep the same ID
-
-                // FIXME Solution for NAS-2043 doesn't work; rolled back
-                // String randomID = UUID.randomUUID().toString();
-                // msg.updateId(randomID);
-                msg.updateId(message.getJMSMessageID());
+            SenderSession senderSession = borrowSenderSession();
+            boolean failed = true;
+            try {
+                Message message = createMessage(senderSession.session, msg);
+                synchronized (msg) {
+                    senderSession.getProducer(to.getName()).send(message);
+                    // Note: Id is only updated if the message does not already have
+                    // an id. This ensures that resent messages keep the same ID
+                    // TODO Is it always OK for resent messages to keep the same ID
+
+                    // FIXME Solution for NAS-2043 doesn't work; rolled back
+                    // String randomID = UUID.randomUUID().toString();
+                    // msg.updateId(randomID);
+                    msg.updateId(message.getJMSMessageID());
 
+                }
+                failed = false;
+            } finally {
+                returnSenderSession(senderSession, failed);
             }
         } finally {
             connectionLock.readLock().unlock();
         }
+        recordSend(System.nanoTime() - startTime);
         log.trace("Sent message '{}'", msg.toString());
     }
 
+    /**
+     * Wraps a NetarkivetMessage in a JMS message. Messages handled by a configured codec are encoded in a
+     * BytesMessage, all others are serialized in an ObjectMessage.
+     *
+     * @param jmsSession The session to create the message in.
+     * @param msg The NetarkivetMessage to wrap.
+     * @return The JMS message.
+     * @throws JMSException if the message could not be created.
+     */
+    private static Message createMessage(Session jmsSession, NetarkivetMessage msg) throws JMSException {
+        NetarkivetMessageCodec codec = NetarkivetMessageCodecs.getEncoder(msg);
+        if (codec == null) {
+            return jmsSession.createObjectMessage(msg);
+        }
+        BytesMessage message = jmsSession.createBytesMessage();
+        message.setStringProperty(CODEC_PROPERTY, codec.getClass().getName());
+        message.writeBytes(codec.encode(msg));
+        return message;
+    }
+
+    /**
+     * Update the statistics with a message sent.
+     *
+     * @param nanos The time spent sending the message.
+     */
+    private void recordSend(long nanos) {
+        messagesSent.incrementAndGet();
+        sendNanos.addAndGet(nanos);
+        long max = maxSendNanos.get();
+        while (nanos > max && !maxSendNanos.compareAndSet(max, nanos)) {
+            max = maxSendNanos.get();
+        }
+    }
+
+    @Override
+    public long getMessagesSent() {
+        return messagesSent.get();
+    }
+
+    @Override
+    public long getFailedSendAttempts() {
+        return failedSendAttempts.get();
+    }
+
+    @Override
+    public double getAverageSendMillis() {
+        long sent = messagesSent.get();
+        return sent == 0 ? 0 : sendNanos.get() / 1000000.0 / sent;
+    }
+
+    @Override
+    public long getMaxSendMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxSendNanos.get());
+    }
+
+    @Override
+    public int getSenderSessions() {
+        return senderSessionCount.get();
+    }
+
+    @Override
+    public int getIdleSenderSessions() {
+        return idleSenderSessions.size();
+    }
+
+    @Override
+    public int getWaitingSenders() {
+        return waitingSenders.get();
+    }
+
+    @Override
+    public int getQueueDepth(String queueName) {
+        ArgumentNotValid.checkNotNullOrEmpty(queueName, "String queueName");
+        try {
+            QueueSession queueSession = getQueueSession();
+            try {
+                QueueBrowser browser = queueSession.createBrowser(queueSession.createQueue(queueName));
+                try {
+                    int depth = 0;
+                    for (Enumeration<?> e = browser.getEnumeration(); e.hasMoreElements(); e.nextElement()) {
+                        depth++;
+                    }
+                    return depth;
+                } finally {
+                    browser.close();
+                }
+            } finally {
+                queueSession.close();
+            }
+        } catch (JMSException e) {
+            throw new IOFailure("Unable to browse the queue '" + queueName + "'", e);
+        }
+    }
+
+    @Override
+    public void resetStatistics() {
+        messagesSent.set(0);
+        failedSendAttempts.set(0);
+        sendNanos.set(0);
+        maxSendNanos.set(0);
+    }
+
+    /**
+     * Get a producer for a channel, created by one of the idle sender sessions. Used for testing.
+     *
+     * @param channelName The name of the channel.
+     * @return A producer for the channel, or null if no idle session has sent to the channel.
+     */
+    MessageProducer getIdleProducer(String channelName) {
+        for (SenderSession senderSession : idleSenderSessions) {
+            MessageProducer producer = senderSession.producers.get(channelName);
+            if (producer != null) {
+                return producer;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * A session for sending messages, with its message producers. It is only used by one thread at a time.
+     */
+    private class SenderSession {
+        /** The session. */
+        final Session session;
+        /** The producers created by the session, by channel name. */
+        private final Map<String, MessageProducer> producers = new HashMap<String, MessageProducer>();
+
+        /**
+         * Wrap a session.
+         *
+         * @param session The session.
+         */
+        SenderSession(Session session) {
+            this.session = session;
+        }
+
+        /**
+         * Get the producer for a queue or topic.
+         *
+         * @param channelName The name of the channel
+         * @return The producer for that channel. A new one is created, if none exists.
+         * @throws JMSException If a new producer cannot be created.
+         */
+        MessageProducer getProducer(String channelName) throws JMSException {
+            MessageProducer producer = producers.get(channelName);
+            if (producer == null) {
+                producer = session.createProducer(getDestination(channelName));
+                producers.put(channelName, producer);
+            }
+            return producer;
+        }
+    }
+
     /**
      * Method adds a listener to the given queue or topic.
      *
@@ -0,0 +1,79 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+/**
+ * Statistics on the messages sent through a JMSConnection, exposed over JMX.
+ */
+public interface JMSConnectionStatistics {
+
+    /**
+     * @return The number of messages sent.
+     */
+    long getMessagesSent();
+
+    /**
+     * @return The number of attempts to send a message, which failed.
+     */
+    long getFailedSendAttempts();
+
+    /**
+     * @return The average time in milliseconds spent sending a message, including waiting for a session.
+     */
+    double getAverageSendMillis();
+
+    /**
+     * @return The longest time in milliseconds spent sending a message, including waiting for a session.
+     */
+    long getMaxSendMillis();
+
+    /**
+     * @return The number of sessions currently created for sending messages.
+     */
+    int getSenderSessions();
+
+    /**
+     * @return The number of sessions for sending messages, which are not in use.
+     */
+    int getIdleSenderSessions();
+
+    /**
+     * @return The number of threads waiting for a session to send a message.
+     */
+    int getWaitingSenders();
+
+    /**
+     * Count the messages waiting on a queue on the JMS broker. This browses the queue, so it may be slow for long
+     * queues.
+     *
+     * @param queueName The name of the queue, e.g. "PROD_COMMON_THE_SCHED".
+     * @return The number of messages on the queue.
+     */
+    int getQueueDepth(String queueName);
+
+    /**
+     * Reset the counters of messages, failures and send times.
+     */
+    void resetStatistics();
+
+}
@@ -22,6 +22,9 @@
  */
 package dk.netarkivet.common.distribute;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.io.Serializable;
@@ -203,6 +206,37 @@ public abstract class NetarkivetMessage implements Serializable {
         return s;
     }
 
+    /**
+     * Writes the fields common to all messages for a {@link BinaryMessageCodec}.
+     *
+     * @param out The stream the header is written to.
+     * @throws IOException If writing to the stream fails.
+     */
+    synchronized void writeHeader(DataOutputStream out) throws IOException {
+        BinaryMessageCodec.writeString(out, to.getName());
+        BinaryMessageCodec.writeString(out, replyTo.getName());
+        out.writeBoolean(isOk);
+        BinaryMessageCodec.writeString(out, errMsg);
+        BinaryMessageCodec.writeString(out, id);
+        BinaryMessageCodec.writeString(out, replyOfId);
+    }
+
+    /**
+     * Restores the fields common to all messages as written by {@link #writeHeader(DataOutputStream)}, overwriting the
+     * values set by the constructor of the decoded message.
+     *
+     * @param in The stream the header is read from.
+     * @throws IOException If reading from the stream fails.
+     */
+    synchronized void readHeader(DataInputStream in) throws IOException {
+        to = new ChannelID(BinaryMessageCodec.readString(in));
+        replyTo = new ChannelID(BinaryMessageCodec.readString(in));
+        isOk = in.readBoolean();
+        errMsg = BinaryMessageCodec.readString(in);
+        id = BinaryMessageCodec.readString(in);
+        replyOfId = BinaryMessageCodec.readString(in);
+    }
+
     /**
      * Invoke default method for deserializing object.
      *
@@ -0,0 +1,62 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Encodes messages of particular types into a compact binary form, which is sent as a JMS BytesMessage instead of a
+ * Java-serialized ObjectMessage. Implementations must have a public no-argument constructor, since the receiver
+ * instantiates the codec named in the message to decode it.
+ *
+ * @see NetarkivetMessageCodecs
+ */
+public interface NetarkivetMessageCodec {
+
+    /**
+     * Check whether this codec handles the given message.
+     *
+     * @param msg A message about to be sent.
+     * @return true if the message can be encoded by this codec.
+     */
+    boolean canEncode(NetarkivetMessage msg);
+
+    /**
+     * Encode a message.
+     *
+     * @param msg A message accepted by {@link #canEncode(NetarkivetMessage)}.
+     * @return The encoded message.
+     * @throws IOFailure If the message could not be encoded.
+     */
+    byte[] encode(NetarkivetMessage msg) throws IOFailure;
+
+    /**
+     * Decode a message encoded by this codec.
+     *
+     * @param data The encoded message.
+     * @return The decoded message.
+     * @throws IOFailure If the data could not be decoded.
+     */
+    NetarkivetMessage decode(byte[] data) throws IOFailure;
+
+}
@@ -0,0 +1,150 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+
+/**
+ * Keeps track of the codecs used for sending and receiving binary messages. The codecs used for sending are read from
+ * the setting {@link CommonSettings#JMS_MESSAGE_CODECS}. Codecs used for receiving are instantiated from the class
+ * name given in the message, so a receiver does not need to be configured with the codecs of its senders.
+ */
+public final class NetarkivetMessageCodecs {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(NetarkivetMessageCodecs.class);
+
+    /** The codecs used for sending messages, or null if not yet read from settings. */
+    private static List<NetarkivetMessageCodec> encoders;
+
+    /** The codecs used for receiving messages, by class name. */
+    private static final Map<String, NetarkivetMessageCodec> decoders =
+            new ConcurrentHashMap<String, NetarkivetMessageCodec>();
+
+    /** Utility class, do not instantiate. */
+    private NetarkivetMessageCodecs() {
+    }
+
+    /**
+     * Find the codec to use for sending a message.
+     *
+     * @param msg The message about to be sent.
+     * @return The first configured codec able to encode the message, or null if the message should be sent serialized.
+     * @throws ArgumentNotValid if msg is null, or a configured codec cannot be instantiated.
+     */
+    public static NetarkivetMessageCodec getEncoder(NetarkivetMessage msg) {
+        ArgumentNotValid.checkNotNull(msg, "NetarkivetMessage msg");
+        for (NetarkivetMessageCodec codec : getEncoders()) {
+            if (codec.canEncode(msg)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Find the codec to use for decoding a received message.
+     *
+     * @param className The class name of the codec, as given in the message.
+     * @return The codec.
+     * @throws ArgumentNotValid if className is null or empty.
+     * @throws IOFailure if the codec cannot be instantiated.
+     */
+    public static NetarkivetMessageCodec getDecoder(String className) {
+        ArgumentNotValid.checkNotNullOrEmpty(className, "String className");
+        NetarkivetMessageCodec codec = decoders.get(className);
+        if (codec == null) {
+            try {
+                codec = newCodec(className);
+            } catch (ArgumentNotValid e) {
+                throw new IOFailure("Unable to decode message with codec '" + className + "'", e);
+            }
+            decoders.put(className, codec);
+        }
+        return codec;
+    }
+
+    /**
+     * Forget the codecs read from settings, so they are read again on next use.
+     */
+    static synchronized void reset() {
+        encoders = null;
+    }
+
+    /**
+     * @return The codecs used for sending messages, read from settings on first use.
+     */
+    private static synchronized List<NetarkivetMessageCodec> getEncoders() {
+        if (encoders == null) {
+            List<NetarkivetMessageCodec> codecs = new ArrayList<NetarkivetMessageCodec>();
+            for (String className : Settings.get(CommonSettings.JMS_MESSAGE_CODECS).split(",")) {
+                className = className.trim();
+                if (!className.isEmpty()) {
+                    NetarkivetMessageCodec codec = newCodec(className);
+                    codecs.add(codec);
+                    decoders.put(className, codec);
+                }
+            }
+            if (!codecs.isEmpty()) {
+                log.info("Sending messages with binary codecs {}", codecs);
+            }
+            encoders = codecs;
+        }
+        return encoders;
+    }
+
+    /**
+     * Instantiate a codec using its no-argument constructor.
+     *
+     * @param className The class name of the codec.
+     * @return A new instance of the codec.
+     * @throws ArgumentNotValid if the class is not a codec or cannot be instantiated.
+     */
+    private static NetarkivetMessageCodec newCodec(String className) {
+        try {
+            Class<?> codecClass = Class.forName(className);
+            if (!NetarkivetMessageCodec.class.isAssignableFrom(codecClass)) {
+                throw new ArgumentNotValid("Class '" + className + "' is not a NetarkivetMessageCodec");
+            }
+            return (NetarkivetMessageCodec) codecClass.newInstance();
+        } catch (ClassNotFoundException e) {
+            throw new ArgumentNotValid("Codec class '" + className + "' not found", e);
+        } catch (InstantiationException e) {
+            throw new ArgumentNotValid("Unable to instantiate codec '" + className + "'", e);
+        } catch (IllegalAccessException e) {
+            throw new ArgumentNotValid("Unable to instantiate codec '" + className + "'", e);
+        }
+    }
+
+}
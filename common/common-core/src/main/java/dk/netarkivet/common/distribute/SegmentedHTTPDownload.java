@@ -0,0 +1,315 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.Constants;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+
+/**
+ * Downloads a file served by a HTTPRemoteFileRegistry as a number of byte ranges fetched concurrently, each over its
+ * own connection. This gives better throughput than a single stream on links with high latency.
+ * <p>
+ * The destination file is preallocated, and each segment is written at its position as it arrives. A segment which
+ * fails is resumed from the last byte received, independently of the other segments. All segments are conditional on
+ * the entity tag of the file, so a file changing during the download makes it fail rather than mixing versions. When
+ * a segment has failed for good, the connections of the other segments are closed, so the download fails at once.
+ */
+class SegmentedHTTPDownload {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(SegmentedHTTPDownload.class);
+
+    /** Counter for naming the download threads. */
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    /** The url of the file. */
+    private final URL url;
+    /** The registry serving the file, used for opening connections. */
+    private final HTTPRemoteFileRegistry registry;
+    /** The size of the file. */
+    private final long size;
+    /** The number of segments to fetch concurrently. */
+    private final int segments;
+    /** The number of times each segment may be resumed. */
+    private final int attempts;
+    /** The connections currently used by the segments. Guarded by itself. */
+    private final Set<HttpURLConnection> openConnections = Collections
+            .synchronizedSet(new HashSet<HttpURLConnection>());
+    /** Whether the download has failed, and the segments should stop. */
+    private volatile boolean aborted;
+
+    /**
+     * Prepare a segmented download.
+     *
+     * @param url The url of the file.
+     * @param registry The registry serving the file, used for opening connections.
+     * @param size The size of the file.
+     * @param segments The number of segments to fetch concurrently.
+     * @param attempts The number of times each segment may be resumed after failing.
+     * @throws ArgumentNotValid If url or registry is null, size is not positive, segments is less than 1 or attempts
+     * is negative.
+     */
+    SegmentedHTTPDownload(URL url, HTTPRemoteFileRegistry registry, long size, int segments, int attempts) {
+        ArgumentNotValid.checkNotNull(url, "URL url");
+        ArgumentNotValid.checkNotNull(registry, "HTTPRemoteFileRegistry registry");
+        ArgumentNotValid.checkPositive(size, "long size");
+        ArgumentNotValid.checkPositive(segments, "int segments");
+        ArgumentNotValid.checkNotNegative(attempts, "int attempts");
+        this.url = url;
+        this.registry = registry;
+        this.size = size;
+        this.segments = segments;
+        this.attempts = attempts;
+    }
+
+    /**
+     * Ask the server for the entity tag of the file, and whether it supports byte ranges.
+     *
+     * @return The entity tag of the file, or null if the server does not support byte ranges, or cannot be asked.
+     */
+    String probe() {
+        try {
+            URLConnection urlConnection = registry.openConnection(url);
+            if (!(urlConnection instanceof HttpURLConnection)) {
+                return null;
+            }
+            HttpURLConnection connection = (HttpURLConnection) urlConnection;
+            connection.setUseCaches(false);
+            connection.setRequestMethod("HEAD");
+            try {
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_OK
+                        || !"bytes".equals(connection.getHeaderField(HTTPRemoteFileRegistry.ACCEPT_RANGES_HEADER))) {
+                    return null;
+                }
+                return connection.getHeaderField(HTTPRemoteFileRegistry.ETAG_HEADER);
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to ask '{}' whether it supports byte ranges", url, e);
+            return null;
+        }
+    }
+
+    /**
+     * Download the file.
+     *
+     * @param destFile The file to write to. It is overwritten.
+     * @param etag The entity tag of the file, as returned by {@link #probe()}.
+     * @return The MD5 checksum of the downloaded file.
+     * @throws IOFailure If a segment cannot be downloaded after the allowed number of attempts, or the destination file
+     * cannot be written.
+     */
+    String download(File destFile, String etag) {
+        ArgumentNotValid.checkNotNull(destFile, "File destFile");
+        ArgumentNotValid.checkNotNullOrEmpty(etag, "String etag");
+        long startTime = System.currentTimeMillis();
+        long segmentSize = (size + segments - 1) / segments;
+        ExecutorService executor = Executors.newFixedThreadPool(segments, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SegmentedHTTPDownload-" + threadCount.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(destFile, "rw");
+            raf.setLength(size);
+            FileChannel channel = raf.getChannel();
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (long start = 0; start < size; start += segmentSize) {
+                long end = Math.min(start + segmentSize, size) - 1;
+                results.add(executor.submit(new Segment(channel, start, end, etag), (Void) null));
+            }
+            try {
+                for (Future<Void> result : results) {
+                    result.get();
+                }
+            } finally {
+                abort();
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write '" + url + "' to '" + destFile + "'", e);
+        } catch (InterruptedException e) {
+            throw new IOFailure("Interrupted while downloading '" + url + "'", e);
+        } catch (ExecutionException e) {
+            throw new IOFailure("Unable to download '" + url + "'", e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e) {
+                    log.debug("Error closing '{}'", destFile, e);
+                }
+            }
+        }
+        long transferMillis = Math.max(1, System.currentTimeMillis() - startTime);
+        // The segments arrive out of order, so the file is checksummed once it is complete.
+        String checksum = ChecksumCalculator.calculateMd5(destFile);
+        log.info("Downloaded {} bytes from '{}' in {} segments in {} ms ({} KB/s), checksummed in {} ms", size, url,
+                (size + segmentSize - 1) / segmentSize, transferMillis, size * 1000 / 1024 / transferMillis,
+                System.currentTimeMillis() - startTime - transferMillis);
+        return checksum;
+    }
+
+    /**
+     * Stop all segments, by closing their connections. shutdownNow() on the executor does not do this, as blocking
+     * socket reads do not respond to interrupts. Called when a segment has failed, and when the download is over.
+     */
+    private void abort() {
+        aborted = true;
+        synchronized (openConnections) {
+            for (HttpURLConnection connection : openConnections) {
+                connection.disconnect();
+            }
+            openConnections.clear();
+        }
+    }
+
+    /** Fetches one byte range of the file and writes it at its position in the destination file. */
+    private class Segment implements Runnable {
+        /** The destination file. */
+        private final FileChannel channel;
+        /** The next byte to fetch. */
+        private long position;
+        /** The last byte to fetch. */
+        private final long end;
+        /** The entity tag of the file. */
+        private final String etag;
+
+        /**
+         * Prepare fetching a segment.
+         *
+         * @param channel The destination file.
+         * @param start The first byte of the segment.
+         * @param end The last byte of the segment.
+         * @param etag The entity tag of the file.
+         */
+        Segment(FileChannel channel, long start, long end, String etag) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+            this.etag = etag;
+        }
+
+        @Override
+        public void run() {
+            int attemptsLeft = attempts;
+            try {
+                while (true) {
+                    try {
+                        fetch();
+                        return;
+                    } catch (IOException e) {
+                        if (aborted) {
+                            throw new IOFailure("Download of '" + url + "' aborted at byte " + position, e);
+                        }
+                        if (attemptsLeft-- <= 0) {
+                            throw new IOFailure("Unable to fetch bytes " + position + "-" + end + " of '" + url + "'",
+                                    e);
+                        }
+                        log.warn("Fetching bytes {}-{} of '{}' failed. Resuming.", position, end, url, e);
+                    }
+                }
+            } catch (RuntimeException e) {
+                // The download has failed; stop the other segments at once.
+                abort();
+                throw e;
+            }
+        }
+
+        /**
+         * Fetch the remaining bytes of the segment.
+         *
+         * @throws IOException If the transfer fails. The bytes received until then have been written.
+         */
+        private void fetch() throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) registry.openConnection(url);
+            synchronized (openConnections) {
+                if (aborted) {
+                    throw new IOException("The download has been aborted");
+                }
+                openConnections.add(connection);
+            }
+            connection.setUseCaches(false);
+            connection.setRequestProperty(HTTPRemoteFileRegistry.RANGE_HEADER, "bytes=" + position + "-" + end);
+            connection.setRequestProperty(HTTPRemoteFileRegistry.IF_RANGE_HEADER, etag);
+            InputStream in = null;
+            try {
+                in = connection.getInputStream();
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                    // The file has changed; retrying will not help.
+                    throw new IOFailure("Got response " + connection.getResponseCode() + " instead of partial content "
+                            + "for bytes " + position + "-" + end + " of '" + url + "'");
+                }
+                byte[] buf = new byte[Constants.IO_BUFFER_SIZE];
+                while (position <= end) {
+                    int read = in.read(buf, 0, (int) Math.min(buf.length, end + 1 - position));
+                    if (read == -1) {
+                        throw new IOException("Premature end of transfer at byte " + position);
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(buf, 0, read);
+                    while (buffer.hasRemaining()) {
+                        position += channel.write(buffer, position);
+                    }
+                }
+            } finally {
+                openConnections.remove(connection);
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+    }
+
+}
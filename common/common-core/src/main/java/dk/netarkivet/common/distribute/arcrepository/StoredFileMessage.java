@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute.arcrepository;
+
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.NetarkivetMessage;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Message published by the ArcRepository on the STORED_FILES topic when a file has been stored in all replicas. It lets
+ * applications such as the wayback indexer learn about new files without listing the contents of the archive. The
+ * message is not replied to, and listeners must not rely on receiving every message.
+ */
+@SuppressWarnings({"serial"})
+public class StoredFileMessage extends NetarkivetMessage {
+
+    /** The name of the stored file. */
+    private final String filename;
+
+    /**
+     * Create a message announcing that a file has been stored.
+     *
+     * @param filename The name of the stored file.
+     * @throws ArgumentNotValid If filename is null or empty.
+     */
+    public StoredFileMessage(String filename) {
+        super(Channels.getStoredFiles(), Channels.getError());
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        this.filename = filename;
+    }
+
+    /**
+     * @return the name of the stored file.
+     */
+    public String getFilename() {
+        return filename;
+    }
+
+    /**
+     * Retrieval of a string representation of this instance.
+     *
+     * @return The string representation of this instance.
+     */
+    public String toString() {
+        return "StoredFileMessage for '" + filename + "'\n" + super.toString();
+    }
+}
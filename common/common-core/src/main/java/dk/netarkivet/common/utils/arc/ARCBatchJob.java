@@ -135,7 +135,10 @@ public abstract class ARCBatchJob extends FileBatchJob {
                         }
                         log.debug("Processing ARCRecord #{} in ARCfile '{}'.", noOfRecordsProcessed, arcFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        // Synchronized, as parallelizable jobs may process several files at once.
+                        synchronized (this) {
+                            ++noOfRecordsProcessed;
+                        }
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
@@ -115,7 +115,10 @@ public abstract class ArchiveBatchJob extends ArchiveBatchJobBase {
                         log.debug("Processing record #{} in archive file '{}'.", noOfRecordsProcessed,
                                 archiveFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        // Synchronized, as parallelizable jobs may process several files at once.
+                        synchronized (this) {
+                            ++noOfRecordsProcessed;
+                        }
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
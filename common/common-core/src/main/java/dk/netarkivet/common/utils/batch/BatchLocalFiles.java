@@ -23,11 +23,26 @@
 
 package dk.netarkivet.common.utils.batch;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.output.CountingOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -39,6 +54,13 @@ import dk.netarkivet.common.utils.Settings;
 /**
  * Class for running FileBatchJobs on a set of local files. The constructor takes an array of files to be processed and
  * the run() method takes a FileBatchJob and applies it to each file in turn.
+ * <p>
+ * Jobs that declare themselves parallelizable (see {@link FileBatchJob#isParallelizable()}) are run on several threads
+ * if the setting {@link CommonSettings#BATCH_PARALLEL_THREADS} allows it. The files are then queued per directory, so
+ * the threads are spread over the underlying disks, and a thread that runs out of files in its own directory takes
+ * files from the others. Each thread writes the output of a file to its own buffer, which is appended to the batch
+ * output when the file is done, so the output of each file is kept together, but files may appear in any order. The
+ * output offsets of exceptions recorded while processing such a file are corrected to offsets in the batch output.
  */
 public class BatchLocalFiles {
 
@@ -77,6 +99,13 @@ public class BatchLocalFiles {
     public void run(FileBatchJob job, OutputStream os) {
         ArgumentNotValid.checkNotNull(job, "FileBatchJob job");
         ArgumentNotValid.checkNotNull(os, "OutputStream os");
+        int threads = getThreadCount(job);
+        CountingOutputStream countingOutput = null;
+        if (threads > 1) {
+            // Count the output, so the offsets of the per-file output buffers in the batch output are known
+            countingOutput = new CountingOutputStream(os);
+            os = countingOutput;
+        }
         // Initialise the job:
         job.noOfFilesProcessed = 0;
         job.filesFailed = new HashSet<File>();
@@ -88,6 +117,10 @@ public class BatchLocalFiles {
             long logInterval = Settings.getLong(CommonSettings.BATCH_LOGGING_INTERVAL);
             // get the time for starting the batchjob (used for logging).
             startTime = new Date().getTime();
+            if (countingOutput != null) {
+                runParallel(job, countingOutput, threads, logInterval);
+                return;
+            }
             // Process each file:
             for (File file : files) {
                 fileCount++;
@@ -142,6 +175,142 @@ public class BatchLocalFiles {
         }
     }
 
+    /**
+     * Find the number of threads to run the given job on.
+     *
+     * @param job The job to run.
+     * @return 1 if the job must run sequentially, otherwise the configured number of threads, but no more than the
+     * number of files.
+     */
+    private int getThreadCount(FileBatchJob job) {
+        if (!job.isParallelizable()) {
+            return 1;
+        }
+        int threads = Settings.getInt(CommonSettings.BATCH_PARALLEL_THREADS);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        return Math.min(threads, files.length);
+    }
+
+    /**
+     * Run the job on the files using several threads. The files are queued per directory and each thread starts on
+     * its own queue and takes files from the others when it is empty.
+     *
+     * @param job The job to run. It must be parallelizable.
+     * @param os The OutputStream to which output data is written, counting all output written since the job started.
+     * @param threads The number of threads to use.
+     * @param logInterval The time in milliseconds between status logging.
+     * @throws BatchTermination if the thread running the job is interrupted.
+     */
+    private void runParallel(final FileBatchJob job, final CountingOutputStream os, int threads,
+            final long logInterval) {
+        Map<File, Queue<File>> queuesByDir = new LinkedHashMap<File, Queue<File>>();
+        for (File file : files) {
+            File dir = file.getAbsoluteFile().getParentFile();
+            Queue<File> queue = queuesByDir.get(dir);
+            if (queue == null) {
+                queue = new ConcurrentLinkedQueue<File>();
+                queuesByDir.put(dir, queue);
+            }
+            queue.add(file);
+        }
+        final List<Queue<File>> queues = new ArrayList<Queue<File>>(queuesByDir.values());
+        final AtomicInteger fileCount = new AtomicInteger();
+        log.info("Running batchjob '{}' on {} files in {} directories using {} threads", job.getClass(),
+                files.length, queues.size(), threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> workers = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                final int home = i % queues.size();
+                workers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                        File file;
+                        while ((file = nextFile(queues, home)) != null) {
+                            int number = fileCount.incrementAndGet();
+                            if (Thread.currentThread().isInterrupted()) {
+                                return null;
+                            }
+                            if (!job.getFilenamePattern().matcher(file.getName()).matches()) {
+                                continue;
+                            }
+                            logProgress(job, file, number, logInterval);
+                            buffer.reset();
+                            int exceptionsBefore = job.getExceptionCount();
+                            processFile(job, file, buffer);
+                            try {
+                                synchronized (os) {
+                                    long outputOffset = os.getByteCount();
+                                    buffer.writeTo(os);
+                                    job.addOutputOffset(file, exceptionsBefore, outputOffset);
+                                }
+                            } catch (IOException e) {
+                                log.warn("Could not write output of file {} with job {}", file, job, e);
+                                synchronized (job) {
+                                    job.filesFailed.add(file);
+                                }
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> worker : workers) {
+                worker.get();
+            }
+        } catch (InterruptedException e) {
+            String errMsg = "The batchjob '" + job.toString() + "' has been interrupted and will terminate!";
+            log.warn(errMsg);
+            throw new BatchTermination(errMsg, e);
+        } catch (ExecutionException e) {
+            // processFile() catches exceptions, so this is an Error or a failure writing the output.
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new BatchTermination("Batchjob '" + job + "' failed", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Take the next file to process, preferring the given queue.
+     *
+     * @param queues The queues of files, one per directory.
+     * @param home The index of the preferred queue.
+     * @return The next file, or null if all queues are empty.
+     */
+    private static File nextFile(List<Queue<File>> queues, int home) {
+        for (int i = 0; i < queues.size(); i++) {
+            File file = queues.get((home + i) % queues.size()).poll();
+            if (file != null) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Log the status of the job, if logInterval has passed since the last time.
+     *
+     * @param job The job being run.
+     * @param file The file about to be processed.
+     * @param fileCount The number of the file.
+     * @param logInterval The time in milliseconds between status logging.
+     */
+    private synchronized void logProgress(FileBatchJob job, File file, int fileCount, long logInterval) {
+        long currentTime = new Date().getTime();
+        if (lastLoggingDate + logInterval < currentTime) {
+            log.info("The batchjob '{}' has run for {} seconds and has reached file '{}', which is number {} out of {}",
+                    job.getClass(), (currentTime - startTime) / 1000, file.getName(), fileCount, files.length);
+            lastLoggingDate = currentTime;
+        }
+    }
+
     /**
      * Process a single file.
      *
@@ -160,9 +329,12 @@ public class BatchLocalFiles {
             // job.addException(currentFile, currentOffset, outputOffset, e)
             log.warn("Exception while processing file {} with job {}", file, job, e);
         }
-        job.noOfFilesProcessed++;
-        if (!success) {
-            job.filesFailed.add(file);
+        // Synchronized, as the job may be run on several threads.
+        synchronized (job) {
+            job.noOfFilesProcessed++;
+            if (!success) {
+                job.filesFailed.add(file);
+            }
         }
     }
 
@@ -86,6 +86,17 @@ public class ChecksumJob extends FileBatchJob {
         return true;
     }
 
+    /**
+     * Each file is checksummed independently, so files can be processed in parallel.
+     *
+     * @return true
+     * @see FileBatchJob#isParallelizable()
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * Finishing the job requires nothing particular.
      *
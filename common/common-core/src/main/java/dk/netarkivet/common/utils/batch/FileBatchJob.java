@@ -204,6 +204,19 @@ public abstract class FileBatchJob implements Serializable {
         return false;
     }
 
+    /**
+     * Whether processFile() may be called concurrently for different files of this job. A job returning true must not
+     * keep state about the current file in its fields, and must only write the output of a file to the OutputStream
+     * given to processFile() for that file. The output of the files may then come in any order. Jobs are run
+     * sequentially unless overridden.
+     *
+     * @return True if the files of this job may be processed in parallel.
+     * @see BatchLocalFiles
+     */
+    public boolean isParallelizable() {
+        return false;
+    }
+
     /**
      * Record an exception that occurred during the processFile of this job and that should be returned with the result.
      * If maxExceptionsReached() returns true, this method silently does nothing.
@@ -215,7 +228,7 @@ public abstract class FileBatchJob implements Serializable {
      * offset could not be found.
      * @param e The exception thrown. This exception must be serializable.
      */
-    protected void addException(File currentFile, long currentOffset, long outputOffset, Exception e) {
+    protected synchronized void addException(File currentFile, long currentOffset, long outputOffset, Exception e) {
         if (!maxExceptionsReached()) {
             exceptions.add(new ExceptionOccurrence(currentFile, currentOffset, outputOffset, e));
         } else {
@@ -234,7 +247,7 @@ public abstract class FileBatchJob implements Serializable {
      * offset could not be found.
      * @param e The exception thrown. This exception must be serializable.
      */
-    protected void addInitializeException(long outputOffset, Exception e) {
+    protected synchronized void addInitializeException(long outputOffset, Exception e) {
         if (!maxExceptionsReached()) {
             exceptions.add(new ExceptionOccurrence(true, outputOffset, e));
         } else {
@@ -250,7 +263,7 @@ public abstract class FileBatchJob implements Serializable {
      * offset could not be found.
      * @param e The exception thrown. This exception must be serializable.
      */
-    protected void addFinishException(long outputOffset, Exception e) {
+    protected synchronized void addFinishException(long outputOffset, Exception e) {
         if (!maxExceptionsReached()) {
             exceptions.add(new ExceptionOccurrence(false, outputOffset, e));
         } else {
@@ -273,13 +286,40 @@ public abstract class FileBatchJob implements Serializable {
         }
     }
 
+    /**
+     * @return The number of exceptions recorded so far.
+     */
+    synchronized int getExceptionCount() {
+        return exceptions.size();
+    }
+
+    /**
+     * Add an offset to the output offsets of the exceptions recorded for the given file. This is used when the file
+     * was processed in parallel with other files, so its output was written to a buffer of its own, and the buffer was
+     * then appended to the batch output at the given offset.
+     *
+     * @param file The file whose exceptions are corrected.
+     * @param fromIndex The number of exceptions recorded before the file was processed.
+     * @param offset The offset in the batch output at which the output of the file was appended.
+     */
+    synchronized void addOutputOffset(File file, int fromIndex, long offset) {
+        for (int i = fromIndex; i < exceptions.size(); i++) {
+            ExceptionOccurrence occurrence = exceptions.get(i);
+            if (file.getName().equals(occurrence.getFileName())
+                    && occurrence.getOutputOffset() != ExceptionOccurrence.UNKNOWN_OFFSET) {
+                exceptions.set(i, new ExceptionOccurrence(file, occurrence.getFileOffset(),
+                        occurrence.getOutputOffset() + offset, occurrence.getException()));
+            }
+        }
+    }
+
     /**
      * Returns true if we have already recorded the maximum number of exceptions. At this point, no more exceptions will
      * be recorded, and processing should be aborted.
      *
      * @return True if the maximum number of exceptions (MAX_EXCEPTIONS) has been recorded already.
      */
-    protected boolean maxExceptionsReached() {
+    protected synchronized boolean maxExceptionsReached() {
         return exceptions.size() >= ExceptionOccurrence.MAX_EXCEPTIONS;
     }
 
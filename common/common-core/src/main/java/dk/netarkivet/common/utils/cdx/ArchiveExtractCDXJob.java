@@ -176,6 +176,17 @@ public class ArchiveExtractCDXJob extends ArchiveBatchJob {
         printFields(fieldsread, os);
     }
 
+    /**
+     * CDX lines are written per record and no state is kept between files, so files can be processed in parallel.
+     *
+     * @return true
+     * @see dk.netarkivet.common.utils.batch.FileBatchJob#isParallelizable()
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * End of the batch job.
      *
@@ -0,0 +1,643 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Prefix lookup in sorted .cdx files using a memory-mapped file and a sparse block index.
+ * <p>
+ * The file is divided into blocks of roughly {@link #DEFAULT_BLOCK_SIZE} bytes, and the offset and (truncated) first
+ * line of each block is kept in memory. A lookup does a binary search in this summary and then scans at most a block
+ * of the mapped file, comparing raw bytes with the prefix. Only matching lines are turned into Strings. The summary
+ * can be persisted next to the CDX file (with the suffix {@link #SUMMARY_SUFFIX}), so large files only need to be
+ * scanned once.
+ * <p>
+ * Lines are compared and decoded as ISO-8859-1, which gives the same ordering and the same Strings as
+ * {@link BinSearch}, which reads the file with {@link RandomAccessFile#readLine()}.
+ */
+public class CDXIndex {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(CDXIndex.class);
+
+    /** The charset lines are decoded with, matching RandomAccessFile.readLine(). */
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    /** The default distance in bytes between two entries in the block index. */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /** The suffix of the persisted block index, which is placed next to the CDX file. */
+    public static final String SUMMARY_SUFFIX = ".summary";
+
+    /** The longest prefix of the first line of a block that is kept in the block index. */
+    static final int MAX_KEY_LENGTH = 256;
+
+    /** Files with at least this many blocks get their block index persisted by {@link #getInstance(File)}. */
+    static final int PERSIST_MIN_BLOCKS = 1024;
+
+    /** The magic number that starts a persisted block index. */
+    private static final int SUMMARY_MAGIC = 0x43445849;
+
+    /** The version of the persisted block index format. */
+    private static final int SUMMARY_VERSION = 1;
+
+    /** Files are mapped in segments of this size (2^30 bytes), since a single mapping cannot exceed 2GB. */
+    private static final int SEGMENT_BITS = 30;
+
+    /** Mask giving the offset inside a segment. */
+    private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+    /** The maximum number of indexes kept by {@link #getInstance(File)}. */
+    private static final int MAX_CACHED_INDEXES = 256;
+
+    /** Indexes handed out by {@link #getInstance(File)}, keyed by absolute path. */
+    private static final Map<String, CDXIndex> indexes = new LinkedHashMap<String, CDXIndex>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CDXIndex> eldest) {
+            return size() > MAX_CACHED_INDEXES;
+        }
+    };
+
+    /** The CDX file. */
+    private final File file;
+    /** The length of the file when it was mapped. */
+    private final long length;
+    /** The modification time of the file when it was mapped. */
+    private final long lastModified;
+    /** The mapped segments of the file. */
+    private final MappedByteBuffer[] segments;
+    /** The distance in bytes between entries in the block index. */
+    private final int blockSize;
+    /** The offset of the first line of each block. */
+    private final long[] blockOffsets;
+    /** The first line of each block, truncated to MAX_KEY_LENGTH bytes. */
+    private final byte[][] blockKeys;
+
+    /**
+     * Map a sorted CDX file and build or load its block index.
+     *
+     * @param file A CDX file sorted in byte order.
+     * @param blockSize The distance in bytes between entries in the block index.
+     * @param persistSummary If true, a newly built block index is written next to the file. A persisted block index
+     * is always used if it matches the length and modification time of the file.
+     * @throws ArgumentNotValid if file is null or blockSize is not positive.
+     * @throws IOFailure if the file cannot be read.
+     */
+    public CDXIndex(File file, int blockSize, boolean persistSummary) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        ArgumentNotValid.checkPositive(blockSize, "int blockSize");
+        this.file = file;
+        this.blockSize = blockSize;
+        try {
+            RandomAccessFile in = new RandomAccessFile(file, "r");
+            try {
+                length = in.length();
+                lastModified = file.lastModified();
+                segments = map(in.getChannel(), length);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            String message = "IOException mapping file '" + file + "'";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+        List<Long> offsets = new ArrayList<Long>();
+        List<byte[]> keys = new ArrayList<byte[]>();
+        File summary = getSummaryFile(file);
+        if (!(summary.isFile() && loadSummary(summary, offsets, keys))) {
+            buildSummary(offsets, keys);
+            if (persistSummary) {
+                saveSummary(summary, offsets, keys);
+            }
+        }
+        blockOffsets = new long[offsets.size()];
+        for (int i = 0; i < blockOffsets.length; i++) {
+            blockOffsets[i] = offsets.get(i);
+        }
+        blockKeys = keys.toArray(new byte[keys.size()][]);
+    }
+
+    /**
+     * Get a shared index for the given file. Indexes are reused as long as the length and modification time of the
+     * file are unchanged. The block index of large files is persisted next to the file, if possible.
+     *
+     * @param file A CDX file sorted in byte order.
+     * @return An index of the file.
+     * @throws ArgumentNotValid if file is null.
+     * @throws IOFailure if the file cannot be read.
+     */
+    public static CDXIndex getInstance(File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        String key = file.getAbsolutePath();
+        synchronized (indexes) {
+            CDXIndex index = indexes.get(key);
+            if (index != null && index.isCurrent()) {
+                return index;
+            }
+        }
+        long blocks = file.length() / DEFAULT_BLOCK_SIZE;
+        CDXIndex index = new CDXIndex(file, DEFAULT_BLOCK_SIZE, blocks >= PERSIST_MIN_BLOCKS);
+        synchronized (indexes) {
+            indexes.put(key, index);
+        }
+        return index;
+    }
+
+    /**
+     * Given a file in sorted order and a prefix to search for, return an iterable that will return the lines in the
+     * file that start with the prefix, in order. This is a replacement for
+     * {@link BinSearch#getLinesInFile(File, String)} using a shared index of the file.
+     *
+     * @param file A CDX file to search in.
+     * @param prefix The line prefix to search for.
+     * @return An Iterable object that will return the lines matching the prefix in the file.
+     */
+    public static Iterable<String> getLinesInFile(File file, String prefix) {
+        return getInstance(file).getLines(prefix);
+    }
+
+    /**
+     * Return the file for the persisted block index of a CDX file.
+     *
+     * @param file A CDX file.
+     * @return The file the block index of the given file is persisted in.
+     */
+    public static File getSummaryFile(File file) {
+        return new File(file.getPath() + SUMMARY_SUFFIX);
+    }
+
+    /**
+     * Return an iterable that will return the lines in the file that start with the prefix, in order. The lines are
+     * read lazily from the mapped file. If no lines match, the iterable is empty.
+     *
+     * @param prefix The line prefix to search for.
+     * @return An Iterable object that will return the lines matching the prefix.
+     * @throws ArgumentNotValid if prefix is null.
+     */
+    public Iterable<String> getLines(String prefix) {
+        ArgumentNotValid.checkNotNull(prefix, "String prefix");
+        final byte[] pattern = toBytes(prefix);
+        if (pattern == null) {
+            return Collections.emptyList();
+        }
+        final long first = findFirst(pattern, blockStart(pattern));
+        if (first < 0) {
+            return Collections.emptyList();
+        }
+        return new Iterable<String>() {
+            public Iterator<String> iterator() {
+                return new PrefixIterator(pattern, first);
+            }
+        };
+    }
+
+    /**
+     * Look up several prefixes at once. The prefixes are looked up in sorted order, so prefixes falling in the same
+     * block only cause it to be scanned once.
+     *
+     * @param prefixes The line prefixes to search for.
+     * @return A map from each of the given prefixes to the lines starting with it, in order. Prefixes without matching
+     * lines are mapped to an empty list.
+     * @throws ArgumentNotValid if prefixes is null or contains null.
+     */
+    public Map<String, List<String>> getLines(Collection<String> prefixes) {
+        ArgumentNotValid.checkNotNull(prefixes, "Collection<String> prefixes");
+        Map<String, List<String>> result = new HashMap<String, List<String>>();
+        // For prefixes p1 <= p2, the first line matching p2 cannot come before the first line >= p1.
+        long position = 0;
+        for (String prefix : new TreeSet<String>(prefixes)) {
+            List<String> lines = new ArrayList<String>();
+            result.put(prefix, lines);
+            byte[] pattern = toBytes(prefix);
+            if (pattern == null) {
+                continue;
+            }
+            position = Math.max(position, blockStart(pattern));
+            long first = findFirst(pattern, position);
+            if (first < 0) {
+                position = -first - 1;
+                continue;
+            }
+            position = first;
+            Iterator<String> it = new PrefixIterator(pattern, first);
+            while (it.hasNext()) {
+                lines.add(it.next());
+            }
+        }
+        return result;
+    }
+
+    /** @return The CDX file this is an index of. */
+    public File getFile() {
+        return file;
+    }
+
+    /** @return The number of entries in the block index. */
+    public int getBlockCount() {
+        return blockOffsets.length;
+    }
+
+    /**
+     * @return True if the file still has the length and modification time it had when it was mapped.
+     */
+    boolean isCurrent() {
+        return file.length() == length && file.lastModified() == lastModified;
+    }
+
+    /**
+     * Map the given channel in segments of at most 2^SEGMENT_BITS bytes.
+     *
+     * @param channel The channel to map.
+     * @param size The number of bytes to map.
+     * @return The mapped segments.
+     * @throws IOException if the mapping fails.
+     */
+    private static MappedByteBuffer[] map(FileChannel channel, long size) throws IOException {
+        int count = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+        MappedByteBuffer[] result = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << SEGMENT_BITS;
+            result[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(size - start, SEGMENT_MASK + 1));
+        }
+        return result;
+    }
+
+    /**
+     * Read a byte of the mapped file. Only absolute gets are used, so the buffers can be shared between threads.
+     *
+     * @param pos A position in the file.
+     * @return The byte at that position.
+     */
+    private byte byteAt(long pos) {
+        return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    /**
+     * Find the end of the line starting at or containing the given position.
+     *
+     * @param pos A position in the file.
+     * @return The position of the next '\n' at or after pos, or the length of the file if there is none.
+     */
+    private long endOfLine(long pos) {
+        while (pos < length && byteAt(pos) != '\n') {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Find the end of the content of the line starting at the given position, excluding the line terminator.
+     *
+     * @param start The start of a line.
+     * @param eol The end of the line as given by endOfLine.
+     * @return The end of the line content.
+     */
+    private long contentEnd(long start, long eol) {
+        if (eol > start && byteAt(eol - 1) == '\r') {
+            return eol - 1;
+        }
+        return eol;
+    }
+
+    /**
+     * Copy bytes from the mapped file.
+     *
+     * @param start The first position to copy.
+     * @param end The position after the last one to copy.
+     * @return The bytes between start and end.
+     */
+    private byte[] bytes(long start, long end) {
+        byte[] result = new byte[(int) (end - start)];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = byteAt(start + i);
+        }
+        return result;
+    }
+
+    /**
+     * Scan the file for the first line of each block.
+     *
+     * @param offsets List to add the block offsets to.
+     * @param keys List to add the truncated first lines to.
+     */
+    private void buildSummary(List<Long> offsets, List<byte[]> keys) {
+        long start = System.currentTimeMillis();
+        long pos = 0;
+        while (pos < length) {
+            long eol = endOfLine(pos);
+            long end = contentEnd(pos, eol);
+            offsets.add(pos);
+            keys.add(bytes(pos, Math.min(end, pos + MAX_KEY_LENGTH)));
+            long next = pos + blockSize;
+            if (next >= length) {
+                break;
+            }
+            pos = Math.max(eol, endOfLine(next - 1)) + 1;
+        }
+        log.debug("Built block index of {} entries for '{}' in {} ms", offsets.size(), file,
+                System.currentTimeMillis() - start);
+    }
+
+    /**
+     * Read a persisted block index, if it matches the file.
+     *
+     * @param summary The persisted block index.
+     * @param offsets List to add the block offsets to.
+     * @param keys List to add the truncated first lines to.
+     * @return True if the block index was read, false if it doesn't match the file or can't be read.
+     */
+    private boolean loadSummary(File summary, List<Long> offsets, List<byte[]> keys) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(summary)));
+            try {
+                if (in.readInt() != SUMMARY_MAGIC || in.readInt() != SUMMARY_VERSION || in.readLong() != length
+                        || in.readLong() != lastModified || in.readInt() != blockSize) {
+                    log.debug("Ignoring outdated block index '{}'", summary);
+                    return false;
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    offsets.add(in.readLong());
+                    byte[] key = new byte[in.readUnsignedShort()];
+                    in.readFully(key);
+                    keys.add(key);
+                }
+                return true;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            log.warn("Could not read block index '{}', rebuilding it", summary, e);
+            offsets.clear();
+            keys.clear();
+            return false;
+        }
+    }
+
+    /**
+     * Persist the block index. Failures are logged, since the index can always be rebuilt.
+     *
+     * @param summary The file to write the block index to.
+     * @param offsets The block offsets.
+     * @param keys The truncated first lines of the blocks.
+     */
+    private void saveSummary(File summary, List<Long> offsets, List<byte[]> keys) {
+        File tmp = new File(summary.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(SUMMARY_MAGIC);
+                out.writeInt(SUMMARY_VERSION);
+                out.writeLong(length);
+                out.writeLong(lastModified);
+                out.writeInt(blockSize);
+                out.writeInt(offsets.size());
+                for (int i = 0; i < offsets.size(); i++) {
+                    out.writeLong(offsets.get(i));
+                    out.writeShort(keys.get(i).length);
+                    out.write(keys.get(i));
+                }
+            } finally {
+                out.close();
+            }
+            if (!(summary.delete() || !summary.exists()) || !tmp.renameTo(summary)) {
+                throw new IOException("Could not rename '" + tmp + "' to '" + summary + "'");
+            }
+        } catch (IOException e) {
+            log.warn("Could not persist block index for '{}' in '{}'", file, summary, e);
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Find where to start scanning for lines matching the pattern: The start of the last block whose first line is
+     * known to sort before the pattern.
+     *
+     * @param pattern The prefix bytes.
+     * @return A line start such that all earlier lines sort before the pattern.
+     */
+    private long blockStart(byte[] pattern) {
+        int low = 0;
+        int high = blockKeys.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            byte[] key = blockKeys[mid];
+            int cmp = compare(key, pattern);
+            // A truncated key that matches the pattern as far as it goes may still sort after it.
+            boolean before = cmp < 0 && !(key.length == MAX_KEY_LENGTH && cmp == -1 - key.length);
+            if (before) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found < 0 ? 0 : blockOffsets[found];
+    }
+
+    /**
+     * Compare a key with a pattern the way {@link #compareLine} does.
+     *
+     * @param key The key bytes.
+     * @param pattern The prefix bytes.
+     * @return 0 if the key starts with the pattern, -1 - key.length if the key is a proper prefix of the pattern, or
+     * otherwise a negative or positive number like compareLine.
+     */
+    private static int compare(byte[] key, byte[] pattern) {
+        int n = Math.min(key.length, pattern.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (key[i] & 0xff) - (pattern[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return key.length < pattern.length ? -1 - key.length : 0;
+    }
+
+    /**
+     * Compare the line starting at the given position with the pattern, looking only at the first pattern.length
+     * bytes of the line.
+     *
+     * @param start The start of a line.
+     * @param end The end of the line content.
+     * @param pattern The prefix bytes.
+     * @return 0 if the line starts with the pattern, a negative number if it sorts before, or a positive number if it
+     * sorts after.
+     */
+    private int compareLine(long start, long end, byte[] pattern) {
+        long n = Math.min(end - start, pattern.length);
+        for (int i = 0; i < n; i++) {
+            int cmp = (byteAt(start + i) & 0xff) - (pattern[i] & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return end - start < pattern.length ? -1 : 0;
+    }
+
+    /**
+     * Scan forward from a line start for the first line matching the pattern.
+     *
+     * @param pattern The prefix bytes.
+     * @param pos The start of a line that doesn't come after the first matching line.
+     * @return The start of the first matching line, or -1 - p if there is none, where p is the start of the first line
+     * sorting after the pattern (or the length of the file).
+     */
+    private long findFirst(byte[] pattern, long pos) {
+        while (pos < length) {
+            long eol = endOfLine(pos);
+            int cmp = compareLine(pos, contentEnd(pos, eol), pattern);
+            if (cmp == 0) {
+                return pos;
+            }
+            if (cmp > 0) {
+                return -1 - pos;
+            }
+            pos = eol + 1;
+        }
+        return -1 - length;
+    }
+
+    /**
+     * Encode a prefix the way the file is decoded.
+     *
+     * @param prefix A prefix.
+     * @return The ISO-8859-1 bytes of the prefix, or null if it contains characters that cannot occur in the file.
+     */
+    private static byte[] toBytes(String prefix) {
+        byte[] result = new byte[prefix.length()];
+        for (int i = 0; i < result.length; i++) {
+            char c = prefix.charAt(i);
+            if (c > 0xff) {
+                return null;
+            }
+            result[i] = (byte) c;
+        }
+        return result;
+    }
+
+    /**
+     * An iterator over the lines matching a prefix, starting at the first match. It stops (not skips) at the first
+     * line that does not match.
+     */
+    private class PrefixIterator implements Iterator<String> {
+        /** The prefix bytes. */
+        private final byte[] pattern;
+        /** The start of the next line to read. */
+        private long pos;
+        /** The line read by hasNext() but not yet returned. */
+        private String nextLine;
+        /** True once a non-matching line or the end of the file is found. */
+        private boolean finished;
+
+        /**
+         * Create an iterator starting at the given line.
+         *
+         * @param pattern The prefix bytes.
+         * @param pos The start of the first line to read.
+         */
+        PrefixIterator(byte[] pattern, long pos) {
+            this.pattern = pattern;
+            this.pos = pos;
+        }
+
+        /**
+         * Check whether there is a next element, reading and decoding the next line if it matches.
+         *
+         * @return True if there is a next element to be had.
+         */
+        public boolean hasNext() {
+            if (nextLine != null) {
+                return true;
+            }
+            if (finished || pos >= length) {
+                finished = true;
+                return false;
+            }
+            long eol = endOfLine(pos);
+            long end = contentEnd(pos, eol);
+            if (compareLine(pos, end, pattern) != 0) {
+                finished = true;
+                return false;
+            }
+            nextLine = new String(bytes(pos, end), ISO_8859_1);
+            pos = eol + 1;
+            return true;
+        }
+
+        /**
+         * Return the next element, if any.
+         *
+         * @return Next element.
+         */
+        public String next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            String line = nextLine;
+            nextLine = null;
+            return line;
+        }
+
+        /**
+         * This iterator doesn't support remove.
+         *
+         * @throws UnsupportedOperationException
+         */
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -143,6 +143,17 @@ public class ExtractCDXJob extends ARCBatchJob {
         printFields(fieldsread, os);
     }
 
+    /**
+     * CDX lines are written per record and no state is kept between files, so files can be processed in parallel.
+     *
+     * @return true
+     * @see dk.netarkivet.common.utils.batch.FileBatchJob#isParallelizable()
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * End of the batch job.
      *
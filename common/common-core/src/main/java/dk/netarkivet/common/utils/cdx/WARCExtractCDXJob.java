@@ -184,6 +184,17 @@ public class WARCExtractCDXJob extends WARCBatchJob {
         printFields(fieldsread, os);
     }
 
+    /**
+     * CDX lines are written per record and no state is kept between files, so files can be processed in parallel.
+     *
+     * @return true
+     * @see dk.netarkivet.common.utils.batch.FileBatchJob#isParallelizable()
+     */
+    @Override
+    public boolean isParallelizable() {
+        return true;
+    }
+
     /**
      * End of the batch job.
      *
@@ -133,7 +133,10 @@ public abstract class WARCBatchJob extends FileBatchJob {
                         log.debug("Processing WARCRecord #{} in WARCfile '{}'.", noOfRecordsProcessed,
                                 warcFile.getName());
                         processRecord(record, os);
-                        ++noOfRecordsProcessed;
+                        // Synchronized, as parallelizable jobs may process several files at once.
+                        synchronized (this) {
+                            ++noOfRecordsProcessed;
+                        }
                     } catch (NetarkivetException e) {
                         // Our exceptions don't stop us
                         success = false;
@@ -40,7 +40,6 @@ import javax.jms.MapMessage;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
-import javax.jms.MessageProducer;
 import javax.jms.ObjectMessage;
 
 import org.junit.After;
@@ -268,8 +267,8 @@ public class JMSConnectionTester {
         String sendName = sendChannel.getName();
 
         // Find message producer for queue.
-        JMSConnectionMockupMQ.TestMessageProducer queueSender = (JMSConnectionMockupMQ.TestMessageProducer) con.producers
-                .get(sendName);
+        JMSConnectionMockupMQ.TestMessageProducer queueSender = (JMSConnectionMockupMQ.TestMessageProducer) con
+                .getIdleProducer(sendName);
 
         assertNotNull("Should have created a sender for " + sendName, queueSender);
         ObjectMessage sentSerialMsg = queueSender.messages.get(0);
@@ -278,14 +277,29 @@ public class JMSConnectionTester {
         assertNotNull("Message should now have an id", msg.getID());
     }
 
+    @Test
+    public void testSendStatistics() {
+        Settings.set(CommonSettings.JMS_BROKER_CLASS, "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
+        JMSConnection con = JMSConnectionFactory.getInstance();
+        con.resetStatistics();
+
+        con.send(new TestMessage(Channels.getTheRepos(), Channels.getTheBamon(), "testMSG"));
+        con.send(new TestMessage(Channels.getAllBa(), Channels.getTheBamon(), "testMSG"));
+
+        assertEquals("Should count the messages sent", 2, con.getMessagesSent());
+        assertEquals("Should have no failures", 0, con.getFailedSendAttempts());
+        assertTrue("Should have measured the send time", con.getMaxSendMillis() >= 0);
+        assertEquals("Sequential sends should reuse one session", 1, con.getSenderSessions());
+        assertEquals("The session should be idle after sending", 1, con.getIdleSenderSessions());
+        assertEquals("No senders should be waiting", 0, con.getWaitingSenders());
+    }
+
     @Test
     public void testSendToTopic() throws JMSException, NoSuchFieldException, IllegalAccessException {
         Settings.set(CommonSettings.JMS_BROKER_CLASS, "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
         JMSConnection con = JMSConnectionFactory.getInstance();
         con.initConnection();
 
-        Map<String, MessageProducer> publishersMap = con.producers;
-
         ChannelID sendChannel = Channels.getAllBa();
         ChannelID replyChannel = Channels.getTheBamon();
         NetarkivetMessage msg = new TestMessage(sendChannel, replyChannel, "testMSG");
@@ -294,8 +308,8 @@ public class JMSConnectionTester {
 
         String sendName = sendChannel.getName();
 
-        JMSConnectionMockupMQ.TestMessageProducer topicPublisher = (JMSConnectionMockupMQ.TestMessageProducer) publishersMap
-                .get(sendName);
+        JMSConnectionMockupMQ.TestMessageProducer topicPublisher = (JMSConnectionMockupMQ.TestMessageProducer) con
+                .getIdleProducer(sendName);
 
         assertNotNull("Should have created a publisher for " + sendName, topicPublisher);
         ObjectMessage sentSerialMsg = topicPublisher.messages.get(0);
@@ -373,19 +387,17 @@ public class JMSConnectionTester {
 
         NetarkivetMessage msg = new TestMessage(Channels.getTheRepos(), Channels.getTheBamon(), "testMSG");
 
-        Map<String, MessageProducer> sendersMap = con.producers;
-
         con.send(msg);
         String sendName = Channels.getTheRepos().getName();
-        JMSConnectionMockupMQ.TestMessageProducer queueSender = (JMSConnectionMockupMQ.TestMessageProducer) sendersMap
-                .get(sendName);
+        JMSConnectionMockupMQ.TestMessageProducer queueSender = (JMSConnectionMockupMQ.TestMessageProducer) con
+                .getIdleProducer(sendName);
         ObjectMessage sentSerialMsg = (queueSender.messages.get(0));
         NetarkivetMessage sentMessage = (NetarkivetMessage) sentSerialMsg.getObject();
         sentMessage.setNotOk("Test error");
         con.reply(sentMessage);
 
         String replyName = Channels.getTheBamon().getName();
-        queueSender = (JMSConnectionMockupMQ.TestMessageProducer) sendersMap.get(replyName);
+        queueSender = (JMSConnectionMockupMQ.TestMessageProducer) con.getIdleProducer(replyName);
         assertNotNull("Should have a sender for " + replyName, queueSender);
 
         ObjectMessage receivedSerialMsg = queueSender.messages.get(0);
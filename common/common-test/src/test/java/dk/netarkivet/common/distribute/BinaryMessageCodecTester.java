@@ -0,0 +1,176 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
+/**
+ * Tests the base class for binary message codecs and the lookup of codecs.
+ */
+@SuppressWarnings({"serial"})
+public class BinaryMessageCodecTester {
+    ReloadSettings rs = new ReloadSettings();
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        NetarkivetMessageCodecs.reset();
+    }
+
+    @After
+    public void tearDown() {
+        rs.tearDown();
+        NetarkivetMessageCodecs.reset();
+    }
+
+    /**
+     * Verify that both the message fields and the common fields survive encoding and decoding.
+     */
+    @Test
+    public void testRoundTrip() {
+        TestMessage msg = new TestMessage(Channels.getAnyBa(), Channels.getError(), "b\u00e6r", 42L);
+        msg.setNotOk("first error");
+        msg.setNotOk("second error");
+        TestMessageCodec codec = new TestMessageCodec(1);
+        assertTrue("Codec should handle its message class", codec.canEncode(msg));
+
+        TestMessage decoded = (TestMessage) codec.decode(codec.encode(msg));
+        assertEquals("Text should be decoded", "b\u00e6r", decoded.text);
+        assertEquals("Number should be decoded", 42L, decoded.number);
+        assertEquals("Destination should be decoded", msg.getTo(), decoded.getTo());
+        assertEquals("Reply channel should be decoded", msg.getReplyTo(), decoded.getReplyTo());
+        assertFalse("Error state should be decoded", decoded.isOk());
+        assertEquals("Error message should be decoded", msg.getErrMsg(), decoded.getErrMsg());
+        assertFalse("Unsent message should still not be sent", decoded.hasBeenSent());
+
+        msg = new TestMessage(Channels.getAnyBa(), Channels.getError(), null, 0L);
+        msg.updateId("ID1");
+        decoded = (TestMessage) codec.decode(codec.encode(msg));
+        assertNull("Null text should be decoded", decoded.text);
+        assertTrue("OK state should be decoded", decoded.isOk());
+        assertEquals("Id should be decoded", "ID1", decoded.getID());
+        assertEquals("Reply id should be decoded", "ID1", decoded.getReplyOfId());
+    }
+
+    /**
+     * Verify that a codec refuses data of another schema version and messages of other classes.
+     */
+    @Test
+    public void testMismatches() {
+        TestMessage msg = new TestMessage(Channels.getAnyBa(), Channels.getError(), "text", 1L);
+        byte[] data = new TestMessageCodec(1).encode(msg);
+        try {
+            new TestMessageCodec(2).decode(data);
+            fail("Should not decode data of another schema version");
+        } catch (IOFailure e) {
+            // expected
+        }
+
+        NetarkivetMessage other = new NetarkivetMessage(Channels.getAnyBa(), Channels.getError()) {
+        };
+        assertFalse("Codec should not handle other message classes", new TestMessageCodec(1).canEncode(other));
+        try {
+            new TestMessageCodec(1).encode(other);
+            fail("Should not encode other message classes");
+        } catch (ArgumentNotValid e) {
+            // expected
+        }
+    }
+
+    /**
+     * Verify that encoders are read from settings, and decoders are found by class name.
+     */
+    @Test
+    public void testCodecLookup() {
+        TestMessage msg = new TestMessage(Channels.getAnyBa(), Channels.getError(), "text", 1L);
+        Settings.set(CommonSettings.JMS_MESSAGE_CODECS, "");
+        assertNull("No codec should be used by default", NetarkivetMessageCodecs.getEncoder(msg));
+
+        NetarkivetMessageCodecs.reset();
+        Settings.set(CommonSettings.JMS_MESSAGE_CODECS, " " + TestMessageCodec.class.getName() + " ");
+        NetarkivetMessageCodec codec = NetarkivetMessageCodecs.getEncoder(msg);
+        assertTrue("The configured codec should be used", codec instanceof TestMessageCodec);
+        assertSame("The same codec should be used for decoding", codec,
+                NetarkivetMessageCodecs.getDecoder(TestMessageCodec.class.getName()));
+
+        try {
+            NetarkivetMessageCodecs.getDecoder(String.class.getName());
+            fail("Should not accept a class which is not a codec");
+        } catch (IOFailure e) {
+            // expected
+        }
+    }
+
+    /** A message with a few fields of its own. */
+    private static class TestMessage extends NetarkivetMessage {
+        private final String text;
+        private final long number;
+
+        public TestMessage(ChannelID to, ChannelID replyTo, String text, long number) {
+            super(to, replyTo);
+            this.text = text;
+            this.number = number;
+        }
+    }
+
+    /** A codec for the test message. Public with a public constructor, so it can be configured. */
+    public static class TestMessageCodec extends BinaryMessageCodec<TestMessage> {
+        public TestMessageCodec() {
+            this(1);
+        }
+
+        public TestMessageCodec(int schemaVersion) {
+            super(TestMessage.class, schemaVersion);
+        }
+
+        @Override
+        protected void writeBody(TestMessage msg, DataOutputStream out) throws IOException {
+            writeString(out, msg.text);
+            out.writeLong(msg.number);
+        }
+
+        @Override
+        protected TestMessage readBody(DataInputStream in) throws IOException {
+            return new TestMessage(Channels.getTheRepos(), Channels.getTheBamon(), readString(in), in.readLong());
+        }
+    }
+}
@@ -22,13 +22,16 @@
  */
 package dk.netarkivet.common.distribute;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.net.HttpURLConnection;
 import java.net.URL;
 
 import org.junit.After;
@@ -38,6 +41,8 @@ import org.junit.Test;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.StreamUtils;
 import dk.netarkivet.testutils.preconfigured.MoveTestFiles;
 import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 import dk.netarkivet.testutils.preconfigured.UseTestRemoteFile;
@@ -119,6 +124,77 @@ public class HTTPRemoteFileTester {
         FileUtils.remove(tempFile);
     }
 
+    @Test
+    public void testCopyToWithChecksum() throws Exception {
+        String expected = ChecksumCalculator.calculateMd5(TestInfo.FILE1);
+        HTTPRemoteFile rf = new ForceRemoteHTTPRemoteFile(TestInfo.FILE1, true, false, true);
+        File tempFile = File.createTempFile("TEST", "COPYTO", TestInfo.WORKING_DIR);
+        assertEquals("Should return the checksum of the copied data", expected, rf.copyToWithChecksum(tempFile));
+        assertEquals("Files should be equal", FileUtils.readFile(TestInfo.FILE1), FileUtils.readFile(tempFile));
+
+        // Also when the file is copied locally
+        rf = new HTTPRemoteFile(TestInfo.FILE1, false, false, true);
+        tempFile = File.createTempFile("TEST", "COPYTO", TestInfo.WORKING_DIR);
+        assertEquals("Should return the checksum of the copied data", expected, rf.copyToWithChecksum(tempFile));
+        assertEquals("Files should be equal", FileUtils.readFile(TestInfo.FILE1), FileUtils.readFile(tempFile));
+    }
+
+    @Test
+    public void testSegmentedCopy() throws Exception {
+        Settings.set(HTTPRemoteFile.HTTPREMOTEFILE_SEGMENTS, "3");
+        Settings.set(HTTPRemoteFile.HTTPREMOTEFILE_MIN_SEGMENT_SIZE, "1");
+        String contents = FileUtils.readFile(TestInfo.FILE1);
+
+        HTTPRemoteFile rf = new ForceRemoteHTTPRemoteFile(TestInfo.FILE1, true, false, true);
+        File tempFile = File.createTempFile("TEST", "COPYTO", TestInfo.WORKING_DIR);
+        rf.copyTo(tempFile);
+        assertEquals("Files should be equal", contents, FileUtils.readFile(tempFile));
+
+        tempFile = File.createTempFile("TEST", "COPYTO", TestInfo.WORKING_DIR);
+        assertEquals("Should return the checksum of the copied file", ChecksumCalculator.calculateMd5(TestInfo.FILE1),
+                rf.copyToWithChecksum(tempFile));
+        assertEquals("Files should be equal", contents, FileUtils.readFile(tempFile));
+    }
+
+    @Test
+    public void testRangeRequest() throws Exception {
+        HTTPRemoteFile rf = new ForceRemoteHTTPRemoteFile(TestInfo.FILE1, false, false, true);
+        String contents = FileUtils.readFile(TestInfo.FILE1);
+
+        HttpURLConnection con = (HttpURLConnection) rf.url.openConnection();
+        con.setRequestProperty("Range", "bytes=5-");
+        assertEquals("Should serve partial content", 206, con.getResponseCode());
+        assertEquals("Should serve the rest of the file", contents.substring(5),
+                StreamUtils.getInputStreamAsString(con.getInputStream()));
+
+        con = (HttpURLConnection) rf.url.openConnection();
+        con.setRequestProperty("Range", "bytes=5-");
+        con.setRequestProperty("If-Range", "\"someOtherVersion\"");
+        assertEquals("Should serve the whole file when If-Range does not match", 200, con.getResponseCode());
+
+        con = (HttpURLConnection) rf.url.openConnection();
+        con.setRequestProperty("Range", "bytes=" + TestInfo.FILE1.length() + "-");
+        assertEquals("Should not satisfy a range beyond the file", 416, con.getResponseCode());
+
+        con = (HttpURLConnection) rf.url.openConnection();
+        con.setRequestMethod("HEAD");
+        assertEquals("Should answer a HEAD request", 200, con.getResponseCode());
+        assertEquals("Should give the length of the file", TestInfo.FILE1.length(), con.getContentLengthLong());
+        assertEquals("Should not send the file", "", StreamUtils.getInputStreamAsString(con.getInputStream()));
+    }
+
+    @Test
+    public void testParseRange() {
+        assertArrayEquals(new long[] {100, 199}, HTTPRemoteFileRegistry.parseRange("bytes=100-199", 1000));
+        assertArrayEquals(new long[] {100, 999}, HTTPRemoteFileRegistry.parseRange("bytes=100-", 1000));
+        assertArrayEquals(new long[] {900, 999}, HTTPRemoteFileRegistry.parseRange("bytes=-100", 1000));
+        assertArrayEquals(new long[] {100, 999}, HTTPRemoteFileRegistry.parseRange("bytes=100-5000", 1000));
+        assertArrayEquals("Unsatisfiable range", new long[0], HTTPRemoteFileRegistry.parseRange("bytes=1000-", 1000));
+        assertNull("Multiple ranges are not supported", HTTPRemoteFileRegistry.parseRange("bytes=1-2,5-6", 1000));
+        assertNull("Invalid range should be ignored", HTTPRemoteFileRegistry.parseRange("bytes=200-100", 1000));
+        assertNull("Invalid range should be ignored", HTTPRemoteFileRegistry.parseRange("lines=1-2", 1000));
+    }
+
     @Test
     public void testCleanup() throws Exception {
         HTTPRemoteFile rf = new ForceRemoteHTTPRemoteFile(TestInfo.FILE1, false, false, true);
@@ -27,14 +27,23 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
 /**
  * Unit test for BatchLocalFiles.
  */
@@ -61,8 +70,11 @@ public class BatchLocalFilesTester {
     // Output stream for batch job
     OutputStream os;
 
+    ReloadSettings rs = new ReloadSettings();
+
     @Before
     public void setUp() throws Exception {
+        rs.setUp();
         initialized = 0;
         processed = 0;
         finished = 0;
@@ -74,6 +86,11 @@ public class BatchLocalFilesTester {
         os = new ByteArrayOutputStream();
     }
 
+    @After
+    public void tearDown() {
+        rs.tearDown();
+    }
+
     /**
      * Tests ordinary, non-failing execution of a batch job.
      */
@@ -201,6 +218,93 @@ public class BatchLocalFilesTester {
         assertEquals(1, finished);
     }
 
+    /**
+     * Tests that a parallelizable job is run on several threads, and that output and failures are collected correctly.
+     */
+    @Test
+    public void testParallelRun() throws IOException {
+        Settings.set(CommonSettings.BATCH_PARALLEL_THREADS, "4");
+        File[] files = new File[40];
+        for (int i = 0; i < files.length; i++) {
+            files[i] = new File(INPUT_DIR + (i % 3 == 0 ? "dir1/" : "dir2/") + "file" + i);
+        }
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        FileBatchJob job = new TestBatchJob() {
+            public boolean isParallelizable() {
+                return true;
+            }
+
+            public void initialize(OutputStream os) {
+                super.initialize(os);
+                try {
+                    os.write("header\n".getBytes());
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            public boolean processFile(File file, OutputStream os) {
+                threads.add(Thread.currentThread());
+                try {
+                    os.write((file.getName() + " start\n").getBytes());
+                    Thread.sleep(5);
+                    os.write((file.getName() + " end\n").getBytes());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+                if (file.getName().endsWith("5")) {
+                    // The offset of the end line in the output of this file
+                    addException(file, 0, (file.getName() + " start\n").length(), new Exception("Failed " + file));
+                    return false;
+                }
+                if (file.getName().endsWith("7")) {
+                    throw new RuntimeException("Failed " + file);
+                }
+                return true;
+            }
+        };
+        job.processOnlyFilesMatching("file[0-9]*[0-8]");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BatchLocalFiles(files).run(job, out);
+
+        assertTrue("Should use several threads, used " + threads.size(), threads.size() > 1);
+        assertEquals("Should have called initialize", 1, initialized);
+        assertEquals("Should have called finish", 1, finished);
+        assertEquals("Should count all matching files", 36, job.getNoOfFilesProcessed());
+        assertEquals("Should record failed files", 8, job.getFilesFailed().size());
+        assertEquals("Should record exceptions", 4, job.getExceptions().size());
+        String output = out.toString();
+        for (FileBatchJob.ExceptionOccurrence e : job.getExceptions()) {
+            assertTrue("Output offset of exception in " + e.getFileName() + " should be in the batch output",
+                    output.startsWith(e.getFileName() + " end\n", (int) e.getOutputOffset()));
+        }
+        List<String> lines = new ArrayList<String>(Arrays.asList(output.split("\n")));
+        assertEquals("Should have the output of initialize first", "header", lines.remove(0));
+        assertEquals("Should have output for all matching files", 72, lines.size());
+        for (int i = 0; i < lines.size(); i += 2) {
+            String name = lines.get(i).split(" ")[0];
+            assertEquals("Output of a file should be kept together", name + " end", lines.get(i + 1));
+        }
+    }
+
+    /**
+     * Tests that a job which is not parallelizable is run on the calling thread only.
+     */
+    @Test
+    public void testNotParallelizableRun() {
+        Settings.set(CommonSettings.BATCH_PARALLEL_THREADS, "4");
+        final Set<Thread> threads = Collections.synchronizedSet(new HashSet<Thread>());
+        FileBatchJob job = new TestBatchJob() {
+            public boolean processFile(File file, OutputStream os) {
+                threads.add(Thread.currentThread());
+                return super.processFile(file, os);
+            }
+        };
+        blf.run(job, os);
+        assertEquals("Should have processed all files", FILES, processed);
+        assertEquals("Should only use the calling thread", Collections.singleton(Thread.currentThread()), threads);
+    }
+
     /**
      * A very simple FileBatchJob that simply counts relevant method calls in the parents class's designated fields.
      */
@@ -0,0 +1,193 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.IteratorUtils;
+
+/**
+ * Unit tests for the CDXIndex class.
+ */
+public class CDXIndexTester {
+
+    /** Prefixes with known matches (or none) in TestInfo.CDX_FILE1. */
+    private static final String[] PREFIXES = {"http://fnord/", "http://xenophile.dk/", "dns:101", "http://player.",
+            "http://server-dk.", "http://server-dk.imrworldwide.com/ ", "dns:", "http://", "h", ""};
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(TestInfo.CDX_DIR);
+        FileUtils.createDir(TestInfo.CDX_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.CDX_DIR);
+    }
+
+    /**
+     * Test that lookups give the same lines as BinSearch, also when the block index has many small blocks.
+     */
+    @Test
+    public void testGetLinesMatchesBinSearch() {
+        for (int blockSize : new int[] {1, 100, 1000, CDXIndex.DEFAULT_BLOCK_SIZE}) {
+            CDXIndex index = new CDXIndex(TestInfo.CDX_FILE1, blockSize, false);
+            for (String prefix : allPrefixes(TestInfo.CDX_FILE1)) {
+                assertEquals("Should find the same lines as BinSearch for '" + prefix + "' with block size "
+                        + blockSize, find(BinSearch.getLinesInFile(TestInfo.CDX_FILE1, prefix)),
+                        find(index.getLines(prefix)));
+            }
+        }
+        List<String> playerUrls = find(CDXIndex.getLinesInFile(TestInfo.CDX_FILE1, "http://player."));
+        assertEquals("Should get exactly 4 lines for player.", 4, playerUrls.size());
+        assertTrue("Should have right line first", playerUrls.get(0).startsWith("http://player.localeyes.tv/entry.asp"));
+
+        // Test that the Iterable can be reused
+        Iterable<String> lines = CDXIndex.getLinesInFile(TestInfo.CDX_FILE1, "http://server-dk.");
+        assertEquals("Should get 5 lines for server-dk", 5, find(lines).size());
+        assertEquals("Should get the same lines the second time", 5, find(lines).size());
+    }
+
+    /**
+     * Test that batched lookups give the same lines as single lookups.
+     */
+    @Test
+    public void testGetLinesBatched() {
+        CDXIndex index = new CDXIndex(TestInfo.CDX_FILE1, 100, false);
+        List<String> prefixes = allPrefixes(TestInfo.CDX_FILE1);
+        Map<String, List<String>> batched = index.getLines(prefixes);
+        assertEquals("Should have a result for each distinct prefix", batched.size(), prefixes.size());
+        for (String prefix : prefixes) {
+            assertEquals("Should find the same lines for '" + prefix + "'", find(index.getLines(prefix)),
+                    batched.get(prefix));
+        }
+    }
+
+    /**
+     * Test lookups in empty files and files with long lines and CRLF line endings.
+     */
+    @Test
+    public void testSpecialFiles() throws IOException {
+        CDXIndex empty = new CDXIndex(TestInfo.CDX_FILE3, 100, false);
+        assertEquals("Empty file should have no blocks", 0, empty.getBlockCount());
+        assertFalse("Empty file should have no lines", empty.getLines("").iterator().hasNext());
+
+        StringBuilder longUrl = new StringBuilder("http://long.dk/");
+        for (int i = 0; i < 600; i++) {
+            longUrl.append('a');
+        }
+        File file = new File(TestInfo.CDX_DIR, "special.cdx");
+        writeFile(file, "http://a.dk/ 1\r\n" + longUrl + "1 2\r\n" + longUrl + "2 3\r\n" + longUrl + "3 4\r\n"
+                + "http://m\u00e6rkelig.dk/ 5\n" + "http://z.dk/ 6");
+        CDXIndex index = new CDXIndex(file, 1, false);
+        assertEquals("Should index every line", 6, index.getBlockCount());
+        assertEquals("Should strip CR", Arrays.asList("http://a.dk/ 1"), find(index.getLines("http://a.dk/")));
+        assertEquals("Should find line with truncated key", Arrays.asList(longUrl + "2 3"),
+                find(index.getLines(longUrl + "2")));
+        assertEquals("Should find all long lines", 3, find(index.getLines(longUrl.toString())).size());
+        assertEquals("Should decode as ISO-8859-1", Arrays.asList("http://m\u00e6rkelig.dk/ 5"),
+                find(index.getLines("http://m\u00e6")));
+        assertEquals("Should find unterminated last line", Arrays.asList("http://z.dk/ 6"),
+                find(index.getLines("http://z")));
+        assertEquals("Should find nothing for characters outside ISO-8859-1", 0,
+                find(index.getLines("http://m\u20ac")).size());
+    }
+
+    /**
+     * Test that the block index is persisted, reused, and rebuilt when the file changes.
+     */
+    @Test
+    public void testPersistedSummary() throws IOException {
+        File file = new File(TestInfo.CDX_DIR, "Reader1.cdx");
+        FileUtils.copyFile(TestInfo.CDX_FILE1, file);
+        File summary = CDXIndex.getSummaryFile(file);
+        CDXIndex index = new CDXIndex(file, 100, false);
+        assertFalse("Should not persist summary unless asked", summary.exists());
+        index = new CDXIndex(file, 100, true);
+        assertTrue("Should persist summary", summary.exists());
+        int blocks = index.getBlockCount();
+        CDXIndex loaded = new CDXIndex(file, 100, true);
+        assertEquals("Should load the same summary", blocks, loaded.getBlockCount());
+        for (String prefix : PREFIXES) {
+            assertEquals("Should find the same lines with a loaded summary", find(index.getLines(prefix)),
+                    find(loaded.getLines(prefix)));
+        }
+
+        writeFile(file, "http://new.dk/ 1\n");
+        CDXIndex rebuilt = new CDXIndex(file, 100, true);
+        assertEquals("Should rebuild summary of changed file", 1, rebuilt.getBlockCount());
+        assertEquals("Should find lines of changed file", 1, find(rebuilt.getLines("http://new")).size());
+    }
+
+    /**
+     * Collect the lines of an iterable.
+     */
+    private static List<String> find(Iterable<String> lines) {
+        return IteratorUtils.toList(lines.iterator());
+    }
+
+    /**
+     * Return PREFIXES plus every prefix of the URL field of each line in the file.
+     */
+    private static List<String> allPrefixes(File file) {
+        List<String> result = new ArrayList<String>(Arrays.asList(PREFIXES));
+        for (String line : find(BinSearch.getLinesInFile(file, ""))) {
+            String url = line.split(CDXReader.SEPARATOR_REGEX)[0];
+            for (int i = 1; i <= url.length(); i += 7) {
+                if (!result.contains(url.substring(0, i))) {
+                    result.add(url.substring(0, i));
+                }
+            }
+            if (!result.contains(url)) {
+                result.add(url);
+            }
+        }
+        return result;
+    }
+
+    private static void writeFile(File file, String contents) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents.getBytes("ISO-8859-1"));
+        } finally {
+            out.close();
+        }
+    }
+
+}
@@ -0,0 +1,7 @@
+CREATE TABLE harvest_expectations (
+	config_id BIGINT NOT NULL,
+	objectcount BIGINT NOT NULL,
+	bytecount BIGINT NOT NULL,
+	stopreason INT NOT NULL,
+	PRIMARY KEY (config_id)
+);
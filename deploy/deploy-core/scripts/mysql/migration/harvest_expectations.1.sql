@@ -0,0 +1,6 @@
+CREATE TABLE harvest_expectations (
+	config_id BIGINT NOT NULL PRIMARY KEY,
+	objectcount BIGINT NOT NULL,
+	bytecount BIGINT NOT NULL,
+	stopreason INT NOT NULL
+);
@@ -106,6 +106,8 @@ INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'eav_attribute', 1);
 INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'eav_type_attribute', 1);
+INSERT INTO schemaversions ( tablename, version )
+    VALUES ( 'harvest_expectations', 1);
 
 
 
@@ -256,6 +258,15 @@ CREATE INDEX historyinfojob on historyinfo(job_id) TABLESPACE tsindex;
 GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE historyinfo TO netarchivesuite;
 GRANT USAGE ON SEQUENCE historyinfo_id_seq TO netarchivesuite;
 
+CREATE TABLE harvest_expectations (
+    config_id bigint NOT NULL PRIMARY KEY,
+    objectcount bigint NOT NULL,
+    bytecount bigint NOT NULL,
+    stopreason int NOT NULL
+);
+
+GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE harvest_expectations TO netarchivesuite;
+
 -- *****************************************************************************
 -- Area: Harvest Definitions
 -- *****************************************************************************
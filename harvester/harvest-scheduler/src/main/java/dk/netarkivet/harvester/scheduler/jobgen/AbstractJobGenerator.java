@@ -28,6 +28,7 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,11 +37,13 @@ import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.Constants;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
+import dk.netarkivet.harvester.datamodel.DomainDAO;
 import dk.netarkivet.harvester.datamodel.FullHarvest;
 import dk.netarkivet.harvester.datamodel.GlobalCrawlerTrapListDAO;
 import dk.netarkivet.harvester.datamodel.HarvestChannel;
 import dk.netarkivet.harvester.datamodel.HarvestChannelDAO;
 import dk.netarkivet.harvester.datamodel.HarvestDefinition;
+import dk.netarkivet.harvester.datamodel.HarvestExpectation;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
 import dk.netarkivet.harvester.datamodel.PartialHarvest;
@@ -80,6 +83,7 @@ abstract class AbstractJobGenerator implements JobGenerator {
             while (domainConfigurations.hasNext() && subset.size() < DOMAIN_CONFIG_SUBSET_SIZE) {
                 subset.add(domainConfigurations.next());
             }
+            loadHarvestExpectations(subset);
 
             final Comparator<DomainConfiguration> domainConfigurationSubsetComparator = getDomainConfigurationSubsetComparator(
                     harvest);
@@ -124,6 +128,31 @@ abstract class AbstractJobGenerator implements JobGenerator {
         return jobsMade;
     }
 
+    /**
+     * Reads the precomputed harvest expectations of the given configurations in one go, so the expected size of each
+     * configuration can be calculated without scanning its full harvest history while sorting and packing jobs.
+     * Configurations that already have their expectation, like those read for a snapshot harvest, are skipped, and
+     * configurations without a precomputed expectation, i.e. never harvested, keep calculating it from their history.
+     *
+     * @param domainConfigurations the configurations about to be processed
+     */
+    private void loadHarvestExpectations(List<DomainConfiguration> domainConfigurations) {
+        List<Long> configIDs = new ArrayList<Long>(domainConfigurations.size());
+        for (DomainConfiguration cfg : domainConfigurations) {
+            if (cfg.getID() != null && cfg.getHarvestExpectation() == null) {
+                configIDs.add(cfg.getID());
+            }
+        }
+        Map<Long, HarvestExpectation> expectations = DomainDAO.getInstance().getHarvestExpectations(configIDs);
+        for (DomainConfiguration cfg : domainConfigurations) {
+            if (cfg.getID() != null && expectations.containsKey(cfg.getID())) {
+                cfg.setHarvestExpectation(expectations.get(cfg.getID()));
+            }
+        }
+        log.trace("Read {} precomputed harvest expectations for {} domainconfigs", expectations.size(),
+                domainConfigurations.size());
+    }
+
     /**
      * Instantiates a new job.
      *
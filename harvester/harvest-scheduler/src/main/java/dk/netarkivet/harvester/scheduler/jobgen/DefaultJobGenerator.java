@@ -22,14 +22,22 @@
  */
 package dk.netarkivet.harvester.scheduler.jobgen;
 
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
@@ -124,6 +132,8 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
     /** Constant : exclude {@link DomainConfiguration}s with a budget of zero (bytes or objects). */
     private final boolean EXCLUDE_ZERO_BUDGET = Settings
             .getBoolean(HarvesterSettings.JOBGEN_FIXED_CONFIG_COUNT_EXCLUDE_ZERO_BUDGET);
+    /** Constant : how many threads are used to pack the partitions of a subset into jobs. */
+    private final int PARTITION_THREADS = Settings.getInt(HarvesterSettings.JOBGEN_PARTITION_THREADS);
 
     /** Singleton instance. */
     private static DefaultJobGenerator instance;
@@ -144,7 +154,7 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
     }
 
     /**
-     * Create new jobs from a collection of configurations. All configurations must use the same order.xml file.Jobs
+     * Create new jobs from a collection of configurations, and store them.
      *
      * @param harvest the {@link HarvestDefinition} being processed.
      * @param domainConfSubset the configurations to use to create the jobs
@@ -152,26 +162,125 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
      * @throws ArgumentNotValid if any of the parameters is null or if the cfglist does not contain any configurations
      */
     @Override
-    protected int processDomainConfigurationSubset(HarvestDefinition harvest,
+    protected int processDomainConfigurationSubset(final HarvestDefinition harvest,
             Iterator<DomainConfiguration> domainConfSubset) {
-        int jobsMade = 0;
-        Job job = null;
         log.debug("Adding domainconfigs with the same order.xml for harvest #{}", harvest.getOid());
-        JobDAO dao = JobDAO.getInstance();
-        DomainConfiguration previousDomainConf = null;
+        List<Job> jobs = makeJobs(harvest, domainConfSubset);
+        JobDAO.getInstance().create(jobs);
+        if (log.isTraceEnabled()) {
+            for (Job job : jobs) {
+                log.trace("Generated job: '{}'", job.toString());
+                StringBuilder logMsg = new StringBuilder("Job configurationsDomain:");
+                for (Map.Entry<String, String> config : job.getDomainConfigurationMap().entrySet()) {
+                    logMsg.append("\n ").append(config.getKey()).append(":").append(config.getValue());
+                }
+                log.trace(logMsg.toString());
+            }
+        }
+        log.debug("Created {} jobs for harvest #{}", jobs.size(), harvest.getOid());
+        return jobs.size();
+    }
+
+    /**
+     * Create new jobs from a collection of configurations, without storing them. The configurations are split into
+     * partitions of consecutive configurations using the same order.xml file and the same EAV attributes, as such
+     * configurations never share a job. Each partition is packed into jobs on its own thread, if
+     * {@link HarvesterSettings#JOBGEN_PARTITION_THREADS} allows it, and the jobs are then returned in the order of the
+     * partitions, so the result is the same as when packing the partitions one by one.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param domainConfSubset the configurations to use to create the jobs, sorted by the comparator from
+     * {@link #getDomainConfigurationSubsetComparator(HarvestDefinition)}
+     * @return The jobs created, in the order they were filled
+     */
+    List<Job> makeJobs(final HarvestDefinition harvest, Iterator<DomainConfiguration> domainConfSubset) {
+        List<List<DomainConfiguration>> partitions = new ArrayList<List<DomainConfiguration>>();
+        List<DomainConfiguration> partition = null;
         while (domainConfSubset.hasNext()) {
             DomainConfiguration cfg = domainConfSubset.next();
-            log.trace("Processing " + DomainConfiguration.cfgToString(cfg));
             if (EXCLUDE_ZERO_BUDGET && (0 == cfg.getMaxBytes() || 0 == cfg.getMaxObjects())) {
                 log.info("Config '{}' for '{}'" + " excluded (0{})", cfg.getName(), cfg.getDomainName(),
                         (cfg.getMaxBytes() == 0 ? " bytes" : " objects"));
                 continue;
             }
+            if (partition == null || !mayShareJob(partition.get(partition.size() - 1), cfg)) {
+                partition = new ArrayList<DomainConfiguration>();
+                partitions.add(partition);
+            }
+            partition.add(cfg);
+        }
+
+        List<Job> jobs = new ArrayList<Job>();
+        int threads = Math.min(PARTITION_THREADS, partitions.size());
+        if (threads <= 1) {
+            for (List<DomainConfiguration> configs : partitions) {
+                jobs.addAll(packPartition(harvest, configs));
+            }
+        } else {
+            log.debug("Packing {} partitions of domainconfigs for harvest #{} using {} threads", partitions.size(),
+                    harvest.getOid(), threads);
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<List<Job>>> packers = new ArrayList<Future<List<Job>>>();
+                for (final List<DomainConfiguration> configs : partitions) {
+                    packers.add(executor.submit(new Callable<List<Job>>() {
+                        @Override
+                        public List<Job> call() {
+                            return packPartition(harvest, configs);
+                        }
+                    }));
+                }
+                for (Future<List<Job>> packer : packers) {
+                    jobs.addAll(packer.get());
+                }
+            } catch (InterruptedException e) {
+                throw new IOFailure("Interrupted while making jobs for harvest #" + harvest.getOid(), e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IOFailure("Failed to make jobs for harvest #" + harvest.getOid(), e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Check whether a configuration may share a job with the configuration before it. Configurations using different
+     * order.xml files or having different EAV attributes never share a job.
+     *
+     * @param previousCfg the previous configuration
+     * @param cfg the configuration
+     * @return true if the configurations may share a job
+     */
+    private static boolean mayShareJob(DomainConfiguration previousCfg, DomainConfiguration cfg) {
+        return previousCfg.getOrderXmlName().equals(cfg.getOrderXmlName())
+                && EAV.compare(previousCfg.getAttributesAndTypes(), cfg.getAttributesAndTypes()) == 0;
+    }
+
+    /**
+     * Pack a partition of configurations into jobs. The jobs are not stored.
+     *
+     * @param harvest the {@link HarvestDefinition} being processed.
+     * @param configs consecutive configurations using the same order.xml file and the same EAV attributes
+     * @return The jobs made from the configurations, in the order they were filled
+     */
+    private List<Job> packPartition(HarvestDefinition harvest, List<DomainConfiguration> configs) {
+        List<Job> jobs = new ArrayList<Job>();
+        Job job = null;
+        DomainConfiguration previousDomainConf = null;
+        for (DomainConfiguration cfg : configs) {
+            log.trace("Processing " + DomainConfiguration.cfgToString(cfg));
             if ((job == null) || (!canAccept(job, cfg, previousDomainConf))) {
                 if (job != null) {
-                    // If we're done with a job, write it out
-                    ++jobsMade;
-                    dao.create(job);
+                    // If we're done with a job, keep it for storing
+                    editJobOrderXml(job);
+                    jobs.add(job);
                 }
                 job = getNewJob(harvest, cfg);
                 log.trace("Created new job for harvest #{} to add configuration {} for domain {}", harvest.getOid(),
@@ -185,23 +294,12 @@ public class DefaultJobGenerator extends AbstractJobGenerator {
             previousDomainConf = cfg;
         }
         if (job != null) {
-            ++jobsMade;
             editJobOrderXml(job);
-            dao.create(job);
-            if (log.isTraceEnabled()) {
-                log.trace("Generated job: '{}'", job.toString());
-                StringBuilder logMsg = new StringBuilder("Job configurationsDomain:");
-                for (Map.Entry<String, String> config : job.getDomainConfigurationMap().entrySet()) {
-                    logMsg.append("\n ").append(config.getKey()).append(":").append(config.getValue());
-                }
-                log.trace(logMsg.toString());
-            }
-            log.debug("Created {} jobs for harvest #{}", jobsMade, harvest.getOid());
+            jobs.add(job);
         }
-        return jobsMade;
+        return jobs;
     }
 
-
     @Override
     protected boolean checkSpecificAcceptConditions(Job job, DomainConfiguration cfg) {
         if (job.isSnapshot()
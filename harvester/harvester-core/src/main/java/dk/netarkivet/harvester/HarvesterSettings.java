@@ -160,6 +160,28 @@ public class HarvesterSettings {
      */
     public static String JOBGEN_DOMAIN_CONFIG_SUBSET_SIZE = "settings.harvester.scheduler.jobGen.domainConfigSubsetSize";
 
+    /**
+     * <b>settings.harvester.scheduler.jobGen.snapshotDomainChunkSize</b>: <br>
+     * How many domains are read from the database in one go, when reading all domains for a snapshot harvest. Each
+     * chunk is read with a fixed number of queries.
+     */
+    public static String JOBGEN_SNAPSHOT_DOMAIN_CHUNK_SIZE = "settings.harvester.scheduler.jobGen.snapshotDomainChunkSize";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.snapshotDomainPrefetchChunks</b>: <br>
+     * How many chunks of domains are read ahead in the background, while jobs are made from the domains already read
+     * for a snapshot harvest.
+     */
+    public static String JOBGEN_SNAPSHOT_DOMAIN_PREFETCH_CHUNKS = "settings.harvester.scheduler.jobGen.snapshotDomainPrefetchChunks";
+
+    /**
+     * <b>settings.harvester.scheduler.jobGen.partitionThreads</b>: <br>
+     * How many threads the {@link DefaultJobGenerator} uses to make jobs from the domain configurations of one subset.
+     * Configurations using different harvest templates never share a job, so each template is packed into jobs on its
+     * own thread. The jobs are stored in the same order regardless of this value. The default is 1.
+     */
+    public static String JOBGEN_PARTITION_THREADS = "settings.harvester.scheduler.jobGen.partitionThreads";
+
     /**
      * <b>settings.harvester.scheduler.jobGen.config.fixedDomainCountFocused</b>: <br>
      * If the job generator is {@link FixedDomainConfigurationCountJobGenerator}, then this parameter represents the
@@ -247,6 +269,21 @@ public class HarvesterSettings {
      */
     public static String HARVEST_CONTROLLER_OLDJOBSDIR = "settings.harvester.harvesting.oldjobsDir";
 
+    /**
+     * <b>settings.harvester.harvesting.uploadThreads</b>: <br>
+     * How many archive files the harvest controller uploads to the archive at the same time after a harvest. Each upload
+     * waits for all replicas to confirm the store, so uploading several files at once keeps the harvester from sitting
+     * idle. The metadata files are always uploaded after all other files. The default is 1.
+     */
+    public static String HARVEST_CONTROLLER_UPLOAD_THREADS = "settings.harvester.harvesting.uploadThreads";
+
+    /**
+     * <b>settings.harvester.harvesting.uploadRetries</b>: <br>
+     * How many more times the harvest controller tries to upload an archive file when the store has failed. This is on
+     * top of the retries of the StoreMessage done by the arcrepository client. The default is 0.
+     */
+    public static String HARVEST_CONTROLLER_UPLOAD_RETRIES = "settings.harvester.harvesting.uploadRetries";
+
     /**
      * <b>settings.harvester.harvesting.channel</b>: <br>
      * Harvest channel to take jobs from. This is the default channel assigned to the harvest controller.
@@ -627,6 +664,19 @@ public class HarvesterSettings {
      */
     public static String INDEXSERVER_INDEXING_MAX_SEGMENTS = "settings.harvester.indexserver.maxsegments";
 
+    /**
+     * <b>settings.harvester.indexserver.mergefanin</b>: <br>
+     * Setting for how many subindices are merged into one intermediate index, while the subindices of a deduplication
+     * index are being generated. The default is 200.
+     */
+    public static String INDEXSERVER_INDEXING_MERGE_FANIN = "settings.harvester.indexserver.mergefanin";
+
+    /**
+     * <b>settings.harvester.indexserver.mergethreads</b>: <br>
+     * Setting for the max number of threads used for merging subindices into intermediate indices. The default is 2.
+     */
+    public static String INDEXSERVER_INDEXING_MERGE_THREADS = "settings.harvester.indexserver.mergethreads";
+
     /**
      * <b>settings.harvester.indexserver.listeningcheckinterval</b>: <br>
      * Setting for the interval between each listening check in milliseconds. The default is 30000 (5 minutes).
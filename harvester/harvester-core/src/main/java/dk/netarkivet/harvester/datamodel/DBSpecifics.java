@@ -35,6 +35,7 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.exceptions.NotImplementedException;
 import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.SettingsFactory;
 
 /**
@@ -159,6 +160,8 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
             upgradeEavTypeAttributeTable(currentVersion, toVersion);
         } else if (tableName.equals(HarvesterDatabaseTables.EAVATTRIBUTE.getTablename())) {
             upgradeEavAttributeTable(currentVersion, toVersion);
+        } else if (tableName.equals(HarvesterDatabaseTables.HARVESTEXPECTATIONS.getTablename())) {
+            upgradeHarvestExpectationsTable(currentVersion, toVersion);
         } else {
             // Add new if else when other tables need to be upgraded
             throw new NotImplementedException("No method exists for migrating table '" + tableName + "' to version "
@@ -739,4 +742,55 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      */
     public abstract void createEavAttributeTable(int toVersion);
 
+    /**
+     * Migrate the harvest_expectations table.
+     * @param currentVersion the current version of the harvest_expectations table
+     * @param toVersion the required version of the harvest_expectations table
+     */
+    public void upgradeHarvestExpectationsTable(int currentVersion, int toVersion) {
+        if (currentVersion == 0 && toVersion >= 1) {
+            createHarvestExpectationsTable(1);
+            calculateAllHarvestExpectations();
+            currentVersion = 1;
+        }
+        if (currentVersion > HarvesterDatabaseTables.HARVESTEXPECTATIONS.getRequiredVersion()) {
+            throw new NotImplementedException("No method exists for migrating table '"
+                    + HarvesterDatabaseTables.HARVESTEXPECTATIONS.getTablename() + "' from version " + currentVersion
+                    + " to version " + toVersion);
+        }
+    }
+
+    /**
+     * Fill the newly created harvest_expectations table from the harvest history already in the database, so the job
+     * generator never has to fall back to reading the history of configurations harvested before the upgrade.
+     *
+     * @throws IOFailure in case of problems in interacting with the database
+     */
+    private void calculateAllHarvestExpectations() {
+        Connection c = HarvestDBConnection.get();
+        boolean autoCommit = true;
+        try {
+            autoCommit = c.getAutoCommit();
+            c.setAutoCommit(false);
+            DomainDBDAO.calculateAllHarvestExpectations(c);
+            c.commit();
+        } catch (SQLException e) {
+            DBUtils.rollbackIfNeeded(c, "calculate", "harvest expectations");
+            throw new IOFailure("SQL error while calculating harvest expectations\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            try {
+                c.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                log.warn("Unable to restore autocommit mode", e);
+            }
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    /**
+     * Create the harvest_expectations table in the database.
+     */
+    public abstract void createHarvestExpectationsTable(int toVersion);
+
 }
@@ -409,4 +409,10 @@ public abstract class DerbySpecifics extends DBSpecifics {
         HarvestDBConnection.executeSql("derby", tableName, 1 );
     }
 
+    @Override
+    public void createHarvestExpectationsTable(int toVersion) {
+        String tableName = HarvesterDatabaseTables.HARVESTEXPECTATIONS.getTablename();
+        HarvestDBConnection.executeSql("derby", tableName, 1);
+    }
+
 }
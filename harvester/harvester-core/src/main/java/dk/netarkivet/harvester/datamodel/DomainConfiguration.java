@@ -81,6 +81,9 @@ public class DomainConfiguration implements Named {
     /** This configurations EAV attributes and attribute types. */
     private List<AttributeAndType> attributesAndTypes;
 
+    /** The precomputed harvest expectation, or null if it must be calculated from the domainhistory. */
+    private HarvestExpectation harvestExpectation;
+
     /**
      * How many objects should be harvested in a harvest to trust that our expected size of objects is less than the
      * default number.
@@ -349,7 +352,11 @@ public class DomainConfiguration implements Named {
      */
     public long getExpectedNumberOfObjects(long objectLimit, long byteLimit) {
         long prevresultfactor = Settings.getLong(HarvesterSettings.ERRORFACTOR_PERMITTED_PREVRESULT);
-        HarvestInfo best = DomainHistory.getBestHarvestInfoExpectation(configName, this.domainhistory);
+        HarvestExpectation best = harvestExpectation;
+        if (best == null) {
+            best = HarvestExpectation.valueOf(DomainHistory.getBestHarvestInfoExpectation(configName,
+                    this.domainhistory));
+        }
 
         log.trace("Getting expectation, using domain info '{}' for configuration '{}'", best, cfgToString(this));
 
@@ -441,12 +448,12 @@ public class DomainConfiguration implements Named {
      * from previous harvests to calculate the harvest, but we only accept a low estimate if the number of harvested
      * objects is greater than the setting MIN_OBJECTS_TO_TRUST_SMALL_EXPECTATION.
      *
-     * @param bestInfo The best (newest complete or biggest, as per getBestHarvestInfoExpectation()) harvest info we
-     * have for the domain.
+     * @param bestInfo The best (newest complete or biggest, as per getBestHarvestInfoExpectation()) harvest
+     * expectation we have for the domain.
      * @return How large we expect the average object to be. This number will be >= MIN_EXPECTATION (unless nothing is
      * harvested and is EXPECTED_AVERAGE_BYTES_PER_OBJECT <= 0).
      */
-    private long getExpectedBytesPerObject(HarvestInfo bestInfo) {
+    private long getExpectedBytesPerObject(HarvestExpectation bestInfo) {
         long defaultExpectation = Settings.getLong(HarvesterSettings.EXPECTED_AVERAGE_BYTES_PER_OBJECT);
         if (bestInfo != null && bestInfo.getCountObjectRetrieved() > 0) {
             long expectation = Math.max(MIN_EXPECTATION,
@@ -612,4 +619,23 @@ public class DomainConfiguration implements Named {
     	this.attributesAndTypes = attributesAndTypes;
     }
 
+    /**
+     * Get the precomputed harvest expectation of this configuration.
+     *
+     * @return the precomputed harvest expectation, or null if it is calculated from the domainhistory
+     */
+    public HarvestExpectation getHarvestExpectation() {
+        return harvestExpectation;
+    }
+
+    /**
+     * Set the precomputed harvest expectation of this configuration. When set, it is used by
+     * {@link #getExpectedNumberOfObjects(long, long)} instead of scanning the domainhistory.
+     *
+     * @param harvestExpectation the precomputed harvest expectation (null is accepted for using the domainhistory)
+     */
+    public void setHarvestExpectation(HarvestExpectation harvestExpectation) {
+        this.harvestExpectation = harvestExpectation;
+    }
+
 }
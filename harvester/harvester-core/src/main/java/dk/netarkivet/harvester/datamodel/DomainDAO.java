@@ -23,8 +23,10 @@
 package dk.netarkivet.harvester.datamodel;
 
 import java.sql.Connection;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.UnknownID;
@@ -185,7 +187,8 @@ public abstract class DomainDAO implements DAO, Iterable<Domain> {
 
     /**
      * Gets list of all domains in the order expected by snapshot harvest job generation, that is order by template
-     * name, then byte limit (descending), then domain name.
+     * name, then byte limit (descending), then domain name. The domains are read without their harvest history, but
+     * their configurations have their precomputed harvest expectations set.
      *
      * @return List of all added domains
      */
@@ -348,4 +351,14 @@ public abstract class DomainDAO implements DAO, Iterable<Domain> {
      * @return the name of the default configuration for the given domain.
      */
 	public abstract String getDefaultDomainConfigurationName(String domainName);
+
+    /**
+     * Get the precomputed harvest expectations of the given configurations. Configurations that have no precomputed
+     * expectation, e.g. because they have never been harvested, are left out of the result.
+     *
+     * @param configIDs The IDs of the configurations.
+     * @return A map from configuration ID to the harvest expectation of the configuration.
+     * @throws ArgumentNotValid if configIDs is null.
+     */
+    public abstract Map<Long, HarvestExpectation> getHarvestExpectations(Collection<Long> configIDs);
 }
@@ -33,13 +33,16 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,7 +53,9 @@ import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
 import dk.netarkivet.common.utils.FilterIterator;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValue;
@@ -72,6 +77,9 @@ public class DomainDBDAO extends DomainDAO {
     /** The log. */
     private static final Logger log = LoggerFactory.getLogger(DomainDBDAO.class);
 
+    /** How many rows of harvest history to fetch at a time when calculating all harvest expectations. */
+    private static final int HISTORY_FETCH_SIZE = 10000;
+
     /**
      * Creates a database-based implementation of the DomainDAO. Will check that all schemas have correct versions, and
      * update the ones that haven't.
@@ -178,9 +186,13 @@ public class DomainDBDAO extends DomainDAO {
             s.setLong(3, d.getID());
             s.executeUpdate();
             s.close();
+            Set<String> harvestedConfigs = new HashSet<String>();
             for (Iterator<HarvestInfo> hi = d.getHistory().getHarvestInfo(); hi.hasNext();) {
-                insertHarvestInfo(connection, d, hi.next());
+                HarvestInfo harvestInfo = hi.next();
+                insertHarvestInfo(connection, d, harvestInfo);
+                harvestedConfigs.add(harvestInfo.getDomainConfigurationName());
             }
+            updateHarvestExpectations(connection, d, harvestedConfigs);
 
             for (DomainOwnerInfo doi : d.getAllDomainOwnerInfo()) {
                 insertOwnerInfo(connection, d, doi);
@@ -420,6 +432,8 @@ public class DomainDBDAO extends DomainDAO {
         }
         s.close();
         s = connection.prepareStatement("DELETE FROM configurations WHERE config_id = ?");
+        PreparedStatement deleteExpectation = connection
+                .prepareStatement("DELETE FROM harvest_expectations WHERE config_id = ?");
         for (Long gone : oldNames.values()) {
             // Before deleting, check if this is unused. Since deletion is
             // rare, this is allowed to take some time to give good output
@@ -433,10 +447,14 @@ public class DomainDBDAO extends DomainDAO {
                 log.debug(message);
                 throw new PermissionDenied(message);
             }
+            deleteExpectation.setLong(1, gone);
+            deleteExpectation.executeUpdate();
+            deleteExpectation.clearParameters();
             s.setLong(1, gone);
             s.executeUpdate();
             s.clearParameters();
         }
+        deleteExpectation.close();
     }
 
     /**
@@ -485,6 +503,7 @@ public class DomainDBDAO extends DomainDAO {
                 + "  WHERE domains.domain_id = ?" + "    AND configurations.name = ?"
                 + "    AND configurations.domain_id = domains.domain_id), " + "harvest_id = ?, " + "job_id = ? "
                 + "WHERE historyinfo_id = ?");
+        Set<String> newlyHarvestedConfigs = new HashSet<String>();
         Iterator<HarvestInfo> his = d.getHistory().getHarvestInfo();
         while (his.hasNext()) {
             HarvestInfo hi = his.next();
@@ -505,6 +524,7 @@ public class DomainDBDAO extends DomainDAO {
                 s.clearParameters();
             } else {
                 insertHarvestInfo(c, d, hi);
+                newlyHarvestedConfigs.add(hi.getDomainConfigurationName());
             }
         }
         if (oldIDs.size() != 0) {
@@ -512,6 +532,120 @@ public class DomainDBDAO extends DomainDAO {
             log.debug(message);
             throw new IOFailure(message);
         }
+        updateHarvestExpectations(c, d, newlyHarvestedConfigs);
+    }
+
+    /**
+     * Update the precomputed harvest expectations of the given configurations from the harvest history of the domain.
+     * The expectations are only recalculated for configurations that have had harvest info written, so the job
+     * generator can read them without scanning the full history of every domain.
+     *
+     * @param c A connection to the database
+     * @param d A domain to update. The IDs of its configurations must be correct.
+     * @param configNames The names of the configurations to update the expectations for.
+     * @throws SQLException If any database problems occur during the update process.
+     */
+    private void updateHarvestExpectations(Connection c, Domain d, Set<String> configNames) throws SQLException {
+        if (configNames.isEmpty()) {
+            return;
+        }
+        PreparedStatement delete = c.prepareStatement("DELETE FROM harvest_expectations WHERE config_id = ?");
+        PreparedStatement insert = c.prepareStatement("INSERT INTO harvest_expectations "
+                + "( config_id, objectcount, bytecount, stopreason ) VALUES ( ?, ?, ?, ? )");
+        try {
+            for (String configName : configNames) {
+                HarvestInfo best = DomainHistory.getBestHarvestInfoExpectation(configName, d.getHistory());
+                long configId = d.getConfiguration(configName).getID();
+                delete.setLong(1, configId);
+                delete.executeUpdate();
+                delete.clearParameters();
+                insert.setLong(1, configId);
+                insert.setLong(2, best.getCountObjectRetrieved());
+                insert.setLong(3, best.getSizeDataRetrieved());
+                insert.setInt(4, best.getStopReason().ordinal());
+                insert.executeUpdate();
+                insert.clearParameters();
+            }
+        } finally {
+            delete.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * Calculate the precomputed harvest expectations of all configurations from the harvest history in the database.
+     * This is done once, when the harvest_expectations table is added to a database that already holds harvest
+     * history, and the table must still be empty. The history of each configuration is read newest first, and the
+     * expectation is selected as {@link DomainHistory#getBestHarvestInfoExpectation(String, DomainHistory)} would
+     * select it.
+     *
+     * @param c A connection to the database, which is left outside autocommit mode
+     * @throws SQLException If any database problems occur during the calculation.
+     */
+    static void calculateAllHarvestExpectations(Connection c) throws SQLException {
+        PreparedStatement select = DBUtils.prepareStatement(c, HISTORY_FETCH_SIZE,
+                "SELECT config_id, objectcount, bytecount, stopreason FROM historyinfo"
+                        + " ORDER BY config_id, harvest_time DESC, harvest_id DESC");
+        PreparedStatement insert = c.prepareStatement("INSERT INTO harvest_expectations "
+                + "( config_id, objectcount, bytecount, stopreason ) VALUES ( ?, ?, ?, ? )");
+        try {
+            ResultSet res = select.executeQuery();
+            Long configId = null;
+            long objectCount = 0;
+            long byteCount = 0;
+            int stopReason = 0;
+            boolean completed = false;
+            int count = 0;
+            while (res.next()) {
+                if (configId == null || configId != res.getLong(1)) {
+                    if (configId != null) {
+                        insertHarvestExpectation(insert, configId, objectCount, byteCount, stopReason);
+                        count++;
+                    }
+                    configId = res.getLong(1);
+                    objectCount = -1;
+                    completed = false;
+                }
+                // Same selection as DomainHistory.getBestHarvestInfoExpectation: the largest harvest up to and
+                // including the most recent complete one, preferring the older on ties
+                if (!completed && objectCount <= res.getLong(2)) {
+                    objectCount = res.getLong(2);
+                    byteCount = res.getLong(3);
+                    stopReason = res.getInt(4);
+                }
+                if (res.getInt(4) == StopReason.DOWNLOAD_COMPLETE.ordinal()) {
+                    completed = true;
+                }
+            }
+            if (configId != null) {
+                insertHarvestExpectation(insert, configId, objectCount, byteCount, stopReason);
+                count++;
+            }
+            log.info("Calculated the harvest expectations of {} configurations from their harvest history", count);
+        } finally {
+            select.close();
+            insert.close();
+        }
+    }
+
+    /**
+     * Insert the precomputed harvest expectation of a configuration.
+     *
+     * @param insert A statement inserting into harvest_expectations
+     * @param configId The id of the configuration
+     * @param objectCount The number of objects retrieved by the best harvest
+     * @param byteCount The number of bytes retrieved by the best harvest
+     * @param stopReason The reason the best harvest stopped, as stored in historyinfo
+     * @throws SQLException If any database problems occur during the insert.
+     */
+    private static void insertHarvestExpectation(PreparedStatement insert, long configId, long objectCount,
+            long byteCount, int stopReason) throws SQLException {
+        insert.setLong(1, configId);
+        insert.setLong(2, objectCount);
+        insert.setLong(3, byteCount);
+        insert.setInt(4, stopReason);
+        insert.executeUpdate();
+        insert.clearParameters();
     }
 
     /**
@@ -906,13 +1040,24 @@ public class DomainDBDAO extends DomainDAO {
         s.setLong(1, d.getID());
         ResultSet res = s.executeQuery();
         while (res.next()) {
-            final DomainOwnerInfo ownerinfo = new DomainOwnerInfo(new Date(res.getTimestamp(2).getTime()),
-                    res.getString(3));
-            ownerinfo.setID(res.getLong(1));
-            d.addOwnerInfo(ownerinfo);
+            d.addOwnerInfo(getOwnerInfoFromResultset(res));
         }
     }
 
+    /**
+     * Make DomainOwnerInfo based on entry from ownerinfo (id, created, info).
+     *
+     * @param res a Resultset
+     * @return a DomainOwnerInfo based on ResultSet entry.
+     * @throws SQLException if unable to get data from database
+     */
+    static DomainOwnerInfo getOwnerInfoFromResultset(ResultSet res) throws SQLException {
+        final DomainOwnerInfo ownerinfo = new DomainOwnerInfo(new Date(res.getTimestamp(2).getTime()),
+                res.getString(3));
+        ownerinfo.setID(res.getLong(1));
+        return ownerinfo;
+    }
+
     /**
      * Read history info entries for the domain.
      *
@@ -928,26 +1073,38 @@ public class DomainDBDAO extends DomainDAO {
         s.setLong(1, d.getID());
         ResultSet res = s.executeQuery();
         while (res.next()) {
-            long hiID = res.getLong(1);
-            int stopreasonNum = res.getInt(2);
-            StopReason stopreason = StopReason.getStopReason(stopreasonNum);
-            long objectCount = res.getLong(3);
-            long byteCount = res.getLong(4);
-            String configName = res.getString(5);
-            Long jobId = res.getLong(6);
-            if (res.wasNull()) {
-                jobId = null;
-            }
-            long harvestId = res.getLong(7);
-            Date harvestTime = new Date(res.getTimestamp(8).getTime());
-            HarvestInfo hi;
-            // XML DAOs didn't keep the job id in harvestinfo, so some
-            // entries will be null.
-            hi = new HarvestInfo(harvestId, jobId, d.getName(), configName, harvestTime, byteCount, objectCount,
-                    stopreason);
-            hi.setID(hiID);
-            d.getHistory().addHarvestInfo(hi);
+            d.getHistory().addHarvestInfo(getHarvestInfoFromResultset(res, d.getName()));
+        }
+    }
+
+    /**
+     * Make HarvestInfo based on entry from historyinfo (id, stopreason, objectcount, bytecount, config name, job id,
+     * harvest id, harvest time).
+     *
+     * @param res a Resultset
+     * @param domainName the name of the domain harvested
+     * @return a HarvestInfo based on ResultSet entry.
+     * @throws SQLException if unable to get data from database
+     */
+    static HarvestInfo getHarvestInfoFromResultset(ResultSet res, String domainName) throws SQLException {
+        long hiID = res.getLong(1);
+        int stopreasonNum = res.getInt(2);
+        StopReason stopreason = StopReason.getStopReason(stopreasonNum);
+        long objectCount = res.getLong(3);
+        long byteCount = res.getLong(4);
+        String configName = res.getString(5);
+        Long jobId = res.getLong(6);
+        if (res.wasNull()) {
+            jobId = null;
         }
+        long harvestId = res.getLong(7);
+        Date harvestTime = new Date(res.getTimestamp(8).getTime());
+        HarvestInfo hi;
+        // XML DAOs didn't keep the job id in harvestinfo, so some
+        // entries will be null.
+        hi = new HarvestInfo(harvestId, jobId, domainName, configName, harvestTime, byteCount, objectCount, stopreason);
+        hi.setID(hiID);
+        return hi;
     }
 
     /**
@@ -963,13 +1120,24 @@ public class DomainDBDAO extends DomainDAO {
         s.setLong(1, d.getID());
         ResultSet res = s.executeQuery();
         while (res.next()) {
-            final Password pwd = new Password(res.getString(2), res.getString(3), res.getString(4), res.getString(5),
-                    res.getString(6), res.getString(7));
-            pwd.setID(res.getLong(1));
-            d.addPassword(pwd);
+            d.addPassword(getPasswordFromResultset(res));
         }
     }
 
+    /**
+     * Make Password based on entry from passwords (id, name, comments, url, realm, username, password).
+     *
+     * @param res a Resultset
+     * @return a Password based on ResultSet entry.
+     * @throws SQLException if unable to get data from database
+     */
+    static Password getPasswordFromResultset(ResultSet res) throws SQLException {
+        final Password pwd = new Password(res.getString(2), res.getString(3), res.getString(4), res.getString(5),
+                res.getString(6), res.getString(7));
+        pwd.setID(res.getLong(1));
+        return pwd;
+    }
+
     /**
      * Read seedlists for the domain.
      *
@@ -1001,7 +1169,7 @@ public class DomainDBDAO extends DomainDAO {
      * @return a SeedList based on ResultSet entry.
      * @throws SQLException if unable to get data from database
      */
-    private SeedList getSeedListFromResultset(ResultSet res) throws SQLException {
+    static SeedList getSeedListFromResultset(ResultSet res) throws SQLException {
         final long seedlistId = res.getLong(1);
         final String seedlistName = res.getString(2);
         String seedlistComments = res.getString(3);
@@ -1067,40 +1235,18 @@ public class DomainDBDAO extends DomainDAO {
         }
     }
 
+    /**
+     * Gets all domains in snapshot harvest order. The domains are read in chunks by a background thread, using a fixed
+     * number of queries per chunk instead of a number of queries per domain.
+     *
+     * @return an iterator over all domains in snapshot harvest order.
+     * @see SnapshotDomainIterator
+     */
     @Override
     public Iterator<Domain> getAllDomainsInSnapshotHarvestOrder() {
-        Connection c = HarvestDBConnection.get();
-        try {
-            log.info("Starting a select of all domains used for Snapshot harvesting");
-            // Note: maxbytes are ordered with largest first for symmetry
-            // with HarvestDefinition.CompareConfigDesc
-            List<String> domainNames = DBUtils.selectStringList(c, "SELECT domains.name"
-                    + " FROM domains, configurations, ordertemplates"
-                    + " WHERE domains.defaultconfig=configurations.config_id" + " AND configurations.template_id"
-                    + "=ordertemplates.template_id" + " ORDER BY" + " ordertemplates.name,"
-                    + " configurations.maxbytes DESC," + " domains.name");
-            log.info("Retrieved all {} domains used for Snapshot harvesting without searching for attributes for their default configs", domainNames.size());
-            List<String> domainNamesWithAttributes = DBUtils.selectStringList(c, // Don't order this - it will be ordered later
-                    "SELECT DISTINCT domains.name"
-                            + " FROM domains, configurations, eav_attribute"
-                            + " WHERE domains.defaultconfig=configurations.config_id" 
-                            + " AND configurations.config_id=eav_attribute.entity_id");
-            log.info("Retrieved all {} domains used for Snapshot harvesting that has attributes for their default configs", domainNamesWithAttributes.size());
-            //  Remove the content of domainNamesWithAttributes from domainNames              
-            domainNames.removeAll(domainNamesWithAttributes);
-            log.info("Removed all {} domains with attributes from the total list, reducing total-list to {}", domainNamesWithAttributes.size(), domainNames.size());
-            // Add the remainder of domainNames to domainNamesWithAttributes, so the domain configs with attributes will be handled first.
-            domainNamesWithAttributes.addAll(domainNames);
-            log.info("Remainder of total list merged with list of domains w/ attributes");
-            
-            return new FilterIterator<String, Domain>(domainNamesWithAttributes.iterator()) {
-                public Domain filter(String s) {
-                    return readKnown(s);
-                }
-            };
-        } finally {
-            HarvestDBConnection.release(c);
-        }
+        log.info("Starting a select of all domains used for Snapshot harvesting");
+        return new SnapshotDomainIterator(Settings.getInt(HarvesterSettings.JOBGEN_SNAPSHOT_DOMAIN_CHUNK_SIZE),
+                Settings.getInt(HarvesterSettings.JOBGEN_SNAPSHOT_DOMAIN_PREFETCH_CHUNKS));
     }
 
     @Override
@@ -1614,4 +1760,30 @@ public class DomainDBDAO extends DomainDAO {
             HarvestDBConnection.release(connection);
         }
 	}
+
+    @Override
+    public Map<Long, HarvestExpectation> getHarvestExpectations(Collection<Long> configIDs) {
+        ArgumentNotValid.checkNotNull(configIDs, "Collection<Long> configIDs");
+        Map<Long, HarvestExpectation> expectations = new HashMap<Long, HarvestExpectation>();
+        if (configIDs.isEmpty()) {
+            return expectations;
+        }
+        Connection connection = HarvestDBConnection.get();
+        PreparedStatement s = null;
+        try {
+            s = connection.prepareStatement("SELECT config_id, objectcount, bytecount, stopreason "
+                    + "FROM harvest_expectations WHERE config_id IN (" + StringUtils.conjoin(",", configIDs) + ")");
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                expectations.put(res.getLong(1), new HarvestExpectation(res.getLong(2), res.getLong(3),
+                        StopReason.getStopReason(res.getInt(4))));
+            }
+            return expectations;
+        } catch (SQLException e) {
+            throw new IOFailure("SQL Error while reading harvest expectations", e);
+        } finally {
+            DBUtils.closeStatementIfOpen(s);
+            HarvestDBConnection.release(connection);
+        }
+    }
 }
@@ -0,0 +1,106 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The precomputed basis for the expected size of a harvest using a given domain configuration. It holds the
+ * figures of the harvest info that {@link DomainHistory#getBestHarvestInfoExpectation(String, DomainHistory)}
+ * would select from the history of the configuration, so the job generator does not need to scan the full history.
+ * This class is immutable.
+ */
+public class HarvestExpectation {
+
+    /** The number of objects retrieved by the best harvest. */
+    private final long countObjectRetrieved;
+
+    /** The number of bytes retrieved by the best harvest. */
+    private final long sizeDataRetrieved;
+
+    /** The reason the best harvest stopped. */
+    private final StopReason stopReason;
+
+    /**
+     * Create new harvest expectation.
+     *
+     * @param countObjectRetrieved The number of objects retrieved by the best harvest
+     * @param sizeDataRetrieved The number of bytes retrieved by the best harvest
+     * @param stopReason The reason the best harvest stopped
+     */
+    public HarvestExpectation(long countObjectRetrieved, long sizeDataRetrieved, StopReason stopReason) {
+        ArgumentNotValid.checkNotNegative(countObjectRetrieved, "countObjectRetrieved");
+        ArgumentNotValid.checkNotNegative(sizeDataRetrieved, "sizeDataRetrieved");
+        ArgumentNotValid.checkNotNull(stopReason, "stopReason");
+        this.countObjectRetrieved = countObjectRetrieved;
+        this.sizeDataRetrieved = sizeDataRetrieved;
+        this.stopReason = stopReason;
+    }
+
+    /**
+     * Create the harvest expectation matching the given harvest info.
+     *
+     * @param hi A harvest info, or null
+     * @return The harvest expectation, or null if the given harvest info is null
+     */
+    public static HarvestExpectation valueOf(HarvestInfo hi) {
+        if (hi == null) {
+            return null;
+        }
+        return new HarvestExpectation(hi.getCountObjectRetrieved(), hi.getSizeDataRetrieved(), hi.getStopReason());
+    }
+
+    /**
+     * Get the number of objects retrieved by the best harvest.
+     *
+     * @return the number of objects retrieved by the best harvest
+     */
+    public long getCountObjectRetrieved() {
+        return countObjectRetrieved;
+    }
+
+    /**
+     * Get the number of bytes retrieved by the best harvest.
+     *
+     * @return the number of bytes retrieved by the best harvest
+     */
+    public long getSizeDataRetrieved() {
+        return sizeDataRetrieved;
+    }
+
+    /**
+     * Get the reason the best harvest stopped.
+     *
+     * @return the reason the best harvest stopped
+     */
+    public StopReason getStopReason() {
+        return stopReason;
+    }
+
+    @Override
+    public String toString() {
+        return "HarvestExpectation: objects=" + countObjectRetrieved + ", bytes=" + sizeDataRetrieved
+                + ", stopreason=" + stopReason;
+    }
+
+}
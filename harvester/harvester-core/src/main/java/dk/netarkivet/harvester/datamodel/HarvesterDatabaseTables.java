@@ -439,6 +439,21 @@ public enum HarvesterDatabaseTables {
             return REQUIRED_VERSION;
         }
 
+        @Override
+        public String getTablename() {
+            return NAME;
+        }
+    },
+    /** Precomputed harvest expectations of domain configurations. */
+    HARVESTEXPECTATIONS {
+        static final String NAME = "harvest_expectations";
+        static final int REQUIRED_VERSION = 1;
+
+        @Override
+        public int getRequiredVersion() {
+            return REQUIRED_VERSION;
+        }
+
         @Override
         public String getTablename() {
             return NAME;
@@ -69,6 +69,16 @@ public abstract class JobDAO implements DAO, Iterable<Job> {
      */
     public abstract void create(Job job);
 
+    /**
+     * Creates instances in persistent storage of the given jobs, in the given order. Jobs that don't have an ID get
+     * one generated.
+     *
+     * @param jobs the jobs to create in persistent storage.
+     * @throws ArgumentNotValid If jobs is null
+     * @throws IOFailure If some IOException occurs while writing the jobs
+     */
+    public abstract void create(List<Job> jobs);
+
     /**
      * Check whether a particular job exists.
      *
@@ -30,12 +30,15 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -90,18 +93,65 @@ public class JobDBDAO extends JobDAO {
      */
     public synchronized void create(Job job) {
         ArgumentNotValid.checkNotNull(job, "Job job");
-        // Check that job.getOrigHarvestDefinitionID() refers to existing harvestdefinition.
-        Long harvestId = job.getOrigHarvestDefinitionID();
-        if (!HarvestDefinitionDAO.getInstance().exists(harvestId)) {
-            throw new UnknownID("No harvestdefinition with ID=" + harvestId);
+        create(Collections.singletonList(job));
+    }
+
+    /**
+     * Creates instances in persistent storage of the given jobs, in the given order, using a single database
+     * connection. Jobs without an ID get IDs in the order they are given.
+     *
+     * @param jobs the jobs to create in persistent storage.
+     * @throws ArgumentNotValid If jobs is null
+     * @throws UnknownID If a job refers to a harvestdefinition that does not exist
+     * @throws IOFailure If some IOException occurs while writing the jobs
+     */
+    @Override
+    public synchronized void create(List<Job> jobs) {
+        ArgumentNotValid.checkNotNull(jobs, "List<Job> jobs");
+        if (jobs.isEmpty()) {
+            return;
+        }
+        // Check that job.getOrigHarvestDefinitionID() refers to existing harvestdefinitions.
+        Set<Long> harvestIds = new HashSet<Long>();
+        for (Job job : jobs) {
+            ArgumentNotValid.checkNotNull(job, "Job job");
+            Long harvestId = job.getOrigHarvestDefinitionID();
+            if (harvestIds.add(harvestId) && !HarvestDefinitionDAO.getInstance().exists(harvestId)) {
+                throw new UnknownID("No harvestdefinition with ID=" + harvestId);
+            }
         }
 
         Connection connection = HarvestDBConnection.get();
-        if (job.getJobID() != null) {
-            log.warn("The jobId for the job is already set. This should probably never happen.");
-        } else {
-            job.setJobID(generateNextID(connection));
+        Job job = null;
+        try {
+            for (Job current : jobs) {
+                job = current;
+                if (job.getJobID() != null) {
+                    log.warn("The jobId for the job is already set. This should probably never happen.");
+                } else {
+                    job.setJobID(generateNextID(connection));
+                }
+                insertJob(connection, job);
+            }
+        } catch (SQLException e) {
+            String message = "SQL error creating job " + job + " in database" + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.rollbackIfNeeded(connection, "create job", job);
+            HarvestDBConnection.release(connection);
         }
+    }
+
+    /**
+     * Insert a job with its job_configs entries. The job ID must be set.
+     *
+     * @param connection A connection to work on
+     * @param job The job to insert
+     * @throws SQLException If any problems occur during the insertion
+     */
+    private void insertJob(Connection connection, Job job) throws SQLException {
         // Set the harvestNamePrefix. Every current implementation depends on the JobID being set before
         // being initialized.
         job.setDefaultHarvestNamePrefix();
@@ -124,7 +174,6 @@ public class JobDBDAO extends JobDAO {
                     + "harvest_num, startdate, enddate, submitteddate, creationdate, "
                     + "num_configs, edition, resubmitted_as_job, harvestname_prefix, snapshot) "
                     + "VALUES ( ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?," + "?, ?, ?, ?, ?, ?)");
-
             statement.setLong(1, job.getJobID());
             statement.setLong(2, job.getOrigHarvestDefinitionID());
             statement.setInt(3, job.getStatus().ordinal());
@@ -155,14 +204,8 @@ public class JobDBDAO extends JobDAO {
             createJobConfigsEntries(connection, job);
             connection.commit();
             job.setEdition(initialEdition);
-        } catch (SQLException e) {
-            String message = "SQL error creating job " + job + " in database" + "\n"
-                    + ExceptionUtils.getSQLExceptionCause(e);
-            log.warn(message, e);
-            throw new IOFailure(message, e);
         } finally {
-            DBUtils.rollbackIfNeeded(connection, "create job", job);
-            HarvestDBConnection.release(connection);
+            DBUtils.closeStatementIfOpen(statement);
         }
     }
 
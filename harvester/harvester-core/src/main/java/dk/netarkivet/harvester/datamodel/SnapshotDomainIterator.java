@@ -0,0 +1,451 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.common.utils.StringUtils;
+import dk.netarkivet.harvester.datamodel.eav.EAV;
+import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
+
+/**
+ * Iterates over all domains in snapshot harvest order, as described in
+ * {@link DomainDAO#getAllDomainsInSnapshotHarvestOrder()}.
+ * <p>
+ * The ids of the domains are read up front with a cursor. A background thread then reads the domains in chunks, with a
+ * fixed number of queries per chunk, and hands them over through a bounded queue. The database is thereby kept busy
+ * while jobs are made from the domains already read, and only a few chunks of domains are held in memory at a time.
+ * <p>
+ * The domains are read without their harvest history. Instead, each configuration gets the harvest expectation
+ * precomputed from its history, which is all that job generation needs.
+ */
+class SnapshotDomainIterator implements Iterator<Domain> {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(SnapshotDomainIterator.class);
+
+    /** How long the reader waits for room in the queue before assuming that the iterator has been abandoned. */
+    private static final long ABANDON_TIMEOUT_MINUTES = 60;
+
+    /** The chunk put on the queue, when the reader has finished. */
+    private static final List<Domain> END_OF_DOMAINS = Collections.emptyList();
+
+    /** The ids of the domains in the order they are returned. */
+    private long[] domainIds = new long[1024];
+
+    /** The number of entries used in domainIds. */
+    private int domainCount;
+
+    /** How many domains to read in one go. */
+    private final int chunkSize;
+
+    /** The chunks of domains read, but not yet returned. */
+    private final BlockingQueue<List<Domain>> chunks;
+
+    /** The domains of the chunk currently being returned. */
+    private Iterator<Domain> current = Collections.<Domain>emptyList().iterator();
+
+    /** Whether the reader has finished and all chunks have been taken. */
+    private boolean finished;
+
+    /** The reason the reader stopped, if it failed. */
+    private volatile Throwable failure;
+
+    /**
+     * Read the ids of all domains in snapshot harvest order, and start reading the domains in the background.
+     *
+     * @param chunkSize How many domains to read in one go.
+     * @param prefetchChunks How many chunks to read ahead.
+     * @throws ArgumentNotValid if chunkSize or prefetchChunks is not positive.
+     * @throws IOFailure if the ids of the domains cannot be read.
+     */
+    SnapshotDomainIterator(int chunkSize, int prefetchChunks) {
+        ArgumentNotValid.checkPositive(chunkSize, "int chunkSize");
+        ArgumentNotValid.checkPositive(prefetchChunks, "int prefetchChunks");
+        this.chunkSize = chunkSize;
+        this.chunks = new ArrayBlockingQueue<List<Domain>>(prefetchChunks);
+
+        readDomainIds();
+        log.info("Retrieved all {} domains used for Snapshot harvesting", domainCount);
+
+        Thread reader = new Thread("SnapshotDomainReader") {
+            public void run() {
+                readDomains();
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!current.hasNext()) {
+            if (finished) {
+                return false;
+            }
+            List<Domain> chunk;
+            try {
+                chunk = chunks.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOFailure("Interrupted while waiting for domains used for Snapshot harvesting", e);
+            }
+            if (chunk == END_OF_DOMAINS) {
+                finished = true;
+                if (failure != null) {
+                    throw new IOFailure("Failed to read domains used for Snapshot harvesting", failure);
+                }
+                return false;
+            }
+            current = chunk.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public Domain next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException("No more domains");
+        }
+        return current.next();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Domains cannot be removed through this iterator");
+    }
+
+    /**
+     * Read the ids of all domains in snapshot harvest order. Domains whose default configuration has attributes come
+     * first, so they are handled first. Within each group, the domains are ordered by order template, then with the
+     * largest maxbytes first for symmetry with HarvestDefinition.CompareConfigDesc, and then by name.
+     *
+     * @throws IOFailure if the ids cannot be read.
+     */
+    private void readDomainIds() {
+        final String select = "SELECT domains.domain_id FROM domains, configurations, ordertemplates"
+                + " WHERE domains.defaultconfig = configurations.config_id"
+                + " AND configurations.template_id = ordertemplates.template_id" + " AND %s (SELECT entity_id"
+                + " FROM eav_attribute WHERE eav_attribute.entity_id = configurations.config_id)"
+                + " ORDER BY ordertemplates.name, configurations.maxbytes DESC, domains.name";
+        Connection c = HarvestDBConnection.get();
+        boolean autoCommit = true;
+        try {
+            // Some drivers only use a cursor outside autocommit mode
+            autoCommit = c.getAutoCommit();
+            c.setAutoCommit(false);
+            readDomainIds(c, String.format(select, "EXISTS"));
+            readDomainIds(c, String.format(select, "NOT EXISTS"));
+        } catch (SQLException e) {
+            throw new IOFailure("SQL Error while reading the domains used for Snapshot harvesting\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            try {
+                c.setAutoCommit(autoCommit);
+            } catch (SQLException e) {
+                log.warn("Unable to restore autocommit mode", e);
+            }
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    /**
+     * Append the domain ids selected by a query.
+     *
+     * @param c A connection to the database
+     * @param select A query selecting domain ids
+     * @throws SQLException If database errors occur.
+     */
+    private void readDomainIds(Connection c, String select) throws SQLException {
+        PreparedStatement s = c.prepareStatement(select);
+        try {
+            s.setFetchSize(chunkSize);
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                if (domainCount == domainIds.length) {
+                    domainIds = Arrays.copyOf(domainIds, domainIds.length * 2);
+                }
+                domainIds[domainCount++] = res.getLong(1);
+            }
+        } finally {
+            s.close();
+        }
+    }
+
+    /**
+     * Read all domains chunk by chunk and put them on the queue. Run by the reader thread.
+     */
+    private void readDomains() {
+        try {
+            for (int start = 0; start < domainCount; start += chunkSize) {
+                List<Long> ids = new ArrayList<Long>(chunkSize);
+                for (int i = start; i < Math.min(start + chunkSize, domainCount); i++) {
+                    ids.add(domainIds[i]);
+                }
+                List<Domain> chunk = readChunk(ids);
+                if (!chunk.isEmpty() && !chunks.offer(chunk, ABANDON_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+                    log.warn("No domains taken for {} minutes. Stop reading domains used for Snapshot harvesting",
+                            ABANDON_TIMEOUT_MINUTES);
+                    return;
+                }
+            }
+            log.info("Finished reading {} domains used for Snapshot harvesting", domainCount);
+        } catch (Throwable t) {
+            log.warn("Failed to read domains used for Snapshot harvesting", t);
+            failure = t;
+        }
+        try {
+            chunks.put(END_OF_DOMAINS);
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while reading domains used for Snapshot harvesting", e);
+        }
+    }
+
+    /**
+     * Read the domains with the given ids, including their configurations, seedlists, passwords, owner info, and the
+     * attributes and harvest expectations of their configurations. The harvest history is not read.
+     *
+     * @param ids The ids of the domains to read.
+     * @return The domains read, in the order of the ids. Domains deleted since their ids were read are left out.
+     * @throws IOFailure if the domains cannot be read, or are inconsistent.
+     */
+    private List<Domain> readChunk(List<Long> ids) {
+        String idList = StringUtils.conjoin(",", ids);
+        Map<Long, Domain> domains = new HashMap<Long, Domain>();
+        Map<Long, String> defaultConfigs = new HashMap<Long, String>();
+        Connection c = HarvestDBConnection.get();
+        try {
+            PreparedStatement s = c.prepareStatement("SELECT domains.domain_id, domains.name, domains.comments,"
+                    + " domains.crawlertraps, domains.edition, configurations.name,"
+                    + " (SELECT name FROM domains as aliasdomains WHERE aliasdomains.domain_id = domains.alias),"
+                    + " domains.lastaliasupdate FROM domains, configurations WHERE domains.domain_id IN (" + idList
+                    + ") AND domains.defaultconfig = configurations.config_id");
+            ResultSet res = s.executeQuery();
+            while (res.next()) {
+                long domainId = res.getLong(1);
+                String domainName = res.getString(2);
+                Domain d = new Domain(domainName);
+                d.setComments(res.getString(3));
+                // don't throw exception if illegal regexps are found.
+                boolean strictMode = false;
+                d.setCrawlerTraps(Arrays.asList(res.getString(4).split("\n")), strictMode);
+                d.setID(domainId);
+                d.setEdition(res.getLong(5));
+                defaultConfigs.put(domainId, res.getString(6));
+                String alias = res.getString(7);
+                if (alias != null) {
+                    d.setAliasInfo(new AliasInfo(domainName, alias, DBUtils.getDateMaybeNull(res, 8)));
+                }
+                domains.put(domainId, d);
+            }
+            s.close();
+
+            s = c.prepareStatement("SELECT seedlist_id, name, comments, seeds, domain_id FROM seedlists"
+                    + " WHERE domain_id IN (" + idList + ")");
+            res = s.executeQuery();
+            while (res.next()) {
+                Domain d = domains.get(res.getLong(5));
+                if (d != null) {
+                    d.addSeedList(DomainDBDAO.getSeedListFromResultset(res));
+                }
+            }
+            s.close();
+
+            s = c.prepareStatement("SELECT password_id, name, comments, url, realm, username, password, domain_id"
+                    + " FROM passwords WHERE domain_id IN (" + idList + ")");
+            res = s.executeQuery();
+            while (res.next()) {
+                Domain d = domains.get(res.getLong(8));
+                if (d != null) {
+                    d.addPassword(DomainDBDAO.getPasswordFromResultset(res));
+                }
+            }
+            s.close();
+
+            readConfigurations(c, idList, domains);
+
+            s = c.prepareStatement("SELECT ownerinfo_id, created, info, domain_id FROM ownerinfo"
+                    + " WHERE domain_id IN (" + idList + ")");
+            res = s.executeQuery();
+            while (res.next()) {
+                Domain d = domains.get(res.getLong(4));
+                if (d != null) {
+                    d.addOwnerInfo(DomainDBDAO.getOwnerInfoFromResultset(res));
+                }
+            }
+            s.close();
+
+            // The job generator only needs the expectations, which are kept for every configuration with history
+            s = c.prepareStatement("SELECT objectcount, bytecount, stopreason, configurations.name,"
+                    + " configurations.domain_id FROM harvest_expectations, configurations"
+                    + " WHERE configurations.domain_id IN (" + idList + ")"
+                    + " AND harvest_expectations.config_id = configurations.config_id");
+            res = s.executeQuery();
+            while (res.next()) {
+                Domain d = domains.get(res.getLong(5));
+                if (d != null) {
+                    HarvestExpectation expectation = new HarvestExpectation(res.getLong(1), res.getLong(2),
+                            StopReason.getStopReason(res.getInt(3)));
+                    d.getConfiguration(res.getString(4)).setHarvestExpectation(expectation);
+                }
+            }
+            s.close();
+        } catch (SQLException e) {
+            throw new IOFailure("SQL Error while reading domains used for Snapshot harvesting\n"
+                    + ExceptionUtils.getSQLExceptionCause(e), e);
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+
+        List<Domain> result = new ArrayList<Domain>(ids.size());
+        for (Long id : ids) {
+            Domain d = domains.get(id);
+            if (d != null) {
+                if (!d.getAllSeedLists().hasNext()) {
+                    final String msg = "Domain " + d + " loaded with no seedlists";
+                    log.warn(msg);
+                    throw new IOFailure(msg);
+                }
+                if (!d.getAllConfigurations().hasNext()) {
+                    String message = "Loaded domain " + d + " with no configurations";
+                    log.warn(message);
+                    throw new IOFailure(message);
+                }
+                d.setDefaultConfiguration(defaultConfigs.get(id));
+                result.add(d);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Read the configurations of the domains, after their passwords and seedlists have been read.
+     *
+     * @param c A connection to the database
+     * @param idList The ids of the domains, separated by commas.
+     * @param domains The domains being read, by id.
+     * @throws SQLException If database errors occur.
+     */
+    private void readConfigurations(Connection c, String idList, Map<Long, Domain> domains) throws SQLException {
+        Map<Long, List<String>> configSeedlists = readConfigNames(c, "SELECT config_seedlists.config_id,"
+                + " seedlists.name FROM seedlists, config_seedlists WHERE seedlists.domain_id IN (" + idList + ")"
+                + " AND config_seedlists.seedlist_id = seedlists.seedlist_id");
+        Map<Long, List<String>> configPasswords = readConfigNames(c, "SELECT config_passwords.config_id,"
+                + " passwords.name FROM passwords, config_passwords WHERE passwords.domain_id IN (" + idList + ")"
+                + " AND config_passwords.password_id = passwords.password_id");
+
+        Map<Integer, DomainConfiguration> configurations = new LinkedHashMap<Integer, DomainConfiguration>();
+        PreparedStatement s = c.prepareStatement("SELECT config_id, configurations.name, comments,"
+                + " ordertemplates.name, maxobjects, maxrate, maxbytes, domain_id FROM configurations, ordertemplates"
+                + " WHERE domain_id IN (" + idList + ") AND configurations.template_id = ordertemplates.template_id");
+        ResultSet res = s.executeQuery();
+        while (res.next()) {
+            Domain d = domains.get(res.getLong(8));
+            if (d == null) {
+                continue;
+            }
+            long domainconfigId = res.getLong(1);
+            String domainconfigName = res.getString(2);
+            List<SeedList> seedlists = new ArrayList<SeedList>();
+            if (configSeedlists.containsKey(domainconfigId)) {
+                for (String name : configSeedlists.get(domainconfigId)) {
+                    seedlists.add(d.getSeedList(name));
+                }
+            }
+            if (seedlists.isEmpty()) {
+                String message = "Configuration " + domainconfigName + " of " + d + " has no seedlists";
+                log.warn(message);
+                throw new IOFailure(message);
+            }
+            List<Password> passwords = new ArrayList<Password>();
+            if (configPasswords.containsKey(domainconfigId)) {
+                for (String name : configPasswords.get(domainconfigId)) {
+                    passwords.add(d.getPassword(name));
+                }
+            }
+            DomainConfiguration dc = new DomainConfiguration(domainconfigName, d, seedlists, passwords);
+            dc.setOrderXmlName(res.getString(4));
+            dc.setMaxObjects(res.getLong(5));
+            dc.setMaxRequestRate(res.getInt(6));
+            dc.setComments(res.getString(3));
+            dc.setMaxBytes(res.getLong(7));
+            dc.setID(domainconfigId);
+            d.addConfiguration(dc);
+            configurations.put((int) domainconfigId, dc);
+        }
+        s.close();
+
+        // EAV
+        Map<Integer, List<AttributeAndType>> attributes = EAV.getInstance().getAttributesAndTypes(
+                EAV.DOMAIN_TREE_ID, configurations.keySet());
+        for (Map.Entry<Integer, DomainConfiguration> entry : configurations.entrySet()) {
+            entry.getValue().setAttributesAndTypes(attributes.get(entry.getKey()));
+        }
+    }
+
+    /**
+     * Read the names of the seedlists or passwords used by configurations.
+     *
+     * @param c A connection to the database
+     * @param select A query selecting config ids and names.
+     * @return The names by config id.
+     * @throws SQLException If database errors occur.
+     */
+    private static Map<Long, List<String>> readConfigNames(Connection c, String select) throws SQLException {
+        Map<Long, List<String>> names = new HashMap<Long, List<String>>();
+        PreparedStatement s = c.prepareStatement(select);
+        ResultSet res = s.executeQuery();
+        while (res.next()) {
+            long configId = res.getLong(1);
+            if (!names.containsKey(configId)) {
+                names.put(configId, new ArrayList<String>());
+            }
+            names.get(configId).add(res.getString(2));
+        }
+        s.close();
+        return names;
+    }
+
+}
@@ -1,10 +1,13 @@
 package dk.netarkivet.harvester.datamodel.eav;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -116,13 +119,87 @@ public class EAV {
      */
     public List<AttributeAndType> getAttributesAndTypes(int tree_id, int entity_id) throws SQLException {
         Connection connection = HarvestDBConnection.get();
-		List<AttributeTypeBase> attributeTypes = db.getAttributeTypes(connection, classLoader, tree_id);
-		AttributeTypeBase attributeType;
-		Map<Integer, AttributeTypeBase> attributeTypesMap = new TreeMap<Integer, AttributeTypeBase>();
-		for (int i=0; i<attributeTypes.size(); ++i) {
-			attributeType = attributeTypes.get(i);
-			attributeTypesMap.put(attributeType.id, attributeType);
-		}
+        try {
+            return readAttributesAndTypes(connection, getAttributeTypesMap(connection, tree_id), tree_id, entity_id);
+        } finally {
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Returns the attributes and their types for a number of entities in the same tree. Only entities having
+     * attributes are read one by one. The other entities get every attribute type without an attribute, just as
+     * {@link #getAttributesAndTypes(int, int)} returns for them.
+     * @param tree_id tree id to look in
+     * @param entity_ids entities to look for
+     * @return a map from entity id to the list of attributes and their type for the entity.
+     * @throws SQLException if an SQL exception occurs while querying the database
+     */
+    public Map<Integer, List<AttributeAndType>> getAttributesAndTypes(int tree_id, Collection<Integer> entity_ids)
+            throws SQLException {
+        Map<Integer, List<AttributeAndType>> result = new HashMap<Integer, List<AttributeAndType>>();
+        if (entity_ids.isEmpty()) {
+            return result;
+        }
+        Connection connection = HarvestDBConnection.get();
+        try {
+            Map<Integer, AttributeTypeBase> attributeTypesMap = getAttributeTypesMap(connection, tree_id);
+            Set<Integer> entitiesWithAttributes = new HashSet<Integer>();
+            PreparedStatement s = connection.prepareStatement("SELECT DISTINCT entity_id FROM eav_attribute"
+                    + " WHERE tree_id = ? AND entity_id IN (" + StringUtils.join(entity_ids, ",") + ")");
+            try {
+                s.setInt(1, tree_id);
+                ResultSet rs = s.executeQuery();
+                while (rs.next()) {
+                    entitiesWithAttributes.add(rs.getInt(1));
+                }
+            } finally {
+                s.close();
+            }
+            for (Integer entity_id : entity_ids) {
+                if (entitiesWithAttributes.contains(entity_id)) {
+                    result.put(entity_id, readAttributesAndTypes(connection, attributeTypesMap, tree_id, entity_id));
+                } else {
+                    List<AttributeAndType> attributes = new ArrayList<AttributeAndType>();
+                    for (AttributeTypeBase attributeType : attributeTypesMap.values()) {
+                        attributes.add(new AttributeAndType(attributeType, null));
+                    }
+                    result.put(entity_id, attributes);
+                }
+            }
+            return result;
+        } finally {
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Returns the attribute types of a tree by their id.
+     * @param connection connection to the database
+     * @param tree_id tree id to look for attribute types in
+     * @return the attribute types of the tree by their id
+     */
+    private Map<Integer, AttributeTypeBase> getAttributeTypesMap(Connection connection, int tree_id) {
+        List<AttributeTypeBase> attributeTypes = db.getAttributeTypes(connection, classLoader, tree_id);
+        Map<Integer, AttributeTypeBase> attributeTypesMap = new TreeMap<Integer, AttributeTypeBase>();
+        for (AttributeTypeBase attributeType : attributeTypes) {
+            attributeTypesMap.put(attributeType.id, attributeType);
+        }
+        return attributeTypesMap;
+    }
+
+    /**
+     * Reads the attributes and their type for a given entity id and tree id.
+     * @param connection connection to the database
+     * @param attributeTypesMap the attribute types of the tree by their id
+     * @param tree_id tree id to look in
+     * @param entity_id entity to look for
+     * @return a list of attributes and their type for a given entity id and tree id.
+     * @throws SQLException if an SQL exception occurs while querying the database
+     */
+    private List<AttributeAndType> readAttributesAndTypes(Connection connection,
+            Map<Integer, AttributeTypeBase> attributeTypesMap, int tree_id, int entity_id) throws SQLException {
+        AttributeTypeBase attributeType;
         SqlResult sqlResult = db.attributes_getTypedAttributes(connection, tree_id, entity_id);
         List<AttributeAndType> attributes = new ArrayList<AttributeAndType>();
         AttributeBase attribute;
@@ -140,7 +217,6 @@ public class EAV {
 			attributes.add(new AttributeAndType(attributeType, attribute));
 		}
 		sqlResult.close();
-        HarvestDBConnection.release(connection);
 		return attributes;
 	}
 
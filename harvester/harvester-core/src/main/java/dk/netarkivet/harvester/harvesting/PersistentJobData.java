@@ -24,6 +24,8 @@ package dk.netarkivet.harvester.harvesting;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,6 +57,8 @@ public class PersistentJobData implements JobInfo {
      * The filename for the file containing the persistent job data, stored in crawlDir.
      */
     private static final String HARVEST_INFO_FILENAME = "harvestInfo.xml";
+    /** The suffix of the temporary file, which the persistent job data is written to before replacing the file. */
+    private static final String TEMPORARY_FILE_SUFFIX = ".tmp";
     /** XML-root element for the persistent Job Data. */
     private static final String ROOT_ELEMENT = "harvestInfo";
     /** Key in harvestinfo file for the ID of the job. */
@@ -97,6 +101,9 @@ public class PersistentJobData implements JobInfo {
     /** The audience of this harvest. */
     private static final String HARVEST_AUDIENCE_KEY = ROOT_ELEMENT + ".audience";
 
+    /** Key in harvestinfo file for the names of the files already uploaded to the archive. Optional. */
+    private static final String UPLOADED_FILE_KEY = ROOT_ELEMENT + ".uploadedFile";
+
     /** Key in harvestinfo file for the file version. */
     private static final String HARVESTINFO_VERSION_KEY = "harvestInfo.version";
     /** Value for current version number. */
@@ -246,7 +253,7 @@ public class PersistentJobData implements JobInfo {
                     + validationResult.getError();
             throw new IOFailure(msg);
         } else {
-            sx.save(getHarvestInfoFile());
+            save(sx);
         }
     }
 
@@ -584,4 +591,47 @@ public class PersistentJobData implements JobInfo {
         }
     }
 
+    /**
+     * Record that the given file has been uploaded to the archive, so a resumed post-processing of the job does not
+     * upload it again.
+     *
+     * @param filename the name of the uploaded file
+     * @throws IOFailure if no harvestInfo exists or it is invalid.
+     */
+    public synchronized void addUploadedFile(String filename) {
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        SimpleXml sx = read(); // reads and validates XML
+        sx.add(UPLOADED_FILE_KEY, filename);
+        save(sx);
+    }
+
+    /**
+     * Save the persistent job data. The data is written to a temporary file, which then replaces the harvestInfo file,
+     * so a crash while saving never leaves a truncated harvestInfo file behind.
+     *
+     * @param sx the SimpleXml object containing the persistent job data
+     * @throws IOFailure if the data could not be written, or the harvestInfo file could not be replaced.
+     */
+    private void save(SimpleXml sx) {
+        File harvestInfoFile = getHarvestInfoFile();
+        File tmpFile = new File(crawlDir, HARVEST_INFO_FILENAME + TEMPORARY_FILE_SUFFIX);
+        sx.save(tmpFile);
+        if (!tmpFile.renameTo(harvestInfoFile)) {
+            FileUtils.remove(tmpFile);
+            throw new IOFailure("Unable to replace the harvestInfo file '" + harvestInfoFile.getAbsolutePath()
+                    + "' with '" + tmpFile.getAbsolutePath() + "'");
+        }
+    }
+
+    /**
+     * Return the names of the files already uploaded to the archive.
+     *
+     * @return the names of the uploaded files, which is empty if no files have been uploaded yet
+     * @throws IOFailure if no harvestInfo exists or it is invalid.
+     */
+    public synchronized Set<String> getUploadedFiles() {
+        SimpleXml sx = read(); // reads and validates XML
+        return new HashSet<String>(sx.getList(UPLOADED_FILE_KEY));
+    }
+
 }
@@ -0,0 +1,105 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.distribute;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import dk.netarkivet.common.distribute.BinaryMessageCodec;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlServiceInfo;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlServiceJobInfo;
+import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage.CrawlStatus;
+
+/**
+ * Binary codec for the {@link CrawlProgressMessage}s sent regularly by every harvester during a crawl.
+ */
+public class CrawlProgressMessageCodec extends BinaryMessageCodec<CrawlProgressMessage> {
+
+    /** The version of the encoding. Increase when changing the fields written. */
+    private static final int SCHEMA_VERSION = 1;
+
+    /**
+     * Create the codec.
+     */
+    public CrawlProgressMessageCodec() {
+        super(CrawlProgressMessage.class, SCHEMA_VERSION);
+    }
+
+    @Override
+    protected void writeBody(CrawlProgressMessage msg, DataOutputStream out) throws IOException {
+        out.writeLong(msg.getHarvestID());
+        out.writeLong(msg.getJobID());
+        writeString(out, msg.getProgressStatisticsLegend());
+        writeString(out, msg.getHostUrl());
+        writeString(out, msg.getStatus() == null ? null : msg.getStatus().name());
+
+        CrawlServiceInfo heritrixStatus = msg.getHeritrixStatus();
+        out.writeInt(heritrixStatus.getAlertCount());
+        out.writeBoolean(heritrixStatus.isCrawling());
+        writeString(out, heritrixStatus.getCurrentJob());
+
+        CrawlServiceJobInfo jobStatus = msg.getJobStatus();
+        out.writeLong(jobStatus.getDiscoveredFilesCount());
+        out.writeLong(jobStatus.getDownloadedFilesCount());
+        writeString(out, jobStatus.getFrontierShortReport());
+        out.writeLong(jobStatus.getElapsedSeconds());
+        out.writeLong(jobStatus.getCurrentProcessedKBPerSec());
+        out.writeLong(jobStatus.getProcessedKBPerSec());
+        out.writeDouble(jobStatus.getCurrentProcessedDocsPerSec());
+        out.writeDouble(jobStatus.getProcessedDocsPerSec());
+        out.writeInt(jobStatus.getActiveToeCount());
+        writeString(out, jobStatus.getProgressStatistics());
+        writeString(out, jobStatus.getStatus());
+    }
+
+    @Override
+    protected CrawlProgressMessage readBody(DataInputStream in) throws IOException {
+        long harvestID = in.readLong();
+        long jobID = in.readLong();
+        CrawlProgressMessage msg = new CrawlProgressMessage(harvestID, jobID, readString(in));
+        msg.setHostUrl(readString(in));
+        String status = readString(in);
+        msg.setStatus(status == null ? null : CrawlStatus.valueOf(status));
+
+        CrawlServiceInfo heritrixStatus = msg.getHeritrixStatus();
+        heritrixStatus.setAlertCount(in.readInt());
+        heritrixStatus.setCrawling(in.readBoolean());
+        heritrixStatus.setCurrentJob(readString(in));
+
+        CrawlServiceJobInfo jobStatus = msg.getJobStatus();
+        jobStatus.setDiscoveredFilesCount(in.readLong());
+        jobStatus.setDownloadedFilesCount(in.readLong());
+        jobStatus.setFrontierShortReport(readString(in));
+        jobStatus.setElapsedSeconds(in.readLong());
+        jobStatus.setCurrentProcessedKBPerSec(in.readLong());
+        jobStatus.setProcessedKBPerSec(in.readLong());
+        jobStatus.setCurrentProcessedDocsPerSec(in.readDouble());
+        jobStatus.setProcessedDocsPerSec(in.readDouble());
+        jobStatus.setActiveToeCount(in.readInt());
+        jobStatus.setProgressStatistics(readString(in));
+        jobStatus.setStatus(readString(in));
+        return msg;
+    }
+
+}
@@ -57,6 +57,20 @@ public class FrontierReportMessage extends HarvesterMessage {
         this.jobID = jobID;
     }
 
+    /**
+     * Recreates a frontier report wrapper message from its fields. Used by {@link FrontierReportMessageCodec}.
+     *
+     * @param filterId the id of the filter that generated the report.
+     * @param report the report to wrap.
+     * @param jobID the ID of the job.
+     */
+    FrontierReportMessage(String filterId, InMemoryFrontierReport report, Long jobID) {
+        super(HarvestMonitor.HARVEST_MONITOR_CHANNEL_ID, Channels.getError());
+        this.filterId = filterId;
+        this.report = report;
+        this.jobID = jobID;
+    }
+
     @Override
     public void accept(HarvesterMessageVisitor v) {
         v.visit(this);
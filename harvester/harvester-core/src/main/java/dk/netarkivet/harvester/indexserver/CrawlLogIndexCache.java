@@ -27,13 +27,17 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -75,7 +79,7 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
     /** An regular expression for the mimetypes to include or exclude from the index. See useBlackList. */
     private String mimeFilter;
 
-    /** The time to sleep between each check of completeness. */
+    /** The time to wait for a subindex to complete between each check of completeness. */
     private final long sleepintervalBetweenCompletenessChecks = Settings
             .getLong(HarvesterSettings.INDEXSERVER_INDEXING_CHECKINTERVAL);
 
@@ -136,17 +140,20 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         Set<File> tmpfiles = new HashSet<File>();
         String indexLocation = resultDir.getAbsolutePath() + ".luceneDir";
         ThreadPoolExecutor executor = null;
+        HierarchicalIndexMerger merger = null;
+        long startTime = System.currentTimeMillis();
         try {
             DigestIndexer indexer = createStandardIndexer(indexLocation);
             final boolean verboseIndexing = false;
             DigestOptions indexingOptions = new DigestOptions(this.useBlacklist, verboseIndexing, this.mimeFilter);
             long count = 0;
-            Set<IndexingState> outstandingJobs = new HashSet<IndexingState>();
+            Map<Future<Boolean>, IndexingState> outstandingJobs = new HashMap<Future<Boolean>, IndexingState>();
             final int maxThreads = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAXTHREADS);
             executor = new ThreadPoolExecutor(maxThreads, maxThreads, 0L, TimeUnit.MILLISECONDS,
                     new LinkedBlockingQueue<Runnable>());
 
             executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+            CompletionService<Boolean> completionService = new ExecutorCompletionService<Boolean>(executor);
 
             for (Map.Entry<Long, File> entry : rawfiles.entrySet()) {
                 Long jobId = entry.getKey();
@@ -171,89 +178,89 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
                 log.debug("Making subthread for indexing job " + jobId + " - task " + taskID);
                 Callable<Boolean> task = new DigestIndexerWorker(localindexLocation, jobId, crawlLog, cachedCDXFile,
                         indexingOptions, taskID);
-                Future<Boolean> result = executor.submit(task);
-                outstandingJobs.add(new IndexingState(jobId, localindexLocation, result));
+                Future<Boolean> result = completionService.submit(task);
+                outstandingJobs.put(result, new IndexingState(jobId, localindexLocation, result));
             }
 
-            // wait for all the outstanding subtasks to complete.
-            Set<Directory> subindices = new HashSet<Directory>();
-
             // Deadline for the combine-task
             long combineTimeout = Settings.getLong(HarvesterSettings.INDEXSERVER_INDEXING_TIMEOUT);
             long timeOutTime = System.currentTimeMillis() + combineTimeout;
 
-            // The indexwriter for the totalindex.
-            IndexWriter totalIndex = indexer.getIndex();
-            int subindicesInTotalIndex = 0;
-            // Max number of segments in totalindex.
-            int maxSegments = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
-
-            final int ACCUMULATED_SUBINDICES_BEFORE_MERGING = 200;
-
+            // Hand over the subindices to the merger as they complete, so
+            // they are merged in the background while indexing continues.
+            merger = new HierarchicalIndexMerger(Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MERGE_FANIN),
+                    Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MERGE_THREADS), "#" + indexingJobCount);
+            int subindicesCompleted = 0;
             while (outstandingJobs.size() > 0) {
-                log.info("Outstanding jobs in combine task #{} is now {}", indexingJobCount, outstandingJobs.size());
-                Iterator<IndexingState> iterator = outstandingJobs.iterator();
                 if (timeOutTime < System.currentTimeMillis()) {
                     log.warn("Max indexing time exceeded for one index ({}). Indexing stops here, "
                             + "although missing subindices for {} jobs",
                             TimeUtils.readableTimeInterval(combineTimeout), outstandingJobs.size());
                     break;
                 }
-                while (iterator.hasNext() && subindices.size() < ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
-                    Future<Boolean> nextResult;
-                    IndexingState next = iterator.next();
-                    if (next.getResultObject().isDone()) {
-                        nextResult = next.getResultObject();
-                        try {
-                            // check, if the indexing failed
-                            if (nextResult.get()) {
-                                subindices.add(new SimpleFSDirectory(new File(next.getIndex())));
-                            } else {
-                                log.warn("Indexing of job {} failed.", next.getJobIdentifier());
-                            }
-
-                        } catch (InterruptedException e) {
-                            log.warn("Unable to get Result back from indexing thread", e);
-                        } catch (ExecutionException e) {
-                            log.warn("Unable to get Result back from indexing thread", e);
-                        }
-                        // remove the done object from the set
-                        iterator.remove();
-                    }
+                Future<Boolean> nextResult;
+                try {
+                    nextResult = completionService.poll(sleepintervalBetweenCompletenessChecks, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    log.trace("Was awoken early while waiting for subindices: ", e);
+                    continue;
                 }
-
-                if (subindices.size() >= ACCUMULATED_SUBINDICES_BEFORE_MERGING) {
-
-                    log.info(
-                            "Adding {} subindices to main index. Forcing index to contain max {} files (related to combine task #{})",
-                            subindices.size(), maxSegments, indexingJobCount);
-                    totalIndex.addIndexes(subindices.toArray(new Directory[0]));
-                    totalIndex.forceMerge(maxSegments);
-                    totalIndex.commit();
-                    for (Directory luceneDir : subindices) {
-                        luceneDir.close();
+                if (nextResult == null) {
+                    log.info("Outstanding jobs in combine task #{} is now {}", indexingJobCount,
+                            outstandingJobs.size());
+                    continue;
+                }
+                IndexingState next = outstandingJobs.remove(nextResult);
+                try {
+                    // check, if the indexing failed
+                    if (nextResult.get()) {
+                        merger.add(new File(next.getIndex()));
+                        ++subindicesCompleted;
+                    } else {
+                        log.warn("Indexing of job {} failed.", next.getJobIdentifier());
                     }
-                    subindicesInTotalIndex += subindices.size();
-                    log.info(
-                            "Completed adding {} subindices to main index, now containing {} subindices(related to combine task #{})",
-                            subindices.size(), subindicesInTotalIndex, indexingJobCount);
-                    subindices.clear();
-                } else {
-                    sleepAwhile();
+                } catch (InterruptedException e) {
+                    log.warn("Unable to get Result back from indexing thread", e);
+                } catch (ExecutionException e) {
+                    log.warn("Unable to get Result back from indexing thread", e);
                 }
             }
+            long indexingMillis = System.currentTimeMillis() - startTime;
+            log.info("Indexing phase of combine task #{} completed in {} with {} subindices",
+                    indexingJobCount, TimeUtils.readableTimeInterval(indexingMillis), subindicesCompleted);
+
+            // wait for the outstanding intermediate merges to complete.
+            long mergeWaitStart = System.currentTimeMillis();
+            List<File> remainingIndices = merger.finish(timeOutTime);
+            log.info("Intermediate merge phase of combine task #{}: {} merges taking {} in total, "
+                    + "waited {} for the last merges", indexingJobCount, merger.getMergeCount(),
+                    TimeUtils.readableTimeInterval(merger.getMergeMillis()),
+                    TimeUtils.readableTimeInterval(System.currentTimeMillis() - mergeWaitStart));
 
-            log.info("Adding the final {} subindices to main index. "
-                    + "Forcing index to contain max {} files (related to combine task #{})", subindices.size(),
-                    maxSegments, indexingJobCount);
+            // The indexwriter for the totalindex.
+            IndexWriter totalIndex = indexer.getIndex();
+            // Max number of segments in totalindex.
+            int maxSegments = Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_MAX_SEGMENTS);
 
-            totalIndex.addIndexes(subindices.toArray(new Directory[0]));
-            totalIndex.forceMerge(maxSegments);
-            totalIndex.commit();
-            for (Directory luceneDir : subindices) {
-                luceneDir.close();
+            log.info("Adding the final {} indices to main index. "
+                    + "Forcing index to contain max {} files (related to combine task #{})", remainingIndices.size(),
+                    maxSegments, indexingJobCount);
+            long finalMergeStart = System.currentTimeMillis();
+            List<Directory> subindices = new ArrayList<Directory>();
+            try {
+                for (File subindex : remainingIndices) {
+                    subindices.add(new SimpleFSDirectory(subindex));
+                }
+                totalIndex.addIndexes(subindices.toArray(new Directory[subindices.size()]));
+                totalIndex.forceMerge(maxSegments);
+                totalIndex.commit();
+            } finally {
+                for (Directory luceneDir : subindices) {
+                    luceneDir.close();
+                }
             }
-            subindices.clear();
+            log.info("Final merge phase of combine task #{} completed in {}", indexingJobCount,
+                    TimeUtils.readableTimeInterval(System.currentTimeMillis() - finalMergeStart));
 
             log.info("Adding operation completed (combine task #{})!", indexingJobCount);
             long docsInIndex = totalIndex.numDocs();
@@ -265,7 +272,10 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             File totalIndexDir = new File(indexLocation);
             log.info("Gzip-compressing the individual {} index files of combine task # {}",
                     totalIndexDir.list().length, indexingJobCount);
+            long compressStart = System.currentTimeMillis();
             ZipUtils.gzipFiles(totalIndexDir, resultDir);
+            log.info("Compression phase of combine task #{} completed in {}", indexingJobCount,
+                    TimeUtils.readableTimeInterval(System.currentTimeMillis() - compressStart));
             log.info(
                     "Completed combine task #{} that combined a dataset with {} crawl logs (entries in combined index: {}) - compressed index has size {}",
                     indexingJobCount, datasetSize, docsInIndex, FileUtils.getHumanReadableFileSize(resultDir));
@@ -274,6 +284,9 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         } finally {
             // close down Threadpool-executor
             closeDownThreadpoolQuietly(executor);
+            if (merger != null) {
+                merger.cleanup();
+            }
             FileUtils.removeRecursively(new File(indexLocation));
             for (File temporaryFile : tmpfiles) {
                 FileUtils.removeRecursively(temporaryFile);
@@ -295,17 +308,6 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         }
     }
 
-    /**
-     * Helper class to sleep a little between completeness checks.
-     */
-    private void sleepAwhile() {
-        try {
-            Thread.sleep(sleepintervalBetweenCompletenessChecks);
-        } catch (InterruptedException e) {
-            log.trace("Was awoken early from sleep: ", e);
-        }
-    }
-
     /**
      * Ingest a single crawl.log file using the corresponding CDX file to find offsets.
      *
@@ -0,0 +1,275 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.FileUtils;
+import is.hi.bok.deduplicator.DigestIndexer;
+
+/**
+ * Merges Lucene sub-indices hierarchically in the background, while new sub-indices are still being produced.
+ * <p>
+ * Sub-indices are added at level 0. Whenever fanIn indices have accumulated at a level, they are merged into a single
+ * intermediate index on a separate thread, and the intermediate index is added at the next level. Each index is thus
+ * rewritten once per level rather than once per batch, and the merges run in parallel with the indexing.
+ * {@link #finish(long)} waits for the outstanding merges, and returns the indices which are left at all levels, ready
+ * for a single final merge into the total index.
+ */
+public class HierarchicalIndexMerger {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(HierarchicalIndexMerger.class);
+
+    /** The number of indices merged into one intermediate index. */
+    private final int fanIn;
+    /** The name of the task, used in log messages. */
+    private final String taskName;
+    /** The executor running the intermediate merges. */
+    private final ExecutorService executor;
+    /** The indices not yet merged, per level. Guarded by this. */
+    private final List<List<File>> levels = new ArrayList<List<File>>();
+    /** The indices which could not be merged, and have to be added to the total index directly. Guarded by this. */
+    private final List<File> unmerged = new ArrayList<File>();
+    /** The intermediate indices created by this merger. Guarded by this. */
+    private final Set<File> intermediates = new HashSet<File>();
+    /** The groups of indices being merged, or waiting to be merged. Guarded by this. */
+    private final List<List<File>> inFlight = new ArrayList<List<File>>();
+    /**
+     * Whether finish() has returned. Merges which have not completed by then must leave their indices untouched, as
+     * they have been returned for the final merge. Guarded by this.
+     */
+    private boolean finished = false;
+    /** The number of completed intermediate merges. */
+    private final AtomicInteger mergeCount = new AtomicInteger();
+    /** The total time spent in intermediate merges, in milliseconds. */
+    private final AtomicLong mergeMillis = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param fanIn The number of indices to merge into one intermediate index. Must be at least 2.
+     * @param mergeThreads The number of intermediate merges, which may run at the same time. Must be at least 1.
+     * @param taskName The name of the combine task, used in log messages.
+     * @throws ArgumentNotValid If fanIn is less than 2, or mergeThreads is less than 1.
+     */
+    public HierarchicalIndexMerger(int fanIn, int mergeThreads, String taskName) throws ArgumentNotValid {
+        ArgumentNotValid.checkTrue(fanIn >= 2, "fanIn must be at least 2, but was " + fanIn);
+        ArgumentNotValid.checkPositive(mergeThreads, "int mergeThreads");
+        this.fanIn = fanIn;
+        this.taskName = taskName;
+        this.executor = new ThreadPoolExecutor(mergeThreads, mergeThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>());
+    }
+
+    /**
+     * Add a completed sub-index. This may start an intermediate merge in the background.
+     *
+     * @param subIndex The directory of the sub-index.
+     */
+    public void add(File subIndex) {
+        ArgumentNotValid.checkNotNull(subIndex, "File subIndex");
+        add(subIndex, 0);
+    }
+
+    /**
+     * Add an index at the given level, and start a merge of the level if it has reached fanIn indices.
+     *
+     * @param index The directory of the index.
+     * @param level The level of the index.
+     */
+    private synchronized void add(File index, final int level) {
+        while (levels.size() <= level) {
+            levels.add(new ArrayList<File>());
+        }
+        List<File> pending = levels.get(level);
+        pending.add(index);
+        if (pending.size() >= fanIn && !executor.isShutdown()) {
+            final List<File> group = new ArrayList<File>(pending);
+            pending.clear();
+            inFlight.add(group);
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    merge(group, level);
+                }
+            });
+        }
+    }
+
+    /**
+     * Merge a group of indices into a new intermediate index, and add it at the next level. If the merge fails, the
+     * indices of the group are kept for the final merge. If finish() has returned before the merge completes, the
+     * merge is abandoned and the indices of the group are left untouched.
+     *
+     * @param group The indices to merge.
+     * @param level The level of the indices.
+     */
+    private void merge(List<File> group, int level) {
+        long start = System.currentTimeMillis();
+        File target = new File(FileUtils.getTempDir(), UUID.randomUUID().toString());
+        synchronized (this) {
+            if (finished) {
+                return;
+            }
+            intermediates.add(target);
+        }
+        List<Directory> dirs = new ArrayList<Directory>();
+        File result = null;
+        try {
+            for (File index : group) {
+                dirs.add(new SimpleFSDirectory(index));
+            }
+            DigestIndexer merger = CrawlLogIndexCache.createStandardIndexer(target.getAbsolutePath());
+            IndexWriter writer = merger.getIndex();
+            writer.addIndexes(dirs.toArray(new Directory[dirs.size()]));
+            merger.close();
+            result = target;
+            long time = System.currentTimeMillis() - start;
+            mergeCount.incrementAndGet();
+            mergeMillis.addAndGet(time);
+            log.debug("Merged {} level {} indices into '{}' in {} ms (combine task {})", group.size(), level, target,
+                    time, taskName);
+        } catch (Throwable t) {
+            log.warn("Merging {} level {} indices failed (combine task {}). They will be added to the total index "
+                    + "directly.", group.size(), level, taskName, t);
+        } finally {
+            for (Directory dir : dirs) {
+                try {
+                    dir.close();
+                } catch (Exception e) {
+                    log.debug("Error closing index directory", e);
+                }
+            }
+        }
+        synchronized (this) {
+            if (finished) {
+                log.info("Discarding intermediate merge of {} level {} indices completed after the deadline "
+                        + "(combine task {})", group.size(), level, taskName);
+                FileUtils.removeRecursively(target);
+                intermediates.remove(target);
+                return;
+            }
+            inFlight.remove(group);
+            if (result != null) {
+                for (File index : group) {
+                    FileUtils.removeRecursively(index);
+                }
+                add(result, level + 1);
+            } else {
+                FileUtils.removeRecursively(target);
+                unmerged.addAll(group);
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for the outstanding merges to complete, and return the indices which are left for the final merge. No
+     * further merges are started after this method has been called.
+     *
+     * @param deadline The time, in milliseconds since the epoch, after which we stop waiting for merges. The input
+     * indices of merges which are not complete by then are returned instead, and those merges are abandoned.
+     * @return The indices to add to the total index.
+     */
+    public synchronized List<File> finish(long deadline) {
+        executor.shutdown();
+        while (!inFlight.isEmpty()) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                log.warn("Timed out waiting for {} intermediate merges (combine task {})", inFlight.size(), taskName);
+                break;
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException e) {
+                log.warn("Interrupted waiting for {} intermediate merges (combine task {})", inFlight.size(),
+                        taskName);
+                break;
+            }
+        }
+        finished = true;
+        List<File> result = new ArrayList<File>(unmerged);
+        for (List<File> pending : levels) {
+            result.addAll(pending);
+        }
+        for (List<File> group : inFlight) {
+            result.addAll(group);
+        }
+        inFlight.clear();
+        return result;
+    }
+
+    /**
+     * @return The number of intermediate merges completed.
+     */
+    public int getMergeCount() {
+        return mergeCount.get();
+    }
+
+    /**
+     * @return The total time spent in intermediate merges, in milliseconds. As merges run in parallel, this may
+     * exceed the elapsed time.
+     */
+    public long getMergeMillis() {
+        return mergeMillis.get();
+    }
+
+    /**
+     * Stop any running merges, and remove the intermediate indices created by this merger.
+     */
+    public void cleanup() {
+        executor.shutdownNow();
+        try {
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            log.debug("Interrupted waiting for merges to stop", e);
+        }
+        synchronized (this) {
+            for (File intermediate : intermediates) {
+                FileUtils.removeRecursively(intermediate);
+            }
+            intermediates.clear();
+        }
+    }
+
+}
@@ -23,7 +23,6 @@
 package dk.netarkivet.viewerproxy;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -31,9 +30,12 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -54,6 +56,17 @@ public class ARCArchiveAccess implements URIResolver {
     // Class constants
     /** Transfer encoding header. */
     private static final String TRANSFER_ENCODING_HTTP_HEADER = "Transfer-encoding";
+    /** Content length header. */
+    private static final String CONTENT_LENGTH_HTTP_HEADER = "Content-Length";
+    /** Range request header. */
+    private static final String RANGE_HTTP_HEADER = "Range";
+
+    /** HTTP status code for a complete page. */
+    private static final int HTTP_OK_VALUE = 200;
+    /** HTTP status code for part of a page. */
+    private static final int HTTP_PARTIAL_CONTENT_VALUE = 206;
+    /** HTTP status code for a range outside the page. */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE_VALUE = 416;
 
     /** HTTP status code for page not found. */
     private static final int HTTP_NOTFOUND_VALUE = 404;
@@ -71,6 +84,12 @@ public class ARCArchiveAccess implements URIResolver {
      */
     private static final Pattern HTTP_HEADER_PATTERN = Pattern.compile("^HTTP/1\\.[01] (\\d+) (.*)$");
 
+    /**
+     * Matches a Range header with a single byte range like bytes=100-199, bytes=100- or bytes=-100. Groups: first byte
+     * and last byte, either of which may be empty.
+     */
+    private static final Pattern BYTE_RANGE_PATTERN = Pattern.compile("^bytes=(\\d*)-(\\d*)$");
+
     /** The underlying ARC record lookup object. */
     private ARCLookup lookup;
 
@@ -131,11 +150,19 @@ public class ARCArchiveAccess implements URIResolver {
                 createNotFoundResponse(uri, response);
                 return URIResolver.NOT_FOUND;
             }
-            contentStream = content.getInputStream();
-            // First write the original header.
+            // Headers are parsed one byte at a time, so read them through a buffer.
+            contentStream = new BufferedInputStream(content.getInputStream(), Constants.IO_BUFFER_SIZE);
             if (content.containsHeader()) {
-            	log.debug("Write first the original header");
-                writeHeader(contentStream, response);
+                // First write the original header, adjusted to any range requested.
+                log.debug("Write first the original header");
+                RecordHeader header = readHeader(contentStream);
+                long[] range = applyRange(request.getHeader(RANGE_HTTP_HEADER), header);
+                header.writeTo(response);
+                if (range != null) {
+                    skip(contentStream, range[0]);
+                    readPage(contentStream, response.getOutputStream(), range[1]);
+                    return response.getStatus();
+                }
             }
             // Now flush the content to the browser.
             readPage(contentStream, response.getOutputStream());
@@ -199,37 +226,118 @@ public class ARCArchiveAccess implements URIResolver {
      * @throws IOFailure If the underlying reads or writes fail.
      */
     private void writeHeader(InputStream is, Response response) {
+        readHeader(is).writeTo(response);
+    }
+
+    /**
+     * Read an HTTP header, including status and status reason. Header fields are filtered by filterHeader.
+     *
+     * @param is A stream to read the header from. Afterwards it is positioned at the start of the body.
+     * @return The header read.
+     * @throws IOFailure If the underlying reads fail.
+     */
+    private RecordHeader readHeader(InputStream is) {
+        RecordHeader header = new RecordHeader();
         // Reads until the end of the header (indicated by an empty line)
         try {
             for (String line = readLine(is); (line != null) && (line.length() > 0); line = readLine(is)) {
                 // Try to match lines like "HTTP/1.0 200 OK"
                 Matcher m = HTTP_HEADER_PATTERN.matcher(line);
                 if (m.matches()) {
-                    String responsecode = m.group(1);
-                    String responsetext = m.group(2);
                     // Note: Always parsable int, due to the regexp, so no reason
                     // to check for parse errors
-                    log.debug("SetStatus '{}':'{}", responsecode, responsetext);
-                    response.setStatus(Integer.parseInt(responsecode), responsetext);
+                    header.setStatus(Integer.parseInt(m.group(1)), m.group(2));
                 } else {
                     // try to match header-lines containing colon,
                     // like "Content-Type: text/html"
                     String[] parts = line.split(":", 2);
                     if (parts.length != 2) {
-                        log.debug("Malformed header line '" + line + "'");
+                        log.debug("Malformed header line '{}'", line);
                     } else {
                         String name = parts[0];
                         String contents = filterHeader(name, parts[1].trim());
                         if (contents != null) {
                             // filter out unwanted headers
-                        	log.debug("Added header-field '{}' with contents '{}'", name, contents);
-                            response.addHeaderField(name, contents);
+                            header.addField(name, contents);
                         }
                     }
                 }
             }
         } catch (IOException e) {
-            throw new IOFailure("Trouble reading from input stream or writing" + " to output stream", e);
+            throw new IOFailure("Trouble reading from input stream", e);
+        }
+        return header;
+    }
+
+    /**
+     * Adjust the header of a complete page to answer a request for a single byte range of it. Only pages with a known
+     * Content-Length can be served in parts; for these the Accept-Ranges header is added. Range headers which cannot be
+     * parsed, or which ask for several ranges, are ignored, and the complete page is served.
+     *
+     * @param rangeHeader The Range header of the request, or null if there is none.
+     * @param header The header of the page. Status and fields are changed to match the range.
+     * @return The offset into the body and the number of bytes to serve, or null if the complete page is served.
+     */
+    private long[] applyRange(String rangeHeader, RecordHeader header) {
+        String lengthField = header.getField(CONTENT_LENGTH_HTTP_HEADER);
+        if (header.getStatus() != HTTP_OK_VALUE || lengthField == null) {
+            return null;
+        }
+        long length;
+        try {
+            length = Long.parseLong(lengthField);
+        } catch (NumberFormatException e) {
+            log.debug("Unparsable Content-Length '{}', not accepting ranges", lengthField);
+            return null;
+        }
+        header.setField("Accept-Ranges", "bytes");
+        if (rangeHeader == null) {
+            return null;
+        }
+        Matcher m = BYTE_RANGE_PATTERN.matcher(rangeHeader.trim());
+        if (!m.matches() || (m.group(1).isEmpty() && m.group(2).isEmpty())) {
+            log.debug("Ignoring unsupported range '{}'", rangeHeader);
+            return null;
+        }
+        long first;
+        long last;
+        try {
+            if (m.group(1).isEmpty()) {
+                // The last bytes of the page
+                first = Math.max(0, length - Long.parseLong(m.group(2)));
+                last = length - 1;
+            } else {
+                first = Long.parseLong(m.group(1));
+                last = m.group(2).isEmpty() ? length - 1 : Math.min(Long.parseLong(m.group(2)), length - 1);
+            }
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring unsupported range '{}'", rangeHeader);
+            return null;
+        }
+        if (first >= length || last < first) {
+            header.setStatus(HTTP_RANGE_NOT_SATISFIABLE_VALUE, "Requested Range Not Satisfiable");
+            header.setField("Content-Range", "bytes */" + length);
+            header.setField(CONTENT_LENGTH_HTTP_HEADER, "0");
+            return new long[] {0, 0};
+        }
+        header.setStatus(HTTP_PARTIAL_CONTENT_VALUE, "Partial Content");
+        header.setField("Content-Range", "bytes " + first + "-" + last + "/" + length);
+        header.setField(CONTENT_LENGTH_HTTP_HEADER, Long.toString(last - first + 1));
+        return new long[] {first, last - first + 1};
+    }
+
+    /**
+     * Skip bytes of a page body.
+     *
+     * @param content The stream to skip bytes of.
+     * @param bytes The number of bytes to skip.
+     * @throws IOFailure If the underlying reads fail, or the body is shorter than the number of bytes.
+     */
+    private static void skip(InputStream content, long bytes) {
+        try {
+            IOUtils.skipFully(content, bytes);
+        } catch (IOException e) {
+            throw new IOFailure("Could not skip " + bytes + " bytes of data", e);
         }
     }
 
@@ -241,18 +349,31 @@ public class ARCArchiveAccess implements URIResolver {
      * @throws IOFailure If the underlying reads or writes fail
      */
     private void readPage(InputStream content, OutputStream out) {
-        BufferedInputStream page = new BufferedInputStream(content);
-        BufferedOutputStream responseOut = new BufferedOutputStream(out);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(); 
+        readPage(content, out, -1);
+    }
+
+    /**
+     * Read part of a page body into some stream. Only a buffer of constant size is used, whatever the size of the page.
+     *
+     * @param content The stream to read the page from. Not closed afterwards.
+     * @param out The stream to write the results to. Not closed afterwards.
+     * @param length The number of bytes to read, or -1 to read the rest of the page.
+     * @throws IOFailure If the underlying reads or writes fail
+     */
+    private void readPage(InputStream content, OutputStream out, long length) {
+        long remaining = length < 0 ? Long.MAX_VALUE : length;
+        long total = 0;
         try {
             byte[] buffer = new byte[Constants.IO_BUFFER_SIZE];
             int bytesRead;
-            while ((bytesRead = page.read(buffer)) != -1) {
-            	baos.write(buffer, 0, bytesRead);
-            	responseOut.write(buffer, 0, bytesRead);
+            while (remaining > 0
+                    && (bytesRead = content.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                out.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+                total += bytesRead;
             }
-            responseOut.flush();
-            log.debug("pagecontents: ", new String(baos.toByteArray(), "UTF-8"));
+            out.flush();
+            log.debug("Wrote {} bytes of page contents", total);
         } catch (IOException e) {
             throw new IOFailure("Could not read or write data", e);
         }
@@ -307,4 +428,95 @@ public class ARCArchiveAccess implements URIResolver {
         }
         return buf.toByteArray();
     }
+
+    /**
+     * The status and header fields of an archived HTTP response, collected so they can be adjusted before being written
+     * to the browser.
+     */
+    private static class RecordHeader {
+        /** The HTTP status code, or -1 if the header has no status line. */
+        private int status = -1;
+        /** The text explaining the status code. */
+        private String reason;
+        /** The names of the header fields, in order. */
+        private final List<String> names = new ArrayList<String>();
+        /** The contents of the header fields, in the same order as names. */
+        private final List<String> values = new ArrayList<String>();
+
+        /**
+         * @return the HTTP status code, or -1 if the header has no status line.
+         */
+        int getStatus() {
+            return status;
+        }
+
+        /**
+         * Set the status code and explanatory text.
+         *
+         * @param status The HTTP status code.
+         * @param reason The text explaining the status code.
+         */
+        void setStatus(int status, String reason) {
+            this.status = status;
+            this.reason = reason;
+        }
+
+        /**
+         * Add a header field.
+         *
+         * @param name The name of the field.
+         * @param value The contents of the field.
+         */
+        void addField(String name, String value) {
+            names.add(name);
+            values.add(value);
+        }
+
+        /**
+         * Get the contents of a header field.
+         *
+         * @param name The name of the field, not case sensitive.
+         * @return The contents of the first field with that name, or null if there is none.
+         */
+        String getField(String name) {
+            for (int i = 0; i < names.size(); i++) {
+                if (names.get(i).equalsIgnoreCase(name)) {
+                    return values.get(i);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Set a header field, replacing any fields with the same name.
+         *
+         * @param name The name of the field, not case sensitive.
+         * @param value The contents of the field.
+         */
+        void setField(String name, String value) {
+            for (int i = names.size() - 1; i >= 0; i--) {
+                if (names.get(i).equalsIgnoreCase(name)) {
+                    names.remove(i);
+                    values.remove(i);
+                }
+            }
+            addField(name, value);
+        }
+
+        /**
+         * Write the status and header fields to a response.
+         *
+         * @param response The response to write to.
+         */
+        void writeTo(Response response) {
+            if (status != -1) {
+                log.debug("SetStatus '{}':'{}'", status, reason);
+                response.setStatus(status, reason);
+            }
+            for (int i = 0; i < names.size(); i++) {
+                log.debug("Added header-field '{}' with contents '{}'", names.get(i), values.get(i));
+                response.addHeaderField(names.get(i), values.get(i));
+            }
+        }
+    }
 }
@@ -48,4 +48,12 @@ public interface Request {
      * @return a map from parameter names to parameter values
      */
     Map<String, String[]> getParameterMap();
+
+    /**
+     * Get the value of a header of this request.
+     *
+     * @param name The name of the header, not case sensitive.
+     * @return the value of the header, or null if the request has no such header.
+     */
+    String getHeader(String name);
 }
@@ -326,5 +326,15 @@ public class WebProxy extends DefaultHandler implements URIResolverHandler {
         public Map<String, String[]> getParameterMap() {
             return (Map<String, String[]>) hr.getParameterMap();
         }
+
+        /**
+         * Get the value of a header of this request.
+         *
+         * @param name The name of the header, not case sensitive.
+         * @return The value of the header, or null if there is no such header.
+         */
+        public String getHeader(String name) {
+            return hr.getHeader(name);
+        }
     }
 }
@@ -25,6 +25,7 @@ package dk.netarkivet.harvester.datamodel;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -32,6 +33,7 @@ import java.lang.reflect.Field;
 import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
@@ -46,7 +48,9 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.IteratorUtils;
+import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.testutils.CollectionAsserts;
 import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.testutils.StringAsserts;
@@ -348,6 +352,48 @@ public class DomainDAOTester extends DataModelTestCase {
                 + Arrays.asList(readhis), Arrays.equals(his, readhis));
     }
 
+    /**
+     * Test that the precomputed harvest expectations follow the harvest infos written for a configuration.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testGetHarvestExpectations() {
+        DomainDAO dao = DomainDAO.getInstance();
+        Domain domain0 = dao.read("dr.dk");
+        Long configID = domain0.getConfiguration("fuld_dybde").getID();
+        assertTrue("There should be no expectation before harvesting",
+                dao.getHarvestExpectations(Collections.singletonList(configID)).isEmpty());
+
+        domain0.getHistory().addHarvestInfo(
+                new HarvestInfo(Long.valueOf(1), domain0.getName(), "fuld_dybde", new Date(100000L), 40, 2,
+                        StopReason.DOWNLOAD_COMPLETE));
+        dao.update(domain0);
+        HarvestExpectation expectation = dao.getHarvestExpectations(Collections.singletonList(configID)).get(
+                configID);
+        assertEquals("Should expect the complete harvest", 2, expectation.getCountObjectRetrieved());
+        assertEquals("Should expect the complete harvest", 40, expectation.getSizeDataRetrieved());
+        assertEquals("Should expect the complete harvest", StopReason.DOWNLOAD_COMPLETE, expectation.getStopReason());
+
+        Domain domain1 = dao.read("dr.dk");
+        domain1.getHistory().addHarvestInfo(
+                new HarvestInfo(Long.valueOf(2), domain1.getName(), "fuld_dybde", new Date(200000L), 50, 5,
+                        StopReason.OBJECT_LIMIT));
+        dao.update(domain1);
+        expectation = dao.getHarvestExpectations(Arrays.asList(configID, Long.valueOf(-1L))).get(configID);
+        assertEquals("Should expect the newer and bigger harvest", 5, expectation.getCountObjectRetrieved());
+        assertEquals("Should expect the newer and bigger harvest", 50, expectation.getSizeDataRetrieved());
+        assertEquals("Should expect the newer and bigger harvest", StopReason.OBJECT_LIMIT,
+                expectation.getStopReason());
+
+        DomainConfiguration cfg = dao.read("dr.dk").getConfiguration("fuld_dybde");
+        long expected = cfg.getExpectedNumberOfObjects(Constants.HERITRIX_MAXOBJECTS_INFINITY,
+                Constants.HERITRIX_MAXBYTES_INFINITY);
+        cfg.setHarvestExpectation(expectation);
+        assertEquals("The precomputed expectation should give the same expected number of objects", expected,
+                cfg.getExpectedNumberOfObjects(Constants.HERITRIX_MAXOBJECTS_INFINITY,
+                        Constants.HERITRIX_MAXBYTES_INFINITY));
+    }
+
     /**
      * Test that we get the right harvestinfo when asking based on an old harvestinfo.
      *
@@ -747,6 +793,47 @@ public class DomainDAOTester extends DataModelTestCase {
         }
     }
 
+    /**
+     * Test that domains read in small chunks for snapshot harvesting are read completely, and each domain only once.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testGetAllDomainsInSnapshotHarvestOrderInChunks() {
+        Settings.set(HarvesterSettings.JOBGEN_SNAPSHOT_DOMAIN_CHUNK_SIZE, "3");
+        Settings.set(HarvesterSettings.JOBGEN_SNAPSHOT_DOMAIN_PREFETCH_CHUNKS, "1");
+        DomainDAO dao = DomainDAO.getInstance();
+        List<String> names = new ArrayList<String>();
+        Iterator<Domain> i = dao.getAllDomainsInSnapshotHarvestOrder();
+        while (i.hasNext()) {
+            Domain chunked = i.next();
+            assertFalse("Domain " + chunked.getName() + " should only be read once", names.contains(chunked.getName()));
+            names.add(chunked.getName());
+            Domain read = dao.read(chunked.getName());
+            assertEquals("Should have the same ID", read.getID(), chunked.getID());
+            assertEquals("Should have the same default config", read.getDefaultConfiguration().getName(),
+                    chunked.getDefaultConfiguration().getName());
+            assertEquals("Should have the same configs", IteratorUtils.toList(read.getAllConfigurations()).size(),
+                    IteratorUtils.toList(chunked.getAllConfigurations()).size());
+            CollectionAsserts.assertIteratorEquals("Should have the same seed lists",
+                    read.getDefaultConfiguration().getSeedLists(), chunked.getDefaultConfiguration().getSeedLists());
+            CollectionAsserts.assertIteratorEquals("Should have the same passwords",
+                    read.getDefaultConfiguration().getPasswords(), chunked.getDefaultConfiguration().getPasswords());
+            for (DomainConfiguration cfg : IteratorUtils.toList(read.getAllConfigurations())) {
+                HarvestInfo best = DomainHistory.getBestHarvestInfoExpectation(cfg.getName(), read.getHistory());
+                HarvestExpectation expectation = chunked.getConfiguration(cfg.getName()).getHarvestExpectation();
+                if (best == null) {
+                    assertNull("Should have no expectation without history", expectation);
+                } else {
+                    assertEquals("Should have the expectation of the history", best.getCountObjectRetrieved(),
+                            expectation.getCountObjectRetrieved());
+                    assertEquals("Should have the expectation of the history", best.getSizeDataRetrieved(),
+                            expectation.getSizeDataRetrieved());
+                }
+            }
+        }
+        assertEquals("Should read all domains", dao.getCountDomains(), names.size());
+    }
+
     /** Check constructor of DomainHarvestInfo(). */
     @Category(SlowTest.class)
     @Test
@@ -131,6 +131,26 @@ public class JobDAOTester extends DataModelTestCase {
         // - but we probably do (at least nice to have)
     }
 
+    /**
+     * Tests that jobs created in one go get IDs in the given order and can be read back.
+     */
+    @Test
+    public void testCreateJobs() {
+        Job job1 = createDefaultJob(0);
+        Job job2 = createDefaultJob(1);
+        for (String domainName : job1.getDomainConfigurationMap().keySet()) {
+            TestInfo.getDefaultConfig(DomainDAOTester.getDomain(domainName));
+        }
+        HarvestDefinitionDAOTester.ensureHarvestDefinitionExists(job1.getOrigHarvestDefinitionID());
+
+        jobDAO.create(Arrays.asList(job1, job2));
+        assertEquals("Both jobs should be created", 2, jobDAO.getCountJobs());
+        assertTrue("Jobs should get IDs in the given order", job1.getJobID() < job2.getJobID());
+        assertEquals("Created job should be readable", job1.getDomainConfigurationMap(),
+                jobDAO.read(job1.getJobID()).getDomainConfigurationMap());
+        assertEquals("Created job should be readable", 1, jobDAO.read(job2.getJobID()).getHarvestNum());
+    }
+
     @Test(expected = UnknownID.class)
     public void testJobReadUnknownID() {
         jobDAO.read(42424242);
@@ -23,6 +23,7 @@
 package dk.netarkivet.harvester.harvesting.distribute;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
@@ -43,4 +44,41 @@ public class CrawlProgressMessageTester {
         assertEquals(CrawlStatus.PRE_CRAWL, msg.getStatus());
         assertEquals("", msg.getProgressStatisticsLegend());
     }
+
+    @Test
+    public void testCodec() {
+        CrawlProgressMessage msg = new CrawlProgressMessage(2L, 42L, "legend");
+        msg.setHostUrl("http://localhost:8192");
+        msg.setStatus(CrawlStatus.CRAWLER_ACTIVE);
+        msg.getHeritrixStatus().setAlertCount(3);
+        msg.getHeritrixStatus().setCrawling(true);
+        msg.getHeritrixStatus().setCurrentJob("42_2");
+        msg.getJobStatus().setDiscoveredFilesCount(1000L);
+        msg.getJobStatus().setDownloadedFilesCount(400L);
+        msg.getJobStatus().setElapsedSeconds(60L);
+        msg.getJobStatus().setProcessedDocsPerSec(6.5);
+        msg.getJobStatus().setActiveToeCount(25);
+        msg.getJobStatus().setProgressStatistics("stats");
+        msg.getJobStatus().setStatus("RUNNING");
+
+        CrawlProgressMessageCodec codec = new CrawlProgressMessageCodec();
+        assertTrue("Codec should handle crawl progress messages", codec.canEncode(msg));
+        CrawlProgressMessage decoded = (CrawlProgressMessage) codec.decode(codec.encode(msg));
+        assertEquals(2L, decoded.getHarvestID());
+        assertEquals(42L, decoded.getJobID());
+        assertEquals("legend", decoded.getProgressStatisticsLegend());
+        assertEquals("http://localhost:8192", decoded.getHostUrl());
+        assertEquals(CrawlStatus.CRAWLER_ACTIVE, decoded.getStatus());
+        assertEquals(3, decoded.getHeritrixStatus().getAlertCount());
+        assertTrue(decoded.getHeritrixStatus().isCrawling());
+        assertEquals("42_2", decoded.getHeritrixStatus().getCurrentJob());
+        assertEquals(600L, decoded.getJobStatus().getQueuedUriCount());
+        assertEquals(60L, decoded.getJobStatus().getElapsedSeconds());
+        assertEquals(6.5, decoded.getJobStatus().getProcessedDocsPerSec(), 0.0);
+        assertEquals(25, decoded.getJobStatus().getActiveToeCount());
+        assertEquals("stats", decoded.getJobStatus().getProgressStatistics());
+        assertEquals("RUNNING", decoded.getJobStatus().getStatus());
+        assertEquals(msg.getTo(), decoded.getTo());
+        assertEquals(msg.getReplyTo(), decoded.getReplyTo());
+    }
 }
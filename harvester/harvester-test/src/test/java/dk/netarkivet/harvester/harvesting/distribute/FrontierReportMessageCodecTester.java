@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
+import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
+
+/**
+ * Unit tests for the class {@link FrontierReportMessageCodec}.
+ */
+public class FrontierReportMessageCodecTester {
+
+    @Test
+    public void testCodec() {
+        InMemoryFrontierReport report = new InMemoryFrontierReport("42_2");
+        report.setTimestamp(1234L);
+        FrontierReportLine line = new FrontierReportLine();
+        line.setDomainName("netarkivet.dk");
+        line.setCurrentSize(10L);
+        line.setTotalEnqueues(20L);
+        line.setAverageCost(1.5);
+        line.setWakeTime("-");
+        line.setLastPeekUri("http://netarkivet.dk/");
+        report.addLine(line);
+        FrontierReportMessage msg = new FrontierReportMessage("filter", report, 42L);
+        msg.setNotOk("report incomplete");
+
+        FrontierReportMessageCodec codec = new FrontierReportMessageCodec();
+        FrontierReportMessage decoded = (FrontierReportMessage) codec.decode(codec.encode(msg));
+        assertEquals("filter", decoded.getFilterId());
+        assertEquals(Long.valueOf(42L), decoded.getJobID());
+        assertFalse(decoded.isOk());
+        assertEquals("report incomplete", decoded.getErrMsg());
+        assertEquals("42_2", decoded.getReport().getJobName());
+        assertEquals(1234L, decoded.getReport().getTimestamp());
+        assertEquals(1, decoded.getReport().getSize());
+        FrontierReportLine decodedLine = decoded.getReport().getLineForDomain("netarkivet.dk");
+        assertEquals(10L, decodedLine.getCurrentSize());
+        assertEquals(20L, decodedLine.getTotalEnqueues());
+        assertEquals(1.5, decodedLine.getAverageCost(), 0.0);
+        assertEquals("-", decodedLine.getWakeTime());
+        assertNull(decodedLine.getLastDequeueTime());
+        assertEquals("http://netarkivet.dk/", decodedLine.getLastPeekUri());
+    }
+
+    @Test
+    public void testCodecWithoutReport() {
+        FrontierReportMessage msg = new FrontierReportMessage("filter", null, null);
+        FrontierReportMessageCodec codec = new FrontierReportMessageCodec();
+        FrontierReportMessage decoded = (FrontierReportMessage) codec.decode(codec.encode(msg));
+        assertEquals("filter", decoded.getFilterId());
+        assertNull(decoded.getJobID());
+        assertNull(decoded.getReport());
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.SimpleFSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+import is.hi.bok.deduplicator.DigestIndexer;
+
+/**
+ * Unit tests for the HierarchicalIndexMerger.
+ */
+public class HierarchicalIndexMergerTester {
+
+    /** The number of sub-indices to merge. */
+    private static final int SUB_INDICES = 10;
+    /** The number of indices merged into one intermediate index. */
+    private static final int FAN_IN = 3;
+
+    private ReloadSettings rs = new ReloadSettings();
+    private File tmpDir = new File(TestInfo.WORKING_DIR, "tmp");
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        FileUtils.createDir(tmpDir);
+        Settings.set(CommonSettings.DIR_COMMONTEMPDIR, tmpDir.getAbsolutePath());
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        rs.tearDown();
+    }
+
+    /**
+     * Test that merging more sub-indices than the fan-in merges them into fewer indices, which together still contain
+     * every document of the sub-indices.
+     */
+    @Test
+    public void testMergeMoreIndicesThanFanIn() throws IOException {
+        HierarchicalIndexMerger merger = new HierarchicalIndexMerger(FAN_IN, 2, "test");
+        Set<String> expectedUrls = new HashSet<String>();
+        for (int i = 0; i < SUB_INDICES; i++) {
+            String url = "http://www.example.com/" + i;
+            expectedUrls.add(url);
+            merger.add(createSubIndex(new File(TestInfo.WORKING_DIR, "sub" + i), url));
+        }
+        try {
+            List<File> indices = merger.finish(System.currentTimeMillis() + 60000L);
+            // The level 0 merges are all started before finish() is called, and so complete before it returns.
+            int level0Merges = SUB_INDICES / FAN_IN;
+            assertTrue("All level 0 groups should have been merged", merger.getMergeCount() >= level0Merges);
+            assertTrue("The merged indices should be fewer than the sub-indices, but were " + indices,
+                    indices.size() <= SUB_INDICES - level0Merges * (FAN_IN - 1));
+
+            Set<String> urls = new HashSet<String>();
+            int documents = 0;
+            for (File index : indices) {
+                for (String url : readUrls(index)) {
+                    urls.add(url);
+                    documents++;
+                }
+            }
+            assertEquals("Every document should be in the merged indices exactly once", SUB_INDICES, documents);
+            assertEquals("Every document should be in the merged indices", expectedUrls, urls);
+        } finally {
+            merger.cleanup();
+        }
+        assertEquals("The intermediate indices should be removed by cleanup", 0, tmpDir.list().length);
+    }
+
+    /**
+     * Create an index containing a single document.
+     *
+     * @param dir The directory of the index.
+     * @param url The URL of the document.
+     * @return The directory of the index.
+     */
+    private File createSubIndex(File dir, String url) throws IOException {
+        DigestIndexer indexer = CrawlLogIndexCache.createStandardIndexer(dir.getAbsolutePath());
+        Document doc = new Document();
+        doc.add(new StringField(DigestIndexer.FIELD_URL, url, Field.Store.YES));
+        indexer.getIndex().addDocument(doc);
+        indexer.close();
+        return dir;
+    }
+
+    /**
+     * @param index The directory of an index.
+     * @return The URLs of the documents in the index.
+     */
+    private List<String> readUrls(File index) throws IOException {
+        List<String> urls = new ArrayList<String>();
+        Directory dir = new SimpleFSDirectory(index);
+        try {
+            IndexReader reader = DirectoryReader.open(dir);
+            try {
+                for (int i = 0; i < reader.maxDoc(); i++) {
+                    urls.add(reader.document(i).get(DigestIndexer.FIELD_URL));
+                }
+            } finally {
+                reader.close();
+            }
+        } finally {
+            dir.close();
+        }
+        return urls;
+    }
+}
@@ -7,16 +7,22 @@ import static org.junit.Assert.assertTrue;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import org.junit.Test;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.Constants;
 import dk.netarkivet.harvester.datamodel.DomainConfiguration;
 import dk.netarkivet.harvester.datamodel.DomainConfigurationTest;
 import dk.netarkivet.harvester.datamodel.H1HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.HarvestChannel;
+import dk.netarkivet.harvester.datamodel.HarvestDefinition;
+import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
 import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
 import dk.netarkivet.harvester.datamodel.Job;
 import dk.netarkivet.harvester.datamodel.JobTest;
@@ -130,6 +136,43 @@ public class DefaultJobGeneratorTest extends AbstractJobGeneratorTest {
         assertFalse(Collections.indexOfSubList(sortedNames, expected2) == -1);
     }
 
+    /**
+     * Test that packing the partitions of a subset of configurations on several threads gives the same jobs as packing
+     * them one by one, also when configurations using the same order.xml file are split by their EAV attributes.
+     */
+    @Test
+    public void testPartitionThreadsGiveSameJobs() {
+        HarvestDefinition hd = TestInfo.getMultipleOrderXmlConfig();
+        hd.setSubmissionDate(new Date());
+        HarvestDefinitionDAO.getInstance().create(hd);
+
+        List<DomainConfiguration> dcs = new ArrayList<>();
+        Iterator<DomainConfiguration> it = hd.getDomainConfigurations();
+        while (it.hasNext()) {
+            DomainConfiguration dc = it.next();
+            // statsbiblioteket.dk and dr.dk use the same order.xml, but only differ by their attributes
+            dc.setAttributesAndTypes(DomainConfigurationTest.getAttributes("dr.dk".equals(dc.getDomainName()) ? 10
+                    : 20, false, true));
+            dcs.add(dc);
+        }
+        Collections.sort(dcs, new DefaultJobGenerator.CompareConfigsDesc(hd.getMaxCountObjects(), hd.getMaxBytes()));
+
+        Settings.set(HarvesterSettings.JOBGEN_PARTITION_THREADS, "1");
+        List<Job> serialJobs = new DefaultJobGenerator().makeJobs(hd, dcs.iterator());
+        Settings.set(HarvesterSettings.JOBGEN_PARTITION_THREADS, "4");
+        List<Job> parallelJobs = new DefaultJobGenerator().makeJobs(hd, dcs.iterator());
+
+        assertEquals("Configurations with different order.xml or attributes should not share a job", 4,
+                serialJobs.size());
+        assertEquals("Should make the same number of jobs", serialJobs.size(), parallelJobs.size());
+        for (int i = 0; i < serialJobs.size(); i++) {
+            assertEquals("Jobs should use the same order.xml", serialJobs.get(i).getOrderXMLName(),
+                    parallelJobs.get(i).getOrderXMLName());
+            assertEquals("Jobs should have the same configurations", serialJobs.get(i).getDomainConfigurationMap(),
+                    parallelJobs.get(i).getDomainConfigurationMap());
+        }
+    }
+
     public static DomainConfiguration getDomainConfiguration(String name, Long maxBytes, int maxHops,
             boolean obeyRobots, boolean extractJS) {
         DomainConfiguration dc1 = DomainConfigurationTest.createDefaultDomainConfiguration(name);
@@ -212,6 +212,50 @@ public class ARCArchiveAccessTester {
         assertEquals("Should have a location header", GIF_URL_KEY.getFile().toString(), response.values.get(0));
     }
 
+    /**
+     * Test that single byte ranges of pages with a known length are served, and that other ranges are ignored.
+     */
+    @Test
+    public void testLookupRange() throws Exception {
+        ARCArchiveAccess rangeaaa = new ARCArchiveAccess(new RangeArcRepositoryClient());
+        rangeaaa.setIndex(TestInfo.ZIPPED_INDEX_DIR);
+
+        TestResponse response = new TestResponse();
+        assertEquals("Should return the complete page without a range", 200,
+                rangeaaa.lookup(new TestRequest(GIF_URL), response));
+        assertEquals("Should get the complete page", "0123456789", response.bas.toString());
+        assertEquals("Should accept ranges", "bytes", response.values.get(response.names.indexOf("Accept-Ranges")));
+
+        response = new TestResponse();
+        assertEquals("Should return part of the page", 206,
+                rangeaaa.lookup(new TestRequest(GIF_URL, "bytes=2-4"), response));
+        assertEquals("Should get the range", "234", response.bas.toString());
+        assertEquals("Should have a content range", "bytes 2-4/10",
+                response.values.get(response.names.indexOf("Content-Range")));
+        assertEquals("Should have the length of the range", "3",
+                response.values.get(response.names.indexOf("Content-Length")));
+        assertEquals("Should only have one Content-Length", response.names.indexOf("Content-Length"),
+                response.names.lastIndexOf("Content-Length"));
+
+        response = new TestResponse();
+        rangeaaa.lookup(new TestRequest(GIF_URL, "bytes=-3"), response);
+        assertEquals("Should get the last bytes", "789", response.bas.toString());
+
+        response = new TestResponse();
+        rangeaaa.lookup(new TestRequest(GIF_URL, "bytes=7-100"), response);
+        assertEquals("Should get the bytes up to the end", "789", response.bas.toString());
+
+        response = new TestResponse();
+        assertEquals("Should not satisfy a range after the end", 416,
+                rangeaaa.lookup(new TestRequest(GIF_URL, "bytes=20-"), response));
+        assertEquals("Should get no data", "", response.bas.toString());
+
+        response = new TestResponse();
+        assertEquals("Should ignore several ranges", 200,
+                rangeaaa.lookup(new TestRequest(GIF_URL, "bytes=1-2,5-6"), response));
+        assertEquals("Should get the complete page", "0123456789", response.bas.toString());
+    }
+
     /**
      * Test that AAA checks for null returns from the controller. This can happen if a CDX file is not backed by an arc
      * file, or arc repos times out.
@@ -251,7 +295,7 @@ public class ARCArchiveAccessTester {
             for (String header_field : (List<String>) ARCConstants.REQUIRED_VERSION_1_HEADER_FIELDS) {
                 metadata.put(header_field, "");
             }
-            byte[] data = ("HTTP/1.1 200 OK\nLocation: " + arcFile + "\n\n" + arcFile + " " + index).getBytes();
+            byte[] data = getData(arcFile, index);
             // TODO remove or replace this by something else ? (ARCConstants.LENGTH_HEADER_FIELD_KEY)
             // does not exist in Heritrix 1.10+
             // metadata.put(ARCConstants.LENGTH_HEADER_FIELD_KEY,
@@ -270,6 +314,22 @@ public class ARCArchiveAccessTester {
                 return null;
             }
         }
+
+        /**
+         * @return the archived HTTP response to put in the record.
+         */
+        protected byte[] getData(String arcFile, long index) {
+            return ("HTTP/1.1 200 OK\nLocation: " + arcFile + "\n\n" + arcFile + " " + index).getBytes();
+        }
+    }
+
+    /**
+     * Fake arc repository client which on get returns a record with a known Content-Length.
+     */
+    private class RangeArcRepositoryClient extends TestArcRepositoryClient {
+        protected byte[] getData(String arcFile, long index) {
+            return "HTTP/1.1 200 OK\nContent-Length: 10\n\n0123456789".getBytes();
+        }
     }
 
     /**
@@ -320,11 +380,17 @@ public class ARCArchiveAccessTester {
 
     public class TestRequest implements Request {
         private URI uri;
+        private String range;
 
         public TestRequest(URI uri) {
             this.uri = uri;
         }
 
+        public TestRequest(URI uri, String range) {
+            this.uri = uri;
+            this.range = range;
+        }
+
         public URI getURI() {
             return uri;
         }
@@ -332,6 +398,10 @@ public class ARCArchiveAccessTester {
         public Map<String, String[]> getParameterMap() {
             return Collections.emptyMap();
         }
+
+        public String getHeader(String name) {
+            return "Range".equalsIgnoreCase(name) ? range : null;
+        }
     }
 
 }
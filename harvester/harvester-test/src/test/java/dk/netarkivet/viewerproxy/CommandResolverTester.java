@@ -49,6 +49,10 @@ public class CommandResolverTester {
             public Map<String, String[]> getParameterMap() {
                 throw new NotImplementedException("Not implemented");
             }
+
+            public String getHeader(String name) {
+                throw new NotImplementedException("Not implemented");
+            }
         }));
         assertFalse("Request with other uri should not be command host",
                 CommandResolver.isCommandHostRequest(makeRequest("http://www.foo.bims")));
@@ -70,6 +74,10 @@ public class CommandResolverTester {
             public Map<String, String[]> getParameterMap() {
                 throw new NotImplementedException("Not implemented");
             }
+
+            public String getHeader(String name) {
+                throw new NotImplementedException("Not implemented");
+            }
         };
     }
 }
@@ -200,5 +200,9 @@ public class NotifyingURIResolverTester {
         public Map<String, String[]> getParameterMap() {
             return Collections.emptyMap();
         }
+
+        public String getHeader(String name) {
+            return null;
+        }
     }
 }
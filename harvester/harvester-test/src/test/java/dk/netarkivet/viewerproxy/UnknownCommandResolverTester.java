@@ -103,6 +103,10 @@ public class UnknownCommandResolverTester {
                 // TODO: implement method
                 throw new NotImplementedException("Not implemented");
             }
+
+            public String getHeader(String name) {
+                throw new NotImplementedException("Not implemented");
+            }
         };
     }
 }
@@ -475,5 +475,9 @@ public class HTTPControllerServerTester {
             }
             return queryMap;
         }
+
+        public String getHeader(String name) {
+            return null;
+        }
     }
 }
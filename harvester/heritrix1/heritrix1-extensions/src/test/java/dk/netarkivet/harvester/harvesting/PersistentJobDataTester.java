@@ -23,9 +23,12 @@
 package dk.netarkivet.harvester.harvesting;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -98,4 +101,20 @@ public class PersistentJobDataTester {
         PersistentJobData pjd = new PersistentJobData(CRAWL_DIR);
         pjd.getVersion();
     }
+
+    @Test
+    public void testUploadedFiles() {
+        File hiVersion05 = new File(TestResourceUtils.getFilePath("harvestInfo.xml"));
+        FileUtils.copyFile(hiVersion05, new File(CRAWL_DIR, HARVEST_INFO_XML));
+        PersistentJobData pjd = new PersistentJobData(CRAWL_DIR);
+        assertTrue("No files should be uploaded yet", pjd.getUploadedFiles().isEmpty());
+        pjd.addUploadedFile("1-1-20150101-00001.warc.gz");
+        pjd.addUploadedFile("1-1-20150101-00002.warc.gz");
+
+        PersistentJobData reread = new PersistentJobData(CRAWL_DIR);
+        assertEquals("The uploaded files should be recorded in the harvestInfo",
+                new HashSet<String>(Arrays.asList("1-1-20150101-00001.warc.gz", "1-1-20150101-00002.warc.gz")),
+                reread.getUploadedFiles());
+        assertEquals("The rest of the harvestInfo should be unchanged", pjd.getJobID(), reread.getJobID());
+    }
 }
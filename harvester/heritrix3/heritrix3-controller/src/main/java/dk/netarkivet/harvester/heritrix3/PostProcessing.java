@@ -23,8 +23,16 @@
 package dk.netarkivet.harvester.heritrix3;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,6 +42,7 @@ import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.management.SingleMBeanObject;
 import dk.netarkivet.common.utils.ExceptionUtils;
 import dk.netarkivet.common.utils.NotificationType;
 import dk.netarkivet.common.utils.NotificationsFactory;
@@ -47,7 +56,7 @@ import dk.netarkivet.harvester.harvesting.report.HarvestReport;
 import dk.netarkivet.harvester.heritrix3.report.HarvestReportFactory;
 import dk.netarkivet.harvester.heritrix3.report.HarvestReportGenerator;
 
-public class PostProcessing {
+public class PostProcessing implements UploadStatistics {
 
     /** The logger to use. */
     private static final Logger log = LoggerFactory.getLogger(PostProcessing.class);
@@ -64,12 +73,31 @@ public class PostProcessing {
     /** The singleton instance of this class. Calling cleanup() on the instance will null this field. */
     private static PostProcessing instance;
 
+    /** The number of files uploaded. */
+    private final AtomicLong filesUploadedTotal = new AtomicLong();
+
+    /** The number of files which could not be uploaded. */
+    private final AtomicLong filesFailedTotal = new AtomicLong();
+
+    /** The number of bytes uploaded. */
+    private final AtomicLong bytesUploadedTotal = new AtomicLong();
+
+    /** The time spent uploading files, in milliseconds. */
+    private final AtomicLong uploadMillisTotal = new AtomicLong();
+
+    /** The number of bytes uploaded per second by the most recent batch of uploads. */
+    private volatile long lastBytesPerSecond;
+
+    /** The MBean exposing the upload statistics; null if not registered. */
+    private SingleMBeanObject<UploadStatistics> statisticsMBean;
+
     /**
      * Private constructor controlled by getInstance().
      */
     private PostProcessing(JMSConnection jmsConnection) {
         arcRepController = ArcRepositoryClientFactory.getHarvesterInstance();
         this.jmsConnection = jmsConnection;
+        registerStatistics();
     }
 
     /**
@@ -93,9 +121,33 @@ public class PostProcessing {
         if (arcRepController != null) {
             arcRepController.close();
         }
+        if (statisticsMBean != null) {
+            try {
+                statisticsMBean.unregister();
+            } catch (IOFailure e) {
+                log.debug("Unable to unregister the upload statistics", e);
+            }
+            statisticsMBean = null;
+        }
         resetInstance();
     }
 
+    /**
+     * Expose the upload statistics as an MBean. Failure to do so is logged, but otherwise ignored.
+     */
+    private void registerStatistics() {
+        try {
+            SingleMBeanObject<UploadStatistics> mBean = new SingleMBeanObject<UploadStatistics>(
+                    "dk.netarkivet.harvester.heritrix3", this, UploadStatistics.class,
+                    ManagementFactory.getPlatformMBeanServer());
+            mBean.getNameProperties().put("name", "UploadStatistics");
+            mBean.register();
+            statisticsMBean = mBean;
+        } catch (Exception e) {
+            log.warn("Unable to register the upload statistics as an MBean", e);
+        }
+    }
+
     /**
      * Reset the singleton instance.
      */
@@ -156,7 +208,7 @@ public class PostProcessing {
         
         try {
             log.info("Store files in directory '{}' " + "from jobID: {}.", crawlDir, jobID);
-            dhr = storeFiles(files, errorMessage, failedFiles);
+            dhr = storeFiles(files, harvestInfo, errorMessage, failedFiles);
         } catch (Exception e) {
             String msg = "Trouble during postprocessing of files in '" + crawlDir.getAbsolutePath() + "'";
             log.warn(msg, e);
@@ -240,14 +292,16 @@ public class PostProcessing {
      * Additionally, any leftover open ARC files are closed and harvest documentation is extracted before upload starts.
      *
      * @param files The HeritrixFiles object for this crawl. Not Null.
+     * @param harvestInfo The harvestInfo of the crawl, recording which files have been uploaded. Not Null.
      * @param errorMessage A place where error messages accumulate. Not Null.
      * @param failedFiles List of files that failed to upload. Not Null.
      * @return An object containing info about the domains harvested.
      * @throws ArgumentNotValid if an argument isn't valid.
      */
-    private HarvestReport storeFiles(Heritrix3Files files, StringBuilder errorMessage, List<File> failedFiles)
-            throws ArgumentNotValid {
+    private HarvestReport storeFiles(Heritrix3Files files, PersistentJobData harvestInfo, StringBuilder errorMessage,
+            List<File> failedFiles) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(files, "Heritrix3Files files");
+        ArgumentNotValid.checkNotNull(harvestInfo, "PersistentJobData harvestInfo");
         ArgumentNotValid.checkNotNull(errorMessage, "StringBuilder errorMessage");
         ArgumentNotValid.checkNotNull(failedFiles, "List<File> failedFiles");
         long jobID = files.getJobID();
@@ -268,17 +322,14 @@ public class PostProcessing {
                 log.warn(errMsg);
                 NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
             } else {
-                if (!inf.getArcFiles().isEmpty()) {
-                    uploadFiles(inf.getArcFiles(), errorMessage, failedFiles);
-                }
-                if (!inf.getWarcFiles().isEmpty()) {
-                    uploadFiles(inf.getWarcFiles(), errorMessage, failedFiles);
-                }
+                List<File> archiveFiles = new ArrayList<File>(inf.getArcFiles());
+                archiveFiles.addAll(inf.getWarcFiles());
+                uploadFiles(archiveFiles, harvestInfo, errorMessage, failedFiles);
             }
 
             // Now the ARC/WARC files have been uploaded,
             // we finally upload the metadata archive file.
-            uploadFiles(inf.getMetadataArcFiles(), errorMessage, failedFiles);
+            uploadFiles(inf.getMetadataArcFiles(), harvestInfo, errorMessage, failedFiles);
             
             // Make the harvestReport ready for uploading 
             DomainStatsReport dsr =  HarvestReportGenerator.getDomainStatsReport(files);
@@ -293,30 +344,160 @@ public class PostProcessing {
     }
 
     /**
-     * Upload given files to the archive repository.
+     * Upload given files to the archive repository. Up to {@link HarvesterSettings#HARVEST_CONTROLLER_UPLOAD_THREADS}
+     * files are uploaded at the same time. Each uploaded file is recorded in the harvestInfo, so files uploaded before
+     * an interrupted post-processing are skipped when the job is processed again.
      *
      * @param files List of (ARC/WARC) files to upload.
+     * @param harvestInfo The harvestInfo recording which files have been uploaded.
+     * @param errorMessage Accumulator for error messages.
+     * @param failedFiles Accumulator for failed files.
+     */
+    private void uploadFiles(List<File> files, final PersistentJobData harvestInfo, final StringBuilder errorMessage,
+            final List<File> failedFiles) {
+        if (files == null || files.isEmpty()) {
+            return;
+        }
+        Set<String> uploadedFiles = harvestInfo.getUploadedFiles();
+        List<File> filesToUpload = new ArrayList<File>();
+        for (File f : files) {
+            if (uploadedFiles.contains(f.getName())) {
+                log.info("File '{}' has already been uploaded to arcrepository. Skipping it.", f.getName());
+            } else {
+                filesToUpload.add(f);
+            }
+        }
+        if (filesToUpload.isEmpty()) {
+            return;
+        }
+
+        final int retries = Settings.getInt(HarvesterSettings.HARVEST_CONTROLLER_UPLOAD_RETRIES);
+        int threads = Math.max(1,
+                Math.min(Settings.getInt(HarvesterSettings.HARVEST_CONTROLLER_UPLOAD_THREADS), filesToUpload.size()));
+        final AtomicInteger filesUploaded = new AtomicInteger();
+        final AtomicLong bytesUploaded = new AtomicLong();
+        long startTime = System.currentTimeMillis();
+        log.info("Uploading {} files to arcrepository using {} threads.", filesToUpload.size(), threads);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> uploads = new ArrayList<Future<?>>();
+            for (final File f : filesToUpload) {
+                uploads.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        long size = f.length();
+                        if (uploadFile(f, harvestInfo, retries, errorMessage, failedFiles)) {
+                            filesUploaded.incrementAndGet();
+                            bytesUploaded.addAndGet(size);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> upload : uploads) {
+                upload.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOFailure("Interrupted while uploading files to arcrepository", e);
+        } catch (ExecutionException e) {
+            throw new IOFailure("Unexpected failure while uploading files to arcrepository", e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        long elapsed = Math.max(1L, System.currentTimeMillis() - startTime);
+        lastBytesPerSecond = bytesUploaded.get() * 1000L / elapsed;
+        filesUploadedTotal.addAndGet(filesUploaded.get());
+        filesFailedTotal.addAndGet(filesToUpload.size() - filesUploaded.get());
+        bytesUploadedTotal.addAndGet(bytesUploaded.get());
+        uploadMillisTotal.addAndGet(elapsed);
+        log.info("Uploaded {} of {} files ({} bytes) to arcrepository in {} ms: {} bytes/sec.", filesUploaded.get(),
+                filesToUpload.size(), bytesUploaded.get(), elapsed, lastBytesPerSecond);
+    }
+
+    /**
+     * Upload a single file to the archive repository, retrying it if the store fails.
+     *
+     * @param f The (ARC/WARC) file to upload.
+     * @param harvestInfo The harvestInfo recording which files have been uploaded.
+     * @param retries How many more times to try the upload, if the store fails.
      * @param errorMessage Accumulator for error messages.
      * @param failedFiles Accumulator for failed files.
+     * @return true, if the file was uploaded.
      */
-    private void uploadFiles(List<File> files, StringBuilder errorMessage, List<File> failedFiles) {
-        // Upload all archive files
-        if (files != null) {
-            for (File f : files) {
-                try {
-                    log.info("Uploading file '{}' to arcrepository.", f.getName());
-                    arcRepController.store(f);
-                    log.info("File '{}' uploaded successfully to arcrepository.", f.getName());
-                } catch (Exception e) {
-                    File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
-                    String errorMsg = "Error uploading arcfile '" + f.getAbsolutePath() + "' Will be moved to '"
-                            + oldJobsDir.getAbsolutePath() + "'";
+    private boolean uploadFile(File f, PersistentJobData harvestInfo, int retries, StringBuilder errorMessage,
+            List<File> failedFiles) {
+        for (int attempt = 0;; attempt++) {
+            try {
+                log.info("Uploading file '{}' to arcrepository.", f.getName());
+                arcRepController.store(f);
+                log.info("File '{}' uploaded successfully to arcrepository.", f.getName());
+                break;
+            } catch (Exception e) {
+                if (attempt < retries) {
+                    log.warn("Error uploading arcfile '{}' on attempt {} of {}. Retrying.", f.getAbsolutePath(),
+                            attempt + 1, retries + 1, e);
+                    continue;
+                }
+                File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
+                String errorMsg = "Error uploading arcfile '" + f.getAbsolutePath() + "' Will be moved to '"
+                        + oldJobsDir.getAbsolutePath() + "'";
+                synchronized (errorMessage) {
                     errorMessage.append(errorMsg).append("\n").append(e.toString()).append("\n");
-                    log.warn(errorMsg, e);
+                }
+                log.warn(errorMsg, e);
+                synchronized (failedFiles) {
                     failedFiles.add(f);
                 }
+                return false;
             }
         }
+        try {
+            harvestInfo.addUploadedFile(f.getName());
+        } catch (IOFailure e) {
+            log.warn("Could not record the upload of '{}' in the harvestInfo", f.getName(), e);
+        }
+        return true;
+    }
+
+    @Override
+    public long getFilesUploaded() {
+        return filesUploadedTotal.get();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailedTotal.get();
+    }
+
+    @Override
+    public long getBytesUploaded() {
+        return bytesUploadedTotal.get();
+    }
+
+    @Override
+    public long getUploadMillis() {
+        return uploadMillisTotal.get();
+    }
+
+    @Override
+    public long getBytesPerSecond() {
+        long millis = uploadMillisTotal.get();
+        return millis == 0 ? 0 : bytesUploadedTotal.get() * 1000L / millis;
+    }
+
+    @Override
+    public long getLastBytesPerSecond() {
+        return lastBytesPerSecond;
+    }
+
+    @Override
+    public void resetStatistics() {
+        filesUploadedTotal.set(0);
+        filesFailedTotal.set(0);
+        bytesUploadedTotal.set(0);
+        uploadMillisTotal.set(0);
+        lastBytesPerSecond = 0;
     }
 
 }
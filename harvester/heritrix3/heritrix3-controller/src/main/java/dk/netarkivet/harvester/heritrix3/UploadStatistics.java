@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+/**
+ * Statistics on the files uploaded to the archive repository by PostProcessing, exposed over JMX.
+ */
+public interface UploadStatistics {
+
+    /**
+     * @return The number of files uploaded.
+     */
+    long getFilesUploaded();
+
+    /**
+     * @return The number of files which could not be uploaded, even after retrying.
+     */
+    long getFilesFailed();
+
+    /**
+     * @return The number of bytes uploaded.
+     */
+    long getBytesUploaded();
+
+    /**
+     * @return The time spent uploading files, in milliseconds.
+     */
+    long getUploadMillis();
+
+    /**
+     * @return The number of bytes uploaded per second, over all uploads.
+     */
+    long getBytesPerSecond();
+
+    /**
+     * @return The number of bytes uploaded per second by the most recent batch of uploads.
+     */
+    long getLastBytesPerSecond();
+
+    /**
+     * Reset the statistics.
+     */
+    void resetStatistics();
+
+}
@@ -31,24 +31,31 @@ import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
 import org.apache.lucene.search.ConstantScoreQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
 import org.apache.lucene.search.TermRangeFilter;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
 import org.apache.lucene.util.BytesRef;
 import org.archive.modules.CrawlURI;
 import org.archive.modules.ProcessResult;
@@ -87,6 +94,8 @@ import dk.netarkivet.common.utils.AllDocsCollector;
         <property name="origin" value=""/>
         <property name="originHandling" value="INDEX"/> Other options: NONE,PROCESSOR
         <property name="statsPerHost" value="true"/>
+        <property name="lookupBackend" value="LUCENE"/> Other option: HASH_TABLE
+        <property name="hashTableLocation" value=""/> Default: the index location + ".hashtable"
 
  * 
  * 
@@ -286,6 +295,39 @@ public class DeDuplicator extends Processor implements InitializingBean {
     	kp.put(ATTR_ORIGIN_HANDLING, originHandling);
     }
 
+    /* Which structure to use for lookups */
+    public final static String ATTR_LOOKUP_BACKEND = "lookup-backend";
+    public enum LookupBackend {
+        LUCENE,     // Query the Lucene index for each URI
+        HASH_TABLE  // Build a memory-mapped hash table from the index and use that
+    }
+    public final static LookupBackend DEFAULT_LOOKUP_BACKEND = LookupBackend.LUCENE;
+    {
+        setLookupBackend(DEFAULT_LOOKUP_BACKEND);
+    }
+    public LookupBackend getLookupBackend() {
+        return (LookupBackend) kp.get(ATTR_LOOKUP_BACKEND);
+    }
+    /** SPRING SETTER */
+    public void setLookupBackend(LookupBackend lookupBackend) {
+        kp.put(ATTR_LOOKUP_BACKEND, lookupBackend);
+    }
+
+    /* Location of the hash table used by the HASH_TABLE lookup backend.
+     * If empty, the index location with the suffix '.hashtable' is used.
+     */
+    public final static String ATTR_HASH_TABLE_LOCATION = "hash-table-location";
+    {
+        setHashTableLocation("");
+    }
+    public String getHashTableLocation() {
+        return (String) kp.get(ATTR_HASH_TABLE_LOCATION);
+    }
+    /** SPRING SETTER */
+    public void setHashTableLocation(String hashTableLocation) {
+        kp.put(ATTR_HASH_TABLE_LOCATION, hashTableLocation);
+    }
+
        
     // Spring configured access to Heritrix resources
     
@@ -305,6 +347,8 @@ public class DeDuplicator extends Processor implements InitializingBean {
     //protected IndexSearcher searcher = null;
     protected IndexSearcher indexSearcher = null;
     protected IndexReader indexReader = null;
+    /** The hash table used for lookups instead of the index, if the HASH_TABLE lookup backend is used. */
+    protected DigestHashTable hashTable = null;
     
     
     protected boolean lookupByURL = true;
@@ -332,6 +376,18 @@ public class DeDuplicator extends Processor implements InitializingBean {
         } catch (Exception e) {
         	throw new IllegalArgumentException("Unable to find/open index at " + indexLocation,e);
         } 
+
+        if (getLookupBackend() == LookupBackend.HASH_TABLE) {
+            String hashTableLocation = getHashTableLocation();
+            if (hashTableLocation == null || hashTableLocation.trim().isEmpty()) {
+                hashTableLocation = indexLocation + ".hashtable";
+            }
+            try {
+                hashTable = openHashTable(new File(indexLocation), new File(hashTableLocation));
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Unable to build/open hash table at " + hashTableLocation, e);
+            }
+        }
         
         // Matching method
         MatchingMethod matchingMethod = getMatchingMethod();
@@ -359,6 +415,18 @@ public class DeDuplicator extends Processor implements InitializingBean {
     }
     
 
+    /**
+     * Stop the processor, and close the hash table if one is in use.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        if (hashTable != null) {
+            hashTable.close();
+            hashTable = null;
+        }
+    }
+
 	@Override
 	protected boolean shouldProcess(CrawlURI curi) {
         if (curi.isSuccess() == false) {
@@ -535,22 +603,14 @@ public class DeDuplicator extends Processor implements InitializingBean {
     protected Document lookupByURL(CrawlURI curi, Statistics currHostStats) {
         // Look the CrawlURI's URL up in the index.
         try {
-            Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-            indexSearcher.search(query, collectAllCollector);
-
-            List<ScoreDoc> hits = collectAllCollector.getHits();
-            Document doc = null;
+            List<Document> hits = lookupDocuments(DigestIndexer.FIELD_URL, curi.toString());
             String currentDigest = getDigestAsString(curi);
-            if (hits != null && hits.size() > 0) {
+            if (hits.size() > 0) {
                 // Typically there should only be one it, but we'll allow for
                 // multiple hits.
-                for (ScoreDoc hit : hits) {
-                    // for(int i=0 ; i < hits.size() ; i++){
+                for (Document doc : hits) {
                     // Multiple hits on same exact URL should be rare
                     // See if any have matching content digests
-                    int docId = hit.doc;
-                    doc = indexSearcher.doc(docId);
                     String oldDigest = doc.get(DigestIndexer.FIELD_DIGEST);
 
                     if (oldDigest.equalsIgnoreCase(currentDigest)) {
@@ -569,16 +629,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
             if (getTryEquivalent()) {
                 // No exact hits. Let's try lenient matching.
                 String normalizedURL = DigestIndexer.stripURL(curi.toString());
-                query = queryField(DigestIndexer.FIELD_URL_NORMALIZED, normalizedURL);
-                collectAllCollector.reset(); // reset collector
-                indexSearcher.search(query, collectAllCollector);
-                hits = collectAllCollector.getHits();
-
-                for (ScoreDoc hit : hits) {
-                    // int i=0 ; i < hits.length ; i++){
+                hits = lookupDocuments(DigestIndexer.FIELD_URL_NORMALIZED, normalizedURL);
 
-                    int docId = hit.doc;
-                    Document doc1 = indexSearcher.doc(docId);
+                for (Document doc1 : hits) {
                     String indexDigest = doc1.get(DigestIndexer.FIELD_DIGEST);
                     if (indexDigest.equals(currentDigest)) {
                         // Make note in log
@@ -623,25 +676,19 @@ public class DeDuplicator extends Processor implements InitializingBean {
             return null;
         }
 
-        Query query = queryField(DigestIndexer.FIELD_DIGEST, currentDigest);
         try {
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-            indexSearcher.search(query, collectAllCollector);
-
-            List<ScoreDoc> hits = collectAllCollector.getHits();
+            List<Document> hits = lookupDocuments(DigestIndexer.FIELD_DIGEST, currentDigest);
 
             StringBuffer mirrors = new StringBuffer();
             mirrors.append("mirrors: ");
-            if (hits != null && hits.size() > 0) {
+            if (hits.size() > 0) {
                 // Can definitely be more then one
                 // Note: We may find an equivalent match before we find an
                 // (existing) exact match.
                 // TODO: Ensure that an exact match is recorded if it exists.
-                Iterator<ScoreDoc> hitsIterator = hits.iterator();
+                Iterator<Document> hitsIterator = hits.iterator();
                 while (hitsIterator.hasNext() && duplicate == null) {
-                    ScoreDoc hit = hitsIterator.next();
-                    int docId = hit.doc;
-                    Document doc = indexSearcher.doc(docId);
+                    Document doc = hitsIterator.next();
                     String indexURL = doc.get(DigestIndexer.FIELD_URL);
                     // See if the current hit is an exact match.
                     if (curi.toString().equals(indexURL)) {
@@ -809,20 +856,13 @@ public class DeDuplicator extends Processor implements InitializingBean {
 	protected void doAnalysis(CrawlURI curi, Statistics currHostStats,
             boolean isDuplicate) {
 		try{
-    		Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
-            AllDocsCollector collectAllCollector = new AllDocsCollector();
-			indexSearcher.search(query, collectAllCollector);
-            List<ScoreDoc> hits = collectAllCollector.getHits();
-
-            Document doc = null;
-    	
-            if(hits != null && hits.size() > 0){
+            List<Document> hits = lookupDocuments(DigestIndexer.FIELD_URL, curi.toString());
+
+            if(hits.size() > 0){
                 // If there are multiple hits, use the one with the most
                 // recent date.
                 Document docToEval = null;
-                for (ScoreDoc hit : hits) {
-                    int docId = hit.doc;
-                    doc = indexSearcher.doc(docId);
+                for (Document doc : hits) {
                     // The format of the timestamp ("yyyyMMddHHmmssSSS") allows
                     // us to do a greater then (later) or lesser than (earlier)
                     // comparison of the strings.
@@ -922,6 +962,144 @@ public class DeDuplicator extends Processor implements InitializingBean {
         
 	}
 
+    /**
+     * Find the documents in the index with a given value of a field. Uses the hash table, if the HASH_TABLE lookup
+     * backend is in use, and otherwise queries the Lucene index.
+     *
+     * @param fieldName name of the field to look in; one of the URL, normalized URL or digest fields.
+     * @param value The value to look for
+     * @return The matching documents. Documents from the hash table only contain the url, url-normalized, digest,
+     * date and origin fields.
+     * @throws IOException If the Lucene index cannot be read.
+     */
+    protected List<Document> lookupDocuments(String fieldName, String value) throws IOException {
+        List<Document> result = new ArrayList<Document>();
+        if (hashTable != null) {
+            for (DigestHashTable.Entry entry : hashTable.lookup(toHashTableKey(fieldName), value)) {
+                result.add(toDocument(entry));
+            }
+            return result;
+        }
+        Query query = queryField(fieldName, value);
+        AllDocsCollector collectAllCollector = new AllDocsCollector();
+        indexSearcher.search(query, collectAllCollector);
+        List<ScoreDoc> hits = collectAllCollector.getHits();
+        if (hits != null) {
+            for (ScoreDoc hit : hits) {
+                result.add(indexSearcher.doc(hit.doc));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param fieldName name of an index field.
+     * @return The hash table key corresponding to the field.
+     */
+    private static DigestHashTable.Key toHashTableKey(String fieldName) {
+        if (DigestIndexer.FIELD_URL.equals(fieldName)) {
+            return DigestHashTable.Key.URL;
+        } else if (DigestIndexer.FIELD_URL_NORMALIZED.equals(fieldName)) {
+            return DigestHashTable.Key.URL_NORMALIZED;
+        } else if (DigestIndexer.FIELD_DIGEST.equals(fieldName)) {
+            return DigestHashTable.Key.DIGEST;
+        }
+        throw new IllegalArgumentException("The hash table cannot be searched by the field " + fieldName);
+    }
+
+    /**
+     * Convert a hash table entry into a Lucene document with the stored fields used by this processor.
+     *
+     * @param entry A hash table entry.
+     * @return A document with the fields of the entry.
+     */
+    private static Document toDocument(DigestHashTable.Entry entry) {
+        Document doc = new Document();
+        addStoredField(doc, DigestIndexer.FIELD_URL, entry.getUrl());
+        addStoredField(doc, DigestIndexer.FIELD_URL_NORMALIZED, entry.getNormalizedUrl());
+        addStoredField(doc, DigestIndexer.FIELD_DIGEST, entry.getDigest());
+        addStoredField(doc, DigestIndexer.FIELD_TIMESTAMP, entry.getTimestamp());
+        addStoredField(doc, DigestIndexer.FIELD_ORIGIN, entry.getOrigin());
+        return doc;
+    }
+
+    private static void addStoredField(Document doc, String name, String value) {
+        if (value != null) {
+            doc.add(new StoredField(name, value));
+        }
+    }
+
+    /**
+     * Open the hash table for the index, building it from the index first if it does not exist or was built from
+     * another version of the index.
+     *
+     * @param indexDir The directory of the Lucene index.
+     * @param tableFile The file of the hash table.
+     * @return The hash table.
+     * @throws IOException If the table cannot be read or built.
+     */
+    protected DigestHashTable openHashTable(File indexDir, File tableFile) throws IOException {
+        long stamp = getIndexStamp(indexDir);
+        if (tableFile.exists()) {
+            try {
+                DigestHashTable table = new DigestHashTable(tableFile);
+                if (table.getSourceStamp() == stamp) {
+                    logger.info("Using hash table " + tableFile + " with " + table.size() + " entries");
+                    return table;
+                }
+                logger.info("Hash table " + tableFile + " was built from another version of the index");
+                table.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to read hash table " + tableFile + ". Rebuilding it", e);
+            }
+        }
+        logger.info("Building hash table " + tableFile + " from the index at " + indexDir);
+        long start = System.currentTimeMillis();
+        Set<String> fields = new HashSet<String>(Arrays.asList(DigestIndexer.FIELD_URL,
+                DigestIndexer.FIELD_URL_NORMALIZED, DigestIndexer.FIELD_DIGEST, DigestIndexer.FIELD_TIMESTAMP,
+                DigestIndexer.FIELD_ORIGIN));
+        Bits liveDocs = MultiFields.getLiveDocs(indexReader);
+        DigestHashTable.Builder builder = new DigestHashTable.Builder(tableFile, indexReader.numDocs(), stamp);
+        try {
+            for (int i = 0; i < indexReader.maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) {
+                    continue;
+                }
+                Document doc = indexReader.document(i, fields);
+                builder.add(new DigestHashTable.Entry(doc.get(DigestIndexer.FIELD_URL),
+                        doc.get(DigestIndexer.FIELD_URL_NORMALIZED), doc.get(DigestIndexer.FIELD_DIGEST),
+                        doc.get(DigestIndexer.FIELD_TIMESTAMP), doc.get(DigestIndexer.FIELD_ORIGIN)));
+            }
+            DigestHashTable table = builder.finish();
+            logger.info("Built hash table " + tableFile + " with " + table.size() + " entries in "
+                    + (System.currentTimeMillis() - start) + " ms");
+            return table;
+        } finally {
+            builder.close();
+        }
+    }
+
+    /**
+     * Calculate a stamp identifying the current version of an index, from the names, sizes and modification times of
+     * its files.
+     *
+     * @param indexDir The directory of the index.
+     * @return The stamp.
+     */
+    protected static long getIndexStamp(File indexDir) {
+        long stamp = 17;
+        File[] files = indexDir.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File f : files) {
+                stamp = stamp * 31 + f.getName().hashCode();
+                stamp = stamp * 31 + f.length();
+                stamp = stamp * 31 + f.lastModified();
+            }
+        }
+        return stamp;
+    }
+
     /** Run a simple Lucene query for a single term in a single field.
      *
      * @param fieldName name of the field to look in.
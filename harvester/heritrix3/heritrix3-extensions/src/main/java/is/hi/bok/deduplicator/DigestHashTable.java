@@ -0,0 +1,567 @@
+/* DigestHashTable
+ * 
+ * Copyright (C) 2006-2010 National and University Library of Iceland
+ * 
+ * This file is part of the DeDuplicator (Heritrix add-on module).
+ * 
+ * DeDuplicator is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ * 
+ * DeDuplicator is distributed in the hope that it will be useful, 
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU Lesser Public License
+ * along with DeDuplicator; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package is.hi.bok.deduplicator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A compact, memory-mapped hash table with the information the {@link DeDuplicator} needs from a deduplication index:
+ * URL, normalized URL, content digest, timestamp and origin of each indexed document.
+ * <p>
+ * The table is built once from the Lucene index, and can then answer lookups by URL, normalized URL or digest with a
+ * single probe into an open-addressing slot table, followed by a walk of the (usually one element long) chain of
+ * entries with that key. No Lucene documents are loaded, and the table lives outside the Java heap.
+ * <p>
+ * File layout: a header, followed by one slot table for each {@link Key}, followed by the entries. A slot holds the
+ * 64-bit hash of a key and the offset of the most recently added entry with that key. Each entry holds, for each key,
+ * the offset of the previous entry with the same key, followed by its strings.
+ * <p>
+ * Lookups are thread-safe, but must not be made after the table is closed. A table is built with a {@link Builder}.
+ */
+public class DigestHashTable implements Closeable {
+
+    /** The keys an entry can be looked up by. */
+    public enum Key {
+        URL, URL_NORMALIZED, DIGEST
+    }
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x44485431;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** The size of the header. */
+    private static final int HEADER_SIZE = 64;
+    /** The size of a slot: the key hash and the offset of the first entry. */
+    private static final int SLOT_SIZE = 16;
+    /** The number of bits in the size of a mapped segment of the file. */
+    private static final int SEGMENT_BITS = 30;
+    /** The size of a mapped segment of the file. */
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+    /** The charset used for the strings. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /** Offset value marking the end of a chain. */
+    private static final long NO_ENTRY = -1L;
+
+    /** The file the table is read from. */
+    private final File file;
+    /** The mapped segments of the file, or null once the table is closed. */
+    private volatile MappedByteBuffer[] segments;
+    /** The number of slots in each slot table; always a power of two. */
+    private final long slotCount;
+    /** The number of entries in the table. */
+    private final long entryCount;
+    /** The stamp of the index, which the table was built from. */
+    private final long sourceStamp;
+
+    /**
+     * Open an existing table.
+     *
+     * @param file The file containing the table.
+     * @throws IOException If the file cannot be read, or is not a table.
+     */
+    public DigestHashTable(File file) throws IOException {
+        this.file = file;
+        MappedByteBuffer[] mapped;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            if (length < HEADER_SIZE) {
+                throw new IOException("The file '" + file + "' is too short to be a digest hash table");
+            }
+            int count = (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            mapped = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+        } finally {
+            raf.close();
+        }
+        if (mapped[0].getInt(0) != MAGIC || mapped[0].getInt(4) != VERSION) {
+            throw new IOException("The file '" + file + "' is not a digest hash table of version " + VERSION);
+        }
+        slotCount = mapped[0].getLong(8);
+        entryCount = mapped[0].getLong(16);
+        sourceStamp = mapped[0].getLong(24);
+        segments = mapped;
+    }
+
+    /**
+     * @return The file the table is read from.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The number of entries in the table.
+     */
+    public long size() {
+        return entryCount;
+    }
+
+    /**
+     * @return The stamp given when the table was built, identifying the version of the index it was built from.
+     */
+    public long getSourceStamp() {
+        return sourceStamp;
+    }
+
+    /**
+     * Look up the entries with a given key value.
+     *
+     * @param key The key to look up by.
+     * @param value The value of the key.
+     * @return The entries with exactly this value of the key, in the order they were added, like the documents of a
+     * Lucene index. Empty if there are none.
+     * @throws IllegalStateException If the table is closed.
+     */
+    public List<Entry> lookup(Key key, String value) {
+        if (value == null) {
+            return Collections.emptyList();
+        }
+        long hash = hash(value);
+        long mask = slotCount - 1;
+        long tableStart = HEADER_SIZE + key.ordinal() * slotCount * SLOT_SIZE;
+        long index = hash & mask;
+        for (long probes = 0; probes < slotCount; probes++) {
+            long slot = tableStart + index * SLOT_SIZE;
+            long slotHash = getLong(slot);
+            if (slotHash == 0L) {
+                return Collections.emptyList();
+            }
+            if (slotHash == hash) {
+                List<Entry> result = new ArrayList<Entry>(1);
+                long offset = getLong(slot + 8);
+                while (offset != NO_ENTRY) {
+                    Entry entry = readEntry(offset);
+                    // Verify the key, as different keys may share a hash.
+                    if (value.equals(entry.get(key))) {
+                        result.add(entry);
+                    }
+                    offset = getLong(offset + key.ordinal() * 8);
+                }
+                // The chain starts with the most recently added entry.
+                Collections.reverse(result);
+                return result;
+            }
+            index = (index + 1) & mask;
+        }
+        return Collections.emptyList();
+    }
+
+    /**
+     * Read the entry at the given offset.
+     *
+     * @param offset The offset of the entry in the file.
+     * @return The entry.
+     */
+    private Entry readEntry(long offset) {
+        long[] position = new long[] {offset + Key.values().length * 8};
+        String url = readString(position);
+        String normalizedUrl = readString(position);
+        String digest = readString(position);
+        String timestamp = readString(position);
+        String origin = readString(position);
+        return new Entry(url, normalizedUrl, digest, timestamp, origin);
+    }
+
+    /**
+     * Read a length-prefixed string, and advance the position past it.
+     *
+     * @param position A one-element array holding the position of the string.
+     * @return The string, or null if a null was stored.
+     */
+    private String readString(long[] position) {
+        int length = getInt(position[0]);
+        position[0] += 4;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        read(position[0], bytes, 0, length);
+        position[0] += length;
+        return new String(bytes, UTF8);
+    }
+
+    /**
+     * Read a long at the given position in the file.
+     *
+     * @param position The position in the file.
+     * @return The long.
+     */
+    private long getLong(long position) {
+        int offset = (int) (position & (SEGMENT_SIZE - 1));
+        if (offset <= SEGMENT_SIZE - 8) {
+            return segment(position).getLong(offset);
+        }
+        byte[] bytes = new byte[8];
+        read(position, bytes, 0, 8);
+        return ByteBuffer.wrap(bytes).getLong();
+    }
+
+    /**
+     * Read an int at the given position in the file.
+     *
+     * @param position The position in the file.
+     * @return The int.
+     */
+    private int getInt(long position) {
+        int offset = (int) (position & (SEGMENT_SIZE - 1));
+        if (offset <= SEGMENT_SIZE - 4) {
+            return segment(position).getInt(offset);
+        }
+        byte[] bytes = new byte[4];
+        read(position, bytes, 0, 4);
+        return ByteBuffer.wrap(bytes).getInt();
+    }
+
+    /**
+     * Read bytes from the given position in the file, possibly spanning several segments.
+     *
+     * @param position The position in the file.
+     * @param dest The array to read into.
+     * @param offset The offset in the array.
+     * @param length The number of bytes to read.
+     */
+    private void read(long position, byte[] dest, int offset, int length) {
+        while (length > 0) {
+            ByteBuffer segment = segment(position).duplicate();
+            int segmentOffset = (int) (position & (SEGMENT_SIZE - 1));
+            int chunk = Math.min(length, segment.limit() - segmentOffset);
+            segment.position(segmentOffset);
+            segment.get(dest, offset, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Get the mapped segment holding a given position in the file.
+     *
+     * @param position The position in the file.
+     * @return The segment.
+     * @throws IllegalStateException If the table is closed.
+     */
+    private MappedByteBuffer segment(long position) {
+        MappedByteBuffer[] mapped = segments;
+        if (mapped == null) {
+            throw new IllegalStateException("The digest hash table '" + file + "' is closed");
+        }
+        return mapped[(int) (position >>> SEGMENT_BITS)];
+    }
+
+    /**
+     * Releases the table. Mapped buffers cannot be unmapped explicitly, but the table drops its references to them, so
+     * the mapped memory is released when they are garbage collected, even if the table itself is still referenced.
+     */
+    @Override
+    public void close() {
+        segments = null;
+    }
+
+    /**
+     * Calculate the hash of a key value. The hash is never 0, as 0 marks an empty slot.
+     *
+     * @param value The key value.
+     * @return The 64-bit hash.
+     */
+    static long hash(String value) {
+        // FNV-1a over the chars, followed by the MurmurHash3 finalizer.
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            h ^= value.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0L ? 1L : h;
+    }
+
+    /**
+     * An entry in the table, corresponding to one document in the deduplication index.
+     */
+    public static class Entry {
+
+        /** The URL. */
+        private final String url;
+        /** The normalized URL, or null. */
+        private final String normalizedUrl;
+        /** The content digest. */
+        private final String digest;
+        /** The timestamp, or null. */
+        private final String timestamp;
+        /** The origin, or null. */
+        private final String origin;
+
+        /**
+         * Constructor.
+         *
+         * @param url The URL.
+         * @param normalizedUrl The normalized URL, or null.
+         * @param digest The content digest.
+         * @param timestamp The timestamp, or null.
+         * @param origin The origin, or null.
+         */
+        public Entry(String url, String normalizedUrl, String digest, String timestamp, String origin) {
+            this.url = url;
+            this.normalizedUrl = normalizedUrl;
+            this.digest = digest;
+            this.timestamp = timestamp;
+            this.origin = origin;
+        }
+
+        /**
+         * @param key A key.
+         * @return The value of the key for this entry.
+         */
+        public String get(Key key) {
+            switch (key) {
+            case URL:
+                return url;
+            case URL_NORMALIZED:
+                return normalizedUrl;
+            default:
+                return digest;
+            }
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getNormalizedUrl() {
+            return normalizedUrl;
+        }
+
+        public String getDigest() {
+            return digest;
+        }
+
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        public String getOrigin() {
+            return origin;
+        }
+    }
+
+    /**
+     * Builds a table file. The slot tables are memory-mapped while building, and the entries are streamed to the
+     * file, so the heap usage does not depend on the size of the table. The table is written to a temporary file,
+     * which is renamed when the table is finished.
+     */
+    public static class Builder implements Closeable {
+
+        /** The file to build. */
+        private final File file;
+        /** The temporary file the table is written to. */
+        private final File tmpFile;
+        /** The open temporary file. */
+        private final RandomAccessFile raf;
+        /** The mapped segments of the slot tables. */
+        private final MappedByteBuffer[] slotSegments;
+        /** The stream writing the entries. */
+        private final DataOutputStream out;
+        /** The number of slots in each slot table. */
+        private final long slotCount;
+        /** The stamp of the index the table is built from. */
+        private final long sourceStamp;
+        /** The position in the file of the next entry. */
+        private long position;
+        /** The number of entries added. */
+        private long entryCount = 0;
+
+        /**
+         * Constructor.
+         *
+         * @param file The file to build.
+         * @param expectedEntries The expected number of entries. The table can hold almost twice as many entries,
+         * although lookups slow down as it fills.
+         * @param sourceStamp A stamp identifying the version of the index the table is built from.
+         * @throws IOException If the file cannot be created.
+         */
+        public Builder(File file, long expectedEntries, long sourceStamp) throws IOException {
+            this.file = file;
+            this.tmpFile = new File(file.getAbsolutePath() + ".tmp");
+            this.sourceStamp = sourceStamp;
+            // Keep the load factor at most 0.5 when the expected number of entries is reached.
+            long slots = 16;
+            while (slots < expectedEntries * 2) {
+                slots <<= 1;
+            }
+            this.slotCount = slots;
+            long slotBytes = Key.values().length * slotCount * SLOT_SIZE;
+            position = HEADER_SIZE + slotBytes;
+
+            raf = new RandomAccessFile(tmpFile, "rw");
+            raf.setLength(0);
+            raf.setLength(position);
+            FileChannel channel = raf.getChannel();
+            int count = (int) ((slotBytes + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            slotSegments = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = (long) i << SEGMENT_BITS;
+                slotSegments[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_SIZE + start,
+                        Math.min(SEGMENT_SIZE, slotBytes - start));
+            }
+            channel.position(position);
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+        }
+
+        /**
+         * Add an entry to the table.
+         *
+         * @param entry The entry.
+         * @throws IOException If the entry cannot be written.
+         * @throws IllegalStateException If the table is full.
+         */
+        public void add(Entry entry) throws IOException {
+            if (entryCount >= slotCount - 1) {
+                throw new IllegalStateException("The digest hash table is full with " + entryCount + " entries");
+            }
+            long offset = position;
+            for (Key key : Key.values()) {
+                out.writeLong(link(key, entry.get(key), offset));
+            }
+            position += Key.values().length * 8;
+            writeString(entry.getUrl());
+            writeString(entry.getNormalizedUrl());
+            writeString(entry.getDigest());
+            writeString(entry.getTimestamp());
+            writeString(entry.getOrigin());
+            ++entryCount;
+        }
+
+        /**
+         * Make the slot of a key value point to a new entry.
+         *
+         * @param key The key.
+         * @param value The value of the key in the new entry.
+         * @param offset The offset of the new entry.
+         * @return The offset of the previous entry with the same key hash, or NO_ENTRY.
+         */
+        private long link(Key key, String value, long offset) {
+            if (value == null) {
+                return NO_ENTRY;
+            }
+            long hash = hash(value);
+            long mask = slotCount - 1;
+            long tableStart = key.ordinal() * slotCount * SLOT_SIZE;
+            long index = hash & mask;
+            while (true) {
+                long slot = tableStart + index * SLOT_SIZE;
+                MappedByteBuffer segment = slotSegments[(int) (slot >>> SEGMENT_BITS)];
+                int slotOffset = (int) (slot & (SEGMENT_SIZE - 1));
+                long slotHash = segment.getLong(slotOffset);
+                if (slotHash == 0L) {
+                    segment.putLong(slotOffset, hash);
+                    segment.putLong(slotOffset + 8, offset);
+                    return NO_ENTRY;
+                }
+                if (slotHash == hash) {
+                    long previous = segment.getLong(slotOffset + 8);
+                    segment.putLong(slotOffset + 8, offset);
+                    return previous;
+                }
+                index = (index + 1) & mask;
+            }
+        }
+
+        /**
+         * Write a length-prefixed string.
+         *
+         * @param value The string, or null.
+         * @throws IOException If the string cannot be written.
+         */
+        private void writeString(String value) throws IOException {
+            if (value == null) {
+                out.writeInt(-1);
+                position += 4;
+                return;
+            }
+            byte[] bytes = value.getBytes(UTF8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            position += 4 + bytes.length;
+        }
+
+        /**
+         * Finish the table, and open it for lookups.
+         *
+         * @return The finished table.
+         * @throws IOException If the table cannot be written.
+         */
+        public DigestHashTable finish() throws IOException {
+            out.flush();
+            for (MappedByteBuffer segment : slotSegments) {
+                segment.force();
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putLong(slotCount).putLong(entryCount).putLong(sourceStamp);
+            header.rewind();
+            FileChannel channel = raf.getChannel();
+            channel.write(header, 0);
+            channel.force(true);
+            raf.close();
+            if (file.exists() && !file.delete()) {
+                throw new IOException("Unable to replace the digest hash table '" + file + "'");
+            }
+            if (!tmpFile.renameTo(file)) {
+                throw new IOException("Unable to move '" + tmpFile + "' to '" + file + "'");
+            }
+            return new DigestHashTable(file);
+        }
+
+        /**
+         * Abandon the table, if it has not been finished.
+         */
+        @Override
+        public void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // Ignored; the temporary file is removed below.
+            }
+            tmpFile.delete();
+        }
+    }
+
+}
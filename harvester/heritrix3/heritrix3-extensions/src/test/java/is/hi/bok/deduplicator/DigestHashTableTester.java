@@ -0,0 +1,102 @@
+package is.hi.bok.deduplicator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import is.hi.bok.deduplicator.DigestHashTable.Entry;
+import is.hi.bok.deduplicator.DigestHashTable.Key;
+
+public class DigestHashTableTester {
+
+    private File tableFile;
+
+    @Before
+    public void setUp() throws Exception {
+        tableFile = File.createTempFile("digesthashtable", ".hashtable");
+        tableFile.delete();
+    }
+
+    @After
+    public void tearDown() {
+        tableFile.delete();
+    }
+
+    @Test
+    public void testLookup() throws Exception {
+        DigestHashTable.Builder builder = new DigestHashTable.Builder(tableFile, 3, 42L);
+        builder.add(new Entry("http://www.example.com/", "http://example.com", "DIGEST1", "20140101000000000",
+                "file1.arc,100"));
+        builder.add(new Entry("http://www.example.com/", "http://example.com", "DIGEST2", "20140201000000000",
+                "file2.arc,200"));
+        builder.add(new Entry("http://example.org/\u00e6\u00f8\u00e5", null, "DIGEST1", null, null));
+        DigestHashTable table = builder.finish();
+        assertTrue(tableFile.exists());
+        assertEquals(3, table.size());
+        assertEquals(42L, table.getSourceStamp());
+
+        List<Entry> hits = table.lookup(Key.URL, "http://www.example.com/");
+        assertEquals(2, hits.size());
+        assertEquals("First added entry should be first", "DIGEST1", hits.get(0).getDigest());
+        assertEquals("20140101000000000", hits.get(0).getTimestamp());
+        assertEquals("file2.arc,200", hits.get(1).getOrigin());
+
+        hits = table.lookup(Key.DIGEST, "DIGEST1");
+        assertEquals(2, hits.size());
+        assertEquals("http://example.org/\u00e6\u00f8\u00e5", hits.get(1).getUrl());
+        assertNull(hits.get(1).getNormalizedUrl());
+        assertNull(hits.get(1).getOrigin());
+
+        assertEquals(2, table.lookup(Key.URL_NORMALIZED, "http://example.com").size());
+        assertEquals(0, table.lookup(Key.URL, "http://unknown.example.com/").size());
+        assertEquals(0, table.lookup(Key.URL, null).size());
+
+        // Reopen from disk
+        DigestHashTable reopened = new DigestHashTable(tableFile);
+        assertEquals(3, reopened.size());
+        assertEquals(1, reopened.lookup(Key.URL, "http://example.org/\u00e6\u00f8\u00e5").size());
+        reopened.close();
+        try {
+            reopened.lookup(Key.URL, "http://example.org/\u00e6\u00f8\u00e5");
+            fail("Should not allow lookups in a closed table");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testManyEntries() throws Exception {
+        final int count = 10000;
+        DigestHashTable.Builder builder = new DigestHashTable.Builder(tableFile, count, 0L);
+        for (int i = 0; i < count; i++) {
+            builder.add(new Entry("http://host" + (i % 100) + "/page" + i, null, "D" + (i % 10), "" + i, null));
+        }
+        DigestHashTable table = builder.finish();
+        for (int i = 0; i < count; i += 97) {
+            List<Entry> hits = table.lookup(Key.URL, "http://host" + (i % 100) + "/page" + i);
+            assertEquals(1, hits.size());
+            assertEquals("" + i, hits.get(0).getTimestamp());
+        }
+        assertEquals(count / 10, table.lookup(Key.DIGEST, "D3").size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testFull() throws Exception {
+        DigestHashTable.Builder builder = new DigestHashTable.Builder(tableFile, 1, 0L);
+        try {
+            for (int i = 0; i < 100; i++) {
+                builder.add(new Entry("http://example.com/" + i, null, "D", null, null));
+            }
+        } finally {
+            builder.close();
+        }
+    }
+}
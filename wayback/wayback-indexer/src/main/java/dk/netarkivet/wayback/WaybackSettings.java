@@ -122,6 +122,18 @@ public class WaybackSettings {
      */
     public static String WAYBACK_INDEXER_CONSUMER_THREADS = "settings.wayback.indexer.consumerThreads";
 
+    /**
+     * Whether the indexer listens for files announced by the ArcRepository as stored, and queues them for indexing
+     * straight away rather than waiting for the producer thread to find them. Default is true.
+     */
+    public static String WAYBACK_INDEXER_LISTEN_FOR_STORED_FILES = "settings.wayback.indexer.listenForStoredFiles";
+
+    /**
+     * The maximum number of waiting files a consumer thread gathers into a single batch job. Files needing different
+     * kinds of batch job are still indexed by separate jobs. Default is 1, i.e. one batch job per file.
+     */
+    public static String WAYBACK_INDEXER_BATCH_MAX_FILES = "settings.wayback.indexer.batchMaxFiles";
+
     /**
      * A file containing a list of files which have been archived and therefore do not need to be archived again. This
      * key may be unset.
@@ -153,11 +165,55 @@ public class WaybackSettings {
     public static String WAYBACK_AGGREGATOR_MAX_MAIN_INDEX_FILE_SIZE = "settings.wayback.aggregator.maxMainIndexFileSize";
 
     /**
-     * The maximum number of files in the resourcestore cache. The default is 100.
+     * The number of threads used for sorting and merging index files. In the case of a 0 value, the number of available
+     * processors is used.
+     */
+    public static String WAYBACK_AGGREGATOR_SORT_THREADS = "settings.wayback.aggregator.sort.threads";
+
+    /**
+     * The amount of index data in KB sorted in memory at a time by each sorting thread, before it is written to a
+     * temporary spill file.
+     */
+    public static String WAYBACK_AGGREGATOR_SORT_RUN_SIZE = "settings.wayback.aggregator.sort.runSize";
+
+    /** Whether the temporary spill files written while sorting index files are gzip-compressed. */
+    public static String WAYBACK_AGGREGATOR_SORT_COMPRESS_SPILL_FILES = "settings.wayback.aggregator.sort.compressSpillFiles";
+
+    /**
+     * The directories used for temporary spill files while sorting index files. This setting may be repeated to spread
+     * the spill files across several disks. If it is empty, the WAYBACK_AGGREGATOR_TEMP_DIR is used.
+     */
+    public static String WAYBACK_AGGREGATOR_SORT_SPILL_DIR = "settings.wayback.aggregator.sort.spillDir";
+
+    /**
+     * The maximum number of files in the resourcestore cache, or 0 for no limit. The default is 0.
      */
     public static String WAYBACK_RESOURCESTORE_CACHE_MAXFILES = "settings.wayback.resourcestore.maxfiles";
 
+    /**
+     * The maximum total size of the files in the resourcestore cache in MB. The default is 102400 (100 GB).
+     */
+    public static String WAYBACK_RESOURCESTORE_CACHE_MAXSIZE = "settings.wayback.resourcestore.maxsize";
+
+    /**
+     * The name of the class deciding which files to evict from the resourcestore cache. This class must implement the
+     * interface dk.netarkivet.wayback.CachePolicy. The default is dk.netarkivet.wayback.LRUCachePolicy.
+     */
+    public static String WAYBACK_RESOURCESTORE_CACHE_POLICY = "settings.wayback.resourcestore.cachepolicy";
+
     /** The cachedirectory. */
     public static String WAYBACK_RESOURCESTORE_CACHE_DIR = "settings.wayback.resourcestore.cachedir";
 
+    /**
+     * The number of records the resourcestore fetches from a file, before it fetches the entire file into the cache.
+     * Until then, single records are fetched and kept in a record cache. The default is 0, meaning that the entire file
+     * is always fetched, and the record cache is not used.
+     */
+    public static String WAYBACK_RESOURCESTORE_RECORDCACHE_PROMOTION_THRESHOLD = "settings.wayback.resourcestore.recordcache.promotionThreshold";
+
+    /**
+     * The maximum total size of the records in the resourcestore record cache in MB. The default is 10240 (10 GB).
+     */
+    public static String WAYBACK_RESOURCESTORE_RECORDCACHE_MAXSIZE = "settings.wayback.resourcestore.recordcache.maxsize";
+
 }
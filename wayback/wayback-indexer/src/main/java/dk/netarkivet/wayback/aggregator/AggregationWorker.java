@@ -34,6 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
@@ -123,7 +124,12 @@ public class AggregationWorker implements CleanupIF {
             aggregatorTask = new TimerTask() {
                 @Override
                 public void run() {
-                    runAggregation();
+                    try {
+                        runAggregation();
+                    } catch (Exception e) {
+                        log.error("Aggregation failed. Indexes not yet merged into the intermediate or final index "
+                                + "file are kept for the next aggregation", e);
+                    }
                 }
             };
             Timer aggregatorThreadTimer = new Timer("AggregatorThread");
@@ -178,25 +184,25 @@ public class AggregationWorker implements CleanupIF {
         // Normally the Intermediate Index file exists and we
         // need to merge the new indexes into this.
         if (!INTERMEDIATE_INDEX_FILE.exists()) {
-            TEMP_FILE_INDEX.renameTo(INTERMEDIATE_INDEX_FILE);
+            rename(TEMP_FILE_INDEX, INTERMEDIATE_INDEX_FILE);
         } else {
             aggregator.mergeFiles(new File[] {TEMP_FILE_INDEX, INTERMEDIATE_INDEX_FILE}, tempIntermediateIndexFile);
-            tempIntermediateIndexFile.renameTo(INTERMEDIATE_INDEX_FILE);
+            rename(tempIntermediateIndexFile, INTERMEDIATE_INDEX_FILE);
             if (log.isDebugEnabled()) {
                 log.debug("Merged temporary index file into intermediate index " + "file '"
                         + INTERMEDIATE_INDEX_FILE.getAbsolutePath() + "'.");
             }
         }
 
-        handlePossibleIntemediateIndexFileLimit();
-
-        // Delete the files which have been processed to avoid processing them
-        // again
+        // The raw indexes are now in the intermediate index file. Delete them
+        // before merging further, so a failure in the final index merge
+        // doesn't aggregate them again
         for (File inputFile : filesToProcess) {
             inputFile.delete();
         }
         TEMP_FILE_INDEX.delete();
 
+        handlePossibleIntemediateIndexFileLimit();
     }
 
     /**
@@ -220,7 +226,7 @@ public class AggregationWorker implements CleanupIF {
         }
 
         if (!FINAL_INDEX_FILE.exists()) {
-            INTERMEDIATE_INDEX_FILE.renameTo(FINAL_INDEX_FILE);
+            rename(INTERMEDIATE_INDEX_FILE, FINAL_INDEX_FILE);
             if (log.isDebugEnabled()) {
                 log.debug("Promoting Intermediate Index file to final index " + "file '"
                         + FINAL_INDEX_FILE.getAbsolutePath() + "'.");
@@ -231,7 +237,7 @@ public class AggregationWorker implements CleanupIF {
                 log.debug("Merged intermediate file into final index file");
             }
 
-            tempFinalIndexFile.renameTo(FINAL_INDEX_FILE);
+            rename(tempFinalIndexFile, FINAL_INDEX_FILE);
 
             INTERMEDIATE_INDEX_FILE.delete();
         }
@@ -259,6 +265,21 @@ public class AggregationWorker implements CleanupIF {
         fileToRename.renameTo(newFile);
     }
 
+    /**
+     * Rename an index file, replacing any existing file.
+     *
+     * @param from The file to rename.
+     * @param to The new name of the file.
+     * @throws IOFailure if the file could not be renamed. The aggregation must then stop, as the indexes in the file
+     * would otherwise be lost or aggregated twice.
+     */
+    private static void rename(File from, File to) {
+        if (!from.renameTo(to)) {
+            throw new IOFailure("Unable to rename index file '" + from.getAbsolutePath() + "' to '"
+                    + to.getAbsolutePath() + "'");
+        }
+    }
+
     @Override
     public void cleanup() {
         FileUtils.removeRecursively(temporaryDir);
@@ -0,0 +1,664 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.aggregator;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A pure Java external merge sort of text files, line by line.
+ * <p>
+ * Lines are compared byte by byte as unsigned values, which is the order produced by the Unix sort command with
+ * <code>LC_ALL=C</code>. Lines are separated by '\n' only, and every line in the output is terminated by '\n', also if
+ * the last line of an input file is not. Duplicate lines are kept.
+ * <p>
+ * Sorting happens in two phases. First the input is read in runs of a given size, and each run is sorted and written
+ * to a spill file by a pool of worker threads, while the next run is read. Then the spill files are merged with a
+ * k-way heap merge. If there are too many spill files to merge at once, they are merged in several passes. Spill
+ * files are spread across the given spill directories, and can be compressed.
+ * <p>
+ * At most one run per worker thread, plus the one being read, is held in memory at a time, so the memory used is
+ * roughly <code>(threads + 1) * runSize</code> plus the overhead of the String objects.
+ * <p>
+ * Progress is logged while the input is read, and the throughput of each sort or merge is logged when it is done.
+ * The figures of the latest sort or merge are also available from the getters of this class.
+ */
+public class ExternalMergeSorter {
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(ExternalMergeSorter.class);
+    /**
+     * The charset used for turning lines into Strings. Every byte is mapped to the char with the same unsigned value,
+     * so comparing the Strings compares the bytes as unsigned values, and writing them gives back the original bytes.
+     */
+    private static final Charset CHARSET = Charset.forName("ISO-8859-1");
+    /** The line separator. */
+    private static final int NEWLINE = '\n';
+    /** The size of the buffers used for reading and writing files. */
+    private static final int IO_BUFFER_SIZE = 64 * 1024;
+    /** The maximum number of files merged at once. */
+    private static final int MAX_MERGE_FAN_IN = 64;
+    /** Comparator giving the order of the Unix sort command with LC_ALL=C. */
+    private static final Comparator<String> LINE_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            return o1.compareTo(o2);
+        }
+    };
+
+    /** The number of threads sorting and merging runs. */
+    private final int threads;
+    /** The number of bytes of input in each run. */
+    private final long runSize;
+    /** Whether spill files are compressed. */
+    private final boolean compressSpillFiles;
+    /** The directories spill files are written to. */
+    private final List<File> spillDirs;
+    /** Counter used for spreading spill files across the spill directories. */
+    private final AtomicInteger spillFileCounter = new AtomicInteger();
+
+    /** The number of lines handled by the latest sort or merge. */
+    private volatile long lines;
+    /** The number of bytes handled by the latest sort or merge. */
+    private volatile long bytes;
+    /** The number of runs spilled to disk by the latest sort. */
+    private volatile int runs;
+    /** The time the latest sort or merge took in milliseconds. */
+    private volatile long elapsedMillis;
+
+    /**
+     * Create a sorter.
+     *
+     * @param threads The number of threads sorting and merging runs. Must be positive.
+     * @param runSize The number of bytes of input in each run. Must be positive.
+     * @param compressSpillFiles Whether spill files are gzip-compressed.
+     * @param spillDirs The directories spill files are written to. They are created if they don't exist. Must not be
+     * empty.
+     * @throws ArgumentNotValid on invalid arguments.
+     */
+    public ExternalMergeSorter(int threads, long runSize, boolean compressSpillFiles, List<File> spillDirs) {
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        ArgumentNotValid.checkPositive(runSize, "long runSize");
+        ArgumentNotValid.checkNotNullOrEmpty(spillDirs, "List<File> spillDirs");
+        this.threads = threads;
+        this.runSize = runSize;
+        this.compressSpillFiles = compressSpillFiles;
+        this.spillDirs = new ArrayList<File>(spillDirs);
+    }
+
+    /**
+     * Sort the lines of all the input files into the output file.
+     *
+     * @param inputFiles The files to sort. They are not changed.
+     * @param outputFile The file to write the sorted lines to. It is overwritten if it exists.
+     * @throws IOFailure if reading, writing or sorting fails.
+     */
+    public void sort(List<File> inputFiles, File outputFile) {
+        ArgumentNotValid.checkNotNull(inputFiles, "List<File> inputFiles");
+        ArgumentNotValid.checkNotNull(outputFile, "File outputFile");
+        long startTime = System.currentTimeMillis();
+        long totalBytes = 0;
+        for (File f : inputFiles) {
+            totalBytes += f.length();
+        }
+        long linesRead = 0;
+        long bytesRead = 0;
+        List<File> runFiles = new ArrayList<File>();
+        LinkedList<Future<File>> pendingRuns = new LinkedList<Future<File>>();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<String> run = new ArrayList<String>();
+            long runBytes = 0;
+            for (File inputFile : inputFiles) {
+                LineReader reader = new LineReader(new FileInputStream(inputFile));
+                try {
+                    for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+                        run.add(line);
+                        runBytes += line.length() + 1;
+                        linesRead++;
+                        if (runBytes >= runSize) {
+                            bytesRead += runBytes;
+                            pendingRuns.add(executor.submit(new SpillRun(run)));
+                            run = new ArrayList<String>();
+                            runBytes = 0;
+                            if (pendingRuns.size() >= threads) {
+                                runFiles.add(pendingRuns.removeFirst().get());
+                            }
+                            log.info("Sorting: read {} of {} bytes ({}%), {} lines, {} runs", bytesRead, totalBytes,
+                                    totalBytes == 0 ? 100 : bytesRead * 100 / totalBytes, linesRead,
+                                    runFiles.size() + pendingRuns.size());
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            bytesRead += runBytes;
+            if (runFiles.isEmpty() && pendingRuns.isEmpty()) {
+                // Everything fits in one run, so sort it directly into the output file.
+                Collections.sort(run, LINE_ORDER);
+                writeLines(run, outputFile, false);
+            } else {
+                if (!run.isEmpty()) {
+                    pendingRuns.add(executor.submit(new SpillRun(run)));
+                }
+                run = null;
+                while (!pendingRuns.isEmpty()) {
+                    runFiles.add(pendingRuns.removeFirst().get());
+                }
+                mergeFiles(runFiles, outputFile, true, executor);
+            }
+        } catch (IOException e) {
+            throw new IOFailure("Failed to sort " + inputFiles + " into '" + outputFile + "'", e);
+        } catch (ExecutionException e) {
+            throw new IOFailure("Failed to sort " + inputFiles + " into '" + outputFile + "'", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while sorting " + inputFiles + " into '" + outputFile + "'", e);
+        } finally {
+            executor.shutdownNow();
+            for (Future<File> pendingRun : pendingRuns) {
+                deleteUnfinishedRun(pendingRun);
+            }
+            for (File runFile : runFiles) {
+                FileUtils.remove(runFile);
+            }
+        }
+        recordStatistics(linesRead, bytesRead, runFiles.size(), startTime, "Sorted");
+    }
+
+    /**
+     * Merge the lines of input files which are already sorted into the output file.
+     *
+     * @param inputFiles The sorted files to merge. They are not changed.
+     * @param outputFile The file to write the merged lines to. It is overwritten if it exists.
+     * @throws IOFailure if reading, writing or merging fails.
+     */
+    public void merge(List<File> inputFiles, File outputFile) {
+        ArgumentNotValid.checkNotNull(inputFiles, "List<File> inputFiles");
+        ArgumentNotValid.checkNotNull(outputFile, "File outputFile");
+        long startTime = System.currentTimeMillis();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long mergedLines;
+        try {
+            mergedLines = mergeFiles(inputFiles, outputFile, false, executor);
+        } catch (IOException e) {
+            throw new IOFailure("Failed to merge " + inputFiles + " into '" + outputFile + "'", e);
+        } catch (ExecutionException e) {
+            throw new IOFailure("Failed to merge " + inputFiles + " into '" + outputFile + "'", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOFailure("Interrupted while merging " + inputFiles + " into '" + outputFile + "'", e);
+        } finally {
+            executor.shutdownNow();
+        }
+        recordStatistics(mergedLines, outputFile.length(), 0, startTime, "Merged");
+    }
+
+    /** @return The number of lines handled by the latest sort or merge. */
+    public long getLines() {
+        return lines;
+    }
+
+    /** @return The number of bytes handled by the latest sort or merge. */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** @return The number of runs spilled to disk by the latest sort. 0 if the input was sorted in memory. */
+    public int getRuns() {
+        return runs;
+    }
+
+    /** @return The time the latest sort or merge took in milliseconds. */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * Remember and log the figures of a sort or merge.
+     *
+     * @param lines The number of lines handled.
+     * @param bytes The number of bytes handled.
+     * @param runs The number of runs spilled to disk.
+     * @param startTime The time the sort or merge started.
+     * @param operation The name of the operation, for the log.
+     */
+    private void recordStatistics(long lines, long bytes, int runs, long startTime, String operation) {
+        this.lines = lines;
+        this.bytes = bytes;
+        this.runs = runs;
+        this.elapsedMillis = System.currentTimeMillis() - startTime;
+        double seconds = Math.max(elapsedMillis, 1) / 1000.0;
+        log.info("{} {} lines ({} bytes, {} runs) in {} ms: {} lines/s, {} MB/s", operation, lines, bytes, runs,
+                elapsedMillis, (long) (lines / seconds), String.format("%.1f", bytes / seconds / (1024 * 1024)));
+    }
+
+    /**
+     * Merge sorted files into one, in several passes if there are more files than can be merged at once.
+     *
+     * @param files The sorted files.
+     * @param outputFile The file to write the merged lines to.
+     * @param spilled Whether the files are spill files, which are compressed if spill files are compressed, and are
+     * deleted once they have been merged.
+     * @param executor The executor running the merges of each pass.
+     * @return The number of lines merged.
+     * @throws IOException if reading or writing fails.
+     * @throws ExecutionException if one of the merges of a pass fails.
+     * @throws InterruptedException if interrupted while waiting for the merges of a pass.
+     */
+    private long mergeFiles(List<File> files, File outputFile, boolean spilled, ExecutorService executor)
+            throws IOException, ExecutionException, InterruptedException {
+        List<File> current = new ArrayList<File>(files);
+        boolean currentSpilled = spilled;
+        // The files written by the passes. The caller only knows about the original files, so these are removed here
+        // if a later pass or the final merge fails.
+        List<File> intermediates = new ArrayList<File>();
+        try {
+            while (current.size() > MAX_MERGE_FAN_IN) {
+                List<Future<File>> passResults = new ArrayList<Future<File>>();
+                for (int i = 0; i < current.size(); i += MAX_MERGE_FAN_IN) {
+                    List<File> group = current.subList(i, Math.min(i + MAX_MERGE_FAN_IN, current.size()));
+                    passResults.add(executor.submit(new MergeRun(new ArrayList<File>(group), currentSpilled)));
+                }
+                List<File> next = new ArrayList<File>();
+                try {
+                    for (Future<File> result : passResults) {
+                        next.add(result.get());
+                    }
+                } finally {
+                    if (next.size() < passResults.size()) {
+                        for (Future<File> result : passResults) {
+                            deleteUnfinishedRun(result);
+                        }
+                    }
+                }
+                intermediates.addAll(next);
+                log.info("Merged {} files into {} files", current.size(), next.size());
+                current = next;
+                currentSpilled = true;
+            }
+            OutputStream out = new BufferedOutputStream(new FileOutputStream(outputFile), IO_BUFFER_SIZE);
+            try {
+                return mergeInto(current, currentSpilled, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            // Files which were merged successfully are gone already.
+            for (File intermediate : intermediates) {
+                FileUtils.remove(intermediate);
+            }
+        }
+    }
+
+    /**
+     * Merge sorted files with a k-way heap merge. Spill files are deleted after they have been merged.
+     *
+     * @param files The sorted files.
+     * @param spilled Whether the files are spill files.
+     * @param out The stream to write the merged lines to.
+     * @return The number of lines merged.
+     * @throws IOException if reading or writing fails.
+     */
+    private long mergeInto(List<File> files, boolean spilled, OutputStream out) throws IOException {
+        PriorityQueue<MergeSource> heap = new PriorityQueue<MergeSource>(Math.max(files.size(), 1));
+        long mergedLines = 0;
+        try {
+            for (File file : files) {
+                MergeSource source = new MergeSource(new LineReader(openForReading(file, spilled)));
+                if (source.advance()) {
+                    heap.add(source);
+                } else {
+                    source.close();
+                }
+            }
+            while (!heap.isEmpty()) {
+                MergeSource source = heap.poll();
+                writeLine(source.getLine(), out);
+                mergedLines++;
+                if (source.advance()) {
+                    heap.add(source);
+                } else {
+                    source.close();
+                }
+            }
+        } finally {
+            for (MergeSource source : heap) {
+                source.close();
+            }
+        }
+        if (spilled) {
+            for (File file : files) {
+                FileUtils.remove(file);
+            }
+        }
+        return mergedLines;
+    }
+
+    /**
+     * Create a new spill file in one of the spill directories, taking turns between them.
+     *
+     * @return A new, empty spill file.
+     * @throws IOException if the file cannot be created.
+     */
+    private File createSpillFile() throws IOException {
+        File dir = spillDirs.get((spillFileCounter.getAndIncrement() & Integer.MAX_VALUE) % spillDirs.size());
+        FileUtils.createDir(dir);
+        return File.createTempFile("sort-run-", compressSpillFiles ? ".gz" : ".tmp", dir);
+    }
+
+    /**
+     * Write lines to a file.
+     *
+     * @param lines The lines to write.
+     * @param file The file to write to.
+     * @param spilled Whether the file is a spill file, which is compressed if spill files are compressed.
+     * @throws IOException if writing fails.
+     */
+    private void writeLines(List<String> lines, File file, boolean spilled) throws IOException {
+        OutputStream out = openForWriting(file, spilled);
+        try {
+            for (String line : lines) {
+                writeLine(line, out);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Write a line and a line separator.
+     *
+     * @param line The line to write.
+     * @param out The stream to write to.
+     * @throws IOException if writing fails.
+     */
+    private static void writeLine(String line, OutputStream out) throws IOException {
+        out.write(line.getBytes(CHARSET));
+        out.write(NEWLINE);
+    }
+
+    /**
+     * @param file A file to read.
+     * @param spilled Whether the file is a spill file.
+     * @return A stream reading the file, decompressing it if it is a compressed spill file.
+     * @throws IOException if the file cannot be opened.
+     */
+    private InputStream openForReading(File file, boolean spilled) throws IOException {
+        InputStream in = new FileInputStream(file);
+        if (spilled && compressSpillFiles) {
+            try {
+                return new GZIPInputStream(in, IO_BUFFER_SIZE);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+        }
+        return in;
+    }
+
+    /**
+     * @param file A file to write.
+     * @param spilled Whether the file is a spill file.
+     * @return A buffered stream writing the file, compressing it if it is a spill file and spill files are compressed.
+     * @throws IOException if the file cannot be opened.
+     */
+    private OutputStream openForWriting(File file, boolean spilled) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        if (spilled && compressSpillFiles) {
+            out = new GZIPOutputStream(out, IO_BUFFER_SIZE);
+        }
+        return new BufferedOutputStream(out, IO_BUFFER_SIZE);
+    }
+
+    /**
+     * Delete the spill file of a run which has not been handed over, if it was ever written.
+     *
+     * @param run The run.
+     */
+    private static void deleteUnfinishedRun(Future<File> run) {
+        if (run.cancel(true)) {
+            return;
+        }
+        try {
+            FileUtils.remove(run.get());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // The run failed, so there is no file to delete.
+        }
+    }
+
+    /**
+     * Sorts a run of lines and writes it to a new spill file.
+     */
+    private class SpillRun implements Callable<File> {
+        /** The lines of the run. */
+        private final List<String> lines;
+
+        /**
+         * @param lines The lines of the run.
+         */
+        SpillRun(List<String> lines) {
+            this.lines = lines;
+        }
+
+        @Override
+        public File call() throws IOException {
+            Collections.sort(lines, LINE_ORDER);
+            File spillFile = createSpillFile();
+            try {
+                writeLines(lines, spillFile, true);
+            } catch (IOException e) {
+                FileUtils.remove(spillFile);
+                throw e;
+            }
+            return spillFile;
+        }
+    }
+
+    /**
+     * Merges a group of sorted files into a new spill file.
+     */
+    private class MergeRun implements Callable<File> {
+        /** The files to merge. */
+        private final List<File> files;
+        /** Whether the files are spill files. */
+        private final boolean spilled;
+
+        /**
+         * @param files The files to merge.
+         * @param spilled Whether the files are spill files.
+         */
+        MergeRun(List<File> files, boolean spilled) {
+            this.files = files;
+            this.spilled = spilled;
+        }
+
+        @Override
+        public File call() throws IOException {
+            File spillFile = createSpillFile();
+            OutputStream out = openForWriting(spillFile, true);
+            try {
+                mergeInto(files, spilled, out);
+            } catch (IOException e) {
+                out.close();
+                FileUtils.remove(spillFile);
+                throw e;
+            }
+            out.close();
+            return spillFile;
+        }
+    }
+
+    /**
+     * One of the files being merged, with its current line.
+     */
+    private static class MergeSource implements Comparable<MergeSource>, Closeable {
+        /** The reader of the file. */
+        private final LineReader reader;
+        /** The current line of the file. */
+        private String line;
+
+        /**
+         * @param reader The reader of the file.
+         */
+        MergeSource(LineReader reader) {
+            this.reader = reader;
+        }
+
+        /**
+         * Move to the next line of the file.
+         *
+         * @return false if there are no more lines.
+         * @throws IOException if reading fails.
+         */
+        boolean advance() throws IOException {
+            line = reader.readLine();
+            return line != null;
+        }
+
+        /** @return The current line of the file. */
+        String getLine() {
+            return line;
+        }
+
+        @Override
+        public int compareTo(MergeSource o) {
+            return LINE_ORDER.compare(line, o.line);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Reads lines separated by '\n' from a stream, mapping each byte to one char.
+     */
+    static class LineReader implements Closeable {
+        /** The stream to read from. */
+        private final InputStream in;
+        /** Buffer of data read from the stream. */
+        private final byte[] buffer = new byte[IO_BUFFER_SIZE];
+        /** Position of the next unused byte in the buffer. */
+        private int position = 0;
+        /** Number of valid bytes in the buffer. */
+        private int limit = 0;
+        /** Buffer used for collecting a line that spans more than one read from the stream. */
+        private byte[] lineBuffer = new byte[256];
+
+        /**
+         * @param in The stream to read from.
+         */
+        LineReader(InputStream in) {
+            this.in = in;
+        }
+
+        /**
+         * Read the next line.
+         *
+         * @return The next line without the separator, or null if there are no more lines.
+         * @throws IOException if reading fails.
+         */
+        String readLine() throws IOException {
+            int lineLength = 0;
+            while (true) {
+                if (position >= limit) {
+                    limit = in.read(buffer, 0, buffer.length);
+                    position = 0;
+                    if (limit <= 0) {
+                        limit = 0;
+                        return lineLength == 0 ? null : new String(lineBuffer, 0, lineLength, CHARSET);
+                    }
+                }
+                int start = position;
+                while (position < limit && buffer[position] != NEWLINE) {
+                    position++;
+                }
+                int segmentLength = position - start;
+                if (position < limit) {
+                    // Found the end of the line. Skip the separator.
+                    position++;
+                    if (lineLength == 0) {
+                        return new String(buffer, start, segmentLength, CHARSET);
+                    }
+                    appendToLine(start, segmentLength, lineLength);
+                    return new String(lineBuffer, 0, lineLength + segmentLength, CHARSET);
+                }
+                appendToLine(start, segmentLength, lineLength);
+                lineLength += segmentLength;
+            }
+        }
+
+        /**
+         * Append part of the buffer to the line buffer, growing it as needed.
+         *
+         * @param start The start of the part in the buffer.
+         * @param length The length of the part.
+         * @param lineLength The number of bytes already in the line buffer.
+         */
+        private void appendToLine(int start, int length, int lineLength) {
+            if (lineLength + length > lineBuffer.length) {
+                byte[] newLineBuffer = new byte[Math.max(lineBuffer.length * 2, lineLength + length)];
+                System.arraycopy(lineBuffer, 0, newLineBuffer, 0, lineLength);
+                lineBuffer = newLineBuffer;
+            }
+            System.arraycopy(buffer, start, lineBuffer, lineLength, length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -24,20 +24,19 @@
 package dk.netarkivet.wayback.aggregator;
 
 import java.io.File;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.wayback.WaybackSettings;
 
 /**
- * Encapsulates the functionality for sorting and merging index files. Uses the Unix sort cmd for optimized sorting and
- * file merging. Operations in this class are synchronized to avoid multiple jobs running at the same time (by the same
- * object at least).
+ * Encapsulates the functionality for sorting and merging index files. Uses an {@link ExternalMergeSorter} for sorting
+ * and file merging, configured by the settings under <code>settings.wayback.aggregator.sort</code>. Operations in
+ * this class are synchronized to avoid multiple jobs running at the same time (by the same object at least).
  */
 public class IndexAggregator {
     /** The logger for this class. */
@@ -51,9 +50,14 @@ public class IndexAggregator {
      *
      * @param files A list of the files to aggregate
      * @param outputFile Name of the output file. In case of a empty filesNames array no outputFiles will be generated
+     * @throws dk.netarkivet.common.exceptions.IOFailure if the sorting fails.
      */
-    public void sortAndMergeFiles(File[] files, File outputFile) {
-        processFiles(files, outputFile, null);
+    public synchronized void sortAndMergeFiles(File[] files, File outputFile) {
+        List<File> inputFiles = getExistingFiles(files);
+        if (inputFiles.isEmpty()) {
+            return;
+        }
+        createSorter().sort(inputFiles, outputFile);
     }
 
     /**
@@ -62,72 +66,57 @@ public class IndexAggregator {
      * @param files The files to merge.
      * @param outputFile The resulting file containing total sorted set of index lines found in all the provided index
      * files
+     * @throws dk.netarkivet.common.exceptions.IOFailure if the merging fails.
      */
-
-    public void mergeFiles(File[] files, File outputFile) {
-        List<String> args = new LinkedList<String>();
-        args.add("-m");
-        processFiles(files, outputFile, args);
+    public synchronized void mergeFiles(File[] files, File outputFile) {
+        List<File> inputFiles = getExistingFiles(files);
+        if (inputFiles.isEmpty()) {
+            return;
+        }
+        createSorter().merge(inputFiles, outputFile);
     }
 
     /**
-     * Calls the Unix sort command with the options <code>$filesNames -o
-     * $outputfile -T WaybackSettings#WAYBACK_AGGREGATOR_TEMP_DIR.
-     * <p>
-     * Sets the LC_ALL environment variable before making the call.
+     * Find the files to process, dropping any which are not regular files.
      *
-     * @param files The files to merge and sort
-     * @param outputFile The resulting sorted file
-     * @param additionalArgs A list af extra arguments, which (if different from null) are added to the sort call.<p>
-     * Note: If any of the args contain a whitespace the call will fail.
+     * @param files The files given.
+     * @return The files to process.
      */
-    private void processFiles(File[] files, File outputFile, List<String> additionalArgs) {
-        if (files.length == 0) {
-            // Empty file list will cause sort to wait for further input,
-            // and the call will therefore never return
-            return;
+    private List<File> getExistingFiles(File[] files) {
+        List<File> inputFileList = new ArrayList<File>();
+        for (int i = 0; i < files.length; i++) {
+            if (files[i].exists() && files[i].isFile()) {
+                inputFileList.add(files[i]);
+            } else {
+                log.warn("File " + files[i] + " doesn't exist or isn't a regular file, "
+                        + "dropping from list of files to " + "sort and merge");
+            }
         }
+        return inputFileList;
+    }
 
-        Process p = null;
-
-        try {
-            List<String> inputFileList = new LinkedList<String>();
-            for (int i = 0; i < files.length; i++) {
-                if (files[i].exists() && files[i].isFile()) {
-                    inputFileList.add(files[i].getCanonicalPath());
-                } else {
-                    log.warn("File " + files[i] + " doesn't exist or isn't a regular file, "
-                            + "dropping from list of files to " + "sort and merge");
-                }
-            }
-            List<String> cmd = new LinkedList<String>();
-            // Prepare to run the unix sort command, see sort manual page for
-            // details
-            cmd.add("sort");
-            cmd.addAll(inputFileList);
-            cmd.add("-o");
-            cmd.add(outputFile.getCanonicalPath());
-            cmd.add("-T");
-            cmd.add(Settings.get(WaybackSettings.WAYBACK_AGGREGATOR_TEMP_DIR));
-            if (additionalArgs != null && !additionalArgs.isEmpty()) {
-                for (String argument : additionalArgs) {
-                    ArgumentNotValid.checkTrue(argument.indexOf(' ') == -1, "The argument '" + argument
-                            + "' contains spaces, this isn't allowed ");
-                }
-                cmd.addAll(additionalArgs);
-            }
-            ProcessBuilder pb = new ProcessBuilder(cmd);
-            // Reset all locale definitions
-            pb.environment().put("LC_ALL", "C");
-            // Run the command in the user.dir directory
-            pb.directory(new File(System.getProperty("user.dir")));
-            p = pb.start();
-            p.waitFor();
-            if (p.exitValue() != 0) {
-                log.error("Failed to sort index files, sort exited with " + "return code " + p.exitValue());
+    /**
+     * Creates a sorter from the current settings. The spill directories default to
+     * WaybackSettings#WAYBACK_AGGREGATOR_TEMP_DIR.
+     *
+     * @return A new sorter.
+     */
+    private ExternalMergeSorter createSorter() {
+        int threads = Settings.getInt(WaybackSettings.WAYBACK_AGGREGATOR_SORT_THREADS);
+        if (threads <= 0) {
+            threads = Runtime.getRuntime().availableProcessors();
+        }
+        long runSize = 1024 * Settings.getLong(WaybackSettings.WAYBACK_AGGREGATOR_SORT_RUN_SIZE);
+        boolean compress = Settings.getBoolean(WaybackSettings.WAYBACK_AGGREGATOR_SORT_COMPRESS_SPILL_FILES);
+        List<File> spillDirs = new ArrayList<File>();
+        for (String spillDir : Settings.getAll(WaybackSettings.WAYBACK_AGGREGATOR_SORT_SPILL_DIR)) {
+            if (!spillDir.trim().isEmpty()) {
+                spillDirs.add(new File(spillDir.trim()));
             }
-        } catch (Exception e) {
-            log.error("Failed to aggregate indexes ", e);
         }
+        if (spillDirs.isEmpty()) {
+            spillDirs.add(Settings.getFile(WaybackSettings.WAYBACK_AGGREGATOR_TEMP_DIR));
+        }
+        return new ExternalMergeSorter(threads, runSize, compress, spillDirs);
     }
 }
@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+
+package dk.netarkivet.wayback.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+
+/**
+ * Runs another batch job over a number of files, writing a separator line before the output of each file. This
+ * allows the indexer to extract several files in one batch job and still split the result into one index per file,
+ * even where the output lines themselves do not identify the file they came from (as in deduplication records).
+ * <p>
+ * A separator line consists of {@link #SEPARATOR_PREFIX} followed by the filename. No cdx line starts with this
+ * prefix.
+ */
+@SuppressWarnings({"serial"})
+public class FileSeparatedBatchJob extends FileBatchJob {
+
+    /** The start of a line separating the output of one file from that of the previous file. */
+    public static final String SEPARATOR_PREFIX = "#file ";
+
+    /** The job doing the actual work. */
+    private final FileBatchJob job;
+
+    /**
+     * Create a job running the given job over the given files.
+     *
+     * @param job The job to run.
+     * @param filenames The names of the files to process.
+     * @throws ArgumentNotValid If job is null or filenames is null or empty.
+     */
+    public FileSeparatedBatchJob(FileBatchJob job, List<String> filenames) {
+        ArgumentNotValid.checkNotNull(job, "FileBatchJob job");
+        ArgumentNotValid.checkNotNullOrEmpty(filenames, "List<String> filenames");
+        this.job = job;
+        batchJobTimeout = job.getBatchJobTimeout();
+        processOnlyFilesNamed(filenames);
+    }
+
+    @Override
+    public void initialize(OutputStream os) {
+        job.initialize(os);
+    }
+
+    /**
+     * Writes the separator line for the file and lets the wrapped job process it.
+     *
+     * @param file The file to process.
+     * @param os The OutputStream to which output is written.
+     * @return the result of the wrapped job.
+     * @throws IOFailure If the separator line cannot be written.
+     */
+    @Override
+    public boolean processFile(File file, OutputStream os) {
+        try {
+            os.write((SEPARATOR_PREFIX + file.getName() + "\n").getBytes());
+        } catch (IOException e) {
+            throw new IOFailure("Unable to write separator for '" + file.getName() + "'", e);
+        }
+        return job.processFile(file, os);
+    }
+
+    @Override
+    public void finish(OutputStream os) {
+        job.finish(os);
+    }
+
+    @Override
+    public boolean isParallelizable() {
+        return job.isParallelizable();
+    }
+
+    /**
+     * The exceptions are recorded by the wrapped job, so they are returned from there.
+     *
+     * @return the exceptions recorded by the wrapped job.
+     */
+    @Override
+    public List<ExceptionOccurrence> getExceptions() {
+        return job.getExceptions();
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getSimpleName() + "(" + job + ")";
+    }
+}
@@ -22,19 +22,37 @@
  */
 package dk.netarkivet.wayback.indexer;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 
 import javax.persistence.Entity;
 import javax.persistence.Id;
 
+import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.PreservationArcRepositoryClient;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
@@ -43,6 +61,7 @@ import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.common.utils.warc.WARCUtils;
 import dk.netarkivet.wayback.WaybackSettings;
 import dk.netarkivet.wayback.batch.DeduplicationCDXExtractionBatchJob;
+import dk.netarkivet.wayback.batch.FileSeparatedBatchJob;
 import dk.netarkivet.wayback.batch.WaybackCDXExtractionARCBatchJob;
 import dk.netarkivet.wayback.batch.WaybackCDXExtractionWARCBatchJob;
 
@@ -182,21 +201,8 @@ public class ArchiveFile {
         if (isIndexed) {
             throw new IllegalState("Attempted to index file '" + filename + "' which is already indexed");
         }
-        // TODO the following if-block could be replaced by some fancier more
-        // general class with methods for associating particular types of
-        // archived files with particular types of batch processor. e.g.
-        // something with a signature like
-        // List<FileBatchJob> getIndexers(ArchiveFile file)
-        // This more-flexible approach
-        // may be of value when we begin to add warc support.
-        FileBatchJob theJob = null;
-        if (filename.contains("metadata")) {
-            theJob = new DeduplicationCDXExtractionBatchJob();
-        } else if (ARCUtils.isARC(filename)) {
-            theJob = new WaybackCDXExtractionARCBatchJob();
-        } else if (WARCUtils.isWarc(filename)) {
-            theJob = new WaybackCDXExtractionWARCBatchJob();
-        } else {
+        FileBatchJob theJob = getIndexJob(filename);
+        if (theJob == null) {
             log.warn("Skipping indexing of file with filename '{}'", filename);
             return;
         }
@@ -225,6 +231,190 @@ public class ArchiveFile {
         }
     }
 
+    /**
+     * Index a number of files with one batch job for each kind of batch job needed, rather than one batch job per file.
+     * The output of each batch job is split into one index file per archive file, after which each file is updated as
+     * if it had been indexed by {@link #index()}. A failure to process one of the files only counts as a failed attempt
+     * for that file. Files which are already indexed, or which cannot be indexed, are skipped.
+     *
+     * @param files The files to index.
+     * @throws ArgumentNotValid If files is null.
+     */
+    public static void index(List<ArchiveFile> files) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(files, "List<ArchiveFile> files");
+        Map<Class<?>, List<ArchiveFile>> filesByJob = new LinkedHashMap<Class<?>, List<ArchiveFile>>();
+        for (ArchiveFile file : files) {
+            FileBatchJob job = getIndexJob(file.getFilename());
+            if (file.isIndexed()) {
+                log.warn("Skipping indexing of file '{}' which is already indexed", file.getFilename());
+            } else if (job == null) {
+                log.warn("Skipping indexing of file with filename '{}'", file.getFilename());
+            } else {
+                if (!filesByJob.containsKey(job.getClass())) {
+                    filesByJob.put(job.getClass(), new ArrayList<ArchiveFile>());
+                }
+                filesByJob.get(job.getClass()).add(file);
+            }
+        }
+        for (List<ArchiveFile> group : filesByJob.values()) {
+            try {
+                if (group.size() == 1) {
+                    group.get(0).index();
+                } else {
+                    indexGroup(group);
+                }
+            } catch (Exception e) {
+                log.warn("Failed to index {} files starting with '{}'", group.size(), group.get(0).getFilename(), e);
+            }
+        }
+    }
+
+    /**
+     * Run a single batch job over a number of files needing the same kind of batch job, and store the index of each
+     * file which was processed without errors.
+     *
+     * @param group The files to index.
+     */
+    private static void indexGroup(List<ArchiveFile> group) {
+        List<String> filenames = new ArrayList<String>();
+        for (ArchiveFile file : group) {
+            filenames.add(file.getFilename());
+        }
+        FileBatchJob theJob = new FileSeparatedBatchJob(getIndexJob(filenames.get(0)), filenames);
+        PreservationArcRepositoryClient client = ArcRepositoryClientFactory.getPreservationInstance();
+        String replicaId = Settings.get(WaybackSettings.WAYBACK_REPLICA);
+        log.info("Submitting {} for {} files to {}", theJob, filenames.size(), replicaId);
+        BatchStatus batchStatus = client.batch(theJob, replicaId);
+        log.info("Batch job for {} files returned", filenames.size());
+
+        // Errors outside the processing of a single file means that no file can be trusted.
+        boolean jobFailed = false;
+        Set<String> failedFiles = new HashSet<String>();
+        for (File file : batchStatus.getFilesFailed()) {
+            failedFiles.add(file.getName());
+        }
+        for (FileBatchJob.ExceptionOccurrence e : batchStatus.getExceptions()) {
+            if (e.getFileName() == null) {
+                jobFailed = true;
+            } else {
+                failedFiles.add(e.getFileName());
+            }
+        }
+        Map<String, File> indexFiles = new HashMap<String, File>();
+        if (!jobFailed && batchStatus.hasResultFile()) {
+            indexFiles = splitResults(batchStatus);
+        }
+
+        for (ArchiveFile file : group) {
+            File indexFile = indexFiles.remove(file.getFilename());
+            if (jobFailed || indexFile == null || failedFiles.contains(file.getFilename())) {
+                if (indexFile != null) {
+                    FileUtils.remove(indexFile);
+                }
+                String message = "Error indexing file '" + file.getFilename() + "' in batch job for "
+                        + filenames.size() + " files\n" + "Number of files processed: '"
+                        + batchStatus.getNoOfFilesProcessed() + "'\n" + "File processed: '" + (indexFile != null)
+                        + "'";
+                for (FileBatchJob.ExceptionOccurrence e : batchStatus.getExceptions()) {
+                    if (e.getFileName() == null || e.getFileName().equals(file.getFilename())) {
+                        message += "\n" + e.toString();
+                    }
+                }
+                file.logIndexingError(message);
+            } else {
+                file.storeIndex(indexFile);
+            }
+        }
+        // Output for files which were not asked for
+        for (File indexFile : indexFiles.values()) {
+            FileUtils.remove(indexFile);
+        }
+    }
+
+    /**
+     * Split the output of a FileSeparatedBatchJob into one file per archive file in the directory
+     * WAYBACK_INDEX_TEMPDIR. If an archive file was processed more than once, its output is concatenated.
+     *
+     * @param status the status of a FileSeparatedBatchJob.
+     * @return The index files in the temporary directory by the name of the archive file they index.
+     * @throws IOFailure If the output cannot be split.
+     */
+    private static Map<String, File> splitResults(BatchStatus status) throws IOFailure {
+        String tempBatchOutputDir = Settings.get(WaybackSettings.WAYBACK_INDEX_TEMPDIR);
+        final File outDir = new File(tempBatchOutputDir);
+        FileUtils.createDir(outDir);
+        File batchOutputFile = new File(outDir, UUID.randomUUID().toString());
+        status.copyResults(batchOutputFile);
+
+        Map<String, File> indexFiles = new HashMap<String, File>();
+        Map<String, Writer> writers = new HashMap<String, Writer>();
+        // ISO-8859-1 maps bytes to chars one to one, so the lines are copied unchanged.
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(batchOutputFile), "ISO-8859-1"));
+            Writer writer = null;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(FileSeparatedBatchJob.SEPARATOR_PREFIX)) {
+                    String filename = line.substring(FileSeparatedBatchJob.SEPARATOR_PREFIX.length());
+                    writer = writers.get(filename);
+                    if (writer == null) {
+                        File indexFile = new File(outDir, UUID.randomUUID().toString());
+                        writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile),
+                                "ISO-8859-1"));
+                        writers.put(filename, writer);
+                        indexFiles.put(filename, indexFile);
+                    } else {
+                        log.warn("File '{}' was processed more than once.\n This may indicate a doublet in the "
+                                + "arcrepository. Proceeding with caution.", filename);
+                    }
+                } else if (writer != null) {
+                    writer.write(line);
+                    writer.write("\n");
+                } else {
+                    log.debug("Ignoring batch output before the first file: {}", line);
+                }
+            }
+        } catch (IOException e) {
+            for (File indexFile : indexFiles.values()) {
+                FileUtils.remove(indexFile);
+            }
+            throw new IOFailure("Unable to split batch output '" + batchOutputFile + "'", e);
+        } finally {
+            IOUtils.closeQuietly(reader);
+            for (Writer writer : writers.values()) {
+                IOUtils.closeQuietly(writer);
+            }
+            FileUtils.remove(batchOutputFile);
+        }
+        return indexFiles;
+    }
+
+    /**
+     * Get a batch job which indexes the named file.
+     *
+     * @param filename The name of the file to index.
+     * @return The batch job, or null if the file cannot be indexed.
+     */
+    private static FileBatchJob getIndexJob(String filename) {
+        // TODO the following if-block could be replaced by some fancier more
+        // general class with methods for associating particular types of
+        // archived files with particular types of batch processor. e.g.
+        // something with a signature like
+        // List<FileBatchJob> getIndexers(ArchiveFile file)
+        // This more-flexible approach
+        // may be of value when we begin to add warc support.
+        if (filename.contains("metadata")) {
+            return new DeduplicationCDXExtractionBatchJob();
+        } else if (ARCUtils.isARC(filename)) {
+            return new WaybackCDXExtractionARCBatchJob();
+        } else if (WARCUtils.isWarc(filename)) {
+            return new WaybackCDXExtractionWARCBatchJob();
+        } else {
+            return null;
+        }
+    }
+
     /**
      * Collects the batch results from the BatchStatus, first to a file in temporary directory, after which they are
      * renamed to the directory WAYBACK_BATCH_OUTPUTDIR. The status of this object is then updated to reflect that the
@@ -247,6 +437,17 @@ public class ArchiveFile {
         log.info("Collecting index for '{}' to '{}'", this.getFilename(), batchOutputFile.getAbsolutePath());
         status.copyResults(batchOutputFile);
         log.info("Finished collecting index for '{}' to '{}'", this.getFilename(), batchOutputFile.getAbsolutePath());
+        storeIndex(batchOutputFile);
+    }
+
+    /**
+     * Moves an index file from the temporary directory to the directory WAYBACK_BATCH_OUTPUTDIR, and updates the status
+     * of this object to reflect that the object has been indexed.
+     *
+     * @param batchOutputFile the index of this file in the temporary directory.
+     */
+    private void storeIndex(File batchOutputFile) {
+        String outputFilename = batchOutputFile.getName();
         // Read the name of the final batch output directory and create it if
         // necessary
         String finalBatchOutputDir = Settings.get(WaybackSettings.WAYBACK_BATCH_OUTPUTDIR);
@@ -280,6 +481,15 @@ public class ArchiveFile {
                 message += e.toString() + "\n";
             }
         }
+        logIndexingError(message);
+    }
+
+    /**
+     * Logs an indexing error and increments the number of failed attempts for this ArchiveFile.
+     *
+     * @param message the description of the error.
+     */
+    private void logIndexingError(String message) {
         log.error(message);
         indexingFailedAttempts += 1;
         (new ArchiveFileDAO()).update(this);
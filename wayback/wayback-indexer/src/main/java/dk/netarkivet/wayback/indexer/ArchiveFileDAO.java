@@ -22,10 +22,15 @@
  */
 package dk.netarkivet.wayback.indexer;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.hibernate.Session;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.wayback.WaybackSettings;
 
@@ -35,6 +40,9 @@ import dk.netarkivet.wayback.WaybackSettings;
 @SuppressWarnings({"unchecked"})
 public class ArchiveFileDAO extends GenericHibernateDAO<ArchiveFile, String> {
 
+    /** The maximum number of filenames looked up or saved in one go. */
+    private static final int MAX_FILENAMES_PER_QUERY = 1000;
+
     /**
      * Default constructor.
      */
@@ -53,6 +61,55 @@ public class ArchiveFileDAO extends GenericHibernateDAO<ArchiveFile, String> {
         return !sess.createQuery("from ArchiveFile where filename='" + filename + "'").list().isEmpty();
     }
 
+    /**
+     * Returns those of the given filenames which are found in the object store. The lookup is done with a few set-based
+     * queries rather than one query per file.
+     *
+     * @param filenames the names of the files.
+     * @return the names of the files which are already known.
+     */
+    public Set<String> getExistingFilenames(Collection<String> filenames) {
+        ArgumentNotValid.checkNotNull(filenames, "Collection<String> filenames");
+        Set<String> existing = new HashSet<String>();
+        List<String> remaining = new ArrayList<String>(filenames);
+        Session sess = getSession();
+        try {
+            for (int i = 0; i < remaining.size(); i += MAX_FILENAMES_PER_QUERY) {
+                List<String> chunk = remaining.subList(i, Math.min(i + MAX_FILENAMES_PER_QUERY, remaining.size()));
+                existing.addAll(sess.createQuery("SELECT filename FROM ArchiveFile WHERE filename IN (:filenames)")
+                        .setParameterList("filenames", chunk).list());
+            }
+        } finally {
+            sess.close();
+        }
+        return existing;
+    }
+
+    /**
+     * Creates all the given files in the object store in a single transaction.
+     *
+     * @param files the files to create.
+     */
+    public void createAll(Collection<ArchiveFile> files) {
+        ArgumentNotValid.checkNotNull(files, "Collection<ArchiveFile> files");
+        Session sess = getSession();
+        try {
+            sess.beginTransaction();
+            int count = 0;
+            for (ArchiveFile file : files) {
+                sess.save(file);
+                if (++count % MAX_FILENAMES_PER_QUERY == 0) {
+                    // Keep the session cache from growing with the number of files.
+                    sess.flush();
+                    sess.clear();
+                }
+            }
+            sess.getTransaction().commit();
+        } finally {
+            sess.close();
+        }
+    }
+
     /**
      * Returns a list of all files awaiting indexing, ie all files not yet indexed and which have not failed indexing
      * more than the maximum number of allowed times. The list is ordered such that previously failed files are returned
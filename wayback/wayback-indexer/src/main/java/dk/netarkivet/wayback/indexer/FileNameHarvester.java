@@ -26,7 +26,12 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -36,9 +41,11 @@ import dk.netarkivet.common.distribute.RemoteFile;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.BatchStatus;
 import dk.netarkivet.common.distribute.arcrepository.PreservationArcRepositoryClient;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.DatedFileListJob;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
 import dk.netarkivet.common.utils.batch.FileListJob;
 import dk.netarkivet.wayback.WaybackSettings;
 
@@ -49,62 +56,76 @@ public class FileNameHarvester {
 
     /**
      * This method harvests a list of all the files currently in the arcrepository and appends any new ones found to the
-     * ArchiveFile object store.
+     * ArchiveFile object store. This reconciles the object store with the archive, catching any files which were not
+     * announced on the STORED_FILES topic.
      */
-    public static synchronized void harvestAllFilenames() {
-        ArchiveFileDAO dao = new ArchiveFileDAO();
+    public static void harvestAllFilenames() {
+        harvestFilenames(new FileListJob());
+    }
+
+    /**
+     * This method harvests a list of all the recently added files in the archive.
+     */
+    public static void harvestRecentFilenames() {
+        long timeAgo = Settings.getLong(WaybackSettings.WAYBACK_INDEXER_RECENT_PRODUCER_SINCE);
+        Date since = new Date(System.currentTimeMillis() - timeAgo);
+        harvestFilenames(new DatedFileListJob(since));
+    }
+
+    /**
+     * Run a batch job listing files in the archive and append any new ones found to the ArchiveFile object store.
+     *
+     * @param job A batch job writing one filename per line.
+     * @throws IOFailure If the result of the batch job cannot be read.
+     */
+    private static void harvestFilenames(FileBatchJob job) throws IOFailure {
         PreservationArcRepositoryClient client = ArcRepositoryClientFactory.getPreservationInstance();
-        BatchStatus status = client.batch(new FileListJob(), Settings.get(WaybackSettings.WAYBACK_REPLICA));
+        BatchStatus status = client.batch(job, Settings.get(WaybackSettings.WAYBACK_REPLICA));
         RemoteFile results = status.getResultFile();
         InputStream is = results.getInputStream();
         BufferedReader reader = new BufferedReader(new InputStreamReader(is));
+        Set<String> filenames = new LinkedHashSet<String>();
         String line;
         try {
             while ((line = reader.readLine()) != null) {
-                if (!dao.exists(line.trim())) {
-                    ArchiveFile file = new ArchiveFile();
-                    file.setFilename(line.trim());
-                    file.setIndexed(false);
-                    log.info("Creating object store entry for '{}'", file.getFilename());
-                    dao.create(file);
-                } // If the file is already known in the persistent store, no
-                  // action needs to be taken.
+                if (!line.trim().isEmpty()) {
+                    filenames.add(line.trim());
+                }
             }
         } catch (IOException e) {
             throw new IOFailure("Error reading remote file", e);
         } finally {
             IOUtils.closeQuietly(reader);
         }
+        addFilenames(filenames);
     }
 
     /**
-     * This method harvests a list of all the recently added files in the archive.
+     * Appends those of the given files which are not already known to the ArchiveFile object store, as unindexed files.
+     *
+     * @param filenames The names of files in the archive.
+     * @return The files which were added to the object store.
+     * @throws ArgumentNotValid If filenames is null.
      */
-    public static synchronized void harvestRecentFilenames() {
+    public static synchronized List<ArchiveFile> addFilenames(Collection<String> filenames) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(filenames, "Collection<String> filenames");
         ArchiveFileDAO dao = new ArchiveFileDAO();
-        PreservationArcRepositoryClient client = ArcRepositoryClientFactory.getPreservationInstance();
-        long timeAgo = Settings.getLong(WaybackSettings.WAYBACK_INDEXER_RECENT_PRODUCER_SINCE);
-        Date since = new Date(System.currentTimeMillis() - timeAgo);
-        BatchStatus status = client.batch(new DatedFileListJob(since), Settings.get(WaybackSettings.WAYBACK_REPLICA));
-        RemoteFile results = status.getResultFile();
-        InputStream is = results.getInputStream();
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-        String line;
-        try {
-            while ((line = reader.readLine()) != null) {
-                if (!dao.exists(line.trim())) {
-                    ArchiveFile file = new ArchiveFile();
-                    file.setFilename(line.trim());
-                    file.setIndexed(false);
-                    log.info("Creating object store entry for '{}'", file.getFilename());
-                    dao.create(file);
-                } // If the file is already known in the persistent store, no
-                  // action needs to be taken.
+        Set<String> existing = dao.getExistingFilenames(filenames);
+        List<ArchiveFile> newFiles = new ArrayList<ArchiveFile>();
+        for (String filename : filenames) {
+            // If the file is already known in the persistent store, no
+            // action needs to be taken.
+            if (!existing.contains(filename)) {
+                ArchiveFile file = new ArchiveFile();
+                file.setFilename(filename);
+                file.setIndexed(false);
+                log.info("Creating object store entry for '{}'", file.getFilename());
+                newFiles.add(file);
             }
-        } catch (IOException e) {
-            throw new IOFailure("Error reading remote file", e);
-        } finally {
-            IOUtils.closeQuietly(reader);
         }
+        if (!newFiles.isEmpty()) {
+            dao.createAll(newFiles);
+        }
+        return newFiles;
     }
 }
@@ -22,12 +22,19 @@
  */
 package dk.netarkivet.wayback.indexer;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.wayback.WaybackSettings;
+
 /**
  * Singleton class which maintains the basic data structure and methods for the indexer.
  */
@@ -42,6 +49,9 @@ public class IndexerQueue {
     /** This is the basic underlying datastructure of the indexer - a queue of files waiting to be indexed. */
     private static LinkedBlockingQueue<ArchiveFile> queue;
 
+    /** The names of the files in the queue, so membership can be checked without scanning the queue. */
+    private static Set<String> queuedFilenames;
+
     /**
      * Factory method for obtaining the unique instance of this class.
      *
@@ -59,6 +69,7 @@ public class IndexerQueue {
      */
     private IndexerQueue() {
         queue = new LinkedBlockingQueue<ArchiveFile>();
+        queuedFilenames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
     }
 
     /**
@@ -70,8 +81,17 @@ public class IndexerQueue {
             log.info("Will now add '{}' unindexed files from object store to queue (if they are not already queued).",
                     files.size());
         }
+        add(files);
+    }
+
+    /**
+     * Add the given files to the queue, unless they are already queued.
+     *
+     * @param files The files to add.
+     */
+    public synchronized void add(List<ArchiveFile> files) {
         for (ArchiveFile file : files) {
-            if (!queue.contains(file)) {
+            if (queuedFilenames.add(file.getFilename())) {
                 log.info("Adding file '{}' to indexing queue.", file.getFilename());
                 queue.add(file);
                 log.info("Files in queue: '{}'", queue.size());
@@ -82,19 +102,33 @@ public class IndexerQueue {
     /**
      * Sequentially take objects from the queue and index them, blocking indefinitely while waiting for new objects to
      * be added to the queue. It is intended that multiple threads should run this method simultaneously.
+     * <p>
+     * Together with each file taken, up to WAYBACK_INDEXER_BATCH_MAX_FILES - 1 other waiting files are taken from the
+     * queue and indexed in the same batch jobs.
      */
     public void consume() {
+        int maxFiles = Math.max(1, Settings.getInt(WaybackSettings.WAYBACK_INDEXER_BATCH_MAX_FILES));
         while (true) {
             try {
-                ArchiveFile file = null;
+                List<ArchiveFile> files = new ArrayList<ArchiveFile>();
                 try {
-                    file = queue.take();
-                    log.info("Taken file '{}' from indexing queue.", file.getFilename());
+                    ArchiveFile file = queue.take();
+                    files.add(file);
+                    queue.drainTo(files, maxFiles - 1);
+                    for (ArchiveFile taken : files) {
+                        queuedFilenames.remove(taken.getFilename());
+                    }
+                    log.info("Taken file '{}' and {} other files from indexing queue.", file.getFilename(),
+                            files.size() - 1);
                     log.info("Files in queue: '{}'", queue.size());
                 } catch (InterruptedException e) {
                     log.error("Unexpected interrupt in indexer while waiting for new elements", e);
                 }
-                file.index();
+                if (files.size() == 1) {
+                    files.get(0).index();
+                } else {
+                    ArchiveFile.index(files);
+                }
             } catch (Exception e) { // Fault Barrier
                 log.warn("Caught exception at fault barrier for {}", Thread.currentThread().getName(), e);
             }
@@ -109,5 +143,8 @@ public class IndexerQueue {
         if (queue != null) {
             queue.clear();
         }
+        if (queuedFilenames != null) {
+            queuedFilenames.clear();
+        }
     }
 }
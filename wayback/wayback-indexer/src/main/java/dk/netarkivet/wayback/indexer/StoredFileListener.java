@@ -0,0 +1,86 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.indexer;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.jms.Message;
+import javax.jms.MessageListener;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.JMSConnection;
+import dk.netarkivet.common.distribute.JMSConnectionFactory;
+import dk.netarkivet.common.distribute.NetarkivetMessage;
+import dk.netarkivet.common.distribute.arcrepository.StoredFileMessage;
+
+/**
+ * Listens on the STORED_FILES topic for files stored in the archive, and adds each new file to the object store and the
+ * indexer queue straight away. Files stored while the indexer is not listening are found by the producer thread, which
+ * reconciles the object store with the archive.
+ */
+public class StoredFileListener implements MessageListener {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(StoredFileListener.class);
+
+    /**
+     * Start listening on the STORED_FILES topic.
+     */
+    public void start() {
+        JMSConnectionFactory.getInstance().setListener(Channels.getStoredFiles(), this);
+        log.info("Listening for stored files on '{}'", Channels.getStoredFiles());
+    }
+
+    /**
+     * Stop listening on the STORED_FILES topic.
+     */
+    public void close() {
+        JMSConnectionFactory.getInstance().removeListener(Channels.getStoredFiles(), this);
+    }
+
+    /**
+     * Add the file announced in a StoredFileMessage to the object store and the indexer queue, unless it is already
+     * known. Other messages are logged and ignored.
+     *
+     * @param message The received message.
+     */
+    public void onMessage(Message message) {
+        try {
+            NetarkivetMessage msg = JMSConnection.unpack(message);
+            if (!(msg instanceof StoredFileMessage)) {
+                log.warn("Ignoring unexpected message on '{}': {}", Channels.getStoredFiles(), msg);
+                return;
+            }
+            String filename = ((StoredFileMessage) msg).getFilename();
+            log.debug("Received notification that '{}' has been stored", filename);
+            List<ArchiveFile> newFiles = FileNameHarvester.addFilenames(Collections.singletonList(filename));
+            IndexerQueue.getInstance().add(newFiles);
+        } catch (Exception e) { // Fault Barrier
+            log.warn("Failed to handle stored file message", e);
+        }
+    }
+}
@@ -51,6 +51,9 @@ import dk.netarkivet.wayback.WaybackSettings;
  * <p>
  * Simultaneously there is a family of consumer threads which wait for the queue to be populated and take elements from
  * it and index them.
+ * <p>
+ * Unless disabled in the settings, a StoredFileListener also adds files to the queue as soon as the ArcRepository
+ * announces that they have been stored, so the producer thread only needs to catch files which were missed.
  */
 public class WaybackIndexer implements CleanupIF {
 
@@ -60,6 +63,9 @@ public class WaybackIndexer implements CleanupIF {
     /** The singleton instance of this class. */
     private static WaybackIndexer instance;
 
+    /** The listener for stored files, or null if the indexer does not listen for them. */
+    private StoredFileListener storedFileListener;
+
     /**
      * Factory method which creates a singleton wayback indexer and sets it running. It has the side effect of creating
      * the output directories for the indexer if these do not already exist. It also reads files for the initial ingest
@@ -85,6 +91,10 @@ public class WaybackIndexer implements CleanupIF {
         ingestInitialFiles();
         startProducerThread();
         startConsumerThreads();
+        if (Settings.getBoolean(WaybackSettings.WAYBACK_INDEXER_LISTEN_FOR_STORED_FILES)) {
+            storedFileListener = new StoredFileListener();
+            storedFileListener.start();
+        }
     }
 
     /**
@@ -194,6 +204,9 @@ public class WaybackIndexer implements CleanupIF {
      */
     public void cleanup() {
         log.info("Cleaning up WaybackIndexer");
+        if (storedFileListener != null) {
+            storedFileListener.close();
+        }
         File temporaryBatchDir = Settings.getFile(WaybackSettings.WAYBACK_INDEX_TEMPDIR);
         FileUtils.removeRecursively(temporaryBatchDir);
         HibernateUtil.getSession().getSessionFactory().close();
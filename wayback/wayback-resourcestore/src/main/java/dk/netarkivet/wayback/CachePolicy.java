@@ -0,0 +1,67 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A replacement policy for the {@link SizeBoundedFileCache}. The policy decides which cached file to evict when the
+ * cache exceeds its size limits.
+ * <p>
+ * Implementations must be thread-safe. {@link #recordAccess(String)} is called on every lookup in the cache without
+ * any locking, and should therefore be cheap. {@link #selectVictims(Collection, String)} and
+ * {@link #recordRemoval(String)} are only called by one thread at a time.
+ * <p>
+ * Implementations must have a public no-argument constructor, as the policy is instantiated from the setting
+ * {@link WaybackSettings#WAYBACK_RESOURCESTORE_CACHE_POLICY}.
+ */
+public interface CachePolicy {
+
+    /**
+     * Record a lookup of the given key, whether or not it is present in the cache.
+     *
+     * @param key The key being looked up.
+     */
+    void recordAccess(String key);
+
+    /**
+     * Record that the given key has been removed from the cache.
+     *
+     * @param key The key removed.
+     */
+    void recordRemoval(String key);
+
+    /**
+     * Order the entries of the cache for eviction. The cache evicts entries in the returned order until it is within
+     * its limits, so all the entries evicted at one time are selected from a single ordering.
+     *
+     * @param entries The entries currently in the cache.
+     * @param candidate The key of the entry that has just been added, and which caused the eviction. This entry must
+     * not be selected. May be null if the eviction was not caused by adding an entry.
+     * @return The entries which may be evicted, the first to evict first. Empty if no entry can be evicted.
+     */
+    List<SizeBoundedFileCache.CacheEntry> selectVictims(Collection<SizeBoundedFileCache.CacheEntry> entries,
+            String candidate);
+
+}
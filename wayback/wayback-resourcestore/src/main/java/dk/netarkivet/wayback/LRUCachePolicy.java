@@ -0,0 +1,81 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A cache policy that evicts the least recently used file.
+ */
+public class LRUCachePolicy implements CachePolicy {
+
+    /** Recency is kept by the cache entries themselves, so nothing is recorded here. */
+    @Override
+    public void recordAccess(String key) {
+    }
+
+    @Override
+    public void recordRemoval(String key) {
+    }
+
+    @Override
+    public List<SizeBoundedFileCache.CacheEntry> selectVictims(Collection<SizeBoundedFileCache.CacheEntry> entries,
+            String candidate) {
+        return sortByRecency(entries, candidate);
+    }
+
+    /**
+     * Sort the entries of the cache by the time of their last access. The access times are read once before sorting,
+     * so the order is consistent even if entries are accessed meanwhile.
+     *
+     * @param entries The entries currently in the cache.
+     * @param candidate The key of an entry to leave out. May be null.
+     * @return The entries, except the candidate, with the least recently used first.
+     */
+    static List<SizeBoundedFileCache.CacheEntry> sortByRecency(Collection<SizeBoundedFileCache.CacheEntry> entries,
+            String candidate) {
+        final Map<SizeBoundedFileCache.CacheEntry, Long> lastAccess =
+                new HashMap<SizeBoundedFileCache.CacheEntry, Long>();
+        for (SizeBoundedFileCache.CacheEntry entry : entries) {
+            if (!entry.getKey().equals(candidate)) {
+                lastAccess.put(entry, entry.getLastAccess());
+            }
+        }
+        List<SizeBoundedFileCache.CacheEntry> byRecency = new ArrayList<SizeBoundedFileCache.CacheEntry>(
+                lastAccess.keySet());
+        Collections.sort(byRecency, new Comparator<SizeBoundedFileCache.CacheEntry>() {
+            @Override
+            public int compare(SizeBoundedFileCache.CacheEntry o1, SizeBoundedFileCache.CacheEntry o2) {
+                return Long.compare(lastAccess.get(o1), lastAccess.get(o2));
+            }
+        });
+        return byRecency;
+    }
+
+}
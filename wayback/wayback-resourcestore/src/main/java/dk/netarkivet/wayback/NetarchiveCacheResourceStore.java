@@ -23,49 +23,105 @@
 package dk.netarkivet.wayback;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.archive.wayback.ResourceStore;
 import org.archive.wayback.core.CaptureSearchResult;
 import org.archive.wayback.core.Resource;
 import org.archive.wayback.exception.ResourceNotAvailableException;
 import org.archive.wayback.resourcestore.resourcefile.ResourceFactory;
 
 import dk.netarkivet.common.CommonSettings;
-import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
+import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
 import dk.netarkivet.common.distribute.arcrepository.Replica;
-import dk.netarkivet.common.distribute.arcrepository.ViewerArcRepositoryClient;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.SettingsFactory;
 
 /**
  * This is the connector between netarchivesuite and wayback. And is based on the NetarchiveResourceStore, and the
  * implementations of ResourceStore distributed with wayback-1.4.2.
+ * <p>
+ * By default, a request for a record in a file which is not in the cache fetches the entire file into the cache. If
+ * the setting {@link WaybackSettings#WAYBACK_RESOURCESTORE_RECORDCACHE_PROMOTION_THRESHOLD} is positive, the store
+ * runs in hybrid mode instead: Only the requested record is fetched, and its data is kept in a separate record cache.
+ * Once that number of records have been fetched from the same file, the file is promoted, and the entire file is
+ * fetched into the file cache.
  */
-public class NetarchiveCacheResourceStore implements ResourceStore {
+public class NetarchiveCacheResourceStore extends NetarchiveResourceStore {
 
-    /** JMS ArcRepositoryClient. */
-    private ViewerArcRepositoryClient client;
+    /** Name of the subdirectory of the cache directory holding the record cache. */
+    private static final String RECORD_CACHE_DIR_NAME = "records";
+    /** Separator between filename and offset in the keys of the record cache. */
+    private static final String RECORD_KEY_SEPARATOR = "@";
+    /** The maximum number of files to count record fetches for, before all the counts are reset. */
+    private static final int MAX_COUNTED_FILES = 100000;
 
     /** Logger. */
     private Log logger = LogFactory.getLog(getClass().getName());
     /** The filecache being used by this class. */
-    private LRUCache fileCache;
+    private SizeBoundedFileCache fileCache;
+    /** The cache of single records, or null if not running in hybrid mode. */
+    private SizeBoundedFileCache recordCache;
+    /** The number of records fetched from a file before the entire file is fetched, or 0 if not in hybrid mode. */
+    private final int promotionThreshold;
     /** The replica being used by this class. */
     private Replica replicaUsed;
+    /**
+     * The downloads currently in progress, keyed by filename or record key. Requests for a file or record that is
+     * being fetched wait on the existing download instead of starting a new one.
+     */
+    private final ConcurrentMap<String, FutureTask<File>> downloads = new ConcurrentHashMap<String, FutureTask<File>>();
+    /** The number of records fetched from each file not in the file cache, in hybrid mode. */
+    private final ConcurrentMap<String, AtomicInteger> recordFetchCounts = new ConcurrentHashMap<String, AtomicInteger>();
+    /** The number of requests served from a file already in the cache. */
+    private final AtomicLong cacheHits = new AtomicLong();
+    /** The number of requests that had to fetch the file from the archive, or wait for another request doing so. */
+    private final AtomicLong cacheMisses = new AtomicLong();
+    /** The number of requests served from a record already in the record cache. */
+    private final AtomicLong recordCacheHits = new AtomicLong();
+    /** The number of requests that fetched a single record from the archive. */
+    private final AtomicLong recordFetches = new AtomicLong();
+    /** The number of files fetched into the file cache, because enough of their records had been requested. */
+    private final AtomicLong promotions = new AtomicLong();
 
     /**
      * Constructor. Initiates the caching mechanism.
      */
     public NetarchiveCacheResourceStore() {
-        fileCache = LRUCache.getInstance();
-        client = ArcRepositoryClientFactory.getViewerInstance();
+        fileCache = SizeBoundedFileCache.getInstance();
         replicaUsed = Replica.getReplicaFromId(Settings.get(CommonSettings.USE_REPLICA_ID));
+        promotionThreshold = Settings.getInt(WaybackSettings.WAYBACK_RESOURCESTORE_RECORDCACHE_PROMOTION_THRESHOLD);
+        if (promotionThreshold > 0) {
+            recordCache = new SizeBoundedFileCache(new File(fileCache.getCacheDir(), RECORD_CACHE_DIR_NAME),
+                    Settings.getLong(WaybackSettings.WAYBACK_RESOURCESTORE_RECORDCACHE_MAXSIZE)
+                            * SizeBoundedFileCache.BYTES_PER_MB, 0,
+                    SettingsFactory.<CachePolicy>getInstance(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_POLICY));
+            logger.info("Running in hybrid mode. Files are fetched after " + promotionThreshold
+                    + " of their records have been fetched.");
+        }
     }
 
     /**
      * Transforms search result into a resource, according to the ResourceStore interface.
+     * <p>
+     * Cache hits are served without any locking. On a cache miss the file or record is fetched from the archive
+     * exactly once; concurrent requests for the same file or record wait for that download, while requests for other
+     * files are unaffected.
      *
      * @param captureSearchResult the search result.
      * @return a valid resource containing metadata and a link to the ARC or warc-record
@@ -79,42 +135,279 @@ public class NetarchiveCacheResourceStore implements ResourceStore {
 
         logger.info("Received request for resource from file '" + arcfile + "' at offset '" + offset + "'");
 
-        // Try to lookup the file in the cache
-        // make synchronized to disallow more than one using
-        // the cache at any one time
-        synchronized (fileCache) {
+        try {
             File wantedFile = fileCache.get(arcfile);
-            try {
-                if (wantedFile != null && wantedFile.exists()) {
-                    logger.debug("Found the file '" + arcfile + "' in the cache. ");
-                    return ResourceFactory.getResource(wantedFile, offset);
-                } else {
-                    logger.debug("The file '" + arcfile + "' was not found in the cache. ");
-                    // Get file from bitarchive, and place it in the cachedir
-                    // directory
-                    File fileFromBitarchive = new File(fileCache.getCacheDir(), arcfile);
-                    client.getFile(arcfile, replicaUsed, fileFromBitarchive);
-                    // put into the cache
-                    fileCache.put(arcfile, fileFromBitarchive);
-                    logger.info("File '" + arcfile + "' downloaded from archive and put into the cache '"
-                            + fileCache.getCacheDir().getAbsolutePath() + "'.");
-                    return ResourceFactory.getResource(fileFromBitarchive, offset);
+            if (wantedFile != null && wantedFile.exists()) {
+                logger.debug("Found the file '" + arcfile + "' in the cache. ");
+                cacheHits.incrementAndGet();
+            } else if (recordCache != null && !downloads.containsKey(arcfile) && !shouldPromote(arcfile, offset)) {
+                return retrieveRecord(captureSearchResult, arcfile, offset);
+            } else {
+                logger.debug("The file '" + arcfile + "' was not found in the cache. ");
+                cacheMisses.incrementAndGet();
+                wantedFile = fetchFile(arcfile);
+            }
+            return ResourceFactory.getResource(wantedFile, offset);
+        } catch (IOException e) {
+            logger.error("Error looking for non existing resource", e);
+            throw new ResourceNotAvailableException(this.getClass().getName() + "Throws Exception when accessing "
+                    + "CaptureResult given from Wayback.");
+        }
+    }
+
+    /**
+     * Decide whether a request for a record in a file not in the file cache should fetch the entire file. This is the
+     * case when the record is not in the record cache, and enough other records have been fetched from the file.
+     *
+     * @param arcfile The name of the file.
+     * @param offset The offset of the requested record.
+     * @return true if the file should be fetched, false if just the record should be used.
+     */
+    boolean shouldPromote(String arcfile, long offset) {
+        if (recordCache.contains(getRecordKey(arcfile, offset))) {
+            return false;
+        }
+        if (recordFetchCounts.size() > MAX_COUNTED_FILES) {
+            // Forget old counts rather than growing without bounds.
+            recordFetchCounts.clear();
+        }
+        AtomicInteger count = recordFetchCounts.get(arcfile);
+        if (count == null) {
+            AtomicInteger newCount = new AtomicInteger();
+            count = recordFetchCounts.putIfAbsent(arcfile, newCount);
+            if (count == null) {
+                count = newCount;
+            }
+        }
+        if (count.incrementAndGet() > promotionThreshold) {
+            recordFetchCounts.remove(arcfile);
+            promotions.incrementAndGet();
+            logger.info("Promoting '" + arcfile + "' to the file cache, as more than " + promotionThreshold
+                    + " of its records have been requested.");
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Get a record from the record cache, fetching it from the archive if it is not there.
+     *
+     * @param captureSearchResult the search result.
+     * @param arcfile The name of the file containing the record.
+     * @param offset The offset of the record in the file.
+     * @return a valid resource containing metadata and a link to the ARC or warc-record
+     * @throws IOException If the record could not be fetched or read.
+     * @throws ResourceNotAvailableException If the record could not be parsed.
+     */
+    private Resource retrieveRecord(CaptureSearchResult captureSearchResult, final String arcfile, final long offset)
+            throws IOException, ResourceNotAvailableException {
+        final String key = getRecordKey(arcfile, offset);
+        File recordFile = recordCache.get(key);
+        if (recordFile != null && recordFile.exists()) {
+            logger.debug("Found the record '" + key + "' in the record cache.");
+            recordCacheHits.incrementAndGet();
+        } else {
+            logger.debug("The record '" + key + "' was not found in the record cache.");
+            recordFetches.incrementAndGet();
+            recordFile = fetchOnce(key, new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    BitarchiveRecord record = client.get(arcfile, offset);
+                    if (record == null) {
+                        throw new IOException("Bitarchive didn't return the record '" + key + "'");
+                    }
+                    File downloadFile = recordCache.getDownloadFile(key);
+                    File cachedRecord = new File(recordCache.getCacheDir(), key);
+                    OutputStream out = new FileOutputStream(downloadFile);
+                    try {
+                        record.getData(out);
+                    } finally {
+                        out.close();
+                    }
+                    FileUtils.moveFile(downloadFile, cachedRecord);
+                    recordCache.put(key, cachedRecord);
+                    return cachedRecord;
                 }
-            } catch (IOException e) {
-                logger.error("Error looking for non existing resource", e);
-                throw new ResourceNotAvailableException(this.getClass().getName() + "Throws Exception when accessing "
-                        + "CaptureResult given from Wayback.");
+            });
+        }
+        InputStream in = new CloseOnEndInputStream(new FileInputStream(recordFile));
+        boolean created = false;
+        try {
+            Resource resource = createResource(captureSearchResult, arcfile, offset, in, recordFile.length());
+            created = true;
+            return resource;
+        } finally {
+            if (!created) {
+                IOUtils.closeQuietly(in);
             }
         }
     }
 
     /**
-     * Shuts down this resource store, closing the arcrepository client.
+     * Get the given file from the bitarchive and place it in the cache. If a download of the file is already in
+     * progress, this waits for that download to finish rather than starting a new one.
      *
-     * @throws IOException if an exception ocurred while closing the client.
+     * @param arcfile The name of the file to fetch.
+     * @return The file in the cache directory.
+     * @throws IOException If the download failed or was interrupted.
+     */
+    private File fetchFile(final String arcfile) throws IOException {
+        return fetchOnce(arcfile, new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                // Get file from bitarchive, and place it in the cachedir directory
+                File downloadFile = fileCache.getDownloadFile(arcfile);
+                File fileFromBitarchive = new File(fileCache.getCacheDir(), arcfile);
+                client.getFile(arcfile, replicaUsed, downloadFile);
+                FileUtils.moveFile(downloadFile, fileFromBitarchive);
+                // put into the cache
+                fileCache.put(arcfile, fileFromBitarchive);
+                logger.info("File '" + arcfile + "' downloaded from archive and put into the cache '"
+                        + fileCache.getCacheDir().getAbsolutePath() + "'.");
+                return fileFromBitarchive;
+            }
+        });
+    }
+
+    /**
+     * Run a download, unless a download with the same key is already in progress, in which case this waits for that
+     * download to finish instead.
+     *
+     * @param key The key identifying the download.
+     * @param fetcher The download to run.
+     * @return The downloaded file.
+     * @throws IOException If the download failed or was interrupted.
+     */
+    private File fetchOnce(String key, Callable<File> fetcher) throws IOException {
+        FutureTask<File> download = new FutureTask<File>(fetcher);
+        FutureTask<File> existing = downloads.putIfAbsent(key, download);
+        if (existing == null) {
+            try {
+                download.run();
+            } finally {
+                downloads.remove(key, download);
+            }
+        } else {
+            logger.debug("'" + key + "' is already being downloaded. Waiting for it.");
+            download = existing;
+        }
+        try {
+            return download.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for download of '" + key + "'", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to download '" + key + "' from the archive", e.getCause());
+        }
+    }
+
+    /**
+     * @param arcfile The name of a file.
+     * @param offset The offset of a record in the file.
+     * @return The key of the record in the record cache.
+     */
+    private static String getRecordKey(String arcfile, long offset) {
+        return arcfile + RECORD_KEY_SEPARATOR + offset;
+    }
+
+    /**
+     * @return The number of requests served directly from the cache since this resource store was created.
      */
-    public void shutdown() throws IOException {
-        // Close JMS connection.
-        client.close();
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return The number of requests that were not served directly from the cache since this resource store was
+     * created.
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * @return The number of files and records currently being downloaded into the caches.
+     */
+    public int getDownloadsInFlight() {
+        return downloads.size();
+    }
+
+    /**
+     * @return The number of requests served from the record cache since this resource store was created.
+     */
+    public long getRecordCacheHits() {
+        return recordCacheHits.get();
+    }
+
+    /**
+     * @return The number of single records fetched from the archive since this resource store was created.
+     */
+    public long getRecordFetches() {
+        return recordFetches.get();
+    }
+
+    /**
+     * @return The number of files fetched because enough of their records had been requested.
+     */
+    public long getPromotions() {
+        return promotions.get();
+    }
+
+    /**
+     * An input stream which closes itself when the end of the stream is reached. The data of a cached record is read
+     * by an ARCRecord, which reads the record to the end, but never closes the underlying stream.
+     */
+    private static class CloseOnEndInputStream extends FilterInputStream {
+        /** Whether the stream has been closed. */
+        private boolean closed = false;
+
+        /**
+         * @param in The stream to read.
+         */
+        CloseOnEndInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (closed) {
+                return -1;
+            }
+            int b = super.read();
+            if (b == -1) {
+                close();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                return -1;
+            }
+            int n = super.read(b, off, len);
+            if (n == -1) {
+                close();
+            }
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return closed ? 0 : super.available();
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            return closed ? 0 : super.skip(n);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                super.close();
+            }
+        }
     }
 }
@@ -77,10 +77,6 @@ public class NetarchiveResourceStore implements ResourceStore {
      */
     public Resource retrieveResource(CaptureSearchResult captureSearchResult) throws ResourceNotAvailableException {
         long offset;
-        String responseCode = null;
-        Map<String, Object> metadata = new HashMap<String, Object>();
-        ARCRecord arcRecord;
-        ArchiveRecordHeader header;
 
         String arcfile = captureSearchResult.getFile();
         try {
@@ -102,7 +98,28 @@ public class NetarchiveResourceStore implements ResourceStore {
         }
         logger.info("Retrieved resource from file '" + arcfile + "' at offset '" + offset + "'");
 
-        InputStream is = bitarchiveRecord.getData();
+        return createResource(captureSearchResult, arcfile, offset, bitarchiveRecord.getData(),
+                bitarchiveRecord.getLength());
+    }
+
+    /**
+     * Creates a resource from the data of a record, as returned by {@link BitarchiveRecord#getData()}.
+     *
+     * @param captureSearchResult the search result the record was found from.
+     * @param arcfile the name of the file containing the record.
+     * @param offset the offset of the record in the file.
+     * @param is the data of the record. It is closed when the returned resource is closed.
+     * @param length the length of the data of the record.
+     * @return a valid resource containing metadata and a link to the ARC record.
+     * @throws ResourceNotAvailableException if the data could not be parsed as a record.
+     */
+    protected Resource createResource(CaptureSearchResult captureSearchResult, String arcfile, long offset,
+            final InputStream is, long length) throws ResourceNotAvailableException {
+        String responseCode = null;
+        Map<String, Object> metadata = new HashMap<String, Object>();
+        ARCRecord arcRecord;
+        ArchiveRecordHeader header;
+
         // Match header-lines (until empty line).
         try {
             for (String line = InputStreamUtils.readLine(is); line != null && line.length() > 0; line = InputStreamUtils
@@ -155,7 +172,7 @@ public class NetarchiveResourceStore implements ResourceStore {
         metadata.put(ARCRecordMetaData.MIMETYPE_FIELD_KEY, captureSearchResult.getMimeType());
         metadata.put(ARCRecordMetaData.VERSION_FIELD_KEY, captureSearchResult.getHttpCode());
         metadata.put(ARCRecordMetaData.ABSOLUTE_OFFSET_KEY, "" + offset);
-        metadata.put(ARCRecordMetaData.LENGTH_FIELD_KEY, "" + bitarchiveRecord.getLength());
+        metadata.put(ARCRecordMetaData.LENGTH_FIELD_KEY, "" + length);
         if (responseCode != null) {
             metadata.put(ARCRecordMetaData.STATUSCODE_FIELD_KEY, responseCode);
         }
@@ -189,6 +206,14 @@ public class NetarchiveResourceStore implements ResourceStore {
             public int getStatusCode() {
                 return Integer.parseInt(statusCode);
             }
+
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    is.close();
+                }
+            }
             // FIXME incompatible, needed?
             /*
             @Override
@@ -0,0 +1,397 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.SettingsFactory;
+
+/**
+ * A cache of files in a local directory, bounded by the total size of the cached files and optionally by their
+ * number. Which file to evict when the cache is full is decided by a pluggable {@link CachePolicy}.
+ * <p>
+ * The contents of the cache is the contents of the cache directory. When the cache is created, it is initialised with
+ * the files already in the directory, using their last modification time as their last access time. The modification
+ * time of a cached file is updated when it is used, so the recency order survives a restart.
+ * <p>
+ * This class is thread-safe. Lookups are lock-free, so any number of threads can use cached files concurrently.
+ * Changes to the cache are serialised.
+ */
+public class SizeBoundedFileCache {
+    /** Suffix of the files in the cache directory which are being downloaded, and are not part of the cache yet. */
+    public static final String DOWNLOAD_SUFFIX = ".download";
+    /** How often the modification time of a cached file is updated, when the file is used (in milliseconds). */
+    private static final long TOUCH_INTERVAL = 60 * 1000L;
+    /** Number of bytes in a megabyte. */
+    static final long BYTES_PER_MB = 1024L * 1024L;
+
+    /** The instance of this class. */
+    private static SizeBoundedFileCache instance = null;
+
+    /** The entries in the cache, by key. */
+    private final ConcurrentMap<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>();
+    /** The total size in bytes of the files in the cache. */
+    private final AtomicLong usedBytes = new AtomicLong();
+    /** The maximum total size in bytes of the files in the cache. */
+    private final long maxBytes;
+    /** The maximum number of files in the cache, or 0 for no limit. */
+    private final int maxFiles;
+    /** The directory containing the cached files. */
+    private final File cacheDir;
+    /** The policy choosing which files to evict. */
+    private final CachePolicy policy;
+    /** The time of the latest access to the cache. Used for giving every access a distinct time. */
+    private final AtomicLong clock = new AtomicLong();
+
+    /** Logger. */
+    private Log logger = LogFactory.getLog(getClass().getName());
+
+    /**
+     * Creates a new cache, using filename as the key, and the cached file as the value. The cache is initialised with
+     * the files in the given directory. If these exceed the limits of the cache, files are evicted until they don't.
+     *
+     * @param dir The directory where the files are stored.
+     * @param maxBytes The maximum total size in bytes of the files in the cache.
+     * @param maxFiles The maximum number of files in the cache, or 0 for no limit.
+     * @param policy The policy choosing which files to evict.
+     * @throws ArgumentNotValid if maxBytes is not positive, maxFiles is negative, any other argument is null, or the
+     * directory cannot be created.
+     */
+    public SizeBoundedFileCache(File dir, long maxBytes, int maxFiles, CachePolicy policy) {
+        ArgumentNotValid.checkNotNull(dir, "File dir");
+        ArgumentNotValid.checkPositive(maxBytes, "long maxBytes");
+        ArgumentNotValid.checkNotNegative(maxFiles, "int maxFiles");
+        ArgumentNotValid.checkNotNull(policy, "CachePolicy policy");
+        dir.mkdirs();
+        ArgumentNotValid.checkTrue(dir.exists(), "Cachedir '" + dir.getAbsolutePath() + "' does not exist");
+
+        this.cacheDir = dir;
+        this.maxBytes = maxBytes;
+        this.maxFiles = maxFiles;
+        this.policy = policy;
+
+        logger.info("Initializing the cache with the contents of the cachedir '" + cacheDir.getAbsolutePath() + "'");
+        File[] cachedirFiles = cacheDir.listFiles();
+        if (cachedirFiles == null) {
+            cachedirFiles = new File[0];
+        }
+        synchronized (this) {
+            for (File cachefile : cachedirFiles) {
+                if (!cachefile.isFile()) {
+                    continue;
+                }
+                if (cachefile.getName().endsWith(DOWNLOAD_SUFFIX)) {
+                    logger.info("Deleting incomplete download '" + cachefile.getAbsolutePath() + "' from cache.");
+                    if (!cachefile.delete()) {
+                        logger.warn("Unable to delete incomplete download from cache: " + cachefile);
+                    }
+                    continue;
+                }
+                CacheEntry entry = new CacheEntry(cachefile.getName(), cachefile, cachefile.length(),
+                        cachefile.lastModified());
+                entries.put(entry.getKey(), entry);
+                usedBytes.addAndGet(entry.getSize());
+                clock.set(Math.max(clock.get(), entry.getLastAccess()));
+            }
+            evictIfNeeded(null);
+        }
+        logger.info("The contents of the cache is now " + entries.size() + " files, using " + usedBytes.get()
+                + " of " + maxBytes + " bytes");
+    }
+
+    /**
+     * Constructor, where the arguments for the primary constructor is read from settings.
+     */
+    public SizeBoundedFileCache() {
+        this(new File(Settings.get(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_DIR)), Settings
+                .getLong(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXSIZE) * BYTES_PER_MB, Settings
+                .getInt(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_MAXFILES), SettingsFactory
+                .<CachePolicy>getInstance(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_POLICY));
+    }
+
+    /**
+     * @return instance of our Cache
+     */
+    public static synchronized SizeBoundedFileCache getInstance() {
+        if (instance == null) {
+            instance = new SizeBoundedFileCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Retrieves a file from the cache. The lookup is recorded as an access to the file.
+     *
+     * @param key the key whose associated file is to be returned.
+     * @return the file associated to this key, or null if no file with this key exists in the cache.
+     */
+    public File get(String key) {
+        policy.recordAccess(key);
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        entry.touch(tick());
+        return entry.getFile();
+    }
+
+    /**
+     * Checks whether a file is in the cache. Unlike {@link #get(String)}, this is not recorded as an access to the file.
+     *
+     * @param key the key to look for.
+     * @return true if a file with this key exists in the cache.
+     */
+    public boolean contains(String key) {
+        return entries.containsKey(key);
+    }
+
+    /**
+     * Adds a file to this cache. If a file with the specified key already exists in the cache, it is replaced by the
+     * new file. If the cache then exceeds its limits, files chosen by the cache policy are evicted and deleted. The new
+     * file itself is never evicted by this call, even if it alone exceeds the limits of the cache.
+     *
+     * @param key the key with which the specified file is to be associated.
+     * @param file the file, which must be in the cache directory.
+     */
+    public synchronized void put(String key, File file) {
+        ArgumentNotValid.checkNotNullOrEmpty(key, "String key");
+        ArgumentNotValid.checkNotNull(file, "File file");
+        CacheEntry entry = new CacheEntry(key, file, file.length(), tick());
+        CacheEntry old = entries.put(key, entry);
+        usedBytes.addAndGet(entry.getSize());
+        if (old != null) {
+            usedBytes.addAndGet(-old.getSize());
+            if (!old.getFile().equals(file)) {
+                deleteFile(old.getFile());
+            }
+        }
+        if (entry.getSize() > maxBytes) {
+            logger.warn("The file '" + file.getAbsolutePath() + "' of " + entry.getSize()
+                    + " bytes is larger than the entire cache of " + maxBytes + " bytes");
+        }
+        evictIfNeeded(key);
+    }
+
+    /**
+     * Removes a file from the cache and deletes it.
+     *
+     * @param key The key of the file to remove.
+     */
+    public synchronized void remove(String key) {
+        CacheEntry entry = entries.get(key);
+        if (entry != null) {
+            evict(entry);
+        }
+    }
+
+    /**
+     * Clears the cache. The cached files are left in the cache directory.
+     */
+    public synchronized void clear() {
+        for (String key : entries.keySet()) {
+            policy.recordRemoval(key);
+        }
+        entries.clear();
+        usedBytes.set(0);
+    }
+
+    /**
+     * Returns the number of used entries in the cache.
+     *
+     * @return the number of entries currently in the cache.
+     */
+    public int usedEntries() {
+        return entries.size();
+    }
+
+    /**
+     * @return the total size in bytes of the files currently in the cache.
+     */
+    public long usedBytes() {
+        return usedBytes.get();
+    }
+
+    /**
+     * @return the maximum total size in bytes of the files in the cache.
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * @return the cacheDir
+     */
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Get the file to download a file into before it is added to the cache. Such files are not picked up as part of
+     * the cache if the cache is reinitialised before the download has completed.
+     *
+     * @param key The key of the file to download.
+     * @return A file in the cache directory.
+     */
+    public File getDownloadFile(String key) {
+        return new File(cacheDir, key + DOWNLOAD_SUFFIX);
+    }
+
+    /**
+     * Get the current time for an access to the cache. Accesses at the same time get distinct, increasing values, so
+     * the order of accesses is always known.
+     *
+     * @return The current time in milliseconds since the epoch, or slightly later.
+     */
+    private long tick() {
+        while (true) {
+            long last = clock.get();
+            long now = Math.max(System.currentTimeMillis(), last + 1);
+            if (clock.compareAndSet(last, now)) {
+                return now;
+            }
+        }
+    }
+
+    /**
+     * Evict files chosen by the cache policy until the cache is within its limits. The policy orders the files once,
+     * and the files are evicted in that order.
+     *
+     * @param candidate The key of the entry that has just been added, which must not be evicted. May be null.
+     */
+    private void evictIfNeeded(String candidate) {
+        if (!exceedsLimits()) {
+            return;
+        }
+        Iterator<CacheEntry> victims = policy.selectVictims(entries.values(), candidate).iterator();
+        while (exceedsLimits() && victims.hasNext()) {
+            evict(victims.next());
+        }
+    }
+
+    /**
+     * @return Whether the cache holds more bytes or files than allowed.
+     */
+    private boolean exceedsLimits() {
+        return usedBytes.get() > maxBytes || (maxFiles > 0 && entries.size() > maxFiles);
+    }
+
+    /**
+     * Remove an entry from the cache and delete its file.
+     *
+     * @param entry The entry to remove.
+     */
+    private void evict(CacheEntry entry) {
+        if (entries.remove(entry.getKey(), entry)) {
+            usedBytes.addAndGet(-entry.getSize());
+            policy.recordRemoval(entry.getKey());
+            logger.info("Deleting file '" + entry.getFile().getAbsolutePath() + "' from cache.");
+            deleteFile(entry.getFile());
+        }
+    }
+
+    /**
+     * Delete a file that is no longer in the cache.
+     *
+     * @param file The file to delete.
+     */
+    private void deleteFile(File file) {
+        if (file.exists() && !file.delete()) {
+            logger.warn("Unable to delete file from cache: " + file);
+        }
+    }
+
+    /**
+     * An entry in the cache.
+     */
+    public static final class CacheEntry {
+        /** The key of the entry. */
+        private final String key;
+        /** The cached file. */
+        private final File file;
+        /** The size of the cached file in bytes, when it was added. */
+        private final long size;
+        /** The time of the last access to the entry. */
+        private volatile long lastAccess;
+        /** The time the modification time of the file was last updated. */
+        private volatile long lastTouched;
+
+        /**
+         * Create an entry.
+         *
+         * @param key The key of the entry.
+         * @param file The cached file.
+         * @param size The size of the cached file in bytes.
+         * @param lastAccess The time of the last access to the entry.
+         */
+        CacheEntry(String key, File file, long size, long lastAccess) {
+            this.key = key;
+            this.file = file;
+            this.size = size;
+            this.lastAccess = lastAccess;
+            this.lastTouched = lastAccess;
+        }
+
+        /**
+         * Record an access to this entry. The modification time of the file is updated now and then, so the recency
+         * of the file can be restored after a restart.
+         *
+         * @param now The time of the access.
+         */
+        void touch(long now) {
+            lastAccess = now;
+            if (now - lastTouched > TOUCH_INTERVAL) {
+                lastTouched = now;
+                file.setLastModified(now);
+            }
+        }
+
+        /** @return The key of the entry. */
+        public String getKey() {
+            return key;
+        }
+
+        /** @return The cached file. */
+        public File getFile() {
+            return file;
+        }
+
+        /** @return The size of the cached file in bytes. */
+        public long getSize() {
+            return size;
+        }
+
+        /** @return The time of the last access to the entry, in milliseconds since the epoch. */
+        public long getLastAccess() {
+            return lastAccess;
+        }
+    }
+}
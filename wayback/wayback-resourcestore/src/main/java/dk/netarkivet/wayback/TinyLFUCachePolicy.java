@@ -0,0 +1,197 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A frequency based cache policy in the style of W-TinyLFU.
+ * <p>
+ * The access frequency of every key looked up in the cache, including keys not currently cached, is estimated by a
+ * small count-min sketch. The counters are halved at regular intervals, so the estimates favour recent popularity.
+ * <p>
+ * The most recently used part of the cache is a window of files that are only evicted when all other files are gone.
+ * This gives newly fetched files a chance to build up a frequency. When the cache must evict, the files outside the
+ * window with the lowest estimated frequency are evicted first, with ties broken by least recent use. A burst of
+ * one-off requests therefore only displaces other rarely used files, and does not flush files that are requested
+ * again and again.
+ * <p>
+ * Classic TinyLFU rejects a new entry whose frequency is lower than that of the victim. That is not possible here,
+ * since a fetched file is needed to serve the request that fetched it, so the admission decision is made at eviction
+ * time instead.
+ */
+public class TinyLFUCachePolicy implements CachePolicy {
+
+    /** The default fraction of the cached files, by recency, which is protected from eviction. */
+    private static final double DEFAULT_WINDOW_FRACTION = 0.2;
+    /** The default number of counters in each row of the sketch. */
+    private static final int DEFAULT_SKETCH_WIDTH = 1 << 16;
+    /** The number of rows, i.e. independent hash functions, in the sketch. */
+    private static final int SKETCH_DEPTH = 4;
+    /** Seeds for the hash function of each row of the sketch. */
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    /** The fraction of the cached files, by recency, which is protected from eviction. */
+    private final double windowFraction;
+    /** The number of counters in each row of the sketch. Always a power of two. */
+    private final int sketchWidth;
+    /** The counters of the sketch, row by row. */
+    private final AtomicIntegerArray sketch;
+    /** The number of accesses recorded since the counters were last halved. */
+    private final AtomicInteger additions = new AtomicInteger();
+    /** The number of accesses after which all counters are halved. */
+    private final int sampleSize;
+
+    /**
+     * Create a policy with default window and sketch sizes.
+     */
+    public TinyLFUCachePolicy() {
+        this(DEFAULT_WINDOW_FRACTION, DEFAULT_SKETCH_WIDTH);
+    }
+
+    /**
+     * Create a policy.
+     *
+     * @param windowFraction The fraction of the cached files, by recency, which is protected from eviction. Must be
+     * at least 0 and less than 1.
+     * @param sketchWidth The number of counters in each row of the frequency sketch. Rounded up to a power of two.
+     */
+    public TinyLFUCachePolicy(double windowFraction, int sketchWidth) {
+        if (windowFraction < 0 || windowFraction >= 1) {
+            throw new IllegalArgumentException("The window fraction must be in [0;1[, but was " + windowFraction);
+        }
+        if (sketchWidth <= 0) {
+            throw new IllegalArgumentException("The sketch width must be positive, but was " + sketchWidth);
+        }
+        this.windowFraction = windowFraction;
+        int width = 1;
+        while (width < sketchWidth) {
+            width <<= 1;
+        }
+        this.sketchWidth = width;
+        this.sketch = new AtomicIntegerArray(SKETCH_DEPTH * this.sketchWidth);
+        this.sampleSize = 10 * this.sketchWidth;
+    }
+
+    @Override
+    public void recordAccess(String key) {
+        int hash = key.hashCode();
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            sketch.incrementAndGet(indexOf(hash, row));
+        }
+        if (additions.incrementAndGet() >= sampleSize) {
+            age();
+        }
+    }
+
+    /** Frequencies are kept for keys not in the cache too, so nothing is forgotten on removal. */
+    @Override
+    public void recordRemoval(String key) {
+    }
+
+    /**
+     * The files outside the window come first, with the lowest estimated frequency first and ties broken by least
+     * recent use. The files in the window follow, least recently used first, so the cache can always get within its
+     * limits.
+     */
+    @Override
+    public List<SizeBoundedFileCache.CacheEntry> selectVictims(Collection<SizeBoundedFileCache.CacheEntry> entries,
+            String candidate) {
+        List<SizeBoundedFileCache.CacheEntry> byRecency = LRUCachePolicy.sortByRecency(entries, candidate);
+        if (byRecency.isEmpty()) {
+            return byRecency;
+        }
+        // The least recently used files come first. The last part of the list is the protected window, but at
+        // least one file must remain a candidate for eviction.
+        int evictable = Math.max(1, byRecency.size() - (int) (byRecency.size() * windowFraction));
+        List<SizeBoundedFileCache.CacheEntry> victims = new ArrayList<SizeBoundedFileCache.CacheEntry>(
+                byRecency.subList(0, evictable));
+        final Map<SizeBoundedFileCache.CacheEntry, Integer> frequencies =
+                new HashMap<SizeBoundedFileCache.CacheEntry, Integer>();
+        for (SizeBoundedFileCache.CacheEntry entry : victims) {
+            frequencies.put(entry, estimateFrequency(entry.getKey()));
+        }
+        // The sort is stable, so entries with the same frequency stay in order of recency.
+        Collections.sort(victims, new Comparator<SizeBoundedFileCache.CacheEntry>() {
+            @Override
+            public int compare(SizeBoundedFileCache.CacheEntry o1, SizeBoundedFileCache.CacheEntry o2) {
+                return Integer.compare(frequencies.get(o1), frequencies.get(o2));
+            }
+        });
+        victims.addAll(byRecency.subList(evictable, byRecency.size()));
+        return victims;
+    }
+
+    /**
+     * Estimate how often the given key has been accessed recently.
+     *
+     * @param key The key.
+     * @return The estimated access frequency. Never less than the true number of recorded accesses since the last
+     * aging, but may be more.
+     */
+    public int estimateFrequency(String key) {
+        int hash = key.hashCode();
+        int frequency = Integer.MAX_VALUE;
+        for (int row = 0; row < SKETCH_DEPTH; row++) {
+            frequency = Math.min(frequency, sketch.get(indexOf(hash, row)));
+        }
+        return frequency;
+    }
+
+    /**
+     * Halve all counters, so old accesses gradually lose their weight. Accesses recorded concurrently with the aging
+     * may be halved too, which only makes the estimates slightly lower.
+     */
+    private synchronized void age() {
+        if (additions.get() < sampleSize) {
+            // Another thread has just aged the sketch.
+            return;
+        }
+        for (int i = 0; i < sketch.length(); i++) {
+            sketch.set(i, sketch.get(i) >>> 1);
+        }
+        additions.set(0);
+    }
+
+    /**
+     * Find the counter for a hash in a given row of the sketch.
+     *
+     * @param hash The hash code of the key.
+     * @param row The row.
+     * @return The index of the counter in the sketch.
+     */
+    private int indexOf(int hash, int row) {
+        int h = (hash ^ SEEDS[row]) * SEEDS[(row + 1) % SKETCH_DEPTH];
+        h ^= h >>> 16;
+        return row * sketchWidth + (h & (sketchWidth - 1));
+    }
+
+}
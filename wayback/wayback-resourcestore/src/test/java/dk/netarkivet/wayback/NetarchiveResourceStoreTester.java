@@ -65,6 +65,7 @@ import dk.netarkivet.common.distribute.JMSConnectionMockupMQ;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClient;
 import dk.netarkivet.common.distribute.arcrepository.ArcRepositoryClientFactory;
 import dk.netarkivet.common.distribute.arcrepository.BitarchiveRecord;
+import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.InputStreamUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.arc.ARCUtils;
@@ -121,6 +122,32 @@ public class NetarchiveResourceStoreTester {
         ArcRepository.getInstance().close();
     }
 
+    /**
+     * Test that in hybrid mode, only the requested records are fetched from a file until more records than the
+     * promotion threshold have been requested, after which the entire file is fetched.
+     */
+    @Test
+    public void testHybridModePromotionThreshold() {
+        rs.setUp();
+        try {
+            Settings.set(WaybackSettings.WAYBACK_RESOURCESTORE_CACHE_DIR,
+                    new File(TestInfo.WORKING_DIR, "cache").getAbsolutePath());
+            Settings.set(WaybackSettings.WAYBACK_RESOURCESTORE_RECORDCACHE_PROMOTION_THRESHOLD, "3");
+            NetarchiveCacheResourceStore store = new NetarchiveCacheResourceStore();
+            assertFalse("Below the threshold, only the record should be fetched", store.shouldPromote(uploadFile, 0L));
+            assertFalse("Below the threshold, only the record should be fetched", store.shouldPromote(uploadFile, 1L));
+            assertFalse("Records of other files should not count", store.shouldPromote(metadataFile, 0L));
+            assertFalse("At the threshold, only the record should be fetched", store.shouldPromote(uploadFile, 2L));
+            assertEquals("Nothing should be promoted yet", 0, store.getPromotions());
+            assertTrue("Above the threshold, the file should be fetched", store.shouldPromote(uploadFile, 3L));
+            assertEquals("The file should be counted as promoted", 1, store.getPromotions());
+            assertFalse("The count should start over after a promotion", store.shouldPromote(uploadFile, 4L));
+        } finally {
+            rs.tearDown();
+            FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+        }
+    }
+
     @Test(expected = NumberFormatException.class)
     public void testRetrieveResourceNullRecord() {
         resourceNotAvaliable.getOffset();
@@ -0,0 +1,172 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the SizeBoundedFileCache and its cache policies.
+ */
+public class SizeBoundedFileCacheTester {
+
+    private static final File CACHE_DIR = new File(TestInfo.WORKING_DIR, "filecache");
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(CACHE_DIR);
+        FileUtils.createDir(CACHE_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(TestInfo.WORKING_DIR);
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedBySize() {
+        SizeBoundedFileCache cache = new SizeBoundedFileCache(CACHE_DIR, 100, 0, new LRUCachePolicy());
+        cache.put("a", createFile("a", 40));
+        cache.put("b", createFile("b", 40));
+        assertNotNull("a should still be cached", cache.get("a"));
+        cache.put("c", createFile("c", 40));
+
+        assertNull("b was least recently used, and should be evicted", cache.get("b"));
+        assertFalse("An evicted file should be deleted", new File(CACHE_DIR, "b").exists());
+        assertNotNull("a should still be cached", cache.get("a"));
+        assertNotNull("c should still be cached", cache.get("c"));
+        assertEquals("Should account for the size of the cached files", 80, cache.usedBytes());
+    }
+
+    @Test
+    public void testContainsIsNotAnAccess() {
+        SizeBoundedFileCache cache = new SizeBoundedFileCache(CACHE_DIR, 100, 0, new LRUCachePolicy());
+        cache.put("a", createFile("a", 40));
+        cache.put("b", createFile("b", 40));
+        assertTrue("a should be cached", cache.contains("a"));
+        assertFalse("d was never cached", cache.contains("d"));
+        cache.put("c", createFile("c", 40));
+
+        assertFalse("a was least recently used, and should be evicted", cache.contains("a"));
+        assertTrue("b should still be cached", cache.contains("b"));
+    }
+
+    @Test
+    public void testEvictsSeveralFilesInOrder() {
+        SizeBoundedFileCache cache = new SizeBoundedFileCache(CACHE_DIR, 100, 0, new LRUCachePolicy());
+        cache.put("a", createFile("a", 30));
+        cache.put("b", createFile("b", 30));
+        cache.put("c", createFile("c", 30));
+        assertNotNull("a should still be cached", cache.get("a"));
+        cache.put("d", createFile("d", 50));
+
+        assertNull("b was least recently used, and should be evicted", cache.get("b"));
+        assertNull("c was next least recently used, and should be evicted", cache.get("c"));
+        assertNotNull("a should still be cached, as the cache is within its limits", cache.get("a"));
+        assertEquals("Should account for the size of the cached files", 80, cache.usedBytes());
+    }
+
+    @Test
+    public void testEvictsByNumberOfFiles() {
+        SizeBoundedFileCache cache = new SizeBoundedFileCache(CACHE_DIR, 1000, 2, new LRUCachePolicy());
+        cache.put("a", createFile("a", 1));
+        cache.put("b", createFile("b", 1));
+        cache.put("c", createFile("c", 1));
+        assertEquals("Should not keep more files than allowed", 2, cache.usedEntries());
+        assertNull("a should be evicted", cache.get("a"));
+    }
+
+    @Test
+    public void testNeverEvictsNewFile() {
+        SizeBoundedFileCache cache = new SizeBoundedFileCache(CACHE_DIR, 100, 0, new LRUCachePolicy());
+        cache.put("a", createFile("a", 40));
+        cache.put("big", createFile("big", 200));
+        assertNull("a should be evicted to make room", cache.get("a"));
+        assertNotNull("A file larger than the cache should still be kept until the next put", cache.get("big"));
+    }
+
+    @Test
+    public void testRebuildsFromCacheDir() {
+        SizeBoundedFileCache cache = new SizeBoundedFileCache(CACHE_DIR, 100, 0, new LRUCachePolicy());
+        File a = createFile("a", 30);
+        File b = createFile("b", 20);
+        cache.put("a", a);
+        cache.put("b", b);
+        long now = System.currentTimeMillis();
+        a.setLastModified(now - 20000);
+        b.setLastModified(now - 10000);
+        File download = createFile("c" + SizeBoundedFileCache.DOWNLOAD_SUFFIX, 10);
+
+        SizeBoundedFileCache restarted = new SizeBoundedFileCache(CACHE_DIR, 100, 0, new LRUCachePolicy());
+        assertEquals("Should find the files from before", 2, restarted.usedEntries());
+        assertEquals("Should find the size of the files from before", 50, restarted.usedBytes());
+        assertNotNull("a should be cached", restarted.get("a"));
+        assertNull("Incomplete downloads should not be cached", restarted.get(download.getName()));
+        assertFalse("Incomplete downloads should be deleted", download.exists());
+
+        SizeBoundedFileCache smaller = new SizeBoundedFileCache(CACHE_DIR, 25, 0, new LRUCachePolicy());
+        assertEquals("Should evict files exceeding a reduced cache size", 1, smaller.usedEntries());
+        assertNull("a was least recently used before the restart, and should be evicted", smaller.get("a"));
+    }
+
+    @Test
+    public void testTinyLFUKeepsFrequentlyUsedFile() {
+        TinyLFUCachePolicy policy = new TinyLFUCachePolicy(0, 256);
+        SizeBoundedFileCache cache = new SizeBoundedFileCache(CACHE_DIR, 100, 0, policy);
+        cache.put("popular", createFile("popular", 40));
+        for (int i = 0; i < 10; i++) {
+            assertNotNull("popular should be cached", cache.get("popular"));
+        }
+        for (int i = 0; i < 5; i++) {
+            String key = "oneoff" + i;
+            cache.get(key);
+            cache.put(key, createFile(key, 40));
+        }
+        assertNotNull("The frequently used file should survive a scan of one-off files", cache.get("popular"));
+        assertTrue("The sketch should count the accesses", policy.estimateFrequency("popular") >= 10);
+    }
+
+    /**
+     * Create a file of the given size in the cache dir.
+     *
+     * @param name The name of the file.
+     * @param size The size of the file.
+     * @return The file.
+     */
+    private File createFile(String name, int size) {
+        File file = new File(CACHE_DIR, name);
+        FileUtils.writeBinaryFile(file, new byte[size]);
+        return file;
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * #%L
+ * Netarchivesuite - wayback
+ * %%
+ * Copyright (C) 2005 - 2014 The Royal Danish Library, the Danish State and University Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.wayback.aggregator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Verifies that the <code>ExternalMergeSorter</code> sorts and merges lines in the byte order of the Unix sort command
+ * with LC_ALL=C, also when the input is spilled to disk in several runs.
+ */
+public class ExternalMergeSorterTest {
+    private static final File WORKING_DIR = new File("target" + File.separator + "test-data" + File.separator
+            + "ExternalMergeSorterTest");
+    private static final File SPILL_DIR_1 = new File(WORKING_DIR, "spill1");
+    private static final File SPILL_DIR_2 = new File(WORKING_DIR, "spill2");
+
+    @Before
+    public void setUp() {
+        FileUtils.removeRecursively(WORKING_DIR);
+        FileUtils.createDir(WORKING_DIR);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(WORKING_DIR);
+    }
+
+    @Test
+    public void testSortInMemory() throws Exception {
+        File input = writeFile("input", "b 2\na 1\n\u00e6 3\nB 4\na 1");
+        File output = new File(WORKING_DIR, "output");
+        ExternalMergeSorter sorter = new ExternalMergeSorter(2, 1024 * 1024, false, Arrays.asList(SPILL_DIR_1));
+        sorter.sort(Arrays.asList(input), output);
+        assertArrayEquals("Should sort by unsigned bytes, keep duplicates and terminate the last line",
+                "B 4\na 1\na 1\nb 2\n\u00e6 3\n".getBytes("ISO-8859-1"), FileUtils.readBinaryFile(output));
+        assertEquals("Should not spill runs for small input", 0, sorter.getRuns());
+        assertEquals("Should count the lines", 5, sorter.getLines());
+    }
+
+    @Test
+    public void testSortWithSpilledRuns() throws Exception {
+        testSpilledSort(false);
+    }
+
+    @Test
+    public void testSortWithCompressedSpilledRuns() throws Exception {
+        testSpilledSort(true);
+    }
+
+    @Test
+    public void testMerge() throws Exception {
+        File input1 = writeFile("input1", "a\nc\ne\n");
+        File input2 = writeFile("input2", "b\nc\nd");
+        File output = new File(WORKING_DIR, "output");
+        new ExternalMergeSorter(1, 1024, false, Arrays.asList(SPILL_DIR_1)).merge(Arrays.asList(input1, input2),
+                output);
+        assertEquals("Should merge the sorted files", "a\nb\nc\nc\nd\ne\n", FileUtils.readFile(output));
+        assertTrue("Should not delete the input files", input1.exists() && input2.exists());
+    }
+
+    /**
+     * Sort random lines with a run size small enough to cause more spill files than can be merged at once, and check
+     * that the result matches sorting in memory.
+     *
+     * @param compress Whether to compress the spill files.
+     */
+    private void testSpilledSort(boolean compress) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        List<File> inputs = writeRandomInputs(lines);
+        String[] expected = lines.toArray(new String[lines.size()]);
+        Arrays.sort(expected);
+        ByteArrayOutputStream expectedBytes = new ByteArrayOutputStream();
+        for (String line : expected) {
+            expectedBytes.write((line + "\n").getBytes("ISO-8859-1"));
+        }
+
+        File output = new File(WORKING_DIR, "output");
+        ExternalMergeSorter sorter = new ExternalMergeSorter(3, 256, compress, Arrays.asList(SPILL_DIR_1,
+                SPILL_DIR_2));
+        sorter.sort(inputs, output);
+
+        assertArrayEquals("Spilled sort should give the same result as sorting in memory",
+                expectedBytes.toByteArray(), FileUtils.readBinaryFile(output));
+        assertTrue("Should spill more runs than can be merged at once, but was " + sorter.getRuns(),
+                sorter.getRuns() > 64);
+        assertEquals("Should remove the spill files", 0, SPILL_DIR_1.list().length + SPILL_DIR_2.list().length);
+    }
+
+    /**
+     * Check that the intermediate files of the merge passes are removed, when the final merge fails.
+     */
+    @Test
+    public void testFailedMergeRemovesSpillFiles() throws Exception {
+        List<File> inputs = writeRandomInputs(new ArrayList<String>());
+        File output = new File(WORKING_DIR, "output");
+        FileUtils.createDir(output);
+        ExternalMergeSorter sorter = new ExternalMergeSorter(3, 256, false, Arrays.asList(SPILL_DIR_1, SPILL_DIR_2));
+        try {
+            sorter.sort(inputs, output);
+            fail("Should fail writing the output to a directory");
+        } catch (IOFailure e) {
+            // Expected
+        }
+        assertEquals("Should remove the spill files", 0, SPILL_DIR_1.list().length + SPILL_DIR_2.list().length);
+    }
+
+    /**
+     * Write three input files of random lines, enough to cause more spill files than can be merged at once with a run
+     * size of 256 bytes.
+     *
+     * @param lines The list to add the written lines to.
+     * @return The input files.
+     */
+    private List<File> writeRandomInputs(List<String> lines) throws Exception {
+        Random random = new Random(42);
+        List<File> inputs = new ArrayList<File>();
+        for (int f = 0; f < 3; f++) {
+            StringBuilder content = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                StringBuilder line = new StringBuilder();
+                int length = random.nextInt(30);
+                for (int c = 0; c < length; c++) {
+                    line.append((char) (' ' + random.nextInt(224)));
+                }
+                lines.add(line.toString());
+                content.append(line).append('\n');
+            }
+            inputs.add(writeFile("input" + f, content.toString()));
+        }
+        return inputs;
+    }
+
+    private File writeFile(String name, String content) throws Exception {
+        File file = new File(WORKING_DIR, name);
+        FileUtils.writeBinaryFile(file, content.getBytes("ISO-8859-1"));
+        return file;
+    }
+}
@@ -22,9 +22,13 @@
  */
 package dk.netarkivet.wayback.indexer;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -33,6 +37,7 @@ import org.junit.Test;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.wayback.WaybackSettings;
+import dk.netarkivet.wayback.batch.FileSeparatedBatchJob;
 
 public class ArchiveFileTester extends IndexerTestCase {
     private final File destDir = Settings.getFile(WaybackSettings.WAYBACK_BATCH_OUTPUTDIR);
@@ -76,4 +81,40 @@ public class ArchiveFileTester extends IndexerTestCase {
         File outputFile = new File(destDir, file.getOriginalIndexFileName());
         assertTrue("Should have a resonable numer of lines in output file", FileUtils.countLines(outputFile) == 15);
     }
+
+    /**
+     * Test indexing several files in one batch job, including a file which is missing from the archive.
+     */
+    @Test
+    public void testIndexerGroup() {
+        List<ArchiveFile> files = new ArrayList<ArchiveFile>();
+        for (String filename : new String[] {"arcfile_withredirects.arc", "Upload4.ARC", "missing.arc",
+                "duplicate.metadata.arc"}) {
+            ArchiveFile file = new ArchiveFile();
+            file.setFilename(filename);
+            (new ArchiveFileDAO()).create(file);
+            files.add(file);
+        }
+        ArchiveFile.index(files);
+
+        ArchiveFile arcFile = files.get(0);
+        assertTrue("Should have indexed " + arcFile.getFilename(), arcFile.isIndexed());
+        File outputFile = new File(destDir, arcFile.getOriginalIndexFileName());
+        assertTrue("Should have a resonable numer of lines in output file", FileUtils.countLines(outputFile) > 5);
+        assertFalse("Output should not contain separator lines", FileUtils.readListFromFile(outputFile).get(0)
+                .startsWith(FileSeparatedBatchJob.SEPARATOR_PREFIX));
+
+        ArchiveFile otherArcFile = files.get(1);
+        assertTrue("Should have indexed " + otherArcFile.getFilename(), otherArcFile.isIndexed());
+        assertFalse("Files should have separate indexes",
+                arcFile.getOriginalIndexFileName().equals(otherArcFile.getOriginalIndexFileName()));
+
+        ArchiveFile missingFile = files.get(2);
+        assertFalse("Should not have indexed a missing file", missingFile.isIndexed());
+        assertEquals("Missing file should have a failed attempt", 1, missingFile.getIndexingFailedAttempts());
+
+        ArchiveFile metadataFile = files.get(3);
+        outputFile = new File(destDir, metadataFile.getOriginalIndexFileName());
+        assertTrue("Should have a resonable numer of lines in output file", FileUtils.countLines(outputFile) == 15);
+    }
 }
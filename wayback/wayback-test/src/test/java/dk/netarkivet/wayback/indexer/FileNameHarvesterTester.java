@@ -24,6 +24,7 @@ package dk.netarkivet.wayback.indexer;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
@@ -48,4 +49,16 @@ public class FileNameHarvesterTester extends IndexerTestCase {
         assertEquals("There should still be four files", 6, files.size());
     }
 
+    @Test
+    public void testAddFilenames() {
+        List<ArchiveFile> added = FileNameHarvester.addFilenames(Arrays.asList("foo.arc", "bar.warc"));
+        assertEquals("Both files should be added", 2, added.size());
+        added = FileNameHarvester.addFilenames(Arrays.asList("foo.arc", "baz.arc"));
+        assertEquals("Only the unknown file should be added", 1, added.size());
+        assertEquals("The unknown file should be added", "baz.arc", added.get(0).getFilename());
+        ArchiveFileDAO dao = new ArchiveFileDAO();
+        assertEquals("All three files should be known", 3,
+                dao.getExistingFilenames(Arrays.asList("foo.arc", "bar.warc", "baz.arc", "unknown.arc")).size());
+    }
+
 }
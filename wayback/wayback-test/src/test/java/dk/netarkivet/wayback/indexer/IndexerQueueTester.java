@@ -26,6 +26,7 @@ import static org.junit.Assert.assertEquals;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.concurrent.LinkedBlockingQueue;
 
@@ -84,6 +85,20 @@ public class IndexerQueueTester extends IndexerTestCase {
         assertEquals("Queue should still have four objects in it", 4, queue.size());
     }
 
+    @Test
+    public void testAdd() throws NoSuchFieldException, IllegalAccessException {
+        ArchiveFile file = new ArchiveFile();
+        file.setFilename("foo.arc");
+        IndexerQueue.getInstance().add(Arrays.asList(file));
+        ArchiveFile sameFile = new ArchiveFile();
+        sameFile.setFilename("foo.arc");
+        sameFile.setIndexingFailedAttempts(1);
+        IndexerQueue.getInstance().add(Arrays.asList(sameFile));
+        Field queueField = ReflectUtils.getPrivateField(IndexerQueue.class, "queue");
+        LinkedBlockingQueue<ArchiveFile> queue = (LinkedBlockingQueue<ArchiveFile>) queueField.get(null);
+        assertEquals("A file should only be queued once", 1, queue.size());
+    }
+
     /**
      * testConsume has been removed from unittestersuite, as it fails.
      */